@@ -16,14 +16,18 @@
 package com.intuit.wasabi.api;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignment.AssignmentDeadline;
 import com.intuit.wasabi.assignment.Assignments;
 import com.intuit.wasabi.assignmentobjects.Assignment;
 import com.intuit.wasabi.assignmentobjects.SegmentationProfile;
 import com.intuit.wasabi.assignmentobjects.User;
 import com.intuit.wasabi.exceptions.AssignmentNotFoundException;
+import com.intuit.wasabi.exceptions.AssignmentTimeoutException;
 import com.intuit.wasabi.experimentobjects.*;
 import com.intuit.wasabi.experimentobjects.Bucket.Label;
 import io.swagger.annotations.Api;
@@ -33,14 +37,32 @@ import io.swagger.annotations.ApiParam;
 import javax.ws.rs.*;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import static com.google.common.collect.Maps.newHashMap;
 import static com.intuit.wasabi.api.APISwaggerResource.*;
 import static com.intuit.wasabi.assignmentobjects.Assignment.Status.EXPERIMENT_EXPIRED;
 import static java.lang.Boolean.FALSE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 
 /**
  * API endpoint for managing assignments
@@ -51,13 +73,22 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 @Api(value = "Assignments (Submit-Generate user(customer) bucket assignments)")
 public class AssignmentsResource {
 
+    /**
+     * Media type of newline delimited JSON
+     */
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final ObjectMapper BULK_MAPPER = new ObjectMapper();
+
     private final HttpHeader httpHeader;
     private final Assignments assignments;
+    private final long defaultTimeoutMillis;
 
     @Inject
-    AssignmentsResource(final Assignments assignments, final HttpHeader httpHeader) {
+    AssignmentsResource(final Assignments assignments, final HttpHeader httpHeader,
+                        final @Named("assignment.request.timeout.ms") Integer defaultTimeoutMillis) {
         this.assignments = assignments;
         this.httpHeader = httpHeader;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
     }
 
     /**
@@ -74,6 +105,7 @@ public class AssignmentsResource {
      * @param context               the context string
      * @param createAssignment      the flag to create the experiment if one does not exists
      * @param ignoreSamplingPercent the flag if the sampling percentage should be ignored
+     * @param timeoutMillis         the maximum time in milliseconds the assignments may take, null for the default
      * @param headers               the authorization headers
      * @return Response object
      * bucket payload
@@ -116,10 +148,15 @@ public class AssignmentsResource {
                                             defaultValue = "false")
                                     final Boolean ignoreSamplingPercent,
 
+                                    @QueryParam("timeout")
+                                    @ApiParam(value = "the maximum time in milliseconds the assignment may take, " +
+                                            "0 for no limit; defaults to the server setting")
+                                    final Long timeoutMillis,
+
                                     @javax.ws.rs.core.Context
                                     final HttpHeaders headers) {
         Assignment assignment = getAssignment(userID, applicationName, experimentLabel, context, createAssignment,
-                ignoreSamplingPercent, null, headers);
+                ignoreSamplingPercent, null, headers, timeoutMillis);
 
         return httpHeader.headers().entity(toMap(assignment)).build();
     }
@@ -127,9 +164,11 @@ public class AssignmentsResource {
     private Assignment getAssignment(final User.ID userID, final Application.Name applicationName,
                                      final Experiment.Label experimentLabel, final Context context,
                                      final boolean createAssignment, final boolean ignoreSamplingPercent,
-                                     final SegmentationProfile segmentationProfile, final HttpHeaders headers) {
-        Assignment assignment = assignments.getSingleAssignment(userID, applicationName, experimentLabel, context,
-                createAssignment, ignoreSamplingPercent, segmentationProfile, headers, null);
+                                     final SegmentationProfile segmentationProfile, final HttpHeaders headers,
+                                     final Long timeoutMillis) {
+        Assignment assignment = runWithTimeout(timeoutMillis,
+                () -> assignments.getSingleAssignment(userID, applicationName, experimentLabel, context,
+                        createAssignment, ignoreSamplingPercent, segmentationProfile, headers, null));
 
         // This should not happen when createAssignment == true
         if (assignment == null) {
@@ -151,6 +190,7 @@ public class AssignmentsResource {
      * @param ignoreSamplingPercent the flag if the sampling percentage should be ignored
      * @param context               the context string
      * @param segmentationProfile   the {@link com.intuit.wasabi.assignmentobjects.SegmentationProfile} object
+     * @param timeoutMillis         the maximum time in milliseconds the assignments may take, null for the default
      * @param headers               the authorization headers
      * @return Response object
      */
@@ -196,10 +236,15 @@ public class AssignmentsResource {
                                     @ApiParam(name = "segmentationProfile", value = "Segmentation Profile")
                                     final SegmentationProfile segmentationProfile,
 
+                                    @QueryParam("timeout")
+                                    @ApiParam(value = "the maximum time in milliseconds the assignment may take, " +
+                                            "0 for no limit; defaults to the server setting")
+                                    final Long timeoutMillis,
+
                                     @javax.ws.rs.core.Context
                                     final HttpHeaders headers) {
         Assignment assignment = getAssignment(userID, applicationName, experimentLabel, context, createAssignment,
-                ignoreSamplingPercent, segmentationProfile, headers);
+                ignoreSamplingPercent, segmentationProfile, headers, timeoutMillis);
 
         return httpHeader.headers().entity(toMap(assignment)).build();
     }
@@ -213,6 +258,7 @@ public class AssignmentsResource {
      * @param context         the context string
      * @param createAssignment          the boolean flag to create
      * @param experimentBatch the experiment batch expone, exptwo
+     * @param timeoutMillis   the maximum time in milliseconds the assignments may take, null for the default
      * @param headers         the authorization headers
      * @return Response object
      */
@@ -244,14 +290,100 @@ public class AssignmentsResource {
                                         @ApiParam(required = true, defaultValue = DEFAULT_LABELLIST)
                                         final ExperimentBatch experimentBatch,
 
+                                        @QueryParam("timeout")
+                                        @ApiParam(value = "the maximum time in milliseconds the assignment may take, " +
+                                                "0 for no limit; defaults to the server setting")
+                                        final Long timeoutMillis,
+
                                         @javax.ws.rs.core.Context
                                         final HttpHeaders headers) {
-        List<Map> myAssignments = assignments.doBatchAssignments(userID, applicationName, context, createAssignment, FALSE,
-                headers, experimentBatch, null, null);
+        List<Map> myAssignments = runWithTimeout(timeoutMillis,
+                () -> assignments.doBatchAssignments(userID, applicationName, context, createAssignment, FALSE,
+                        headers, experimentBatch, null, null));
 
         return httpHeader.headers().entity(ImmutableMap.<String, Object>builder().put("assignments", myAssignments).build()).build();
     }
 
+    /**
+     * Returns the bucket assignments of many users of one application across several experiments, for offline
+     * jobs that would otherwise call the batch assignment once per user.
+     *
+     * The request body has one user per line, either as a plain user id or as newline delimited JSON of the form
+     * {@code {"userID": "...", "profile": {...}}}. The response streams one JSON line per user, in the order of
+     * the request, of the form {@code {"userID": "...", "assignments": [...]}}, where the assignments are those of
+     * the batch assignment. Several users are assigned at a time, and users are read from the request only as
+     * fast as their assignments are streamed back. Http headers are not used for segmentation. As the response is
+     * already under way by then, a malformed line or a failed assignment ends the response early.
+     *
+     * @param applicationName  the application name
+     * @param experimentLabels the labels of the experiments to assign the users to
+     * @param context          the context string
+     * @param createAssignment the boolean flag to create
+     * @param users            the users, one per line
+     * @return Response object
+     */
+    @POST
+    @Path("applications/{applicationName}/users")
+    @Consumes({APPLICATION_NDJSON, TEXT_PLAIN})
+    @Produces(APPLICATION_NDJSON)
+    @ApiOperation(value = "Return bucket assignments for many users across multiple experiments",
+            notes = "Takes one user per line, as a user id or as {\"userID\": ..., \"profile\": {...}}, and " +
+                    "streams back one line of assignments per user in the same order.")
+    @Timed
+    public Response postBulkAssignments(@PathParam("applicationName")
+                                        @ApiParam(value = "Application Name")
+                                        final Application.Name applicationName,
+
+                                        @QueryParam("experimentLabel")
+                                        @ApiParam(value = "Experiment Label, repeated for each experiment",
+                                                required = true)
+                                        final List<Experiment.Label> experimentLabels,
+
+                                        @QueryParam("context")
+                                        @DefaultValue("PROD")
+                                        @ApiParam(value = "context for the experiment, eg QA, PROD")
+                                        final Context context,
+
+                                        @QueryParam("create")
+                                        @DefaultValue("true")
+                                        final Boolean createAssignment,
+
+                                        @ApiParam(value = "users, one per line", required = true)
+                                        final InputStream users) {
+        if (experimentLabels == null || experimentLabels.isEmpty()) {
+            throw new IllegalArgumentException("At least one experimentLabel is required");
+        }
+
+        final Set<Experiment.Label> labels = new LinkedHashSet<>(experimentLabels);
+        StreamingOutput stream = os -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(users, UTF_8));
+            try {
+                assignments.doBulkAssignments(applicationName, context, createAssignment, labels,
+                        new BulkUserReader(reader),
+                        (userID, userAssignments) -> writeBulkAssignments(writer, userID, userAssignments));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                writer.flush();
+            }
+        };
+
+        return httpHeader.headers().type(APPLICATION_NDJSON).entity(stream).build();
+    }
+
+    private void writeBulkAssignments(Writer writer, User.ID userID, List<Map> userAssignments) {
+        try {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("userID", userID.toString());
+            line.put("assignments", userAssignments);
+            writer.write(BULK_MAPPER.writeValueAsString(line));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Specify a bucket assignment for the specified user within the context of
      * a specific application and experiment.
@@ -327,6 +459,7 @@ public class AssignmentsResource {
      * @param createAssignment      Creates Assignment if set to true, default true
      * @param ignoreSamplingPercent Forces USer into experiment if set to true, default false
      * @param context               Environment Context
+     * @param timeoutMillis         the maximum time in milliseconds the assignments may take, null for the default
      * @param headers               Headers
      * @return Response object
      */
@@ -367,10 +500,16 @@ public class AssignmentsResource {
                                             @ApiParam(value = "context for the experiment, eg QA, PROD")
                                             final Context context,
 
+                                            @QueryParam("timeout")
+                                            @ApiParam(value = "the maximum time in milliseconds the assignment may take, " +
+                                                    "0 for no limit; defaults to the server setting")
+                                            final Long timeoutMillis,
+
                                             @javax.ws.rs.core.Context
                                             HttpHeaders headers) {
-        List<Map> assignmentsFromPage = assignments.doPageAssignments(applicationName, pageName, userID, context,
-                createAssignment, ignoreSamplingPercent, headers, null);
+        List<Map> assignmentsFromPage = runWithTimeout(timeoutMillis,
+                () -> assignments.doPageAssignments(applicationName, pageName, userID, context, createAssignment,
+                        ignoreSamplingPercent, headers, null));
 
         return httpHeader.headers()
                 .entity(ImmutableMap.<String, Object>builder().put("assignments", assignmentsFromPage).build()).build();
@@ -386,6 +525,7 @@ public class AssignmentsResource {
      * @param ignoreSamplingPercent If true, will force user into experiment, default false
      * @param context               Environment context
      * @param segmentationProfile   the {@link com.intuit.wasabi.assignmentobjects.SegmentationProfile} object
+     * @param timeoutMillis         the maximum time in milliseconds the assignments may take, null for the default
      * @param headers               Headers
      * @return Response object which is List of Assignments for user for experiment of the page.
      */
@@ -429,9 +569,15 @@ public class AssignmentsResource {
                                             @ApiParam(value = "Segmentation Profile")
                                             final SegmentationProfile segmentationProfile,
 
+                                            @QueryParam("timeout")
+                                            @ApiParam(value = "the maximum time in milliseconds the assignment may take, " +
+                                                    "0 for no limit; defaults to the server setting")
+                                            final Long timeoutMillis,
+
                                             @javax.ws.rs.core.Context final HttpHeaders headers) {
-        List<Map> assignmentsFromPage = assignments.doPageAssignments(applicationName, pageName, userID, context,
-                createAssignment, ignoreSamplingPercent, headers, segmentationProfile);
+        List<Map> assignmentsFromPage = runWithTimeout(timeoutMillis,
+                () -> assignments.doPageAssignments(applicationName, pageName, userID, context, createAssignment,
+                        ignoreSamplingPercent, headers, segmentationProfile));
 
         return httpHeader.headers()
                 .entity(ImmutableMap.<String, Object>builder().put("assignments", assignmentsFromPage).build()).build();
@@ -490,6 +636,67 @@ public class AssignmentsResource {
         return httpHeader.headers().entity(assignments.queuesLength()).build();
     }
 
+    /**
+     * Reads the users of a bulk assignment, one per line, skipping blank lines.
+     */
+    static final class BulkUserReader implements Iterator<Map.Entry<User.ID, Map<String, Object>>> {
+
+        private final BufferedReader reader;
+        private Map.Entry<User.ID, Map<String, Object>> next;
+
+        BulkUserReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                String line;
+                while (next == null && (line = reader.readLine()) != null) {
+                    next = parse(line.trim());
+                }
+                return next != null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Map.Entry<User.ID, Map<String, Object>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<User.ID, Map<String, Object>> user = next;
+            next = null;
+            return user;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map.Entry<User.ID, Map<String, Object>> parse(String line) throws IOException {
+            if (line.isEmpty()) {
+                return null;
+            }
+            if (!line.startsWith("{")) {
+                return new SimpleImmutableEntry<>(User.ID.valueOf(line), null);
+            }
+            Map<String, Object> user = BULK_MAPPER.readValue(line, Map.class);
+            Object userID = user.get("userID");
+            if (userID == null) {
+                throw new IllegalArgumentException("Missing \"userID\" in bulk assignment line: " + line);
+            }
+            return new SimpleImmutableEntry<>(User.ID.valueOf(userID.toString()),
+                    (Map<String, Object>) user.get("profile"));
+        }
+    }
+
+    /**
+     * Runs an assignment in the calling thread with the timeout of the request, see {@link AssignmentDeadline}.
+     * An assignment that is not done in time fails with an {@link AssignmentTimeoutException}.
+     */
+    private <T> T runWithTimeout(final Long timeoutMillis, final Supplier<T> assignment) {
+        return AssignmentDeadline.run(timeoutMillis != null ? timeoutMillis : defaultTimeoutMillis, assignment);
+    }
+
     private Map<String, Object> toMap(final Assignment assignment) {
         Map<String, Object> response = newHashMap();
 
@@ -15,12 +15,14 @@
  *******************************************************************************/
 package com.intuit.wasabi.api;
 
+import com.intuit.wasabi.assignment.AssignmentDeadline;
 import com.intuit.wasabi.assignment.Assignments;
 import com.intuit.wasabi.assignmentobjects.Assignment;
 import com.intuit.wasabi.assignmentobjects.Assignment.Status;
 import com.intuit.wasabi.assignmentobjects.SegmentationProfile;
 import com.intuit.wasabi.assignmentobjects.User;
 import com.intuit.wasabi.exceptions.AssignmentNotFoundException;
+import com.intuit.wasabi.exceptions.AssignmentTimeoutException;
 import com.intuit.wasabi.experimentobjects.*;
 import com.intuit.wasabi.experimentobjects.Bucket.Label;
 import org.junit.Before;
@@ -32,13 +34,26 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -77,7 +92,7 @@ public class AssignmentsResourceTest {
 
     @Before
     public void setUp() {
-        resource = new AssignmentsResource(assignments, new HttpHeader("application-name"));
+        resource = new AssignmentsResource(assignments, new HttpHeader("application-name"), 0);
     }
 
     @Test
@@ -86,7 +101,7 @@ public class AssignmentsResourceTest {
                 context, createAssignment, ignoreSamplingPercent, null,
                 headers, null)).thenReturn(null);
         thrown.expect(AssignmentNotFoundException.class);
-        resource.getAssignment(applicationName, experimentLabel, userID, context, createAssignment, ignoreSamplingPercent, headers);
+        resource.getAssignment(applicationName, experimentLabel, userID, context, createAssignment, ignoreSamplingPercent, null, headers);
     }
 
     @Test
@@ -99,7 +114,37 @@ public class AssignmentsResourceTest {
         when(assignments.getBucket(any(Experiment.ID.class), any(Label.class))).thenReturn(bucket);
         when(assignment.getContext()).thenReturn(context);
 
-        assertNotNull(resource.getAssignment(applicationName, experimentLabel, userID, context, createAssignment, ignoreSamplingPercent, headers));
+        assertNotNull(resource.getAssignment(applicationName, experimentLabel, userID, context, createAssignment, ignoreSamplingPercent, null, headers));
+    }
+
+    @Test
+    public void getAssignmentRunsInTheCallingThreadWithATimeout() {
+        Thread caller = Thread.currentThread();
+        doAnswer(invocation -> {
+            assertTrue(Thread.currentThread() == caller);
+            AssignmentDeadline.check();
+            return assignment;
+        }).when(assignments).getSingleAssignment(userID, applicationName, experimentLabel,
+                context, createAssignment, ignoreSamplingPercent, null, headers, null);
+        when(assignment.getStatus()).thenReturn(Status.NEW_ASSIGNMENT);
+        when(assignment.getContext()).thenReturn(context);
+
+        assertNotNull(resource.getAssignment(applicationName, experimentLabel, userID, context, createAssignment,
+                ignoreSamplingPercent, 1000L, headers));
+    }
+
+    @Test
+    public void getBatchAssignmentForPageGivesUpAfterTheTimeout() {
+        doAnswer(invocation -> {
+            Thread.sleep(20);
+            AssignmentDeadline.check();
+            return Collections.emptyList();
+        }).when(assignments).doPageAssignments(applicationName, pageName, userID, context,
+                createAssignment, ignoreSamplingPercent, headers, null);
+
+        thrown.expect(AssignmentTimeoutException.class);
+        resource.getBatchAssignmentForPage(applicationName, pageName, userID, createAssignment,
+                ignoreSamplingPercent, context, 10L, headers);
     }
 
     @Test
@@ -107,7 +152,7 @@ public class AssignmentsResourceTest {
         when(assignments.getSingleAssignment(userID, applicationName, experimentLabel,
                 context, createAssignment, ignoreSamplingPercent, segmentationProfile, headers, null)).thenReturn(null);
         thrown.expect(AssignmentNotFoundException.class);
-        resource.postAssignment(applicationName, experimentLabel, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, headers);
+        resource.postAssignment(applicationName, experimentLabel, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, null, headers);
     }
 
     @Test
@@ -119,7 +164,7 @@ public class AssignmentsResourceTest {
         when(assignments.getBucket(any(Experiment.ID.class), any(Label.class))).thenReturn(bucket);
         when(assignment.getContext()).thenReturn(context);
 
-        assertNotNull(resource.postAssignment(applicationName, experimentLabel, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, headers));
+        assertNotNull(resource.postAssignment(applicationName, experimentLabel, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, null, headers));
     }
 
     @Test
@@ -140,7 +185,7 @@ public class AssignmentsResourceTest {
         List<Map> myAssignments = new ArrayList<>();
         when(assignments.doBatchAssignments(userID, applicationName, context,
                 CREATE, FORCE_IN_EXPERIMENT, headers, experimentBatch, null, null)).thenReturn(myAssignments);
-        assertNotNull(resource.getBatchAssignments(applicationName, userID, context, CREATE, experimentBatch, headers));
+        assertNotNull(resource.getBatchAssignments(applicationName, userID, context, CREATE, experimentBatch, null, headers));
     }
 
     @Test
@@ -189,7 +234,7 @@ public class AssignmentsResourceTest {
         when(assignments.doPageAssignments(applicationName, pageName, userID, context,
                 createAssignment, ignoreSamplingPercent, headers, null)).thenReturn(assignmentsFromPage);
 
-        assertNotNull(resource.getBatchAssignmentForPage(applicationName, pageName, userID, createAssignment, ignoreSamplingPercent, context, headers));
+        assertNotNull(resource.getBatchAssignmentForPage(applicationName, pageName, userID, createAssignment, ignoreSamplingPercent, context, null, headers));
     }
 
     @Test
@@ -198,11 +243,50 @@ public class AssignmentsResourceTest {
 
         when(assignments.doPageAssignments(applicationName, pageName, userID, context,
                 createAssignment, ignoreSamplingPercent, headers, segmentationProfile)).thenReturn(assignmentsFromPage);
-        assertNotNull(resource.postBatchAssignmentForPage(applicationName, pageName, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, headers));
+        assertNotNull(resource.postBatchAssignmentForPage(applicationName, pageName, userID, createAssignment, ignoreSamplingPercent, context, segmentationProfile, null, headers));
     }
 
     @Test
     public void getAssignmentsQueueLength() throws Exception {
         assertNotNull(resource.getAssignmentsQueueLength());
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void postBulkAssignments() throws Exception {
+        Context prod = Context.valueOf("PROD");
+        doAnswer(invocation -> {
+            Iterator<Map.Entry<User.ID, Map<String, Object>>> users =
+                    (Iterator<Map.Entry<User.ID, Map<String, Object>>>) invocation.getArguments()[4];
+            BiConsumer<User.ID, List<Map>> results = (BiConsumer<User.ID, List<Map>>) invocation.getArguments()[5];
+            long count = 0;
+            while (users.hasNext()) {
+                Map.Entry<User.ID, Map<String, Object>> user = users.next();
+                Map<String, Object> assignment = new LinkedHashMap<>();
+                assignment.put("experimentLabel", experimentLabel.toString());
+                assignment.put("profile", user.getValue());
+                results.accept(user.getKey(), Collections.<Map>singletonList(assignment));
+                count++;
+            }
+            return count;
+        }).when(assignments).doBulkAssignments(eq(applicationName), eq(prod), eq(true),
+                eq(Collections.singleton(experimentLabel)), any(Iterator.class), any(BiConsumer.class));
+        String users = "u1\n\n{\"userID\": \"u2\", \"profile\": {\"state\": \"CA\"}}\n";
+
+        Response response = resource.postBulkAssignments(applicationName, Collections.singletonList(experimentLabel),
+                prod, true, new ByteArrayInputStream(users.getBytes(UTF_8)));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertEquals("{\"userID\":\"u1\",\"assignments\":[{\"experimentLabel\":\"testExp\",\"profile\":null}]}\n" +
+                        "{\"userID\":\"u2\",\"assignments\":[{\"experimentLabel\":\"testExp\",\"profile\":{\"state\":\"CA\"}}]}\n",
+                output.toString(UTF_8.name()));
+    }
+
+    @Test
+    public void postBulkAssignmentsWithoutExperiments() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        resource.postBulkAssignments(applicationName, Collections.<Experiment.Label>emptyList(), context, true,
+                new ByteArrayInputStream(new byte[0]));
+    }
 }
@@ -26,10 +26,16 @@ import org.apache.cassandra.utils.UUIDGen;
 import org.json.simple.JSONObject;
 
 import javax.ws.rs.core.HttpHeaders;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Export envelope payload for assignments
+ *
+ * The JSON of a payload is serialized at most once and shared by all the ingestion executors it is published to;
+ * changing the payload discards it.
  */
 public class AssignmentEnvelopePayload implements EnvelopePayload {
 
@@ -47,7 +53,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
     private Experiment.ID experimentID;
     private Date date;
     private HttpHeaders httpHeaders;
-
+    private volatile Serialized serialized;
 
     public AssignmentEnvelopePayload() {
         super();
@@ -128,6 +134,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setUserID(User.ID userID) {
         this.userID = userID;
+        serialized = null;
     }
 
     /**
@@ -142,6 +149,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setContext(Context context) {
         this.context = context;
+        serialized = null;
     }
 
     /**
@@ -156,6 +164,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setCreateAssignment(boolean createAssignment) {
         this.createAssignment = createAssignment;
+        serialized = null;
     }
 
     /**
@@ -170,6 +179,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setPutAssignment(boolean putAssignment) {
         this.putAssignment = putAssignment;
+        serialized = null;
     }
 
     /**
@@ -184,6 +194,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setIgnoreSamplingPercent(boolean ignoreSamplingPercent) {
         this.ignoreSamplingPercent = ignoreSamplingPercent;
+        serialized = null;
     }
 
     /**
@@ -198,6 +209,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setSegmentationProfile(SegmentationProfile segmentationProfile) {
         this.segmentationProfile = segmentationProfile;
+        serialized = null;
     }
 
     /**
@@ -212,6 +224,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setAssignmentStatus(Assignment.Status assignmentStatus) {
         this.assignmentStatus = assignmentStatus;
+        serialized = null;
     }
 
     /**
@@ -226,6 +239,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setBucketLabel(Bucket.Label bucketLabel) {
         this.bucketLabel = bucketLabel;
+        serialized = null;
     }
 
     /**
@@ -240,6 +254,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setPageName(Page.Name pageName) {
         this.pageName = pageName;
+        serialized = null;
     }
 
     /**
@@ -254,6 +269,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setApplicationName(Application.Name applicationName) {
         this.applicationName = applicationName;
+        serialized = null;
     }
 
     /**
@@ -268,6 +284,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setExperimentLabel(Experiment.Label experimentLabel) {
         this.experimentLabel = experimentLabel;
+        serialized = null;
     }
 
     /**
@@ -282,6 +299,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setExperimentID(Experiment.ID experimentID) {
         this.experimentID = experimentID;
+        serialized = null;
     }
 
     /**
@@ -296,6 +314,7 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setDate(Date date) {
         this.date = date;
+        serialized = null;
     }
 
 
@@ -311,12 +330,38 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
      */
     public void setHttpHeaders(HttpHeaders httpHeaders) {
         this.httpHeaders = httpHeaders;
+        serialized = null;
     }
 
     //TODO: the generation of json and xml is representation matter of the api, not the pojo
 
     @Override
     public String toJson() {
+        return serialize().json;
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON of the payload, read-only and shared by all callers
+     */
+    public ByteBuffer toJsonBytes() {
+        return ByteBuffer.wrap(serialize().bytes).asReadOnlyBuffer();
+    }
+
+    private Serialized serialize() {
+        Serialized current = serialized;
+        if (current == null) {
+            synchronized (this) {
+                current = serialized;
+                if (current == null) {
+                    current = new Serialized(createJson());
+                    serialized = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private String createJson() {
         JSONObject assignmentJson = new JSONObject();
         assignmentJson.put("userID", userID.toString());
         assignmentJson.put("applicationName", applicationName != null ? applicationName.toString() : "");
@@ -338,4 +383,15 @@ public class AssignmentEnvelopePayload implements EnvelopePayload {
         assignmentJson.put("messageType", MessageType.ASSIGNMENT.toString());
         return assignmentJson.toString();
     }
+
+    private static final class Serialized {
+
+        private final String json;
+        private final byte[] bytes;
+
+        Serialized(String json) {
+            this.json = json;
+            this.bytes = json.getBytes(UTF_8);
+        }
+    }
 }
@@ -0,0 +1,662 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignmentobjects;
+
+import com.intuit.hyrule.BooleanOperator;
+import com.intuit.hyrule.Profile;
+import com.intuit.hyrule.Rule;
+import com.intuit.hyrule.Schema;
+import com.intuit.hyrule.conditions.BooleanEquals;
+import com.intuit.hyrule.conditions.BooleanNotEquals;
+import com.intuit.hyrule.conditions.Condition;
+import com.intuit.hyrule.conditions.ConditionBoolean;
+import com.intuit.hyrule.conditions.ConditionNumber;
+import com.intuit.hyrule.conditions.ConditionString;
+import com.intuit.hyrule.conditions.Equals;
+import com.intuit.hyrule.conditions.GreaterThan;
+import com.intuit.hyrule.conditions.GreaterThanEquals;
+import com.intuit.hyrule.conditions.LessThan;
+import com.intuit.hyrule.conditions.LessThanEquals;
+import com.intuit.hyrule.conditions.NotEquals;
+import com.intuit.hyrule.conditions.StringEquals;
+import com.intuit.hyrule.conditions.StringEqualsExact;
+import com.intuit.hyrule.conditions.StringMatchesRegEx;
+import com.intuit.hyrule.conditions.StringNotEquals;
+import com.intuit.hyrule.conditions.StringNotMatchesRegEx;
+import com.intuit.hyrule.exceptions.InvalidInputException;
+import com.intuit.hyrule.exceptions.MissingInputException;
+import com.intuit.hyrule.exceptions.TreeStructureException;
+import com.intuit.hyrule.tree.InternalNode;
+import com.intuit.hyrule.tree.LeafNode;
+import com.intuit.hyrule.tree.RuleNode;
+import com.intuit.hyrule.values.BooleanValue;
+import com.intuit.hyrule.values.NumberValue;
+import com.intuit.hyrule.values.StringValue;
+import com.intuit.hyrule.values.Value;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A segmentation rule compiled into a tree of specialized evaluators.
+ *
+ * Hyrule interprets a rule by copying the profile into a new {@link Profile}, validating the copy against the
+ * effective schema of the rule and walking its expression tree, where every condition looks up its attributes
+ * and converts its operands again. Compiling walks the tree once instead: the attributes to validate, the
+ * operator of every condition and its string, regex, number and boolean constants are resolved up front, so
+ * that an evaluation reads the profile map in place and compares primitives.
+ *
+ * A compiled rule gives the results of {@link Rule#evaluate(HashMap)}, including the
+ * {@link MissingInputException} and {@link InvalidInputException} for profiles that lack attributes of the
+ * rule or carry values of the wrong type. Conditions the compiler does not know are handed to Hyrule one by one;
+ * a rule whose tree cannot be read is interpreted as a whole.
+ */
+public final class CompiledRule {
+
+    private static final String STRING = "string";
+    private static final String DOUBLE = "double";
+    private static final String BOOLEAN = "boolean";
+
+    private final Rule rule;
+    private final String[] attributes;
+    private final String[] dataTypes;
+    private final Set<String> attributeNames;
+    private final Node root;
+
+    private CompiledRule(Rule rule, String[] attributes, String[] dataTypes, Node root) {
+        this.rule = rule;
+        this.attributes = attributes;
+        this.dataTypes = dataTypes;
+        this.attributeNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(attributes)));
+        this.root = root;
+    }
+
+    /**
+     * Compiles a parsed rule. Never fails: a rule that cannot be compiled is wrapped for interpretation.
+     *
+     * @param rule the parsed rule
+     * @return the compiled rule
+     */
+    public static CompiledRule compile(Rule rule) {
+        if (rule == null) {
+            throw new IllegalArgumentException("Rule must not be null");
+        }
+        Schema schema = rule.getEffectiveSchema();
+        List<String> attributes = new ArrayList<>(schema != null ? schema.keySet() : Collections.<String>emptySet());
+        String[] dataTypes = new String[attributes.size()];
+        for (int i = 0; i < dataTypes.length; i++) {
+            dataTypes[i] = schema.get(attributes.get(i));
+        }
+
+        Node root;
+        try {
+            root = compile((RuleNode) Reflection.RULE_TREE.get(rule));
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // an unexpected tree, or a Hyrule version without the fields read by the compiler
+            root = null;
+        }
+        return new CompiledRule(rule, attributes.toArray(new String[attributes.size()]), dataTypes, root);
+    }
+
+    /**
+     * @return true if the rule is evaluated by the compiled evaluators, false if it is interpreted by Hyrule
+     */
+    public boolean isCompiled() {
+        return root != null;
+    }
+
+    /**
+     * @return the names of the profile attributes the rule reads; evaluation looks up no other attributes
+     */
+    public Set<String> getAttributes() {
+        return attributeNames;
+    }
+
+    /**
+     * @return the rule this was compiled from
+     */
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Evaluates the rule against a profile.
+     *
+     * @param profile the profile attributes, may be null
+     * @return true if the profile matches the rule
+     * @throws MissingInputException  if an attribute of the rule is missing or null
+     * @throws InvalidInputException  if an attribute of the rule is of the wrong type
+     * @throws TreeStructureException if the rule is malformed
+     */
+    public boolean evaluate(Map<String, Object> profile)
+            throws MissingInputException, InvalidInputException, TreeStructureException {
+        if (root == null) {
+            return rule.evaluate(profile == null || profile instanceof HashMap
+                    ? (HashMap<String, Object>) profile
+                    : new HashMap<>(profile));
+        }
+        Map<String, Object> attributeValues = profile != null ? profile : Collections.<String, Object>emptyMap();
+        validate(attributeValues);
+        return root.evaluate(attributeValues);
+    }
+
+    /**
+     * Same checks as {@link Schema#validate(Profile)}: all missing and invalid attributes are collected, and
+     * invalid attributes take precedence.
+     */
+    private void validate(Map<String, Object> profile) {
+        List<String> missing = null;
+        List<String> invalid = null;
+        for (int i = 0; i < attributes.length; i++) {
+            Object value = profile.get(attributes[i]);
+            if (value == null) {
+                missing = add(missing, attributes[i]);
+            } else if (!isCompatible(dataTypes[i], value)) {
+                invalid = add(invalid, attributes[i] + " (requires " + dataTypes[i] + ")");
+            }
+        }
+        if (invalid != null) {
+            throw new InvalidInputException("Submitted profile does not match the required attributes to evaluate "
+                    + "this rule. Invalid attributes: " + invalid + ".");
+        }
+        if (missing != null) {
+            throw new MissingInputException("Submitted profile does not match the required attributes to evaluate "
+                    + "this rule. Missing attributes: " + missing + ".");
+        }
+    }
+
+    private static List<String> add(List<String> list, String attribute) {
+        List<String> result = list != null ? list : new ArrayList<String>();
+        result.add(attribute);
+        return result;
+    }
+
+    private static boolean isCompatible(String dataType, Object value) {
+        if (STRING.equals(dataType)) {
+            return value instanceof String;
+        } else if (DOUBLE.equals(dataType)) {
+            return isExactDouble(value) || NumberValue.isCompatible(value);
+        } else if (BOOLEAN.equals(dataType)) {
+            return value instanceof Boolean || BooleanValue.isCompatible(value);
+        }
+        return true;
+    }
+
+    /**
+     * @return true for the number types whose double value equals what Hyrule parses from their string form
+     */
+    private static boolean isExactDouble(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double;
+    }
+
+    private static Node compile(RuleNode node) throws ReflectiveOperationException {
+        if (node instanceof InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            BooleanOperator op = (BooleanOperator) Reflection.NODE_OPERATOR.get(internal);
+            if (!internal.hasLeftChild()) {
+                throw new TreeStructureException("Rule node is missing children!");
+            }
+            Node left = compile(internal.getLeftChild());
+            if (op == BooleanOperator.NOT) {
+                return new Not(left);
+            }
+            if (!internal.hasRightChild()) {
+                throw new TreeStructureException("Rule node is missing right child!");
+            }
+            Node right = compile(internal.getRightChild());
+            // like Hyrule, evaluate the cheaper child first
+            boolean leftFirst = Reflection.NODE_COST.getDouble(internal.getLeftChild())
+                    <= Reflection.NODE_COST.getDouble(internal.getRightChild());
+            Node first = leftFirst ? left : right;
+            Node second = leftFirst ? right : left;
+            if (op == BooleanOperator.AND) {
+                return new And(first, second);
+            } else if (op == BooleanOperator.OR) {
+                return new Or(first, second);
+            }
+            throw new TreeStructureException("Unsupported boolean operator " + op);
+        } else if (node instanceof LeafNode) {
+            return compile(((LeafNode) node).getCondition());
+        }
+        throw new TreeStructureException("Unsupported rule node " + node);
+    }
+
+    private static Node compile(Condition condition) throws ReflectiveOperationException {
+        if (condition instanceof ConditionString) {
+            Value leftValue = (Value) Reflection.STRING_LEFT.get(condition);
+            Value rightValue = (Value) Reflection.STRING_RIGHT.get(condition);
+            if (!isPlain(StringValue.class, leftValue, rightValue)) {
+                // e.g. attributes of undefined type, which compare the string form of any value
+                return new Interpreted(condition);
+            }
+            StringOperand left = StringOperand.of((StringValue) leftValue);
+            StringOperand right = StringOperand.of((StringValue) rightValue);
+            Class<?> type = condition.getClass();
+            if (type == StringEquals.class) {
+                return new StringComparison(StringComparison.Operator.EQUALS_IGNORE_CASE, left, right);
+            } else if (type == StringEqualsExact.class) {
+                return new StringComparison(StringComparison.Operator.EQUALS, left, right);
+            } else if (type == StringNotEquals.class) {
+                return new StringComparison(StringComparison.Operator.NOT_EQUALS_IGNORE_CASE, left, right);
+            } else if (type == StringMatchesRegEx.class) {
+                return RegexMatch.of(left, right, false);
+            } else if (type == StringNotMatchesRegEx.class) {
+                return RegexMatch.of(left, right, true);
+            }
+        } else if (condition instanceof ConditionNumber) {
+            Value leftValue = (Value) Reflection.NUMBER_LEFT.get(condition);
+            Value rightValue = (Value) Reflection.NUMBER_RIGHT.get(condition);
+            if (!isPlain(NumberValue.class, leftValue, rightValue)) {
+                return new Interpreted(condition);
+            }
+            NumberOperand left = NumberOperand.of((NumberValue) leftValue);
+            NumberOperand right = NumberOperand.of((NumberValue) rightValue);
+            Class<?> type = condition.getClass();
+            if (type == Equals.class) {
+                return new NumberComparison(NumberComparison.Operator.EQUALS, left, right);
+            } else if (type == NotEquals.class) {
+                return new NumberComparison(NumberComparison.Operator.NOT_EQUALS, left, right);
+            } else if (type == GreaterThan.class) {
+                return new NumberComparison(NumberComparison.Operator.GREATER_THAN, left, right);
+            } else if (type == GreaterThanEquals.class) {
+                return new NumberComparison(NumberComparison.Operator.GREATER_THAN_EQUALS, left, right);
+            } else if (type == LessThan.class) {
+                return new NumberComparison(NumberComparison.Operator.LESS_THAN, left, right);
+            } else if (type == LessThanEquals.class) {
+                return new NumberComparison(NumberComparison.Operator.LESS_THAN_EQUALS, left, right);
+            }
+        } else if (condition instanceof ConditionBoolean) {
+            Value leftValue = (Value) Reflection.BOOLEAN_LEFT.get(condition);
+            Value rightValue = (Value) Reflection.BOOLEAN_RIGHT.get(condition);
+            if (!isPlain(BooleanValue.class, leftValue, rightValue)) {
+                return new Interpreted(condition);
+            }
+            BooleanOperand left = BooleanOperand.of((BooleanValue) leftValue);
+            BooleanOperand right = BooleanOperand.of((BooleanValue) rightValue);
+            Class<?> type = condition.getClass();
+            if (type == BooleanEquals.class) {
+                return new BooleanComparison(false, left, right);
+            } else if (type == BooleanNotEquals.class) {
+                return new BooleanComparison(true, left, right);
+            }
+        }
+        return new Interpreted(condition);
+    }
+
+    /**
+     * @return true if both values are exactly of the given type, whose lookups and conversions the compiler knows
+     */
+    private static boolean isPlain(Class<? extends Value> type, Value left, Value right) {
+        return left != null && left.getClass() == type && right != null && right.getClass() == type;
+    }
+
+    private static MissingInputException missing(Map<String, Object> profile, String attribute) {
+        return new MissingInputException(profile.containsKey(attribute)
+                ? "Required attribute is null: " + attribute
+                : "ProfileMap does not contain required attribute: " + attribute);
+    }
+
+    /**
+     * Private fields of the Hyrule tree, which offers no accessors for them.
+     */
+    private static final class Reflection {
+
+        static final Field RULE_TREE = field(Rule.class, "expressionTree");
+        static final Field NODE_OPERATOR = field(InternalNode.class, "op");
+        static final Field NODE_COST = field(RuleNode.class, "cost");
+        static final Field VALUE_ATTRIBUTE = field(Value.class, "attribute");
+        static final Field STRING_CONSTANT = field(StringValue.class, "constant");
+        static final Field NUMBER_CONSTANT = field(NumberValue.class, "constant");
+        static final Field BOOLEAN_CONSTANT = field(BooleanValue.class, "constant");
+        static final Field STRING_LEFT = field(ConditionString.class, "left");
+        static final Field STRING_RIGHT = field(ConditionString.class, "right");
+        static final Field NUMBER_LEFT = field(ConditionNumber.class, "left");
+        static final Field NUMBER_RIGHT = field(ConditionNumber.class, "right");
+        static final Field BOOLEAN_LEFT = field(ConditionBoolean.class, "left");
+        static final Field BOOLEAN_RIGHT = field(ConditionBoolean.class, "right");
+
+        private static Field field(Class<?> type, String name) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Unsupported Hyrule version, " + type.getName()
+                        + " has no field " + name, e);
+            }
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract boolean evaluate(Map<String, Object> profile);
+    }
+
+    private static final class Not extends Node {
+
+        private final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            return !child.evaluate(profile);
+        }
+    }
+
+    private static final class And extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        And(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            return first.evaluate(profile) && second.evaluate(profile);
+        }
+    }
+
+    private static final class Or extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Or(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            return first.evaluate(profile) || second.evaluate(profile);
+        }
+    }
+
+    /**
+     * A condition the compiler does not know, evaluated by Hyrule against a copy of the profile.
+     */
+    private static final class Interpreted extends Node {
+
+        private final Condition condition;
+
+        Interpreted(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            return condition.evaluate(new Profile(profile));
+        }
+    }
+
+    /**
+     * Either a profile attribute or a constant, resolved at compile time.
+     */
+    private static final class StringOperand {
+
+        private final String attribute;
+        private final String constant;
+
+        private StringOperand(String attribute, String constant) {
+            this.attribute = attribute;
+            this.constant = constant;
+        }
+
+        static StringOperand of(StringValue value) throws ReflectiveOperationException {
+            if (value.isConstant()) {
+                return new StringOperand(null, (String) Reflection.STRING_CONSTANT.get(value));
+            } else if (value.isVariable()) {
+                return new StringOperand((String) Reflection.VALUE_ATTRIBUTE.get(value), null);
+            }
+            throw new TreeStructureException("Tree node entry has neither been initialized as attribute nor as "
+                    + "constant.");
+        }
+
+        String get(Map<String, Object> profile) {
+            if (attribute == null) {
+                return constant;
+            }
+            Object value = profile.get(attribute);
+            if (value instanceof String) {
+                return (String) value;
+            } else if (value == null) {
+                throw missing(profile, attribute);
+            }
+            throw new InvalidInputException("Wrong input type for StringValue. Field " + attribute + " had value "
+                    + value);
+        }
+    }
+
+    private static final class NumberOperand {
+
+        private final String attribute;
+        private final double constant;
+
+        private NumberOperand(String attribute, double constant) {
+            this.attribute = attribute;
+            this.constant = constant;
+        }
+
+        static NumberOperand of(NumberValue value) throws ReflectiveOperationException {
+            if (value.isConstant()) {
+                return new NumberOperand(null, (Double) Reflection.NUMBER_CONSTANT.get(value));
+            } else if (value.isVariable()) {
+                return new NumberOperand((String) Reflection.VALUE_ATTRIBUTE.get(value), 0.0d);
+            }
+            throw new TreeStructureException("Tree node entry has neither been initialized as attribute nor as "
+                    + "constant.");
+        }
+
+        double get(Map<String, Object> profile) {
+            if (attribute == null) {
+                return constant;
+            }
+            Object value = profile.get(attribute);
+            if (isExactDouble(value)) {
+                return ((Number) value).doubleValue();
+            } else if (value == null) {
+                throw missing(profile, attribute);
+            }
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                throw new InvalidInputException("Attribute is not of the correct type, long expected: " + attribute);
+            }
+        }
+    }
+
+    private static final class BooleanOperand {
+
+        private final String attribute;
+        private final boolean constant;
+
+        private BooleanOperand(String attribute, boolean constant) {
+            this.attribute = attribute;
+            this.constant = constant;
+        }
+
+        static BooleanOperand of(BooleanValue value) throws ReflectiveOperationException {
+            if (value.isConstant()) {
+                return new BooleanOperand(null, (Boolean) Reflection.BOOLEAN_CONSTANT.get(value));
+            } else if (value.isVariable()) {
+                return new BooleanOperand((String) Reflection.VALUE_ATTRIBUTE.get(value), false);
+            }
+            throw new TreeStructureException("Tree node entry has neither been initialized as attribute nor as "
+                    + "constant.");
+        }
+
+        boolean get(Map<String, Object> profile) {
+            if (attribute == null) {
+                return constant;
+            }
+            Object value = profile.get(attribute);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            } else if (value == null) {
+                throw missing(profile, attribute);
+            } else if (BooleanValue.isCompatible(value)) {
+                return Boolean.parseBoolean(value.toString());
+            }
+            throw new InvalidInputException("Trying to parse boolean from input field " + attribute
+                    + " value was " + value);
+        }
+    }
+
+    private static final class StringComparison extends Node {
+
+        enum Operator {
+            EQUALS, EQUALS_IGNORE_CASE, NOT_EQUALS_IGNORE_CASE
+        }
+
+        private final Operator operator;
+        private final StringOperand left;
+        private final StringOperand right;
+
+        StringComparison(Operator operator, StringOperand left, StringOperand right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            String leftValue = left.get(profile);
+            String rightValue = right.get(profile);
+            switch (operator) {
+                case EQUALS:
+                    return leftValue.equals(rightValue);
+                case EQUALS_IGNORE_CASE:
+                    return leftValue.equalsIgnoreCase(rightValue);
+                default:
+                    return !leftValue.equalsIgnoreCase(rightValue);
+            }
+        }
+    }
+
+    /**
+     * Matches the left operand against the pattern on the right, which is compiled once if it is a constant.
+     */
+    private static final class RegexMatch extends Node {
+
+        private final StringOperand input;
+        private final StringOperand regex;
+        private final Pattern pattern;
+        private final boolean negate;
+
+        private RegexMatch(StringOperand input, StringOperand regex, Pattern pattern, boolean negate) {
+            this.input = input;
+            this.regex = regex;
+            this.pattern = pattern;
+            this.negate = negate;
+        }
+
+        static Node of(StringOperand input, StringOperand regex, boolean negate) {
+            if (regex.attribute != null) {
+                return new RegexMatch(input, regex, null, negate);
+            }
+            try {
+                return new RegexMatch(input, regex, Pattern.compile(regex.constant), negate);
+            } catch (PatternSyntaxException e) {
+                // leave reporting the invalid pattern to the evaluation, as Hyrule does
+                return new RegexMatch(input, regex, null, negate);
+            }
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            Pattern compiled = pattern != null ? pattern : compile(regex.get(profile));
+            return compiled.matcher(input.get(profile)).matches() != negate;
+        }
+
+        private static Pattern compile(String regex) {
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new InvalidInputException("The pattern " + regex + " has an invalid syntax.");
+            }
+        }
+    }
+
+    private static final class NumberComparison extends Node {
+
+        enum Operator {
+            EQUALS, NOT_EQUALS, GREATER_THAN, GREATER_THAN_EQUALS, LESS_THAN, LESS_THAN_EQUALS
+        }
+
+        private final Operator operator;
+        private final NumberOperand left;
+        private final NumberOperand right;
+
+        NumberComparison(Operator operator, NumberOperand left, NumberOperand right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            double leftValue = left.get(profile);
+            double rightValue = right.get(profile);
+            switch (operator) {
+                case EQUALS:
+                    return leftValue == rightValue;
+                case NOT_EQUALS:
+                    return leftValue != rightValue;
+                case GREATER_THAN:
+                    return leftValue > rightValue;
+                case GREATER_THAN_EQUALS:
+                    return leftValue >= rightValue;
+                case LESS_THAN:
+                    return leftValue < rightValue;
+                default:
+                    return leftValue <= rightValue;
+            }
+        }
+    }
+
+    private static final class BooleanComparison extends Node {
+
+        private final boolean negate;
+        private final BooleanOperand left;
+        private final BooleanOperand right;
+
+        BooleanComparison(boolean negate, BooleanOperand left, BooleanOperand right) {
+            this.negate = negate;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(Map<String, Object> profile) {
+            return (left.get(profile) == right.get(profile)) != negate;
+        }
+    }
+}
@@ -15,30 +15,168 @@
  *******************************************************************************/
 package com.intuit.wasabi.assignmentobjects;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.cache.CacheBuilder;
 import com.intuit.hyrule.Rule;
+import com.intuit.hyrule.RuleBuilder;
 import com.intuit.wasabi.experimentobjects.Experiment;
 
+/**
+ * Node-local cache of parsed segmentation rules.
+ *
+ * Entries are keyed by experiment ID and remember the rule text they were parsed from, so that a rule is
+ * only parsed again when its text changes. Entries of experiments that have not been evaluated for a day
+ * are dropped; terminated and deleted experiments are evicted explicitly through {@link #clearRule}.
+ * Rules looked up through {@link #getCompiledRule} are also compiled once, see {@link CompiledRule}.
+ */
 public class RuleCache {
 
-    // FIXME cache can only grow, we need to add a delete routine that removes rule objects for terminated/deleted experiments
+    private static final long IDLE_EXPIRY_HOURS = 24;
+
+    private final ConcurrentMap<Experiment.ID, CachedRule> ruleCache = CacheBuilder.newBuilder()
+            .expireAfterAccess(IDLE_EXPIRY_HOURS, TimeUnit.HOURS)
+            .<Experiment.ID, CachedRule>build()
+            .asMap();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong parseCount = new AtomicLong();
+
+    /**
+     * Returns the parsed rule for the given rule text of an experiment, parsing it only if the cached rule
+     * was parsed from a different text.
+     *
+     * @param key      the experiment ID
+     * @param ruleText the current rule text of the experiment
+     * @return the parsed rule, or null if the rule text is null or empty
+     */
+    public Rule getRule(Experiment.ID key, String ruleText) {
+        CachedRule cached = getCachedRule(key, ruleText);
+        return cached != null ? cached.rule : null;
+    }
+
+    /**
+     * Returns the compiled form of the given rule text of an experiment, parsing and compiling it only if the
+     * cached rule was parsed from a different text.
+     *
+     * @param key      the experiment ID
+     * @param ruleText the current rule text of the experiment
+     * @return the compiled rule, or null if the rule text is null or empty
+     */
+    public CompiledRule getCompiledRule(Experiment.ID key, String ruleText) {
+        CachedRule cached = getCachedRule(key, ruleText);
+        return cached != null ? cached.getCompiledRule() : null;
+    }
 
-    // Default 16 standard concurrency update level used
-    private Map<Experiment.ID, Rule> ruleCache = new ConcurrentHashMap<>();
+    private CachedRule getCachedRule(Experiment.ID key, String ruleText) {
+        if (ruleText == null || ruleText.isEmpty()) {
+            ruleCache.remove(key);
+            return null;
+        }
+        CachedRule cached = ruleCache.get(key);
+        if (cached != null && ruleText.equals(cached.ruleText)) {
+            hitCount.incrementAndGet();
+            return cached;
+        }
+        missCount.incrementAndGet();
+        Rule rule = new RuleBuilder().parseExpression(ruleText);
+        parseCount.incrementAndGet();
+        cached = new CachedRule(ruleText, rule);
+        ruleCache.put(key, cached);
+        return cached;
+    }
 
+    /**
+     * Caches a rule that was parsed elsewhere. As its text is unknown, the next
+     * {@link #getRule(Experiment.ID, String)} lookup for the experiment parses the rule again.
+     *
+     * @param key  the experiment ID
+     * @param rule the parsed rule
+     */
     public void setRule(Experiment.ID key, Rule rule) {
-      ruleCache.put(key, rule);
+        if (rule == null) {
+            ruleCache.remove(key);
+        } else {
+            ruleCache.put(key, new CachedRule(null, rule));
+        }
+    }
+
+    /**
+     * Caches a rule together with the text it was parsed from.
+     *
+     * @param key      the experiment ID
+     * @param ruleText the rule text
+     * @param rule     the rule parsed from {@code ruleText}
+     */
+    public void setRule(Experiment.ID key, String ruleText, Rule rule) {
+        ruleCache.put(key, new CachedRule(ruleText, rule));
     }
 
     public Rule getRule(Experiment.ID key) {
-        return ruleCache.get(key);
+        CachedRule cached = ruleCache.get(key);
+        return cached != null ? cached.rule : null;
     }
 
     public boolean containsRule(Experiment.ID key) {
         return ruleCache.containsKey(key);
     }
 
-    public void clearRule(Experiment.ID key) { ruleCache.remove(key);}
+    public void clearRule(Experiment.ID key) {
+        ruleCache.remove(key);
+    }
+
+    /**
+     * @return number of cached rules
+     */
+    public int size() {
+        return ruleCache.size();
+    }
+
+    /**
+     * @return number of versioned lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of versioned lookups that found no rule, or one parsed from a different text
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of rules parsed by the cache
+     */
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    private static final class CachedRule {
+
+        private final String ruleText;
+        private final Rule rule;
+        private volatile CompiledRule compiledRule;
+
+        CachedRule(String ruleText, Rule rule) {
+            this.ruleText = ruleText;
+            this.rule = rule;
+        }
+
+        /**
+         * Compiles the rule on first use. Concurrent first calls may each compile it; the results are equivalent.
+         */
+        CompiledRule getCompiledRule() {
+            CompiledRule compiled = compiledRule;
+            if (compiled == null) {
+                compiled = CompiledRule.compile(rule);
+                compiledRule = compiled;
+            }
+            return compiled;
+        }
+    }
 }
@@ -24,8 +24,10 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.ws.rs.core.HttpHeaders;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.eq;
@@ -120,4 +122,20 @@ public class AssignmentEnvelopePayloadTest {
         assertNotNull(payload.toJson());
         //assertNotNull(payload.toXml());
     }
+
+    @Test
+    public void testAssignmentEnvelopePayloadIsSerializedOnce() {
+        String json = payload.toJson();
+        ByteBuffer bytes = payload.toJsonBytes();
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.get(copy);
+
+        assertSame(json, payload.toJson());
+        assertTrue(bytes.isReadOnly());
+        assertEquals(json, new String(copy, UTF_8));
+
+        payload.setBucketLabel(Bucket.Label.valueOf("otherLabel"));
+        assertNotSame(json, payload.toJson());
+        assertTrue(payload.toJson().contains("otherLabel"));
+    }
 }
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignmentobjects;
+
+import com.intuit.hyrule.Rule;
+import com.intuit.hyrule.RuleBuilder;
+import com.intuit.hyrule.exceptions.InvalidInputException;
+import com.intuit.hyrule.exceptions.MissingInputException;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class CompiledRuleTest {
+
+    private static final String[] RULES = {
+            "state = \"CA\"",
+            "state != \"NY\"",
+            "state ^= \"ca\"",
+            "state =~ \"c.*\"",
+            "state !~ \"(\"",
+            "salary > 1000",
+            "salary != 3",
+            "salary <= 3 & x = \"y\"",
+            "salary >= 1000 && state = \"CA\"",
+            "salary < 5 || !(state = \"NY\")",
+            "vip = true",
+            "(salary > 3 | state = \"x\") & !(vip = false)",
+            "a = b"
+    };
+
+    private static final Object[] VALUES = {
+            null, "CA", "ca", "NY", "california", "x", "y", 3, 3L, 3.0d, 1001, "1001", "abc", true, false, "true",
+            "TRUE", 0.1f, new BigDecimal("3.0"), Double.NaN
+    };
+
+    private static final String[] ATTRIBUTES = {"state", "salary", "vip", "x", "a", "b"};
+
+    private HashMap<String, Object> profile(Object... entries) {
+        HashMap<String, Object> profile = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            profile.put((String) entries[i], entries[i + 1]);
+        }
+        return profile;
+    }
+
+    private CompiledRule compile(String expression) {
+        return CompiledRule.compile(new RuleBuilder().parseExpression(expression));
+    }
+
+    @Test
+    public void compilesSupportedConditions() {
+        CompiledRule rule = compile("(state = \"CA\" | state =~ \"N.*\") & salary >= 1000 & !(vip = true)");
+
+        then(rule.isCompiled()).isTrue();
+        then(rule.evaluate(profile("state", "ca", "salary", 1000, "vip", false))).isTrue();
+        then(rule.evaluate(profile("state", "NY", "salary", "2000", "vip", "FALSE"))).isTrue();
+        then(rule.evaluate(profile("state", "TX", "salary", 2000, "vip", false))).isFalse();
+        then(rule.evaluate(profile("state", "CA", "salary", 999.5d, "vip", false))).isFalse();
+        then(rule.evaluate(profile("state", "CA", "salary", 1000L, "vip", true))).isFalse();
+    }
+
+    @Test(expected = MissingInputException.class)
+    public void missingAttributeThrows() {
+        compile("state = \"CA\" | salary > 3").evaluate(profile("state", "CA"));
+    }
+
+    @Test(expected = MissingInputException.class)
+    public void nullProfileThrows() {
+        compile("state = \"CA\"").evaluate(null);
+    }
+
+    @Test(expected = InvalidInputException.class)
+    public void attributeOfWrongTypeThrows() {
+        compile("salary > 3").evaluate(profile("salary", "a lot"));
+    }
+
+    @Test
+    public void matchesInterpreter() {
+        Random random = new Random(42);
+        for (String expression : RULES) {
+            Rule rule = new RuleBuilder().parseExpression(expression);
+            CompiledRule compiled = CompiledRule.compile(rule);
+            for (int i = 0; i < 500; i++) {
+                HashMap<String, Object> profile = new HashMap<>();
+                for (String attribute : ATTRIBUTES) {
+                    int index = random.nextInt(VALUES.length + 1);
+                    if (index < VALUES.length) {
+                        profile.put(attribute, VALUES[index]);
+                    }
+                }
+                then(outcome(compiled, profile))
+                        .as("%s with %s", expression, profile)
+                        .isEqualTo(outcome(rule, profile));
+            }
+        }
+    }
+
+    private String outcome(Rule rule, HashMap<String, Object> profile) {
+        try {
+            return String.valueOf(rule.evaluate(profile));
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private String outcome(CompiledRule rule, HashMap<String, Object> profile) {
+        try {
+            return String.valueOf(rule.evaluate(profile));
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+}
@@ -24,7 +24,11 @@ import org.mockito.runners.MockitoJUnitRunner;
 import com.intuit.hyrule.Rule;
 import com.intuit.wasabi.experimentobjects.Experiment;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -50,4 +54,45 @@ public class RuleCacheTest {
         assertTrue(!ruleCache.containsRule(experimentID));
     }
 
+    @Test
+    public void testRuleIsOnlyParsedWhenItsTextChanges() {
+        Rule first = ruleCache.getRule(experimentID, "state=CA");
+        assertSame(first, ruleCache.getRule(experimentID, "state=CA"));
+        assertEquals(1, ruleCache.getParseCount());
+        assertEquals(1, ruleCache.getHitCount());
+        assertEquals(1, ruleCache.getMissCount());
+
+        Rule second = ruleCache.getRule(experimentID, "state=NY");
+        assertNotSame(first, second);
+        assertEquals(2, ruleCache.getParseCount());
+        assertEquals(1, ruleCache.size());
+        assertEquals(2, ruleCache.getMissCount());
+    }
+
+    @Test
+    public void testEmptyRuleTextClearsRule() {
+        ruleCache.getRule(experimentID, "state=CA");
+
+        assertNull(ruleCache.getRule(experimentID, ""));
+        assertTrue(!ruleCache.containsRule(experimentID));
+    }
+
+    @Test
+    public void testRuleSetWithoutTextIsParsedOnNextLookup() {
+        ruleCache.setRule(experimentID, rule);
+
+        assertNotSame(rule, ruleCache.getRule(experimentID, "state=CA"));
+        assertEquals(1, ruleCache.getParseCount());
+    }
+
+    @Test
+    public void testCompiledRuleIsCachedWithItsRule() {
+        CompiledRule compiled = ruleCache.getCompiledRule(experimentID, "state=CA");
+
+        assertSame(compiled, ruleCache.getCompiledRule(experimentID, "state=CA"));
+        assertSame(compiled.getRule(), ruleCache.getRule(experimentID, "state=CA"));
+        assertEquals(1, ruleCache.getParseCount());
+        assertNotSame(compiled, ruleCache.getCompiledRule(experimentID, "state=NY"));
+        assertNull(ruleCache.getCompiledRule(experimentID, null));
+    }
 }
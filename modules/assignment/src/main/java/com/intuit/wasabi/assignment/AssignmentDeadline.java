@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment;
+
+import com.intuit.wasabi.exceptions.AssignmentTimeoutException;
+
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Deadline of the assignment call running on the current thread.
+ *
+ * A call {@link #run} with a timeout runs in the calling thread, which {@link #check}s the deadline before each read
+ * and write of the repository and gives up with an {@link AssignmentTimeoutException} once it has passed. A
+ * repository call in progress is not interrupted, so a call can overrun its deadline by one repository call, and
+ * the assignments of a batch written before the deadline stay written.
+ */
+public final class AssignmentDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private AssignmentDeadline() {
+    }
+
+    /**
+     * Runs an assignment call with a deadline, unless it is part of a call with a deadline already.
+     *
+     * @param timeoutMillis the time the call may take, 0 or less for no deadline
+     * @param call          the assignment call
+     * @param <T>           the type of the result
+     * @return the result of the call
+     * @throws AssignmentTimeoutException if the call was given up after the deadline
+     */
+    public static <T> T run(long timeoutMillis, Supplier<T> call) {
+        if (timeoutMillis <= 0 || DEADLINE.get() != null) {
+            return call.get();
+        }
+        DEADLINE.set(System.nanoTime() + MILLISECONDS.toNanos(timeoutMillis));
+        try {
+            return call.get();
+        } finally {
+            DEADLINE.remove();
+        }
+    }
+
+    /**
+     * Gives up the assignment call of the current thread if its deadline has passed.
+     *
+     * @throws AssignmentTimeoutException if the deadline has passed
+     */
+    public static void check() {
+        Long deadline = DEADLINE.get();
+        if (deadline != null && System.nanoTime() - deadline > 0) {
+            throw new AssignmentTimeoutException("Assignment not done within the timeout of the request");
+        }
+    }
+}
@@ -7,6 +7,9 @@ public interface AssignmentIngestionExecutor {
 	/**
 	 * This method ingests what is contained in the {@link com.intuit.wasabi.assignmentobjects.AssignmentEnvelopePayload} to real time data ingestion system.
 	 * 
+	 * The payload is shared by all executors and must not be changed; {@link AssignmentEnvelopePayload#toJsonBytes()}
+	 * and {@link AssignmentEnvelopePayload#toJson()} serialize it once for all of them.
+	 * 
 	 * @param assignmentEnvelopePayload
 	 */
 	public void execute(AssignmentEnvelopePayload assignmentEnvelopePayload);
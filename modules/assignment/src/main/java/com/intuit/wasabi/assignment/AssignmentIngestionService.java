@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.intuit.wasabi.assignment.impl.AssignmentIngestionPublisher;
+import org.slf4j.Logger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Passes the assignments still buffered for real time ingestion to the executors when the service is shut down.
+ */
+public class AssignmentIngestionService extends AbstractIdleService {
+
+    private static final Logger LOGGER = getLogger(AssignmentIngestionService.class);
+    private static final long DRAIN_TIMEOUT_MILLIS = 10000;
+    private final AssignmentIngestionPublisher assignmentIngestionPublisher;
+
+    @Inject
+    public AssignmentIngestionService(final AssignmentIngestionPublisher assignmentIngestionPublisher) {
+        this.assignmentIngestionPublisher = assignmentIngestionPublisher;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        LOGGER.info("assignment ingestion publisher enabled: {}", assignmentIngestionPublisher.isEnabled());
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        LOGGER.info("draining {} assignments buffered for ingestion", assignmentIngestionPublisher.getBacklog());
+
+        assignmentIngestionPublisher.drain(DRAIN_TIMEOUT_MILLIS);
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.intuit.wasabi.assignment.impl.AssignmentCacheWarmer;
+import org.slf4j.Logger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Warms up the assignment caches when the service is started.
+ *
+ * Until warm-up is done or has spent its time budget the "AssignmentWarmUp" health check is unhealthy, so the
+ * ping endpoint reports the node as unavailable and load balancers hold back its traffic.
+ */
+public class AssignmentWarmUpService extends AbstractIdleService {
+
+    private static final Logger LOGGER = getLogger(AssignmentWarmUpService.class);
+    private final AssignmentCacheWarmer assignmentCacheWarmer;
+
+    @Inject
+    public AssignmentWarmUpService(final AssignmentCacheWarmer assignmentCacheWarmer,
+                                   final HealthCheckRegistry healthChecks) {
+        this.assignmentCacheWarmer = assignmentCacheWarmer;
+
+        // Register for health check
+        healthChecks.register("AssignmentWarmUp", new WarmUpHealthCheck(assignmentCacheWarmer));
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        LOGGER.info("assignment cache warm-up: {}", assignmentCacheWarmer.getState());
+
+        assignmentCacheWarmer.warmUp();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        // Nothing to release, the warm-up threads are gone once startUp returns
+    }
+
+    private static class WarmUpHealthCheck extends HealthCheck {
+        private final AssignmentCacheWarmer assignmentCacheWarmer;
+
+        WarmUpHealthCheck(AssignmentCacheWarmer assignmentCacheWarmer) {
+            this.assignmentCacheWarmer = assignmentCacheWarmer;
+        }
+
+        @Override
+        public Result check() {
+            return assignmentCacheWarmer.isReady()
+                    ? Result.healthy()
+                    : Result.unhealthy("warming up: " + assignmentCacheWarmer.getProgress());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.intuit.wasabi.assignment.impl.AssignmentWriteBehind;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+import org.slf4j.Logger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Persists the assignments still queued for write-behind when the service is shut down, and then the bucket
+ * assignment counts of all persisted assignments, so that the last counts are written after the last assignment.
+ */
+public class AssignmentWriteBehindService extends AbstractIdleService {
+
+    private static final Logger LOGGER = getLogger(AssignmentWriteBehindService.class);
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+    private final AssignmentWriteBehind assignmentWriteBehind;
+    private final AssignmentsRepository assignmentsRepository;
+
+    @Inject
+    public AssignmentWriteBehindService(final AssignmentWriteBehind assignmentWriteBehind,
+                                        final AssignmentsRepository assignmentsRepository) {
+        this.assignmentWriteBehind = assignmentWriteBehind;
+        this.assignmentsRepository = assignmentsRepository;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        LOGGER.info("assignment write-behind enabled: {}", assignmentWriteBehind.isEnabled());
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        LOGGER.info("draining {} queued assignments", assignmentWriteBehind.getBacklog());
+
+        assignmentWriteBehind.drain(DRAIN_TIMEOUT_MILLIS);
+
+        LOGGER.info("flushing bucket assignment counts: {}", assignmentsRepository.bucketAssignmentCountStatistics());
+        assignmentsRepository.drainWrites(DRAIN_TIMEOUT_MILLIS);
+    }
+}
@@ -31,8 +31,11 @@ import com.intuit.wasabi.experimentobjects.Page;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.StreamingOutput;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * The common interface for the Assignment Objects that measure the interaction of Users with
@@ -142,6 +145,25 @@ public interface Assignments {
                                      ExperimentBatch experimentBatch, Page.Name pageName,
                                      Map<Experiment.ID, Boolean> allowAssignments);
 
+    /**
+     * Assigns a stream of users of an application to the same experiments, several users at a time.
+     *
+     * The users are read one at a time, and the assignments of each user are handed on as soon as they are done,
+     * in the order of the users, so a stream of any length can be assigned.
+     *
+     * @param applicationName  the {@link com.intuit.wasabi.experimentobjects.Application.Name} the app we want the assignments for
+     * @param context          the {@link Context} of the assignment call
+     * @param createAssignment <code>true</code> when new Assignments should be created
+     * @param experimentLabels the experiments to assign the users to
+     * @param users            each user with its segmentation profile, which may be null
+     * @param results          receives each user with its assignments, as returned by {@link #doBatchAssignments}
+     * @return the number of users assigned
+     */
+    long doBulkAssignments(Application.Name applicationName, Context context, boolean createAssignment,
+                           Set<Experiment.Label> experimentLabels,
+                           Iterator<Map.Entry<User.ID, Map<String, Object>>> users,
+                           BiConsumer<User.ID, List<Map>> results);
+
     /**
      * Check if a user is in an experiment which is mutually exclusive with the given experiment
      *
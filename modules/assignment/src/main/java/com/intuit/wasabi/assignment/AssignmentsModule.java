@@ -15,10 +15,16 @@
  *******************************************************************************/
 package com.intuit.wasabi.assignment;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
+import com.intuit.wasabi.assignment.impl.AssignedUserFilter;
+import com.intuit.wasabi.assignment.impl.AssignmentCacheWarmer;
+import com.intuit.wasabi.assignment.impl.AssignmentIngestionPublisher;
+import com.intuit.wasabi.assignment.impl.AssignmentNearCache;
+import com.intuit.wasabi.assignment.impl.AssignmentSingleFlight;
+import com.intuit.wasabi.assignment.impl.AssignmentWriteBehind;
+import com.intuit.wasabi.assignment.impl.BulkAssignmentPipeline;
 import com.intuit.wasabi.assignmentobjects.AssignmentEnvelopePayload;
 import com.intuit.wasabi.exceptions.AssignmentException;
 import com.intuit.wasabi.export.DatabaseExport;
@@ -30,8 +36,6 @@ import org.slf4j.Logger;
 
 import java.net.URI;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import static com.google.common.base.Optional.fromNullable;
 import static com.google.inject.Scopes.SINGLETON;
@@ -39,8 +43,9 @@ import static com.google.inject.name.Names.named;
 import static com.intuit.autumn.utils.PropertyFactory.create;
 import static com.intuit.autumn.utils.PropertyFactory.getProperty;
 import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
+import static java.lang.Double.parseDouble;
 import static java.lang.Integer.parseInt;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class AssignmentsModule extends AbstractModule {
@@ -64,7 +69,14 @@ public class AssignmentsModule extends AbstractModule {
         Properties properties = create(PROPERTY_NAME, AssignmentsModule.class);
 
         bindAssignmentAndDecorator(properties);
-        bindRuleCacheThreadPool(properties);
+        bindAssignmentWriteBehind(properties);
+        bindAssignmentNearCache(properties);
+        bindAssignedUserFilter(properties);
+        bindBulkAssignmentPipeline(properties);
+        bindAssignmentIngestionPublisher(properties);
+        bindAssignmentRequestTimeout(properties);
+        bindAssignmentSingleFlight(properties);
+        bindAssignmentCacheWarmer(properties);
 
         String databaseAssignmentClassName = getProperty("export.rest.assignment.db.class.name", properties,
                 "com.intuit.wasabi.assignment.impl.NoopDatabaseAssignmentEnvelope");
@@ -100,6 +112,90 @@ public class AssignmentsModule extends AbstractModule {
         LOGGER.debug("installed module: {}", AssignmentsModule.class.getSimpleName());
     }
 
+    private void bindAssignmentWriteBehind(final Properties properties) {
+        bind(Boolean.class).annotatedWith(named("assignment.write.behind.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.write.behind.enabled", properties,
+                        FALSE.toString())));
+        bind(Integer.class).annotatedWith(named("assignment.write.behind.queue.size"))
+                .toInstance(parseInt(getProperty("assignment.write.behind.queue.size", properties, "100000")));
+        bind(Integer.class).annotatedWith(named("assignment.write.behind.flush.size"))
+                .toInstance(parseInt(getProperty("assignment.write.behind.flush.size", properties, "500")));
+        bind(Integer.class).annotatedWith(named("assignment.write.behind.flush.interval.ms"))
+                .toInstance(parseInt(getProperty("assignment.write.behind.flush.interval.ms", properties, "50")));
+        bind(Integer.class).annotatedWith(named("assignment.write.behind.pool.size"))
+                .toInstance(parseInt(getProperty("assignment.write.behind.pool.size", properties, "20")));
+        bind(AssignmentWriteBehind.class).in(SINGLETON);
+    }
+
+    private void bindAssignmentNearCache(final Properties properties) {
+        bind(Boolean.class).annotatedWith(named("assignment.near.cache.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.near.cache.enabled", properties,
+                        FALSE.toString())));
+        bind(Integer.class).annotatedWith(named("assignment.near.cache.max.size"))
+                .toInstance(parseInt(getProperty("assignment.near.cache.max.size", properties, "1000000")));
+        bind(Integer.class).annotatedWith(named("assignment.near.cache.ttl.seconds"))
+                .toInstance(parseInt(getProperty("assignment.near.cache.ttl.seconds", properties, "300")));
+        bind(AssignmentNearCache.class).in(SINGLETON);
+    }
+
+    private void bindAssignedUserFilter(final Properties properties) {
+        bind(Boolean.class).annotatedWith(named("assignment.filter.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.filter.enabled", properties,
+                        FALSE.toString())));
+        bind(Integer.class).annotatedWith(named("assignment.filter.expected.insertions"))
+                .toInstance(parseInt(getProperty("assignment.filter.expected.insertions", properties, "1000000")));
+        bind(Double.class).annotatedWith(named("assignment.filter.fpp"))
+                .toInstance(parseDouble(getProperty("assignment.filter.fpp", properties, "0.01")));
+        bind(Integer.class).annotatedWith(named("assignment.filter.max.experiments"))
+                .toInstance(parseInt(getProperty("assignment.filter.max.experiments", properties, "100")));
+        bind(Integer.class).annotatedWith(named("assignment.filter.rebuild.seconds"))
+                .toInstance(parseInt(getProperty("assignment.filter.rebuild.seconds", properties, "300")));
+        bind(AssignedUserFilter.class).in(SINGLETON);
+    }
+
+    private void bindBulkAssignmentPipeline(final Properties properties) {
+        bind(Integer.class).annotatedWith(named("assignment.bulk.pool.size"))
+                .toInstance(parseInt(getProperty("assignment.bulk.pool.size", properties, "32")));
+        bind(Integer.class).annotatedWith(named("assignment.bulk.max.in.flight"))
+                .toInstance(parseInt(getProperty("assignment.bulk.max.in.flight", properties, "64")));
+        bind(BulkAssignmentPipeline.class).in(SINGLETON);
+    }
+
+    private void bindAssignmentIngestionPublisher(final Properties properties) {
+        bind(Integer.class).annotatedWith(named("assignment.ingestion.queue.size"))
+                .toInstance(parseInt(getProperty("assignment.ingestion.queue.size", properties, "65536")));
+        bind(Integer.class).annotatedWith(named("assignment.ingestion.drain.size"))
+                .toInstance(parseInt(getProperty("assignment.ingestion.drain.size", properties, "256")));
+        bind(AssignmentIngestionPublisher.class).in(SINGLETON);
+    }
+
+    private void bindAssignmentRequestTimeout(final Properties properties) {
+        bind(Integer.class).annotatedWith(named("assignment.request.timeout.ms"))
+                .toInstance(parseInt(getProperty("assignment.request.timeout.ms", properties, "0")));
+    }
+
+    private void bindAssignmentSingleFlight(final Properties properties) {
+        bind(Boolean.class).annotatedWith(named("assignment.single.flight.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.single.flight.enabled", properties,
+                        TRUE.toString())));
+        bind(Integer.class).annotatedWith(named("assignment.single.flight.max.in.flight"))
+                .toInstance(parseInt(getProperty("assignment.single.flight.max.in.flight", properties, "10000")));
+        bind(Integer.class).annotatedWith(named("assignment.single.flight.timeout.ms"))
+                .toInstance(parseInt(getProperty("assignment.single.flight.timeout.ms", properties, "1000")));
+        bind(AssignmentSingleFlight.class).in(SINGLETON);
+    }
+
+    private void bindAssignmentCacheWarmer(final Properties properties) {
+        bind(Boolean.class).annotatedWith(named("assignment.warmup.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.warmup.enabled", properties,
+                        TRUE.toString())));
+        bind(Integer.class).annotatedWith(named("assignment.warmup.threads"))
+                .toInstance(parseInt(getProperty("assignment.warmup.threads", properties, "8")));
+        bind(Integer.class).annotatedWith(named("assignment.warmup.timeout.ms"))
+                .toInstance(parseInt(getProperty("assignment.warmup.timeout.ms", properties, "60000")));
+        bind(AssignmentCacheWarmer.class).in(SINGLETON);
+    }
+
     private void bindAssignmentAndDecorator(final Properties properties) {
         boolean assignmentDecoratorEnabled = Boolean.parseBoolean(getProperty("assignment.decorator.enabled",
                 properties, FALSE.toString()));
@@ -133,16 +229,4 @@ public class AssignmentsModule extends AbstractModule {
         }
     }
 
-    private void bindRuleCacheThreadPool(final Properties properties) {
-        LinkedBlockingQueue<Runnable> ruleCacheQueue = new LinkedBlockingQueue<>();
-        int ruleCacheThreadPoolSize = parseInt(getProperty("ruleCache.executor.pool.size", properties, "5"));
-        ThreadPoolExecutor ruleCacheExecutor = new ThreadPoolExecutor(ruleCacheThreadPoolSize,
-                ruleCacheThreadPoolSize, 0L, MILLISECONDS, ruleCacheQueue, new ThreadFactoryBuilder()
-                .setNameFormat("RuleCache-%d")
-                .setDaemon(true)
-                .build());
-
-        bind(ThreadPoolExecutor.class).annotatedWith(named("ruleCache.threadPool")).toInstance(ruleCacheExecutor);
-    }
-
 }
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+import org.slf4j.Logger;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Node-local, per-experiment Bloom filters of the users assigned to an experiment.
+ *
+ * A filter answers whether a user might be assigned to an experiment: if it says no, the user is not assigned as
+ * far as this node knows and the repository read can be skipped. While an experiment ramps up most users are not
+ * assigned yet, which makes most look-ups of first-time assignments avoidable.
+ *
+ * Filters are built in the background from {@link AssignmentsRepository#visitAssignedUsers}, and until the filter
+ * of an experiment is built every user might be assigned. Assignments made on this node are added as they are
+ * made, while assignments made on other nodes are only picked up by the rebuild every
+ * {@code assignment.filter.rebuild.seconds}. Without requests being routed to nodes by user, an assignment made
+ * elsewhere can go unnoticed for that long. A "not assigned" answer is therefore only given for experiments with
+ * hashed assignment, where assigning the user again gives the same bucket; for all other experiments every user
+ * might be assigned. For the same reason the filters must not stand in for the reads of mutual exclusion checks.
+ * Removed assignments stay in a filter, which only makes it answer "might be assigned" more often.
+ *
+ * Each filter is sized for {@code assignment.filter.expected.insertions} users, or twice the users it held when
+ * it is rebuilt, at a false positive probability of {@code assignment.filter.fpp}, and at most
+ * {@code assignment.filter.max.experiments} filters are kept.
+ */
+public class AssignedUserFilter {
+
+    private static final Logger LOGGER = getLogger(AssignedUserFilter.class);
+
+    private final AssignmentsRepository assignmentsRepository;
+    private final boolean enabled;
+    private final int expectedInsertions;
+    private final double fpp;
+    private final long rebuildMillis;
+    private Cache<Experiment.ID, ExperimentFilter> filters;
+    private Executor buildExecutor;
+    private final Set<Experiment.ID> building = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong skippedReads = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong failedBuilds = new AtomicLong();
+
+    /**
+     * @param assignmentsRepository the repository the assigned users are read from
+     * @param enabled               whether assigned users are filtered at all
+     * @param expectedInsertions    the number of users a filter is sized for at least
+     * @param fpp                   the false positive probability a filter is sized for
+     * @param maxExperiments        the maximum number of filters
+     * @param rebuildSeconds        seconds after which a filter is rebuilt from the repository
+     */
+    @Inject
+    public AssignedUserFilter(final AssignmentsRepository assignmentsRepository,
+                              final @Named("assignment.filter.enabled") Boolean enabled,
+                              final @Named("assignment.filter.expected.insertions") Integer expectedInsertions,
+                              final @Named("assignment.filter.fpp") Double fpp,
+                              final @Named("assignment.filter.max.experiments") Integer maxExperiments,
+                              final @Named("assignment.filter.rebuild.seconds") Integer rebuildSeconds) {
+        this(assignmentsRepository, enabled, expectedInsertions, fpp, maxExperiments, rebuildSeconds,
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("assigned-user-filter-build").setDaemon(true).build()));
+    }
+
+    /**
+     * Builds the filters with the given executor instead of a background thread of their own.
+     */
+    AssignedUserFilter(final AssignmentsRepository assignmentsRepository, final Boolean enabled,
+                       final Integer expectedInsertions, final Double fpp, final Integer maxExperiments,
+                       final Integer rebuildSeconds, final Executor buildExecutor) {
+        this.assignmentsRepository = assignmentsRepository;
+        this.enabled = enabled && expectedInsertions > 0 && maxExperiments > 0;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.rebuildMillis = SECONDS.toMillis(rebuildSeconds);
+
+        if (this.enabled) {
+            filters = CacheBuilder.newBuilder()
+                    .maximumSize(maxExperiments)
+                    .build();
+            this.buildExecutor = buildExecutor;
+        }
+    }
+
+    /**
+     * @return whether assigned users are filtered
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checks whether a user might be assigned to an experiment with hashed assignment, and starts building its
+     * filter if there is none.
+     *
+     * @param experiment the experiment
+     * @param userID     the user
+     * @param context    the context
+     * @return false if the experiment has hashed assignment and the user is not assigned to it as far as this
+     * node knows
+     */
+    public boolean mightBeAssigned(Experiment experiment, User.ID userID, Context context) {
+        if (!enabled || !Boolean.TRUE.equals(experiment.getIsHashedAssignment())) {
+            return true;
+        }
+        ExperimentFilter filter = filters.getIfPresent(experiment.getID());
+        if (filter == null || filter.isStale(System.currentTimeMillis() - rebuildMillis)) {
+            scheduleBuild(experiment);
+        }
+        if (filter == null || filter.mightContain(member(userID, context))) {
+            return true;
+        }
+        skippedReads.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Adds an assignment to the filter of its experiment, if there is one. Must be called before the assignment
+     * is persisted, so that no reader can learn about it from the repository but miss it in the filter.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     */
+    public void add(Experiment.ID experimentID, User.ID userID, Context context) {
+        if (enabled) {
+            ExperimentFilter filter = filters.getIfPresent(experimentID);
+            if (filter != null) {
+                filter.put(member(userID, context));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the filter of an experiment from the repository in the background, for example after assignments
+     * were imported.
+     *
+     * @param experiment the experiment
+     */
+    public void rebuild(Experiment experiment) {
+        if (enabled) {
+            scheduleBuild(experiment);
+        }
+    }
+
+    /**
+     * Reports the number, expected false positive probability and size of the filters, and the repository reads
+     * they skipped. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (!enabled) {
+            return;
+        }
+        register(metricRegistry, "experiments", () -> filters.size());
+        register(metricRegistry, "skippedReads", this::getSkippedReads);
+        register(metricRegistry, "builds", this::getBuilds);
+        register(metricRegistry, "failedBuilds", failedBuilds::get);
+        register(metricRegistry, "maxExpectedFpp", this::getMaxExpectedFpp);
+        register(metricRegistry, "estimatedBytes", this::getEstimatedBytes);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignedUserFilter.class, name), gauge);
+    }
+
+    /**
+     * @return number of repository reads skipped so far
+     */
+    long getSkippedReads() {
+        return skippedReads.get();
+    }
+
+    /**
+     * @return number of filters built so far
+     */
+    long getBuilds() {
+        return builds.get();
+    }
+
+    /**
+     * @return highest expected false positive probability of the filters
+     */
+    double getMaxExpectedFpp() {
+        double maxExpectedFpp = 0;
+        if (enabled) {
+            for (ExperimentFilter filter : filters.asMap().values()) {
+                maxExpectedFpp = Math.max(maxExpectedFpp, filter.expectedFpp());
+            }
+        }
+        return maxExpectedFpp;
+    }
+
+    /**
+     * @return estimated memory footprint of the filters
+     */
+    long getEstimatedBytes() {
+        long estimatedBytes = 0;
+        if (enabled) {
+            for (ExperimentFilter filter : filters.asMap().values()) {
+                estimatedBytes += filter.estimatedBytes(fpp);
+            }
+        }
+        return estimatedBytes;
+    }
+
+    private void scheduleBuild(final Experiment experiment) {
+        final Experiment.ID experimentID = experiment.getID();
+        if (!building.add(experimentID)) {
+            return;
+        }
+        try {
+            // Assignments made from now on go into the filter being built as well
+            final ExperimentFilter filter = filters.asMap().computeIfAbsent(experimentID, id -> new ExperimentFilter());
+            int capacity = filter.nextCapacity(expectedInsertions);
+            filter.startBuild(BloomFilter.create(Funnels.unencodedCharsFunnel(), capacity, fpp), capacity);
+
+            buildExecutor.execute(() -> {
+                try {
+                    build(experiment, filter);
+                } finally {
+                    building.remove(experimentID);
+                }
+            });
+        } catch (RuntimeException e) {
+            building.remove(experimentID);
+            LOGGER.warn("Unable to schedule the assigned user filter build of experiment {}", experimentID, e);
+        }
+    }
+
+    private void build(Experiment experiment, final ExperimentFilter filter) {
+        Experiment.ID experimentID = experiment.getID();
+        long start = System.currentTimeMillis();
+        try {
+            // Assignments are exported by the hour of their creation, which cannot be earlier than the experiment's
+            boolean complete = experiment.getCreationTime() != null
+                    && assignmentsRepository.visitAssignedUsers(experimentID, experiment.getCreationTime(),
+                    new Date(start), (userID, context) -> filter.putBuilding(member(userID, context)));
+            if (complete) {
+                filter.finishBuild(start);
+                builds.incrementAndGet();
+                LOGGER.debug("Built the assigned user filter of experiment {} in {} ms", experimentID,
+                        System.currentTimeMillis() - start);
+            } else {
+                // Nothing to build from: retry after the rebuild interval, answering "might be assigned" until then
+                filter.abortBuild(start);
+            }
+        } catch (RuntimeException e) {
+            filter.abortBuild(start);
+            failedBuilds.incrementAndGet();
+            LOGGER.warn("Unable to build the assigned user filter of experiment {}", experimentID, e);
+        }
+    }
+
+    private static String member(User.ID userID, Context context) {
+        return context.getContext() + '\u0000' + userID.toString();
+    }
+
+    /**
+     * The filter of one experiment. Guava's Bloom filters are not thread-safe, hence the synchronization.
+     */
+    private static final class ExperimentFilter {
+
+        private BloomFilter<CharSequence> current;
+        private BloomFilter<CharSequence> next;
+        private int insertions;
+        private int nextInsertions;
+        private int capacity;
+        private int nextCapacity;
+        private long builtAt;
+
+        synchronized boolean mightContain(String member) {
+            return current == null || current.mightContain(member);
+        }
+
+        synchronized void put(String member) {
+            if (current != null && current.put(member)) {
+                insertions++;
+            }
+            putBuilding(member);
+        }
+
+        synchronized void putBuilding(String member) {
+            if (next != null && next.put(member)) {
+                nextInsertions++;
+            }
+        }
+
+        synchronized void startBuild(BloomFilter<CharSequence> next, int nextCapacity) {
+            this.next = next;
+            this.nextInsertions = 0;
+            this.nextCapacity = nextCapacity;
+        }
+
+        /**
+         * Replaces the filter by the one built. Unless the filter grew, the users of the old filter are kept, so
+         * that assignments made on this node whose export had not been written yet when it was read are kept too.
+         */
+        synchronized void finishBuild(long startedAt) {
+            if (current != null && next.isCompatible(current)) {
+                next.putAll(current);
+                nextInsertions = Math.max(insertions, nextInsertions);
+            }
+            current = next;
+            insertions = nextInsertions;
+            capacity = nextCapacity;
+            next = null;
+            builtAt = startedAt;
+        }
+
+        synchronized void abortBuild(long startedAt) {
+            next = null;
+            builtAt = startedAt;
+        }
+
+        synchronized boolean isStale(long threshold) {
+            return next == null && builtAt < threshold;
+        }
+
+        /**
+         * @return the capacity of the next filter: the current one, unless it is more than half full
+         */
+        synchronized int nextCapacity(int expectedInsertions) {
+            return 2 * insertions <= capacity ? Math.max(capacity, expectedInsertions) : 2 * insertions;
+        }
+
+        synchronized double expectedFpp() {
+            return current == null ? 0 : current.expectedFpp();
+        }
+
+        /**
+         * @return the memory taken by the bits of the filter and of the filter being built, if any
+         */
+        synchronized long estimatedBytes(double fpp) {
+            long bits = bitSize(current == null ? 0 : capacity, fpp) + bitSize(next == null ? 0 : nextCapacity, fpp);
+            return bits / 8;
+        }
+
+        private static long bitSize(int capacity, double fpp) {
+            return (long) (-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        }
+    }
+}
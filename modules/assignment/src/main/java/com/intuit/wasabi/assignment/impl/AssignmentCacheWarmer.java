@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.RuleCache;
+import com.intuit.wasabi.experiment.Pages;
+import com.intuit.wasabi.experiment.Priorities;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.experimentobjects.Page;
+import com.intuit.wasabi.repository.CassandraRepository;
+import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Loads the metadata read on the assignment path into the node-local caches before the node takes traffic.
+ *
+ * For every application the running and paused experiments are loaded together with their label mappings,
+ * buckets, exclusions and exclusion graph, their segmentation rules are parsed and compiled, and the priority
+ * list and page routes are built. Applications are warmed up in parallel on {@code assignment.warmup.threads}
+ * threads. Warm-up gives up after {@code assignment.warmup.timeout.ms}; the node is ready then all the same, and
+ * whatever was not loaded is read through on first use, as without warm-up. Failures are logged and counted but
+ * do not hold up the node either.
+ */
+public class AssignmentCacheWarmer {
+
+    private static final Logger LOGGER = getLogger(AssignmentCacheWarmer.class);
+
+    /**
+     * The states of the warm-up
+     */
+    public enum State {
+        PENDING, WARMING_UP, READY, TIMED_OUT, DISABLED
+    }
+
+    private final ExperimentRepository repository;
+    private final MetadataCache metadataCache;
+    private final RuleCache ruleCache;
+    private final Priorities priorities;
+    private final Pages pages;
+    private final boolean enabled;
+    private final int threads;
+    private final long timeoutMillis;
+    private final AtomicInteger applications = new AtomicInteger();
+    private final AtomicInteger applicationsDone = new AtomicInteger();
+    private final AtomicInteger experiments = new AtomicInteger();
+    private final AtomicInteger rules = new AtomicInteger();
+    private final AtomicInteger pageRoutes = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile State state;
+    private volatile long startTime;
+    private volatile long elapsedMillis;
+
+    /**
+     * @param repository    the experiment repository, to list the applications
+     * @param metadataCache the cache of experiments, buckets and exclusions
+     * @param ruleCache     the cache of segmentation rules
+     * @param priorities    the priority lists
+     * @param pages         the page routes
+     * @param enabled       whether the caches are warmed up at all
+     * @param threads       the number of applications warmed up in parallel
+     * @param timeoutMillis the time budget of the warm-up
+     */
+    @Inject
+    public AssignmentCacheWarmer(final @CassandraRepository ExperimentRepository repository,
+                                 final MetadataCache metadataCache,
+                                 final RuleCache ruleCache,
+                                 final Priorities priorities,
+                                 final Pages pages,
+                                 final @Named("assignment.warmup.enabled") Boolean enabled,
+                                 final @Named("assignment.warmup.threads") Integer threads,
+                                 final @Named("assignment.warmup.timeout.ms") Integer timeoutMillis) {
+        this.repository = repository;
+        this.metadataCache = metadataCache;
+        this.ruleCache = ruleCache;
+        this.priorities = priorities;
+        this.pages = pages;
+        this.enabled = enabled && timeoutMillis > 0;
+        this.threads = Math.max(1, threads);
+        this.timeoutMillis = timeoutMillis;
+        this.state = this.enabled ? State.PENDING : State.DISABLED;
+    }
+
+    /**
+     * Reports the progress of the warm-up: applications done of all, experiments, rules and page routes loaded,
+     * failed applications and the time spent. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (!enabled) {
+            return;
+        }
+        register(metricRegistry, "applications", this::getApplications);
+        register(metricRegistry, "applicationsDone", this::getApplicationsDone);
+        register(metricRegistry, "experiments", this::getExperiments);
+        register(metricRegistry, "rules", this::getRules);
+        register(metricRegistry, "pageRoutes", this::getPageRoutes);
+        register(metricRegistry, "failures", this::getFailures);
+        register(metricRegistry, "elapsedMillis", this::getElapsedMillis);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignmentCacheWarmer.class, name), gauge);
+    }
+
+    /**
+     * Warms up the caches, returning when all applications are done or the time budget is spent.
+     *
+     * @return false if the time budget was spent before all applications were done
+     * @throws InterruptedException if interrupted while waiting for the applications
+     */
+    public boolean warmUp() throws InterruptedException {
+        if (!enabled) {
+            return true;
+        }
+
+        startTime = System.currentTimeMillis();
+        state = State.WARMING_UP;
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("assignment-warmup-%d").setDaemon(true).build());
+        try {
+            List<Application.Name> applicationNames = repository.getApplicationsList();
+            applications.set(applicationNames.size());
+            LOGGER.info("Warming up the assignment caches of {} applications", applicationNames.size());
+
+            for (Application.Name applicationName : applicationNames) {
+                executor.execute(() -> warmUp(applicationName));
+            }
+            executor.shutdown();
+            boolean done = executor.awaitTermination(timeoutMillis, MILLISECONDS);
+
+            state = done ? State.READY : State.TIMED_OUT;
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            state = State.READY;
+            LOGGER.warn("Could not list the applications to warm up, caches are loaded on first use", e);
+        } finally {
+            executor.shutdownNow();
+            elapsedMillis = System.currentTimeMillis() - startTime;
+            // Interrupted while waiting: the node must not stay unready
+            if (state == State.WARMING_UP) {
+                state = State.TIMED_OUT;
+            }
+        }
+
+        if (state == State.TIMED_OUT) {
+            LOGGER.warn("Gave up warming up the assignment caches: {}", getProgress());
+        } else {
+            LOGGER.info("Warmed up the assignment caches: {}", getProgress());
+        }
+        return state != State.TIMED_OUT;
+    }
+
+    private void warmUp(Application.Name applicationName) {
+        try {
+            Table<Experiment.ID, Experiment.Label, Experiment> experimentList =
+                    metadataCache.getExperimentList(applicationName);
+            List<Experiment.ID> experimentIDs = new ArrayList<>();
+            for (Experiment experiment : experimentList.values()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (experiment.getState() != Experiment.State.RUNNING
+                        && experiment.getState() != Experiment.State.PAUSED) {
+                    continue;
+                }
+                experimentIDs.add(experiment.getID());
+                metadataCache.getExperiment(applicationName, experiment.getLabel());
+                if (experiment.getRule() != null && !experiment.getRule().isEmpty()) {
+                    ruleCache.getCompiledRule(experiment.getID(), experiment.getRule());
+                    rules.incrementAndGet();
+                }
+            }
+            metadataCache.getBucketList(experimentIDs);
+            metadataCache.getExclusivesList(experimentIDs);
+            metadataCache.getExclusionGraph(applicationName);
+            experiments.addAndGet(experimentIDs.size());
+
+            priorities.getPriorities(applicationName, false);
+            for (Page page : pages.getPageList(applicationName)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                pages.getPageRoute(applicationName, page.getName());
+                pageRoutes.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            LOGGER.warn("Could not warm up the assignment caches of application {}", applicationName, e);
+        } finally {
+            applicationsDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return whether the node may take traffic: warm-up is done, timed out or disabled
+     */
+    public boolean isReady() {
+        State current = state;
+        return current == State.READY || current == State.TIMED_OUT || current == State.DISABLED;
+    }
+
+    /**
+     * @return the warm-up state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the progress of the warm-up, for the health check and the log
+     */
+    public String getProgress() {
+        return applicationsDone.get() + " of " + applications.get() + " applications, " + experiments.get()
+                + " experiments, " + rules.get() + " rules, " + pageRoutes.get() + " page routes, "
+                + failures.get() + " failures in " + getElapsedMillis() + " ms";
+    }
+
+    int getApplications() {
+        return applications.get();
+    }
+
+    int getApplicationsDone() {
+        return applicationsDone.get();
+    }
+
+    int getExperiments() {
+        return experiments.get();
+    }
+
+    int getRules() {
+        return rules.get();
+    }
+
+    int getPageRoutes() {
+        return pageRoutes.get();
+    }
+
+    int getFailures() {
+        return failures.get();
+    }
+
+    long getElapsedMillis() {
+        return state == State.WARMING_UP ? System.currentTimeMillis() - startTime : elapsedMillis;
+    }
+}
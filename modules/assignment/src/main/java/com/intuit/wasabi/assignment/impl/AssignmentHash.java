@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Deterministic replacement for the die rolls of experiments with hashed assignment enabled.
+ *
+ * A roll is a uniformly distributed value in [0, 1) derived from a MurmurHash3 of the experiment,
+ * user and context, so every node computes the same bucket for the same user without a repository read.
+ * Sampling and bucket selection use differently seeded hashes so the two decisions stay independent.
+ */
+final class AssignmentHash {
+
+    private static final HashFunction SAMPLING = Hashing.murmur3_128(0x5a3b1e07);
+    private static final HashFunction BUCKET = Hashing.murmur3_128(0x2c9f4d61);
+
+    /** Scales the top 53 bits of a hash to a double in [0, 1) */
+    private static final double UNIT = 0x1.0p-53;
+
+    private AssignmentHash() {
+    }
+
+    /**
+     * @param experimentID experiment id
+     * @param userID       user id
+     * @param context      context of the assignment
+     * @return the roll compared against the experiment sampling percent
+     */
+    static double samplingRoll(Experiment.ID experimentID, User.ID userID, Context context) {
+        return roll(SAMPLING, experimentID, userID, context);
+    }
+
+    /**
+     * @param experimentID experiment id
+     * @param userID       user id
+     * @param context      context of the assignment
+     * @return the roll compared against the cumulative bucket allocation percents
+     */
+    static double bucketRoll(Experiment.ID experimentID, User.ID userID, Context context) {
+        return roll(BUCKET, experimentID, userID, context);
+    }
+
+    private static double roll(HashFunction function, Experiment.ID experimentID, User.ID userID,
+                               Context context) {
+        long hash = function.newHasher()
+                .putString(experimentID.toString(), UTF_8)
+                .putChar('|')
+                .putString(userID.toString(), UTF_8)
+                .putChar('|')
+                .putString(context != null ? context.toString() : "", UTF_8)
+                .hash()
+                .asLong();
+        return (hash >>> 11) * UNIT;
+    }
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignment.AssignmentIngestionExecutor;
+import com.intuit.wasabi.assignmentobjects.AssignmentEnvelopePayload;
+import com.intuit.wasabi.util.MpscRingBuffer;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Hands assignments to the real time ingestion executors off the request thread.
+ *
+ * A request builds one {@link AssignmentEnvelopePayload} per assignment and offers it to a bounded lock-free ring
+ * buffer, which never blocks. A single publisher thread drains the buffer in batches of up to
+ * {@code assignment.ingestion.drain.size} payloads and passes every payload to every executor; the executors share
+ * the payload and its JSON, which is serialized at most once. Payloads offered while
+ * {@code assignment.ingestion.queue.size} payloads are buffered are dropped and counted. Without executors nothing
+ * is buffered and no thread is started.
+ */
+public class AssignmentIngestionPublisher {
+
+    private static final Logger LOGGER = getLogger(AssignmentIngestionPublisher.class);
+    /**
+     * Dropped payloads are logged once per this many
+     */
+    private static final long DROPPED_LOG_INTERVAL = 1000;
+
+    private final List<AssignmentIngestionExecutor> executors;
+    private final MpscRingBuffer<AssignmentEnvelopePayload> buffer;
+    private final int drainSize;
+    private final AtomicBoolean parked = new AtomicBoolean();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Thread publisher;
+    private volatile boolean stopped;
+
+    /**
+     * @param executors the executors to ingest the assignments to
+     * @param queueSize the maximum number of buffered payloads
+     * @param drainSize the maximum number of payloads published per batch
+     */
+    @Inject
+    public AssignmentIngestionPublisher(final Map<String, AssignmentIngestionExecutor> executors,
+                                        final @Named("assignment.ingestion.queue.size") Integer queueSize,
+                                        final @Named("assignment.ingestion.drain.size") Integer drainSize) {
+        this.executors = new ArrayList<>(executors.values());
+        this.buffer = new MpscRingBuffer<>(this.executors.isEmpty() ? 1 : Math.max(1, queueSize));
+        this.drainSize = Math.max(1, drainSize);
+
+        if (!this.executors.isEmpty()) {
+            publisher = new ThreadFactoryBuilder().setNameFormat("assignment-ingestion-publisher").setDaemon(true)
+                    .build().newThread(this::run);
+            publisher.start();
+        }
+    }
+
+    /**
+     * Reports the backlog and the published, dropped and failed payloads. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (!isEnabled()) {
+            return;
+        }
+        register(metricRegistry, "backlog", this::getBacklog);
+        register(metricRegistry, "published", this::getPublished);
+        register(metricRegistry, "dropped", this::getDropped);
+        register(metricRegistry, "failed", this::getFailed);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignmentIngestionPublisher.class, name), gauge);
+    }
+
+    /**
+     * Queues an assignment for the ingestion executors.
+     *
+     * @param payload the assignment, which must not be changed afterwards
+     * @return false if the payload was dropped because the buffer is full or the publisher is stopped
+     */
+    public boolean publish(AssignmentEnvelopePayload payload) {
+        if (executors.isEmpty()) {
+            return true;
+        }
+        if (stopped || !buffer.offer(payload)) {
+            long drops = dropped.incrementAndGet();
+            if (drops % DROPPED_LOG_INTERVAL == 1) {
+                LOGGER.warn("Dropped {} assignments for real time ingestion so far, {} of {} buffered", drops,
+                        buffer.size(), buffer.capacity());
+            }
+            return false;
+        }
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(publisher);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether there are executors to publish to
+     */
+    public boolean isEnabled() {
+        return !executors.isEmpty();
+    }
+
+    /**
+     * @return the number of buffered payloads
+     */
+    public int getBacklog() {
+        return buffer.size();
+    }
+
+    /**
+     * @return the number of payloads passed to the executors so far
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of payloads dropped so far
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of times an executor failed to take a payload so far
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting payloads and waits until the buffered payloads are passed to the executors.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return false if payloads were still buffered when the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        stopped = true;
+        Thread thread = publisher;
+        if (thread == null) {
+            return true;
+        }
+        LockSupport.unpark(thread);
+        thread.join(timeoutMillis);
+        if (thread.isAlive()) {
+            LOGGER.error("{} assignments were not passed to the ingestion executors before shutdown", buffer.size());
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            int taken = buffer.drain(this::publishToExecutors, drainSize);
+            if (taken > 0) {
+                continue;
+            }
+            if (stopped && buffer.isEmpty()) {
+                return;
+            }
+            parked.set(true);
+            // A payload offered before the flag was set would not unpark this thread, one offered after does
+            if (buffer.isEmpty() && !stopped) {
+                LockSupport.park(this);
+            }
+            parked.set(false);
+            if (Thread.currentThread().isInterrupted()) {
+                LOGGER.warn("Interrupted with {} assignments buffered for real time ingestion", buffer.size());
+                return;
+            }
+        }
+    }
+
+    private void publishToExecutors(AssignmentEnvelopePayload payload) {
+        for (AssignmentIngestionExecutor executor : executors) {
+            try {
+                executor.execute(payload);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                LOGGER.warn("Ingestion executor {} failed to take assignment of user {} to experiment {}",
+                        executor.name(), payload.getUserID(), payload.getExperimentID(), e);
+            }
+        }
+        published.incrementAndGet();
+    }
+}
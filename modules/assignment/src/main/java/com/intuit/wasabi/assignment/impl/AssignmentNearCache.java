@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Node-local cache of existing assignments: (experiment, user, context) to bucket label.
+ *
+ * Only the bucket label is kept, as an index into a table of the labels seen so far, and contexts are interned
+ * the same way, so an entry costs little more than the user id. Entries are written through by the assignment
+ * writes made on this node and expire after {@code assignment.near.cache.ttl.seconds}, which bounds how long a
+ * reassignment made on another node goes unnoticed. The least recently used entries are evicted once
+ * {@code assignment.near.cache.max.size} entries are cached.
+ *
+ * Bucket labels are returned the way {@link com.intuit.wasabi.repository.AssignmentsRepository#getAssignments}
+ * reports them: as strings, with {@link #NULL_BUCKET} for an assignment without a bucket.
+ */
+public class AssignmentNearCache {
+
+    /**
+     * The cached label of assignments without a bucket
+     */
+    public static final String NULL_BUCKET = "null";
+
+    /**
+     * Rough size of an entry, excluding the characters of the user id: key, cache entry and boxed index
+     */
+    static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private Cache<Key, Integer> assignments;
+    private final Interner bucketLabels = new Interner();
+    private final Interner contexts = new Interner();
+
+    /**
+     * @param enabled    whether assignments are cached at all
+     * @param maxSize    maximum number of cached assignments
+     * @param ttlSeconds seconds after which a cached assignment is read again
+     */
+    @Inject
+    public AssignmentNearCache(final @Named("assignment.near.cache.enabled") Boolean enabled,
+                               final @Named("assignment.near.cache.max.size") Integer maxSize,
+                               final @Named("assignment.near.cache.ttl.seconds") Integer ttlSeconds) {
+        this.enabled = enabled && maxSize > 0 && ttlSeconds > 0;
+        this.maxSize = maxSize;
+
+        if (this.enabled) {
+            assignments = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(ttlSeconds, SECONDS)
+                    .recordStats()
+                    .build();
+        }
+    }
+
+    /**
+     * @return whether assignments are cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     * @return the bucket label of the cached assignment, {@link #NULL_BUCKET} for an assignment without a bucket,
+     * or null if no assignment is cached
+     */
+    public String get(Experiment.ID experimentID, User.ID userID, Context context) {
+        if (!enabled) {
+            return null;
+        }
+        Integer bucketLabel = assignments.getIfPresent(key(experimentID, userID, context));
+        return bucketLabel == null ? null : bucketLabels.get(bucketLabel);
+    }
+
+    /**
+     * Caches an assignment.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     * @param bucketLabel  the assigned bucket, or null for an assignment without a bucket
+     */
+    public void put(Experiment.ID experimentID, User.ID userID, Context context, Bucket.Label bucketLabel) {
+        put(experimentID, userID, context, bucketLabel == null ? NULL_BUCKET : bucketLabel.toString());
+    }
+
+    /**
+     * Caches an assignment.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     * @param bucketLabel  the assigned bucket, {@link #NULL_BUCKET} for an assignment without a bucket
+     */
+    public void put(Experiment.ID experimentID, User.ID userID, Context context, String bucketLabel) {
+        if (enabled) {
+            assignments.put(key(experimentID, userID, context), bucketLabels.index(bucketLabel));
+        }
+    }
+
+    /**
+     * Removes an assignment from the cache.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     */
+    public void invalidate(Experiment.ID experimentID, User.ID userID, Context context) {
+        if (enabled) {
+            assignments.invalidate(key(experimentID, userID, context));
+        }
+    }
+
+    /**
+     * Reports the size, hit rate and evictions of the cache. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (!enabled) {
+            return;
+        }
+        register(metricRegistry, "size", this::size);
+        register(metricRegistry, "maxSize", () -> maxSize);
+        register(metricRegistry, "hitCount", () -> assignments.stats().hitCount());
+        register(metricRegistry, "missCount", () -> assignments.stats().missCount());
+        register(metricRegistry, "hitRate", () -> assignments.stats().hitRate());
+        register(metricRegistry, "evictionCount", () -> assignments.stats().evictionCount());
+        register(metricRegistry, "bucketLabels", bucketLabels::size);
+        register(metricRegistry, "estimatedBytes", this::estimatedBytes);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignmentNearCache.class, name), gauge);
+    }
+
+    /**
+     * @return number of cached assignments
+     */
+    long size() {
+        return enabled ? assignments.size() : 0;
+    }
+
+    /**
+     * @return hits, misses and evictions of the cache
+     */
+    CacheStats stats() {
+        return enabled ? assignments.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * @return estimated memory footprint of the cached assignments
+     */
+    long estimatedBytes() {
+        long size = size();
+        if (size == 0) {
+            return 0;
+        }
+        long userIDChars = 0;
+        long sampled = 0;
+        for (Key key : assignments.asMap().keySet()) {
+            userIDChars += key.userID.length();
+            if (++sampled == 1000) {
+                break;
+            }
+        }
+        long averageUserIDBytes = sampled == 0 ? 0 : 2 * userIDChars / sampled;
+        return size * (ENTRY_OVERHEAD_BYTES + averageUserIDBytes);
+    }
+
+    private Key key(Experiment.ID experimentID, User.ID userID, Context context) {
+        UUID rawID = experimentID.getRawID();
+        return new Key(rawID.getMostSignificantBits(), rawID.getLeastSignificantBits(), userID.toString(),
+                contexts.index(context.getContext()));
+    }
+
+    /**
+     * Maps the few distinct strings of a kind to small indexes and back.
+     */
+    private static final class Interner {
+
+        private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[0];
+
+        int index(String value) {
+            Integer index = indexes.get(value);
+            return index != null ? index : add(value);
+        }
+
+        String get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return values.length;
+        }
+
+        private synchronized int add(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                String[] grown = Arrays.copyOf(values, values.length + 1);
+                grown[values.length] = value;
+                values = grown;
+                index = values.length - 1;
+                indexes.put(value, index);
+            }
+            return index;
+        }
+    }
+
+    private static final class Key {
+
+        private final long experimentMostSignificantBits;
+        private final long experimentLeastSignificantBits;
+        private final String userID;
+        private final int context;
+
+        Key(long experimentMostSignificantBits, long experimentLeastSignificantBits, String userID, int context) {
+            this.experimentMostSignificantBits = experimentMostSignificantBits;
+            this.experimentLeastSignificantBits = experimentLeastSignificantBits;
+            this.userID = userID;
+            this.context = context;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return experimentMostSignificantBits == other.experimentMostSignificantBits
+                    && experimentLeastSignificantBits == other.experimentLeastSignificantBits
+                    && context == other.context
+                    && userID.equals(other.userID);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(experimentMostSignificantBits ^ experimentLeastSignificantBits);
+            result = 31 * result + userID.hashCode();
+            return 31 * result + context;
+        }
+    }
+}
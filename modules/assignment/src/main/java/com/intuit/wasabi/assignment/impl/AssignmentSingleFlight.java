@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Lets concurrent assignments of the same user to the same experiment in the same context share one computation.
+ *
+ * The first caller for an (experiment, user, context) computes the assignment; callers arriving while it is in
+ * flight wait for it and get the same assignment, without reading or writing the repository themselves, so clients
+ * that send the same request several times at once see one bucket. Only callers with the same signature, i.e. the
+ * same flags and profile, share a result; a caller with a different signature waits for the computation in flight
+ * and then computes its own, which has to find the assignment just made. A caller that waited
+ * {@code assignment.single.flight.timeout.ms} in vain, or whose computation failed, computes its own as well.
+ * Callers whose computation does not read the existing assignment pass a separate one for these cases.
+ *
+ * Only computations in flight are kept, at most {@code assignment.single.flight.max.in.flight}; beyond that callers
+ * compute on their own.
+ */
+public class AssignmentSingleFlight {
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+    private final ConcurrentMap<Key, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * @param enabled       whether concurrent assignments are coalesced at all
+     * @param maxInFlight   the maximum number of computations in flight
+     * @param timeoutMillis the maximum time a caller waits for a computation of another caller
+     */
+    @Inject
+    public AssignmentSingleFlight(final @Named("assignment.single.flight.enabled") Boolean enabled,
+                                  final @Named("assignment.single.flight.max.in.flight") Integer maxInFlight,
+                                  final @Named("assignment.single.flight.timeout.ms") Integer timeoutMillis) {
+        this.enabled = enabled && maxInFlight > 0;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Computes an assignment, or waits for the same computation already in flight.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     * @param signature    the inputs of the computation besides the key; equal signatures give equal assignments
+     * @param assignment   computes the assignment, reading the existing assignment first
+     * @return the assignment
+     */
+    public Assignment run(Experiment.ID experimentID, User.ID userID, Context context, List<?> signature,
+                          Supplier<Assignment> assignment) {
+        return run(experimentID, userID, context, signature, assignment, assignment);
+    }
+
+    /**
+     * Computes an assignment, or waits for the same computation already in flight.
+     *
+     * @param experimentID        the experiment
+     * @param userID              the user
+     * @param context             the context
+     * @param signature           the inputs of the computation besides the key; equal signatures give equal
+     *                            assignments
+     * @param assignment          computes the assignment
+     * @param assignmentAfterWait computes the assignment after waiting for another computation, which may have
+     *                            made it already; has to read the existing assignment first
+     * @return the assignment
+     */
+    public Assignment run(Experiment.ID experimentID, User.ID userID, Context context, List<?> signature,
+                          Supplier<Assignment> assignment, Supplier<Assignment> assignmentAfterWait) {
+        if (!enabled) {
+            return assignment.get();
+        }
+
+        Key key = new Key(experimentID, userID, context);
+        Supplier<Assignment> compute = assignment;
+        while (true) {
+            if (inFlight.size() >= maxInFlight) {
+                overflows.incrementAndGet();
+                return compute.get();
+            }
+
+            Flight flight = new Flight(signature);
+            Flight leader = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                return lead(key, flight, compute);
+            }
+
+            try {
+                Assignment shared = leader.result.get(timeoutMillis, MILLISECONDS);
+                if (leader.signature.equals(signature)) {
+                    coalesced.incrementAndGet();
+                    return shared;
+                }
+                // The assignment in flight was made for other inputs, it is read by the next computation
+                compute = assignmentAfterWait;
+            } catch (TimeoutException e) {
+                timedOut.incrementAndGet();
+                return assignmentAfterWait.get();
+            } catch (ExecutionException e) {
+                // The computation in flight failed, this caller tries on its own
+                return assignmentAfterWait.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return assignmentAfterWait.get();
+            }
+        }
+    }
+
+    private Assignment lead(Key key, Flight flight, Supplier<Assignment> assignment) {
+        try {
+            Assignment result = assignment.get();
+            flight.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return whether concurrent assignments are coalesced
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reports the number of computations in flight and the counters of coalesced callers, callers that timed out
+     * waiting and callers that computed on their own because too many computations were in flight. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (!enabled) {
+            return;
+        }
+        register(metricRegistry, "inFlight", this::getInFlight);
+        register(metricRegistry, "maxInFlight", () -> maxInFlight);
+        register(metricRegistry, "coalesced", this::getCoalesced);
+        register(metricRegistry, "timedOut", this::getTimedOut);
+        register(metricRegistry, "overflows", overflows::get);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignmentSingleFlight.class, name), gauge);
+    }
+
+    /**
+     * @return number of computations in flight
+     */
+    int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return number of callers that shared a computation in flight
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of callers that waited for a computation in flight in vain
+     */
+    long getTimedOut() {
+        return timedOut.get();
+    }
+
+    private static final class Flight {
+
+        private final List<?> signature;
+        private final CompletableFuture<Assignment> result = new CompletableFuture<>();
+
+        Flight(List<?> signature) {
+            this.signature = signature;
+        }
+    }
+
+    private static final class Key {
+
+        private final List<Object> parts;
+
+        Key(Experiment.ID experimentID, User.ID userID, Context context) {
+            this.parts = Arrays.<Object>asList(experimentID, userID, context);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && parts.equals(((Key) obj).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return parts.hashCode();
+        }
+    }
+}
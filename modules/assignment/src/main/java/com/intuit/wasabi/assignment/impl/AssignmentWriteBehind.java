@@ -0,0 +1,443 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Write-behind queue for new assignments.
+ *
+ * When enabled, new assignments are returned to the caller as soon as they are computed and persisted through
+ * {@link AssignmentsRepository#assignUser} in the background. Queued assignments are flushed in batches of up to
+ * {@code assignment.write.behind.flush.size} entries, or after {@code assignment.write.behind.flush.interval.ms}
+ * milliseconds, whichever comes first. Repeated assignments of the same user to the same experiment within a batch
+ * are coalesced into one write, and the writes of a batch are grouped by user, which is the partition key of the
+ * assignment tables, and issued concurrently per group. Assignments that cannot be persisted are pushed to the
+ * staging table.
+ *
+ * Only the latest queued assignment of a user to an experiment is persisted, and writes of the same user and
+ * experiment never overlap. Callers that write an assignment directly, like an explicit assignment of a user to a
+ * bucket, persist the queued one first through {@link #persistPending}, so that it can not overwrite theirs later.
+ *
+ * Only assignments to experiments with hashed assignment are queued, others are persisted by the caller. A queued
+ * assignment is visible to the reads of this node through {@link #getPending} until it is persisted, but not to
+ * other nodes; assigning a returning user there again gives the same bucket.
+ */
+public class AssignmentWriteBehind {
+
+    private static final Logger LOGGER = getLogger(AssignmentWriteBehind.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int WRITE_LOCK_STRIPES = 256;
+
+    private final AssignmentsRepository assignmentsRepository;
+    private final boolean enabled;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<PendingAssignment> queue;
+    private final ConcurrentMap<List<Object>, PendingAssignment> latestPending = new ConcurrentHashMap<>();
+    private final Striped<Lock> writeLocks = Striped.lock(WRITE_LOCK_STRIPES);
+    private ExecutorService flushExecutor;
+    private ExecutorService writeExecutor;
+    private volatile boolean stopped;
+
+    private final AtomicLong writtenAssignments = new AtomicLong();
+    private final AtomicLong coalescedAssignments = new AtomicLong();
+    private final AtomicLong failedAssignments = new AtomicLong();
+    private final AtomicLong rejectedAssignments = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+
+    /**
+     * @param assignmentsRepository the repository the assignments are persisted to
+     * @param enabled               whether new assignments are persisted in the background
+     * @param queueSize             the maximum number of queued assignments
+     * @param flushSize             the maximum number of assignments per flush
+     * @param flushIntervalMillis   the maximum time an assignment waits for a flush to fill up
+     * @param poolSize              the number of concurrent writes per flush
+     */
+    @Inject
+    public AssignmentWriteBehind(final AssignmentsRepository assignmentsRepository,
+                                 final @Named("assignment.write.behind.enabled") Boolean enabled,
+                                 final @Named("assignment.write.behind.queue.size") Integer queueSize,
+                                 final @Named("assignment.write.behind.flush.size") Integer flushSize,
+                                 final @Named("assignment.write.behind.flush.interval.ms") Integer flushIntervalMillis,
+                                 final @Named("assignment.write.behind.pool.size") Integer poolSize) {
+        this.assignmentsRepository = assignmentsRepository;
+        this.enabled = enabled;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(enabled ? queueSize : 1);
+
+        if (enabled) {
+            flushExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("assignment-write-behind-flush").setDaemon(true).build());
+            writeExecutor = Executors.newFixedThreadPool(poolSize,
+                    new ThreadFactoryBuilder().setNameFormat("assignment-write-behind-%d").setDaemon(true).build());
+            flushExecutor.execute(this::run);
+        }
+    }
+
+    /**
+     * Reports the queue metrics. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        register(metricRegistry, "backlog", this::getBacklog);
+        register(metricRegistry, "written", this::getWrittenAssignments);
+        register(metricRegistry, "coalesced", this::getCoalescedAssignments);
+        register(metricRegistry, "failed", this::getFailedAssignments);
+        register(metricRegistry, "rejected", this::getRejectedAssignments);
+        register(metricRegistry, "lastFlushMillis", this::getLastFlushMillis);
+        register(metricRegistry, "maxFlushMillis", this::getMaxFlushMillis);
+    }
+
+    private <T> void register(MetricRegistry metricRegistry, String name, Gauge<T> gauge) {
+        metricRegistry.register(MetricRegistry.name(AssignmentWriteBehind.class, name), gauge);
+    }
+
+    /**
+     * @return whether new assignments are persisted in the background
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a new assignment to an experiment with hashed assignment for persistence.
+     *
+     * @param assignment the assignment
+     * @param experiment the experiment of the assignment
+     * @param date       the assignment date
+     * @return false if the assignment was not queued and has to be persisted by the caller
+     */
+    public boolean offer(Assignment assignment, Experiment experiment, Date date) {
+        if (!enabled || stopped || !Boolean.TRUE.equals(experiment.getIsHashedAssignment())) {
+            return false;
+        }
+        PendingAssignment pending = new PendingAssignment(assignment, experiment, date);
+        List<Object> key = pending.key();
+        latestPending.put(key, pending);
+        if (!queue.offer(pending)) {
+            rejectedAssignments.incrementAndGet();
+            // An earlier queued assignment of the user must not overwrite the one the caller persists now
+            Lock lock = writeLocks.get(key);
+            lock.lock();
+            try {
+                latestPending.remove(key, pending);
+            } finally {
+                lock.unlock();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Persists the queued assignment of a user to an experiment right away, if there is one, and waits for a write
+     * of it in progress. Afterwards, assignments queued before are not persisted anymore.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     */
+    public void persistPending(Experiment.ID experimentID, User.ID userID, Context context) {
+        if (!enabled) {
+            return;
+        }
+        List<Object> key = key(experimentID, userID, context);
+        Lock lock = writeLocks.get(key);
+        lock.lock();
+        try {
+            PendingAssignment pending = latestPending.get(key);
+            if (pending != null) {
+                write(pending);
+                latestPending.remove(key, pending);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the queued assignment of a user to an experiment, which stays visible until it is persisted.
+     *
+     * @param experimentID the experiment
+     * @param userID       the user
+     * @param context      the context
+     * @return the latest queued assignment, or null if none is queued
+     */
+    public Assignment getPending(Experiment.ID experimentID, User.ID userID, Context context) {
+        if (!enabled) {
+            return null;
+        }
+        PendingAssignment pending = latestPending.get(key(experimentID, userID, context));
+        return pending != null ? pending.assignment : null;
+    }
+
+    /**
+     * @return the number of queued assignments
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of assignments persisted so far
+     */
+    public long getWrittenAssignments() {
+        return writtenAssignments.get();
+    }
+
+    /**
+     * @return the number of assignments superseded by a later assignment of the same user
+     */
+    public long getCoalescedAssignments() {
+        return coalescedAssignments.get();
+    }
+
+    /**
+     * @return the number of assignments that could not be persisted and were pushed to staging
+     */
+    public long getFailedAssignments() {
+        return failedAssignments.get();
+    }
+
+    /**
+     * @return the number of assignments the caller had to persist because the queue was full
+     */
+    public long getRejectedAssignments() {
+        return rejectedAssignments.get();
+    }
+
+    /**
+     * @return the duration of the last flush in milliseconds
+     */
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /**
+     * @return the duration of the slowest flush in milliseconds
+     */
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+
+    /**
+     * Stops accepting assignments and waits until the queued assignments are persisted.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return false if assignments were still queued when the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        stopped = true;
+        if (!enabled) {
+            return true;
+        }
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(timeoutMillis);
+        flushExecutor.shutdown();
+        boolean drained = flushExecutor.awaitTermination(timeoutMillis, MILLISECONDS);
+        // A flush that timed out leaves writes running
+        writeExecutor.shutdown();
+        drained &= writeExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), NANOSECONDS);
+        if (!drained) {
+            LOGGER.error("{} assignments were not persisted before shutdown", queue.size());
+        }
+        return drained;
+    }
+
+    private void run() {
+        List<PendingAssignment> batch = new ArrayList<>(flushSize);
+        while (!stopped || !queue.isEmpty()) {
+            try {
+                PendingAssignment first = queue.poll(flushIntervalNanos, NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fill(batch, System.nanoTime() + flushIntervalNanos);
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted with {} assignments queued", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to flush {} assignments", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void fill(List<PendingAssignment> batch, long deadline) throws InterruptedException {
+        while (batch.size() < flushSize) {
+            queue.drainTo(batch, flushSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= flushSize || remaining <= 0 || stopped) {
+                return;
+            }
+            PendingAssignment next = queue.poll(remaining, NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    void flush(List<PendingAssignment> batch) throws InterruptedException {
+        long start = System.nanoTime();
+
+        // The latest assignment of a user to an experiment wins
+        Map<List<Object>, PendingAssignment> latest = new LinkedHashMap<>();
+        for (PendingAssignment pending : batch) {
+            latest.put(pending.key(), pending);
+        }
+        coalescedAssignments.addAndGet(batch.size() - latest.size());
+
+        Map<List<Object>, List<PendingAssignment>> partitions = new LinkedHashMap<>();
+        for (PendingAssignment pending : latest.values()) {
+            List<Object> partition = Arrays.<Object>asList(pending.assignment.getUserID(),
+                    pending.assignment.getContext());
+            List<PendingAssignment> writes = partitions.get(partition);
+            if (writes == null) {
+                writes = new ArrayList<>();
+                partitions.put(partition, writes);
+            }
+            writes.add(pending);
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(partitions.size());
+        for (final List<PendingAssignment> writes : partitions.values()) {
+            tasks.add(() -> {
+                write(writes);
+                return null;
+            });
+        }
+        writeExecutor.invokeAll(tasks);
+
+        long millis = NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastFlushMillis = millis;
+        if (millis > maxFlushMillis) {
+            maxFlushMillis = millis;
+        }
+        LOGGER.debug("Flushed {} assignments in {} ms", latest.size(), millis);
+    }
+
+    private void write(Collection<PendingAssignment> writes) {
+        for (PendingAssignment pending : writes) {
+            List<Object> key = pending.key();
+            Lock lock = writeLocks.get(key);
+            lock.lock();
+            try {
+                // Skip assignments superseded by a later one, or already persisted by the caller
+                if (latestPending.get(key) == pending) {
+                    write(pending);
+                    latestPending.remove(key, pending);
+                } else {
+                    coalescedAssignments.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(PendingAssignment pending) {
+        try {
+            assignmentsRepository.assignUser(pending.assignment, pending.experiment, pending.date);
+            writtenAssignments.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedAssignments.incrementAndGet();
+            LOGGER.warn("Unable to persist assignment {}, pushing it to staging", pending.assignment, e);
+            stage(pending, e);
+        }
+    }
+
+    private static List<Object> key(Experiment.ID experimentID, User.ID userID, Context context) {
+        return Arrays.<Object>asList(experimentID, userID, context);
+    }
+
+    private void stage(PendingAssignment pending, Exception cause) {
+        try {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("experimentID", pending.assignment.getExperimentID().toString());
+            data.put("applicationName", String.valueOf(pending.assignment.getApplicationName()));
+            data.put("userID", pending.assignment.getUserID().toString());
+            data.put("context", pending.assignment.getContext().getContext());
+            data.put("bucketLabel", pending.assignment.getBucketLabel() != null
+                    ? pending.assignment.getBucketLabel().toString() : null);
+            data.put("created", pending.date != null ? pending.date.getTime() : null);
+            assignmentsRepository.pushAssignmentToStaging(cause.toString(), MAPPER.writeValueAsString(data));
+        } catch (JsonProcessingException | RuntimeException e) {
+            LOGGER.error("Unable to push assignment {} to staging, it is lost", pending.assignment, e);
+        }
+    }
+
+    static final class PendingAssignment {
+
+        private final Assignment assignment;
+        private final Experiment experiment;
+        private final Date date;
+
+        PendingAssignment(Assignment assignment, Experiment experiment, Date date) {
+            this.assignment = assignment;
+            this.experiment = experiment;
+            this.date = date;
+        }
+
+        List<Object> key() {
+            return AssignmentWriteBehind.key(assignment.getExperimentID(), assignment.getUserID(),
+                    assignment.getContext());
+        }
+    }
+}
@@ -15,10 +15,12 @@
  *******************************************************************************/
 package com.intuit.wasabi.assignment.impl;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.name.Named;
 import com.intuit.autumn.client.HttpCall;
 import com.intuit.autumn.client.impl.HttpCallImplWithConnectionPooling;
 import com.intuit.hyrule.Rule;
@@ -27,6 +29,7 @@ import com.intuit.hyrule.exceptions.InvalidInputException;
 import com.intuit.hyrule.exceptions.MissingInputException;
 import com.intuit.hyrule.exceptions.TreeStructureException;
 import com.intuit.wasabi.analyticsobjects.Parameters;
+import com.intuit.wasabi.assignment.AssignmentDeadline;
 import com.intuit.wasabi.assignment.AssignmentDecorator;
 import com.intuit.wasabi.assignment.AssignmentIngestionExecutor;
 import com.intuit.wasabi.assignment.Assignments;
@@ -43,11 +46,16 @@ import com.intuit.wasabi.experimentobjects.exceptions.WasabiException;
 import com.intuit.wasabi.export.DatabaseExport;
 import com.intuit.wasabi.export.Envelope;
 import com.intuit.wasabi.export.WebExport;
+import com.intuit.wasabi.repository.AssignmentStageMetrics;
+import com.intuit.wasabi.repository.AssignmentStageMetrics.Operation;
+import com.intuit.wasabi.repository.AssignmentStageMetrics.Stage;
 import com.intuit.wasabi.repository.AssignmentsRepository;
+import com.intuit.wasabi.repository.BucketAllocationTable;
 import com.intuit.wasabi.repository.CassandraRepository;
+import com.intuit.wasabi.repository.ExclusionGraph;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.MutexRepository;
-import com.intuit.wasabi.repository.impl.cassandra.ExperimentRuleCacheUpdateEnvelope;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import org.slf4j.Logger;
 
@@ -57,7 +65,9 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -68,11 +78,14 @@ import static org.slf4j.LoggerFactory.getLogger;
  */
 public class AssignmentsImpl implements Assignments {
 
-    protected static final String RULE_CACHE = "ruleCache";
     /**
      * Logger for the class
      */
     private static final Logger LOGGER = getLogger(AssignmentsImpl.class);
+    /**
+     * Signature of the coalesced generation of new assignments for batches, shared among batches only
+     */
+    private static final String GENERATE_ONLY = "generate";
     /**
      * Experiment repo
      */
@@ -87,13 +100,17 @@ public class AssignmentsImpl implements Assignments {
      * Assignments reo
      */
     protected final AssignmentsRepository assignmentsRepository;
+
+    /**
+     * Node-local cache of the experiment metadata read on every assignment
+     */
+    protected final MetadataCache metadataCache;
     private final SecureRandom random;
     /**
      * Executors to ingest data to real time ingestion system.
      */
     protected Map<String, AssignmentIngestionExecutor> executors;
     protected AssignmentDecorator assignmentDecorator = null;
-    protected ThreadPoolExecutor ruleCacheExecutor;
     //TODO: instead of provider type, these needs to be factories
     protected Provider<Envelope<AssignmentEnvelopePayload, DatabaseExport>> assignmentDBEnvelopeProvider;
     //TODO: instead of provider type, these needs to be factories
@@ -108,6 +125,34 @@ public class AssignmentsImpl implements Assignments {
     private Pages pages;
 
     private EventLog eventLog;
+    /**
+     * Background persistence of new assignments, if enabled
+     */
+    private AssignmentWriteBehind assignmentWriteBehind;
+    /**
+     * Node-local cache of existing assignments, if enabled
+     */
+    private AssignmentNearCache assignmentNearCache;
+    /**
+     * Filters of the users assigned to an experiment, if enabled
+     */
+    private AssignedUserFilter assignedUserFilter;
+    /**
+     * Runs the assignments of bulk assignment calls
+     */
+    private BulkAssignmentPipeline bulkAssignmentPipeline;
+    /**
+     * Hands assignments to the real time ingestion executors
+     */
+    private AssignmentIngestionPublisher assignmentIngestionPublisher;
+    /**
+     * Lets concurrent assignments of a user to an experiment share one computation
+     */
+    private AssignmentSingleFlight assignmentSingleFlight;
+    /**
+     * Sampled timers of the stages of assignments
+     */
+    private AssignmentStageMetrics stageMetrics = AssignmentStageMetrics.DISABLED;
 
     /**
      * Helper for unit tests
@@ -120,6 +165,7 @@ public class AssignmentsImpl implements Assignments {
         repository = null;
         mutexRepository = mutRepository;
         assignmentsRepository = assignmentRepository;
+        metadataCache = null;
         random = null;
     }
 
@@ -129,15 +175,22 @@ public class AssignmentsImpl implements Assignments {
      * @param repository                          CassandraRepository to connect to
      * @param assignmentsRepository               reference to AssignmentsRepository
      * @param mutexRepository                     reference to MutexRepository
+     * @param metadataCache                       cache of the experiment metadata
      * @param ruleCache                           RuleCache which has cached segmentation rules
      * @param pages                               Pages for this experiment
      * @param priorities                          Priorities for the application
      * @param assignmentDBEnvelopeProvider        AssignmentDBEnvelopeProvider
      * @param assignmentWebEnvelopeProvider       AssignmentWebEnvelopeProvider
      * @param assignmentDecorator                 The assignmentDecorator to be used
-     * @param ruleCacheExecutor                   The rule cache executor to be used
 
      * @param eventLog                            eventLog
+     * @param assignmentWriteBehind               write-behind queue for new assignments
+     * @param assignmentNearCache                 cache of existing assignments
+     * @param assignedUserFilter                  filters of the users assigned to an experiment
+     * @param bulkAssignmentPipeline              runs the assignments of bulk assignment calls
+     * @param assignmentIngestionPublisher        hands assignments to the real time ingestion executors
+     * @param assignmentSingleFlight              lets concurrent assignments of a user share one computation
+     * @param stageMetrics                        sampled timers of the stages of assignments
      * @throws IOException         io exception
      * @throws ConnectionException connection exception
      */
@@ -146,13 +199,20 @@ public class AssignmentsImpl implements Assignments {
                            final @CassandraRepository ExperimentRepository repository,
                            final AssignmentsRepository assignmentsRepository,
                            final MutexRepository mutexRepository,
+                           final MetadataCache metadataCache,
                            final RuleCache ruleCache, final Pages pages,
                            final Priorities priorities,
                            final Provider<Envelope<AssignmentEnvelopePayload, DatabaseExport>> assignmentDBEnvelopeProvider,
                            final Provider<Envelope<AssignmentEnvelopePayload, WebExport>> assignmentWebEnvelopeProvider,
                            final @Nullable AssignmentDecorator assignmentDecorator,
-                           final @Named("ruleCache.threadPool") ThreadPoolExecutor ruleCacheExecutor,
-                           final EventLog eventLog)
+                           final EventLog eventLog,
+                           final AssignmentWriteBehind assignmentWriteBehind,
+                           final AssignmentNearCache assignmentNearCache,
+                           final AssignedUserFilter assignedUserFilter,
+                           final BulkAssignmentPipeline bulkAssignmentPipeline,
+                           final AssignmentIngestionPublisher assignmentIngestionPublisher,
+                           final AssignmentSingleFlight assignmentSingleFlight,
+                           final AssignmentStageMetrics stageMetrics)
             throws IOException, ConnectionException {
         super();
 
@@ -167,10 +227,35 @@ public class AssignmentsImpl implements Assignments {
         this.assignmentWebEnvelopeProvider = assignmentWebEnvelopeProvider;
         this.assignmentDecorator = assignmentDecorator;
         this.eventLog = eventLog;
-        this.ruleCacheExecutor = ruleCacheExecutor;
         this.assignmentsRepository = assignmentsRepository;
         this.mutexRepository = mutexRepository;
+        this.metadataCache = metadataCache;
         this.eventLog = eventLog;
+        this.assignmentWriteBehind = assignmentWriteBehind;
+        this.assignmentNearCache = assignmentNearCache;
+        this.assignedUserFilter = assignedUserFilter;
+        this.bulkAssignmentPipeline = bulkAssignmentPipeline;
+        this.assignmentIngestionPublisher = assignmentIngestionPublisher;
+        this.assignmentSingleFlight = assignmentSingleFlight;
+        if (stageMetrics != null) {
+            this.stageMetrics = stageMetrics;
+        }
+    }
+
+    /**
+     * Reports the metrics of the segmentation rule cache. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(RuleCache.class, "size"), (Gauge<Integer>) ruleCache::size);
+        metricRegistry.register(MetricRegistry.name(RuleCache.class, "hitCount"),
+                (Gauge<Long>) ruleCache::getHitCount);
+        metricRegistry.register(MetricRegistry.name(RuleCache.class, "missCount"),
+                (Gauge<Long>) ruleCache::getMissCount);
+        metricRegistry.register(MetricRegistry.name(RuleCache.class, "parseCount"),
+                (Gauge<Long>) ruleCache::getParseCount);
     }
 
     /**
@@ -189,11 +274,30 @@ public class AssignmentsImpl implements Assignments {
     public Assignment getSingleAssignment(User.ID userID, Application.Name applicationName, Experiment.Label experimentLabel,
                                           Context context, boolean createAssignment, boolean ignoreSamplingPercent,
                                           SegmentationProfile segmentationProfile, HttpHeaders headers, Page.Name pageName) {
+        long start = stageMetrics.begin();
+        Assignment assignment = null;
+        try {
+            assignment = doSingleAssignment(userID, applicationName, experimentLabel, context, createAssignment,
+                    ignoreSamplingPercent, segmentationProfile, headers, pageName);
+            return assignment;
+        } finally {
+            stageMetrics.end(applicationName, Operation.SINGLE, assignment != null ? assignment.getStatus() : null,
+                    start);
+        }
+    }
+
+    private Assignment doSingleAssignment(User.ID userID, Application.Name applicationName,
+                                          Experiment.Label experimentLabel, Context context,
+                                          boolean createAssignment, boolean ignoreSamplingPercent,
+                                          SegmentationProfile segmentationProfile, HttpHeaders headers,
+                                          Page.Name pageName) {
 
         final Date currentDate = new Date();
         final long currentTime = currentDate.getTime();
 
-        Experiment experiment = repository.getExperiment(applicationName, experimentLabel);
+        long stage = stageMetrics.startStage();
+        Experiment experiment = metadataCache.getExperiment(applicationName, experimentLabel);
+        stageMetrics.endStage(applicationName, Stage.METADATA, stage);
         if (experiment == null) {
             return nullAssignment(userID, applicationName, null, Assignment.Status.EXPERIMENT_NOT_FOUND);
         }
@@ -219,7 +323,53 @@ public class AssignmentsImpl implements Assignments {
                     Assignment.Status.EXPERIMENT_EXPIRED);
         }
 
-        Assignment assignment = assignmentsRepository.getAssignment(experimentID, userID, context);
+        // Concurrent identical requests share the read and the write, and so the bucket
+        List<Object> signature = Arrays.<Object>asList(createAssignment, ignoreSamplingPercent,
+                segmentationProfile != null ? segmentationProfile.getProfile() : null);
+        SegmentationProfile profile = segmentationProfile;
+        Supplier<Assignment> getOrCreate = () -> getOrCreateAssignment(experiment, userID, applicationName, context,
+                createAssignment, ignoreSamplingPercent, profile, headers, currentDate);
+        Assignment assignment = assignmentSingleFlight != null
+                ? assignmentSingleFlight.run(experimentID, userID, context, signature, getOrCreate)
+                : getOrCreate.get();
+        if (assignment != null && (assignment.getStatus() == Assignment.Status.EXPERIMENT_PAUSED
+                || assignment.getStatus() == Assignment.Status.NO_PROFILE_MATCH)) {
+            return assignment;
+        }
+        if (assignment != null && assignment.getStatus() == Assignment.Status.NEW_ASSIGNMENT
+                && (segmentationProfile == null || segmentationProfile.getProfile() == null)) {
+            segmentationProfile = new SegmentationProfile.Builder(new HashMap()).build();
+        }
+
+        // Ingest data to real time data ingestion systems if executors exist
+        if (assignmentIngestionPublisher.isEnabled()) {
+            stage = stageMetrics.startStage();
+            assignmentIngestionPublisher.publish(new AssignmentEnvelopePayload(userID, context, createAssignment,
+                    false, ignoreSamplingPercent, segmentationProfile,
+                    assignment != null ? assignment.getStatus() : null,
+                    assignment != null ? assignment.getBucketLabel() : null, pageName, applicationName,
+                    experimentLabel, experimentID, currentDate, headers));
+            stageMetrics.endStage(applicationName, Stage.INGESTION, stage);
+        }
+
+		return assignment;
+    }
+
+    /**
+     * Reads the assignment of a user, or creates one if asked to and the user is eligible.
+     *
+     * @return the existing or new assignment, a null assignment if the experiment is paused or the profile does not
+     * match, or null if there is no assignment and none was to be created
+     */
+    private Assignment getOrCreateAssignment(Experiment experiment, User.ID userID,
+                                             Application.Name applicationName, Context context,
+                                             boolean createAssignment, boolean ignoreSamplingPercent,
+                                             SegmentationProfile segmentationProfile, HttpHeaders headers,
+                                             Date currentDate) {
+        Experiment.ID experimentID = experiment.getID();
+        long stage = stageMetrics.startStage();
+        Assignment assignment = getExistingAssignment(experiment, userID, context);
+        stageMetrics.endStage(applicationName, Stage.USER_ASSIGNMENTS, stage);
         if (assignment == null) {
             if (createAssignment) {
                 if (experiment.getState() == Experiment.State.PAUSED) {
@@ -233,14 +383,15 @@ public class AssignmentsImpl implements Assignments {
 
                 boolean selectBucket;
 
-                if (doesProfileMatch(experiment, segmentationProfile, headers, context)) {
-                    selectBucket = checkMutex(experiment, userID, context) && (ignoreSamplingPercent || (rollDie() <
-                            samplePercent));
-
-                    if (segmentationProfile == null || segmentationProfile.getProfile() == null) {
-                        Map profileMap = new HashMap();
-                        segmentationProfile = new SegmentationProfile.Builder(profileMap).build();
-                    }
+                stage = stageMetrics.startStage();
+                boolean profileMatch = doesProfileMatch(experiment, segmentationProfile, headers, context);
+                stageMetrics.endStage(applicationName, Stage.RULE, stage);
+                if (profileMatch) {
+                    stage = stageMetrics.startStage();
+                    boolean mutexAllows = checkMutex(experiment, userID, context);
+                    stageMetrics.endStage(applicationName, Stage.MUTEX, stage);
+                    selectBucket = mutexAllows && (ignoreSamplingPercent ||
+                            (samplingRoll(experiment, userID, context) < samplePercent));
                     // Generate the assignment; this always generates an assignment,
                     // which may or may not specify a bucket
                     assignment = generateAssignment(experiment, userID, context, selectBucket, currentDate);
@@ -248,9 +399,6 @@ public class AssignmentsImpl implements Assignments {
                             "Assignment status should have been NEW_ASSIGNMENT for " +
                                     "userID = \"" + userID + "\", experiment = \"" + experiment + "\"";
                 } else {
-                    ruleCacheExecutor.execute(new ExperimentRuleCacheUpdateEnvelope(experiment.getRule(),
-                            ruleCache, experimentID));
-
                     return nullAssignment(userID, applicationName, experiment.getID(),
                             Assignment.Status.NO_PROFILE_MATCH);
                 }
@@ -263,20 +411,7 @@ public class AssignmentsImpl implements Assignments {
                             experiment + "\"";
         }
 
-        // Updating rule cache
-        ruleCacheExecutor.execute(new ExperimentRuleCacheUpdateEnvelope(experiment.getRule(), ruleCache,
-                experimentID));
-
-        // Ingest data to real time data ingestion systems if executors exist
-		for (String name : executors.keySet()) {
-			executors.get(name).execute(new AssignmentEnvelopePayload(userID, context, createAssignment, false, ignoreSamplingPercent,
-                    segmentationProfile, assignment != null ? assignment.getStatus() : null,
-                    assignment != null ? assignment.getBucketLabel() : null, pageName, applicationName,
-                    experimentLabel, experimentID,
-                    currentDate, headers));
-		}
-
-		return assignment;
+        return assignment;
     }
 
     @Override
@@ -284,21 +419,43 @@ public class AssignmentsImpl implements Assignments {
                                     Application.Name appName, Experiment.Label experimentLabel,
                                     Context context, boolean createAssignment, boolean ignoreSamplingPercent,
                                     SegmentationProfile segmentationProfile, HttpHeaders headers) {
+        long start = stageMetrics.begin();
+        Assignment assignment = null;
+        try {
+            assignment = doAssignment(userID, appName, experimentLabel, context, createAssignment,
+                    ignoreSamplingPercent, segmentationProfile, headers);
+            return assignment;
+        } finally {
+            stageMetrics.end(appName, Operation.SINGLE, assignment != null ? assignment.getStatus() : null, start);
+        }
+    }
+
+    private Assignment doAssignment(User.ID userID, Application.Name appName, Experiment.Label experimentLabel,
+                                    Context context, boolean createAssignment, boolean ignoreSamplingPercent,
+                                    SegmentationProfile segmentationProfile, HttpHeaders headers) {
+        long stage = stageMetrics.startStage();
         Table<Experiment.ID, Experiment.Label, Experiment> allExperiments =
-                repository.getExperimentList(appName);
+                metadataCache.getExperimentList(appName);
         Experiment experiment = getExperimentFromTable(allExperiments, experimentLabel);
 
         if (experiment == null) {
+            stageMetrics.endStage(appName, Stage.METADATA, stage);
             return nullAssignment(userID, appName, null, Assignment.Status.EXPERIMENT_NOT_FOUND);
         }
 
-        BucketList bucketList = repository.getBucketList(experiment.getID());
+        BucketList bucketList = metadataCache.getBucketList(experiment.getID());
+        ExclusionGraph exclusionGraph = metadataCache.getExclusionGraph(appName);
+        stageMetrics.endStage(appName, Stage.METADATA, stage);
+
+        stage = stageMetrics.startStage();
         Table<Experiment.ID, Experiment.Label, String> userAssignments =
-                assignmentsRepository.getAssignments(userID, experiment.getApplicationName(), context, allExperiments);
-        Map<Experiment.ID, List<Experiment.ID>> exclusives = getExclusivesList(experiment.getID());
+                getUserAssignments(userID, experiment.getApplicationName(), context, allExperiments);
+        stageMetrics.endStage(appName, Stage.USER_ASSIGNMENTS, stage);
+        BitSet assigned = exclusionGraph.toBitSet(getNonNullUserAssignments(userAssignments));
 
         return getAssignment(userID, appName, experimentLabel, context, createAssignment, ignoreSamplingPercent,
-                segmentationProfile, headers, null, experiment, bucketList, userAssignments, exclusives);
+                segmentationProfile, headers, null, experiment, bucketList, userAssignments,
+                mutexExperiment -> checkMutex(mutexExperiment, exclusionGraph, assigned, userAssignments));
     }
 
     protected Experiment getExperimentFromTable(Table<Experiment.ID, Experiment.Label, Experiment> allExperiments,
@@ -309,7 +466,7 @@ public class AssignmentsImpl implements Assignments {
     }
 
     private Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Experiment.ID experimentID) {
-        List<Experiment.ID> exclusions = mutexRepository.getExclusionList(experimentID);
+        List<Experiment.ID> exclusions = metadataCache.getExclusionList(experimentID);
         Map<Experiment.ID, List<Experiment.ID>> result = new HashMap<>(1);
         result.put(experimentID, exclusions);
         return result;
@@ -328,6 +485,23 @@ public class AssignmentsImpl implements Assignments {
                                     Experiment experiment, BucketList bucketList,
                                     Table<Experiment.ID, Experiment.Label, String> userAssignments,
                                     Map<Experiment.ID, List<Experiment.ID>> exclusives) {
+        return getAssignment(userID, applicationName, experimentLabel, context, createAssignment,
+                ignoreSamplingPercent, segmentationProfile, headers, pageName, experiment, bucketList,
+                userAssignments, mutexExperiment -> checkMutex(mutexExperiment, userAssignments, exclusives));
+    }
+
+    /**
+     * Returns the existing assignment of a user from the assignments already read, or creates a new one.
+     *
+     * @param mutexCheck whether the user may be assigned to the experiment given their assignments to mutually
+     *                   exclusive experiments
+     */
+    private Assignment getAssignment(User.ID userID, Application.Name applicationName,
+                                     Experiment.Label experimentLabel, Context context, boolean createAssignment,
+                                     boolean ignoreSamplingPercent, SegmentationProfile segmentationProfile,
+                                     HttpHeaders headers, Page.Name pageName, Experiment experiment,
+                                     BucketList bucketList, Table<Experiment.ID, Experiment.Label, String> userAssignments,
+                                     Predicate<Experiment> mutexCheck) {
         final Date currentDate = new Date();
         final long currentTime = currentDate.getTime();
 
@@ -372,14 +546,17 @@ public class AssignmentsImpl implements Assignments {
 
                 // Check if the current user is selected by the segmentation rule of this experiment
                 // when their profile values (and the headers and context) are used in the evaluation.
-                // NOTE: If available, this uses the parsed version of the rule for this experiment that
-                // has been cached in memory on this system.  That means a recent change to the rule
-                // won't be taken into account until the ruleCacheExecutor call below.  This is an optimization
-                // to improve performance which can mean that several assignments will use the old version of
-                // the rule (until all servers have been updated with the new version).
-                if (doesProfileMatch(experiment, segmentationProfile, headers, context)) {
-                    selectBucket = checkMutex(experiment, userAssignments, exclusives) &&
-                            (ignoreSamplingPercent || (rollDie() < samplePercent));
+                // NOTE: This uses the parsed version of the rule for this experiment that has been cached in
+                // memory on this system; the rule is only parsed again once its text has changed.
+                long stage = stageMetrics.startStage();
+                boolean profileMatch = doesProfileMatch(experiment, segmentationProfile, headers, context);
+                stageMetrics.endStage(applicationName, Stage.RULE, stage);
+                if (profileMatch) {
+                    stage = stageMetrics.startStage();
+                    boolean mutexAllows = mutexCheck.test(experiment);
+                    stageMetrics.endStage(applicationName, Stage.MUTEX, stage);
+                    selectBucket = mutexAllows &&
+                            (ignoreSamplingPercent || (samplingRoll(experiment, userID, context) < samplePercent));
 
                     if (segmentationProfile == null || segmentationProfile.getProfile() == null) {
                         Map profileMap = new HashMap();
@@ -389,15 +566,27 @@ public class AssignmentsImpl implements Assignments {
                     // Generate the assignment; this always generates an assignment,
                     // which may or may not specify a bucket
                     //todo: change so this doesn't follow the 'read then write' Cassandra anti-pattern
-                    assignment = generateAssignment(experiment, userID, context, selectBucket, bucketList, currentDate);
-                    assert assignment.getStatus() == Assignment.Status.NEW_ASSIGNMENT :
-                            new StringBuilder("Assignment status should have been NEW_ASSIGNMENT for ")
+                    // (with hashed assignment the read is only needed to honor earlier assignments: concurrent
+                    // first-time writes for the same user all carry the same bucket)
+                    // Concurrent batches of the same user share the new assignment if they agree on selectBucket;
+                    // after waiting for one that did not, the existing assignment is read again
+                    Supplier<Assignment> generate = () -> generateAssignment(experiment, userID, context,
+                            selectBucket, currentDate);
+                    Supplier<Assignment> readOrGenerate = () -> {
+                        Assignment existing = getExistingAssignment(experiment, userID, context);
+                        return existing != null ? existing : generate.get();
+                    };
+                    assignment = assignmentSingleFlight != null
+                            ? assignmentSingleFlight.run(experimentID, userID, context,
+                            Arrays.<Object>asList(GENERATE_ONLY, selectBucket), generate, readOrGenerate)
+                            : generate.get();
+                    assert assignment.getStatus() == Assignment.Status.NEW_ASSIGNMENT
+                            || assignment.getStatus() == Assignment.Status.EXISTING_ASSIGNMENT :
+                            new StringBuilder("Assignment status should have been NEW_ASSIGNMENT or ")
+                                    .append("EXISTING_ASSIGNMENT for ")
                                     .append("userID = \"").append(userID).append("\", experiment = \"")
                                     .append(experiment).append("\"").toString();
                 } else {
-                    // Make a call to Rule cache update
-                    ruleCacheExecutor.execute(new ExperimentRuleCacheUpdateEnvelope(experiment.getRule(),
-                            ruleCache, experimentID));
                     return nullAssignment(userID, applicationName, experimentID,
                             Assignment.Status.NO_PROFILE_MATCH);
                 }
@@ -411,17 +600,15 @@ public class AssignmentsImpl implements Assignments {
         }
 
         // Ingest data to real time data ingestion systems if executors exist
-		for (String name : executors.keySet()) {
-			executors.get(name).execute(new AssignmentEnvelopePayload(userID, context, createAssignment, false,
-                    ignoreSamplingPercent, segmentationProfile, assignment != null ? assignment.getStatus() : null,
-                    assignment != null ? assignment.getBucketLabel() : null, pageName, applicationName, experimentLabel,
-                    experimentID, currentDate, headers));
-		}        
-        
-        // Updating rule cache.  This will cause future assignment calls, on this server, to
-        // use the new version of the rule, if it has recently been changed.
-        ruleCacheExecutor.execute(new ExperimentRuleCacheUpdateEnvelope(experiment.getRule(),
-                ruleCache, experimentID));
+        if (assignmentIngestionPublisher.isEnabled()) {
+            long stage = stageMetrics.startStage();
+            assignmentIngestionPublisher.publish(new AssignmentEnvelopePayload(userID, context, createAssignment,
+                    false, ignoreSamplingPercent, segmentationProfile,
+                    assignment != null ? assignment.getStatus() : null,
+                    assignment != null ? assignment.getBucketLabel() : null, pageName, applicationName,
+                    experimentLabel, experimentID, currentDate, headers));
+            stageMetrics.endStage(applicationName, Stage.INGESTION, stage);
+        }
 
         return assignment;
     }
@@ -431,87 +618,163 @@ public class AssignmentsImpl implements Assignments {
                                             boolean createAssignment, boolean forceInExperiment, HttpHeaders headers,
                                             ExperimentBatch experimentBatch, Page.Name pageName,
                                             Map<Experiment.ID, Boolean> allowAssignments) {
+        long start = stageMetrics.begin();
+        try {
+            // pick the experiments given in experimentBatch, in priority order
+            long stage = stageMetrics.startStage();
+            PrioritizedExperimentList appPriorities = priorities.getPriorities(applicationName, false);
+            stageMetrics.endStage(applicationName, Stage.METADATA, stage);
+            List<PageExperiment> batchExperiments = new ArrayList<>(experimentBatch.getLabels().size());
+            for (PrioritizedExperiment experiment : appPriorities.getPrioritizedExperiments()) {
+                if (experimentBatch.getLabels().contains(experiment.getLabel())) {
+                    batchExperiments.add(PageExperiment.withAttributes(experiment.getID(), experiment.getLabel(),
+                            allowAssignments != null ? allowAssignments.get(experiment.getID()) : createAssignment)
+                            .build());
+                    experimentBatch.getLabels().remove(experiment.getLabel());
+                }
+            }
+            return doAssignments(userID, applicationName, context, forceInExperiment, headers,
+                    experimentBatch.getProfile(), pageName, batchExperiments);
+        } finally {
+            stageMetrics.end(applicationName, Operation.BATCH, null, start);
+        }
+    }
 
-        // Get the metadata of all the experiments for this application
-        Table<Experiment.ID, Experiment.Label, Experiment> allExperiments = repository.getExperimentList(applicationName);
+    /**
+     * Assigns a user to several experiments of an application, reading the assignments of the user once.
+     *
+     * @param experiments the experiments in priority order, with whether new assignments are allowed
+     * @return the results of the experiments, in the order of {@code experiments}
+     */
+    private List<Map> doAssignments(User.ID userID, Application.Name applicationName, Context context,
+                                    boolean forceInExperiment, HttpHeaders headers, Map<String, Object> profile,
+                                    Page.Name pageName, List<PageExperiment> experiments) {
 
-        List<Map> allAssignments = new ArrayList<>();
+        List<Map> allAssignments = new ArrayList<>(experiments.size());
+        if (experiments.isEmpty()) {
+            return allAssignments;
+        }
 
-        // Get the assignments for userID across all experiments in applicationName for the context
-        Table<Experiment.ID, Experiment.Label, String> userAssignments =
-                assignmentsRepository.getAssignments(userID, applicationName, context, allExperiments);
-        PrioritizedExperimentList appPriorities = priorities.getPriorities(applicationName, false);
+        // Get the metadata of all the experiments for this application
+        long stage = stageMetrics.startStage();
+        Table<Experiment.ID, Experiment.Label, Experiment> allExperiments =
+                metadataCache.getExperimentList(applicationName);
         Set<Experiment.ID> experimentSet = allExperiments.rowKeySet();
         Map<Experiment.ID, BucketList> bucketList = getBucketList(experimentSet);
-        Map<Experiment.ID, List<Experiment.ID>> exclusives = getExclusivesList(experimentSet);
-
-        // iterate over all experiments in the application in priority order
-        for (PrioritizedExperiment experiment : appPriorities.getPrioritizedExperiments()) {
-            //check if the experiment was given in experimentBatch
-            if (experimentBatch.getLabels().contains(experiment.getLabel())) {
-                String labelStr = experiment.getLabel().toString();
-                Map<String, Object> tempResult = new HashMap<>();
-                // get the assignment for user in this experiment
-                Experiment.Label label = Experiment.Label.valueOf(labelStr);
-                tempResult.put("experimentLabel", label);
-                SegmentationProfile segmentationProfile = SegmentationProfile.from(experimentBatch.getProfile())
-                        .build();
-
-                try {
-                    Assignment assignment = getAssignment(userID, applicationName, label,
-                            context, allowAssignments != null ? allowAssignments.get(experiment.getID()) : createAssignment,
-                            forceInExperiment, segmentationProfile,
-                            headers, pageName, allExperiments.get(experiment.getID(), experiment.getLabel()),
-                            bucketList.get(experiment.getID()), userAssignments, exclusives);
-
-
-                    // This wouldn't normally happen because we specified CREATE=true
-                    if (assignment == null) {
-                        continue;
+        ExclusionGraph exclusionGraph = metadataCache.getExclusionGraph(applicationName);
+        stageMetrics.endStage(applicationName, Stage.METADATA, stage);
+
+        // Get the assignments for userID across all experiments in applicationName for the context
+        stage = stageMetrics.startStage();
+        Table<Experiment.ID, Experiment.Label, String> userAssignments =
+                getUserAssignments(userID, applicationName, context, allExperiments);
+        stageMetrics.endStage(applicationName, Stage.USER_ASSIGNMENTS, stage);
+        // The experiments the user is assigned to, as a bitset kept up to date with the assignments of the batch
+        BitSet assigned = exclusionGraph.toBitSet(getNonNullUserAssignments(userAssignments));
+        Predicate<Experiment> mutexCheck =
+                mutexExperiment -> checkMutex(mutexExperiment, exclusionGraph, assigned, userAssignments);
+
+        for (PageExperiment experiment : experiments) {
+            Map<String, Object> tempResult = new HashMap<>();
+            // get the assignment for user in this experiment
+            Experiment.Label label = experiment.getLabel();
+            tempResult.put("experimentLabel", label);
+            SegmentationProfile segmentationProfile = SegmentationProfile.from(profile).build();
+
+            try {
+                Assignment assignment = getAssignment(userID, applicationName, label,
+                        context, experiment.getAllowNewAssignment(),
+                        forceInExperiment, segmentationProfile,
+                        headers, pageName, allExperiments.get(experiment.getId(), label),
+                        bucketList.get(experiment.getId()), userAssignments, mutexCheck);
+
+
+                // This wouldn't normally happen because we specified CREATE=true
+                if (assignment == null) {
+                    continue;
+                }
+                // Only include `assignment` property if there is a definitive
+                // assignment, either to a bucket or not
+                if (assignment.getStatus() != Assignment.Status.EXPERIMENT_EXPIRED) {
+                    // Add the assignment to the global list of userAssignments of the user
+                    userAssignments.put(experiment.getId(), label,
+                            assignment.getBucketLabel() != null ? assignment.getBucketLabel().toString() : "null");
+                    if (assignment.getBucketLabel() != null) {
+                        exclusionGraph.add(assigned, experiment.getId());
                     }
-                    // Only include `assignment` property if there is a definitive
-                    // assignment, either to a bucket or not
-                    if (assignment.getStatus() != Assignment.Status.EXPERIMENT_EXPIRED) {
-                        // Add the assignment to the global list of userAssignments of the user
-                        userAssignments.put(experiment.getID(), experiment.getLabel(),
-                                assignment.getBucketLabel() != null ? assignment.getBucketLabel().toString() : "null");
-                        tempResult.put("assignment",
-                                assignment.getBucketLabel() != null
-                                        ? assignment.getBucketLabel().toString()
+                    tempResult.put("assignment",
+                            assignment.getBucketLabel() != null
+                                    ? assignment.getBucketLabel().toString()
+                                    : null);
+
+                    if (assignment.getBucketLabel() != null) {
+                        Bucket bucket = getBucket(experiment.getId(), assignment.getBucketLabel(),
+                                bucketList.get(experiment.getId()));
+                        tempResult.put("payload",
+                                bucket != null && bucket.getPayload() != null
+                                        ? bucket.getPayload()
                                         : null);
-
-                        if (assignment.getBucketLabel() != null) {
-                            Bucket bucket = repository.getBucket(experiment.getID(), assignment.getBucketLabel());
-                            tempResult.put("payload",
-                                    bucket.getPayload() != null
-                                            ? bucket.getPayload()
-                                            : null);
-                        }
                     }
-
-                    tempResult.put("status", assignment.getStatus());
-
-                } catch (WasabiException ex) {
-                    //FIXME: should not use exception as part of the flow control.
-                    LOGGER.info("Using exception as flow control", ex);
-                    tempResult.put("status", "assignment failed");
-                    tempResult.put("exception", ex.toString());
-                    tempResult.put("assignment", null);
                 }
 
-                allAssignments.add(tempResult);
-                experimentBatch.getLabels().remove(experiment.getLabel());
+                tempResult.put("status", assignment.getStatus());
+                stageMetrics.count(applicationName, assignment.getStatus());
+
+            } catch (WasabiException ex) {
+                //FIXME: should not use exception as part of the flow control.
+                LOGGER.info("Using exception as flow control", ex);
+                tempResult.put("status", "assignment failed");
+                tempResult.put("exception", ex.toString());
+                tempResult.put("assignment", null);
             }
+
+            allAssignments.add(tempResult);
         }
         return allAssignments;
     }
 
-    private Map<Experiment.ID, BucketList> getBucketList(Set<Experiment.ID> experimentIDSet) {
-        return repository.getBucketList(experimentIDSet);
+    @Override
+    public long doBulkAssignments(final Application.Name applicationName, final Context context,
+                                  final boolean createAssignment, final Set<Experiment.Label> experimentLabels,
+                                  Iterator<Map.Entry<User.ID, Map<String, Object>>> users,
+                                  final BiConsumer<User.ID, List<Map>> results) {
+        return bulkAssignmentPipeline.process(users,
+                user -> {
+                    // doBatchAssignments consumes the labels of the batch
+                    ExperimentBatch experimentBatch = ExperimentBatch.newInstance()
+                            .withLabels(new HashSet<>(experimentLabels))
+                            .withProfile(user.getValue())
+                            .build();
+                    List<Map> assignments = doBatchAssignments(user.getKey(), applicationName, context,
+                            createAssignment, false, null, experimentBatch, null, null);
+                    return new AbstractMap.SimpleImmutableEntry<>(user.getKey(), assignments);
+                },
+                result -> results.accept(result.getKey(), result.getValue()));
+    }
+
+    /**
+     * Looks up an assigned bucket in the buckets already loaded for its experiment, so that batch assignments
+     * do not read every assigned bucket from the repository again. Falls back to the repository if the bucket
+     * is not among the loaded ones.
+     *
+     * @param experimentID the experiment ID
+     * @param bucketLabel  the label of the assigned bucket
+     * @param bucketList   the loaded buckets of the experiment, may be null
+     * @return the bucket, or null if it does not exist
+     */
+    private Bucket getBucket(Experiment.ID experimentID, Bucket.Label bucketLabel, BucketList bucketList) {
+        if (bucketList != null && bucketList.getBuckets() != null) {
+            for (Bucket bucket : bucketList.getBuckets()) {
+                if (bucketLabel.equals(bucket.getLabel())) {
+                    return bucket;
+                }
+            }
+        }
+        return getBucket(experimentID, bucketLabel);
     }
 
-    private Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Set<Experiment.ID> experimentIDSet) {
-        return mutexRepository.getExclusivesList(experimentIDSet);
+    private Map<Experiment.ID, BucketList> getBucketList(Set<Experiment.ID> experimentIDSet) {
+        return metadataCache.getBucketList(experimentIDSet);
     }
 
     @Override
@@ -535,6 +798,11 @@ public class AssignmentsImpl implements Assignments {
             throw new InvalidExperimentStateException(experiment.getID(), validStates, Experiment.State.DRAFT);
         }
 
+        //persist a queued assignment of the user first, so that it is read below and can not overwrite this one
+        if (assignmentWriteBehind != null) {
+            assignmentWriteBehind.persistPending(experimentID, userID, context);
+        }
+
         //throw exception if assignment already exists for user unless overwrite == true
         Assignment currentAssignment = assignmentsRepository.getAssignment(experimentID, userID, context);
         if (!overwrite && currentAssignment != null && !currentAssignment.isBucketEmpty()) {
@@ -583,15 +851,24 @@ public class AssignmentsImpl implements Assignments {
         Date date = new Date();
 
         // Ingest data to real time data ingestion systems if executors exist
-		for (String name : executors.keySet()) {
-			executors.get(name).execute(new AssignmentEnvelopePayload(userID, context, false, true, false, null,
-                    Assignment.Status.NEW_ASSIGNMENT, assignment.getBucketLabel(), null, applicationName,
-                    experimentLabel, experimentID,
-                    date, null));
-		}        
+        if (assignmentIngestionPublisher.isEnabled()) {
+            assignmentIngestionPublisher.publish(new AssignmentEnvelopePayload(userID, context, false, true, false,
+                    null, Assignment.Status.NEW_ASSIGNMENT, assignment.getBucketLabel(), null, applicationName,
+                    experimentLabel, experimentID, date, null));
+        }
         
         //write assignment after checking assignment in first step
-        return assignmentsRepository.assignUser(assignment, experiment, date);
+        if (assignmentNearCache != null) {
+            assignmentNearCache.invalidate(experimentID, userID, context);
+        }
+        if (assignedUserFilter != null) {
+            assignedUserFilter.add(experimentID, userID, context);
+        }
+        Assignment result = assignmentsRepository.assignUser(assignment, experiment, date);
+        if (assignmentNearCache != null) {
+            assignmentNearCache.put(experimentID, userID, context, assignment.getBucketLabel());
+        }
+        return result;
     }
 
     //a function to check if a user is in any experiments which are mutually exclusive with the
@@ -602,7 +879,16 @@ public class AssignmentsImpl implements Assignments {
         //if the experiment exists in the database and is in a valid MUTEX state
         if (experiment != null && (experiment.getState() == Experiment.State.RUNNING ||
                 experiment.getState() == Experiment.State.PAUSED)) {
-            //get experiments which are mutually exclusive
+            ExclusionGraph exclusionGraph = metadataCache != null
+                    ? metadataCache.getExclusionGraph(experiment.getApplicationName())
+                    : null;
+            if (exclusionGraph != null && exclusionGraph.contains(experiment.getID())) {
+                Set<Experiment.ID> preAssign = assignmentsRepository.getUserAssignments(userID,
+                        experiment.getApplicationName(), context);
+                return !exclusionGraph.isExcluded(experiment.getID(), exclusionGraph.toBitSet(preAssign));
+            }
+
+            //the experiment is newer than the cached graph: get experiments which are mutually exclusive
             ExperimentList exclusives = mutexRepository.getExclusions(experiment.getID());
             List<Experiment.ID> exclusiveIDs = new ArrayList<>();
             for (Experiment exp : exclusives.getExperiments()) {
@@ -654,6 +940,32 @@ public class AssignmentsImpl implements Assignments {
         return true;
     }
 
+    /**
+     * Checks an experiment for mutual exclusion against the assignments of a user, as a bitset of the experiments
+     * of the exclusion graph. Experiments newer than the graph are checked against their exclusion list.
+     */
+    private boolean checkMutex(Experiment experiment, ExclusionGraph exclusionGraph, BitSet assigned,
+                               Table<Experiment.ID, Experiment.Label, String> userAssignments) {
+        if (experiment == null || (experiment.getState() != Experiment.State.RUNNING &&
+                experiment.getState() != Experiment.State.PAUSED)) {
+            return true;
+        }
+        if (exclusionGraph.contains(experiment.getID())) {
+            return !exclusionGraph.isExcluded(experiment.getID(), assigned);
+        }
+        return checkMutex(experiment, userAssignments, getExclusivesList(experiment.getID()));
+    }
+
+    private List<Experiment.ID> getNonNullUserAssignments(Table<Experiment.ID, Experiment.Label, String> userAssignments) {
+        List<Experiment.ID> result = new ArrayList<>(userAssignments.size());
+        for (Table.Cell<Experiment.ID, Experiment.Label, String> cell : userAssignments.cellSet()) {
+            if (cell.getValue() != null && !"null".equals(cell.getValue())) {
+                result.add(cell.getRowKey());
+            }
+        }
+        return result;
+    }
+
     private Set<Experiment.ID> getNonNullUserAssignments(List<Experiment.ID> experimentIDList,
                               Table<Experiment.ID, Experiment.Label, String> userAssignments) {
         Set<Experiment.ID> result = new HashSet<>();
@@ -681,23 +993,18 @@ public class AssignmentsImpl implements Assignments {
                                            Context context, boolean createAssignment, boolean ignoreSamplingPercent,
                                            HttpHeaders headers, SegmentationProfile segmentationProfile) {
 
-        List<PageExperiment> pageExperimentList = pages.getExperiments(applicationName, pageName);
-        Set<Experiment.Label> experimentLabels = new HashSet<>(pageExperimentList.size());
-        Map<Experiment.ID, Boolean> allowAssignments = new HashMap<>(pageExperimentList.size());
-        for (PageExperiment pageExperiment : pageExperimentList) {
-            allowAssignments.put(pageExperiment.getId(), pageExperiment.getAllowNewAssignment());
-            experimentLabels.add(pageExperiment.getLabel());
-        }
-        ExperimentBatch.Builder experimentBatchBuilder = ExperimentBatch.newInstance();
-        experimentBatchBuilder.withLabels(experimentLabels);
-        if (segmentationProfile != null) {
-            experimentBatchBuilder.withProfile(segmentationProfile.getProfile());
+        long start = stageMetrics.begin();
+        try {
+            // The experiments of the page in priority order, from memory
+            long stage = stageMetrics.startStage();
+            List<PageExperiment> pageExperiments = pages.getPageRoute(applicationName, pageName);
+            stageMetrics.endStage(applicationName, Stage.METADATA, stage);
+            return doAssignments(userID, applicationName, context, ignoreSamplingPercent, headers,
+                    segmentationProfile != null ? segmentationProfile.getProfile() : null, pageName,
+                    pageExperiments);
+        } finally {
+            stageMetrics.end(applicationName, Operation.PAGE, null, start);
         }
-        ExperimentBatch experimentBatch = experimentBatchBuilder.build();
-
-        return doBatchAssignments(userID, applicationName, context,
-                createAssignment, ignoreSamplingPercent, headers, experimentBatch, pageName, allowAssignments);
-
     }
 
     protected Assignment nullAssignment(User.ID userID, Application.Name appName, Experiment.ID experimentID,
@@ -736,7 +1043,7 @@ public class AssignmentsImpl implements Assignments {
      * header values and the context value, so those can be passed in by the user, and to force the rule
      * to be parsed from the experiment every time.  That is not as performant, but is necessary if
      * we need to use the latest saved version of the rule.  For the normal use, that is, during assignments,
-     * we want to use the cache (and only update the cache after the latest evaluation, asynchronously).
+     * we want to use the cache, which only parses the rule again once its text has changed.
      */
     private boolean doesProfileMatch(Experiment experiment, SegmentationProfile segmentationProfile,
                                      HttpHeaders headers, Context context, boolean testMode) {
@@ -745,44 +1052,34 @@ public class AssignmentsImpl implements Assignments {
 
             if (ruleExpression == null || ruleExpression.trim().isEmpty()) {
                 return true;
+            } else if (testMode) {
+                // So that the user can provide values for context and headers (like user-agent), we need
+                // to not pull those in automatically.
+                Map<String, Object> profileAttrs = segmentationProfile.getProfile();
+
+                // This is used by the API (doSegmentTest()) that allows a user interactively test the rule with different
+                // profile values.  That isn't as performance sensitive, so we can parse and evaluate
+                // the expression each time, because we need to take recent changes into account immediately.
+                Rule ruleObject = new RuleBuilder().parseExpression(ruleExpression);
+                return ruleObject.evaluate((HashMap) profileAttrs); //cast for Hyrule method
             } else {
-                Map<String, Object> profileAttrs;
-                if (testMode) {
-                    // So that the user can provide values for context and headers (like user-agent), we need
-                    // to not pull those in automatically.
-                    profileAttrs = segmentationProfile.getProfile();
-                } else {
-                    segmentationProfile = mergeHeaderAndContextWithProfile(segmentationProfile, headers, context);
-                    if (segmentationProfile == null) {
-                        profileAttrs = null;
-                    } else {
-                        profileAttrs = segmentationProfile.getProfile();
-                    }
-                }
-
-                Rule ruleObject = null;
-                if (testMode) {
-                    // This is used by the API (doSegmentTest()) that allows a user interactively test the rule with different
-                    // profile values.  That isn't as performance sensitive, so we can parse and evaluate
-                    // the expression each time, because we need to take recent changes into account immediately.
-                    ruleObject = new RuleBuilder().parseExpression(ruleExpression);
-                    return ruleObject.evaluate((HashMap) profileAttrs); //cast for Hyrule method
-                }
+                // Note that we are using the in-memory cache on this server. The rule is parsed and compiled the
+                // first time it is seen, and again only when the experiment carries a different rule text.
+                CompiledRule compiledRule = ruleCache.getCompiledRule(experiment.getID(), ruleExpression);
 
-                // Note that we are using the in-memory cache on this server. The key to understand about
-                // this is that if the rule has been changed recently, it will not be cached, and therefore,
-                // not available for evaluation, until after the next time an assignment call is made.
-                ruleObject = ruleCache.getRule(experiment.getID());
-
-                if (ruleObject == null) {
-                    // The rule for this experiment has never been cached on this system.  Parse it
-                    // and save the result in the cache for future evaluations.
-                    ruleObject = new RuleBuilder().parseExpression(ruleExpression);
-                    ruleCache.setRule(experiment.getID(), ruleObject);
-                    return ruleObject.evaluate((HashMap) profileAttrs); //cast for Hyrule method
+                Map<String, Object> profileAttrs;
+                if (segmentationProfile != null && segmentationProfile.getProfile() != null
+                        && assignmentIngestionPublisher.isEnabled()) {
+                    // The ingested profile carries the headers and context, so they are merged into it
+                    profileAttrs = mergeHeaderAndContextWithProfile(segmentationProfile, headers, context)
+                            .getProfile();
                 } else {
-                    return ruleObject.evaluate((HashMap) profileAttrs); //cast for Hyrule method
+                    // Only the attributes the rule reads are looked up in the profile, headers and context
+                    profileAttrs = new SegmentationProfileView(
+                            segmentationProfile != null ? segmentationProfile.getProfile() : null,
+                            headers, context, compiledRule.getAttributes());
                 }
+                return compiledRule.evaluate(profileAttrs);
             }
         } catch (MissingInputException | InvalidInputException | TreeStructureException e) {
             LOGGER.warn("assignment: profile match exception " + e);
@@ -841,8 +1138,7 @@ public class AssignmentsImpl implements Assignments {
             Retrieves buckets from Repository if personalization is not enabled and if skipBucketRetrieval is false
             Retrieves buckets from DE if personalization is enabled
             * */
-            BucketList buckets = getBucketList(experiment, false);
-            Bucket assignedBucket = selectBucket(buckets.getBuckets());
+            Bucket assignedBucket = selectBucket(experiment, bucketRoll(experiment, userID, context));
 
             //check that at least one bucket was open
             if (assignedBucket != null) {
@@ -858,47 +1154,134 @@ public class AssignmentsImpl implements Assignments {
         }
 
         Assignment result = builder.build();
-        return assignmentsRepository.assignUser(result, experiment, date);
+        return persistAssignment(result, experiment, date);
     }
 
-    private Assignment generateAssignment(Experiment experiment, User.ID userID, Context context, boolean selectBucket,
-                                          BucketList buckets, Date date) {
+    /**
+     * Returns the existing assignment of a user to an experiment, from the write-behind queue if it is not
+     * persisted yet, or from the near cache if it is cached there. The repository is not read if the assigned user
+     * filter knows the user is not assigned to an experiment with hashed assignment, which would assign the user to
+     * the same bucket again.
+     *
+     * Like the repository, an assignment to a bucket that is EMPTY by now is returned without a bucket.
+     */
+    private Assignment getExistingAssignment(Experiment experiment, User.ID userID, Context context) {
+        AssignmentDeadline.check();
+        Experiment.ID experimentID = experiment.getID();
+        Assignment pending = assignmentWriteBehind != null
+                ? assignmentWriteBehind.getPending(experimentID, userID, context)
+                : null;
+        Bucket.Label bucketLabel;
+        if (pending != null) {
+            bucketLabel = pending.getBucketLabel();
+        } else {
+            String cachedBucketLabel = assignmentNearCache != null
+                    ? assignmentNearCache.get(experimentID, userID, context)
+                    : null;
+            if (cachedBucketLabel == null) {
+                if (assignedUserFilter != null && !assignedUserFilter.mightBeAssigned(experiment, userID, context)) {
+                    return null;
+                }
+                Assignment assignment = assignmentsRepository.getAssignment(experimentID, userID, context);
+                if (assignment != null && assignmentNearCache != null) {
+                    assignmentNearCache.put(experimentID, userID, context, assignment.getBucketLabel());
+                }
+                return assignment;
+            }
+            bucketLabel = AssignmentNearCache.NULL_BUCKET.equals(cachedBucketLabel)
+                    ? null
+                    : Bucket.Label.valueOf(cachedBucketLabel);
+        }
 
-        Assignment.Builder builder = Assignment.newInstance(experiment.getID())
-                .withApplicationName(experiment.getApplicationName())
+        boolean bucketEmpty = false;
+        if (bucketLabel != null) {
+            Bucket bucket = getBucket(experimentID, bucketLabel, metadataCache.getBucketList(experimentID));
+            bucketEmpty = bucket != null && bucket.getState() == Bucket.State.EMPTY;
+        }
+        return Assignment.newInstance(experimentID)
+                .withBucketLabel(bucketEmpty ? null : bucketLabel)
                 .withUserID(userID)
-                .withContext(context);
-
-        if (selectBucket) {
-            Bucket assignedBucket;
-            /*
-            With the bucket state in effect, this part of the code could also result in
-            the generation of a null assignment in cases where the selected bucket is CLOSED or EMPTY
-            In CLOSED state, the current bucket assignments to the bucket are left as is and all the
-            assignments to this bucket are made null going forward.
+                .withContext(context)
+                .withStatus(Assignment.Status.EXISTING_ASSIGNMENT)
+                .withCacheable(false)
+                .withBucketEmpty(bucketEmpty)
+                .build();
+    }
 
-            In EMPTY state, the current bucket assignments are made null as well as all the future assignments
-            to this bucket are made null.
+    /**
+     * Returns the assignments of a user to the experiments of an application.
+     *
+     * The near cache can only stand in for the repository if it holds an assignment for every experiment that can
+     * have one, as the absence of an assignment is not cached. The assigned user filter can not stand in for it, as
+     * the assignments are also checked for mutual exclusion.
+     */
+    private Table<Experiment.ID, Experiment.Label, String> getUserAssignments(
+            User.ID userID, Application.Name applicationName, Context context,
+            Table<Experiment.ID, Experiment.Label, Experiment> allExperiments) {
+        AssignmentDeadline.check();
+        if (assignmentNearCache != null && assignmentNearCache.isEnabled()) {
+            Table<Experiment.ID, Experiment.Label, String> cached = HashBasedTable.create();
+            for (Table.Cell<Experiment.ID, Experiment.Label, Experiment> cell : allExperiments.cellSet()) {
+                if (cell.getValue().getState() == Experiment.State.DRAFT) {
+                    continue;
+                }
+                String bucketLabel = assignmentNearCache.get(cell.getRowKey(), userID, context);
+                if (bucketLabel == null) {
+                    cached = null;
+                    break;
+                }
+                cached.put(cell.getRowKey(), cell.getColumnKey(), bucketLabel);
+            }
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-            Retrieves buckets from Repository if personalization is not enabled and if skipBucketRetrieval is false
-            Retrieves buckets from DE if personalization is enabled
-            */
-            assignedBucket = selectBucket(buckets.getBuckets());
-            //check that at least one bucket was open
-            if (assignedBucket != null) {
-                //create the bucket with bucketlabel
-                builder.withBucketLabel(assignedBucket.getLabel());
-            } else {
-                return nullAssignment(userID, experiment.getApplicationName(), experiment.getID(),
-                        Assignment.Status.NO_OPEN_BUCKETS);
+        Table<Experiment.ID, Experiment.Label, String> userAssignments =
+                assignmentsRepository.getAssignments(userID, applicationName, context, allExperiments);
+        if (assignmentNearCache != null && assignmentNearCache.isEnabled() && userAssignments != null) {
+            for (Table.Cell<Experiment.ID, Experiment.Label, String> cell : userAssignments.cellSet()) {
+                assignmentNearCache.put(cell.getRowKey(), userID, context, cell.getValue());
             }
+        }
+        return userAssignments;
+    }
 
-        } else {
-            builder.withBucketLabel(null);
+    /**
+     * Persists a new assignment, in the background if write-behind is enabled and has room for it.
+     */
+    private Assignment persistAssignment(Assignment assignment, Experiment experiment, Date date) {
+        AssignmentDeadline.check();
+        long stage = stageMetrics.startStage();
+        try {
+            return doPersistAssignment(assignment, experiment, date);
+        } finally {
+            stageMetrics.endStage(experiment.getApplicationName(), Stage.WRITE, stage);
         }
+    }
 
-        Assignment result = builder.build();
-        return assignmentsRepository.assignUser(result, experiment, date);
+    private Assignment doPersistAssignment(Assignment assignment, Experiment experiment, Date date) {
+        if (assignedUserFilter != null) {
+            assignedUserFilter.add(assignment.getExperimentID(), assignment.getUserID(), assignment.getContext());
+        }
+        Assignment result;
+        if (assignmentWriteBehind != null && assignmentWriteBehind.offer(assignment, experiment, date)) {
+            result = Assignment.newInstance(assignment.getExperimentID())
+                    .withBucketLabel(assignment.getBucketLabel())
+                    .withUserID(assignment.getUserID())
+                    .withContext(assignment.getContext())
+                    .withStatus(Assignment.Status.NEW_ASSIGNMENT)
+                    .withCreated(date)
+                    .withCacheable(null)
+                    .build();
+        } else {
+            result = assignmentsRepository.assignUser(assignment, experiment, date);
+        }
+        if (assignmentNearCache != null) {
+            assignmentNearCache.put(assignment.getExperimentID(), assignment.getUserID(), assignment.getContext(),
+                    assignment.getBucketLabel());
+        }
+        return result;
     }
 
     /**
@@ -913,7 +1296,7 @@ public class AssignmentsImpl implements Assignments {
     protected BucketList getBucketList(Experiment experiment, Boolean skipBucketRetrieval) {
         BucketList buckets = null;
         if (!skipBucketRetrieval) {
-            buckets = repository.getBuckets(experiment.getID());
+            buckets = metadataCache.getBucketList(experiment.getID());
         }
         return buckets;
     }
@@ -922,33 +1305,53 @@ public class AssignmentsImpl implements Assignments {
         return random.nextDouble();
     }
 
-    protected Bucket selectBucket(List<Bucket> buckets) {
-
-        final double dieRoll = rollDie();
-
-        // Sort the buckets consistently (by label)
-        Collections.sort(buckets,
-                new Comparator<Bucket>() {
-                    @Override
-                    public int compare(Bucket b1, Bucket b2) {
-                        return b1.getAllocationPercent().compareTo(
-                                b2.getAllocationPercent());
-                    }
-                });
+    /**
+     * Roll compared against the sampling percent of the experiment. Experiments with hashed assignment
+     * derive it from the experiment, user and context; all others use {@link #rollDie()}.
+     *
+     * @param experiment the experiment
+     * @param userID     the user
+     * @param context    the context
+     * @return a value in [0, 1)
+     */
+    protected double samplingRoll(Experiment experiment, User.ID userID, Context context) {
+        return Boolean.TRUE.equals(experiment.getIsHashedAssignment())
+                ? AssignmentHash.samplingRoll(experiment.getID(), userID, context)
+                : rollDie();
+    }
 
-        Double totalProbability = 0.0d;
+    /**
+     * Roll used to pick the bucket of a new assignment, see {@link #samplingRoll(Experiment, User.ID, Context)}.
+     *
+     * @param experiment the experiment
+     * @param userID     the user
+     * @param context    the context
+     * @return a value in [0, 1)
+     */
+    protected double bucketRoll(Experiment experiment, User.ID userID, Context context) {
+        return Boolean.TRUE.equals(experiment.getIsHashedAssignment())
+                ? AssignmentHash.bucketRoll(experiment.getID(), userID, context)
+                : rollDie();
+    }
 
-        Bucket bucket = null;
-        for (Bucket candidateBucket : buckets) {
-            totalProbability += candidateBucket.getAllocationPercent();
+    protected Bucket selectBucket(List<Bucket> buckets) {
+        return selectBucket(buckets, rollDie());
+    }
 
-            if (dieRoll < totalProbability) {
-                bucket = candidateBucket;
-                break;
-            }
-        }
+    protected Bucket selectBucket(List<Bucket> buckets, double dieRoll) {
+        return BucketAllocationTable.of(buckets).select(dieRoll);
+    }
 
-        return bucket;
+    /**
+     * Selects the bucket for a die roll using the allocation table the metadata cache compiled for the current
+     * buckets of the experiment.
+     *
+     * @param experiment the experiment
+     * @param dieRoll    a value in [0, 1)
+     * @return the selected bucket, or null if no open bucket covers the roll
+     */
+    protected Bucket selectBucket(Experiment experiment, double dieRoll) {
+        return metadataCache.getBucketAllocationTable(experiment.getID()).select(dieRoll);
     }
 
     /**
@@ -1045,7 +1448,6 @@ public class AssignmentsImpl implements Assignments {
     @Override
     public Map<String, Integer> queuesLength() {
         Map<String, Integer> queueLengthMap = new HashMap<String, Integer>();
-        queueLengthMap.put(RULE_CACHE, new Integer(this.ruleCacheExecutor.getQueue().size()));
         for (String name : executors.keySet()) {
             queueLengthMap.put(name.toLowerCase(), new Integer(executors.get(name).queueLength()));
         }        
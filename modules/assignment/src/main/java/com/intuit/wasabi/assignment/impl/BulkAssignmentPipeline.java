@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.exceptions.AssignmentException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs the assignments of a stream of users concurrently, for bulk assignment.
+ *
+ * At most {@code assignment.bulk.max.in.flight} users of a stream are assigned at the same time, on a pool of
+ * {@code assignment.bulk.pool.size} threads shared by all streams. The next user is only read from the stream once
+ * the oldest assignment in flight is done, so a stream of any length takes bounded memory, and results are handed
+ * on in the order of the stream. The repository reads and writes of the users in flight overlap, which keeps the
+ * cluster busy instead of waiting for one user after the other.
+ */
+public class BulkAssignmentPipeline {
+
+    private final int maxInFlight;
+    private final ExecutorService executor;
+
+    /**
+     * @param poolSize    the number of threads assigning users
+     * @param maxInFlight the maximum number of users of a stream assigned at the same time
+     */
+    @Inject
+    public BulkAssignmentPipeline(final @Named("assignment.bulk.pool.size") Integer poolSize,
+                                  final @Named("assignment.bulk.max.in.flight") Integer maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("assignment-bulk-%d").setDaemon(true).build());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+    }
+
+    /**
+     * Assigns every input of a stream and hands on the results in the order of the inputs.
+     *
+     * @param inputs  the inputs, read one at a time
+     * @param assign  assigns one input
+     * @param results receives the results, from the calling thread
+     * @param <I>     the type of the inputs
+     * @param <O>     the type of the results
+     * @return the number of results handed on
+     * @throws AssignmentException if an input could not be assigned, or the calling thread was interrupted;
+     *                             the remaining inputs are not assigned
+     */
+    public <I, O> long process(Iterator<I> inputs, Function<I, O> assign, Consumer<O> results) {
+        Deque<Future<O>> inFlight = new ArrayDeque<>(maxInFlight);
+        long count = 0;
+        try {
+            while (inputs.hasNext()) {
+                if (inFlight.size() >= maxInFlight) {
+                    results.accept(inFlight.removeFirst().get());
+                    count++;
+                }
+                final I input = inputs.next();
+                inFlight.addLast(executor.submit(() -> assign.apply(input)));
+            }
+            while (!inFlight.isEmpty()) {
+                results.accept(inFlight.removeFirst().get());
+                count++;
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssignmentException("Interrupted after " + count + " bulk assignments", e);
+        } catch (ExecutionException e) {
+            throw new AssignmentException("Bulk assignment failed after " + count + " assignments", e.getCause());
+        } finally {
+            for (Future<O> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+}
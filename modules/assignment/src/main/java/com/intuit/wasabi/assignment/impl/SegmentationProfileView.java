@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.experimentobjects.Context;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of the attributes a segmentation rule reads, resolved on demand from the segmentation
+ * profile, the http headers and the context of an assignment request.
+ *
+ * It resolves attributes like {@link AssignmentsImpl#mergeHeaderAndContextWithProfile} merges them: a profile
+ * attribute wins over a header of the same name, only the first value of a header is used, and the
+ * {@code context} attribute is always the assignment context. Header names are matched exactly, as the keys of
+ * the merged profile are. Unlike the merge it neither copies the headers nor modifies the profile, and attributes
+ * the rule does not read are not visible.
+ */
+final class SegmentationProfileView extends AbstractMap<String, Object> {
+
+    static final String CONTEXT = "context";
+
+    private final Map<String, Object> profile;
+    private final HttpHeaders headers;
+    private final Context context;
+    private final Set<String> attributes;
+
+    /**
+     * @param profile    the segmentation profile attributes, may be null
+     * @param headers    the http headers, may be null
+     * @param context    the assignment context, may be null
+     * @param attributes the attributes read by the rule
+     */
+    SegmentationProfileView(Map<String, Object> profile, HttpHeaders headers, Context context,
+                            Set<String> attributes) {
+        this.profile = profile;
+        this.headers = headers;
+        this.context = context;
+        this.attributes = attributes;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return attributes.contains(key) ? resolve((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Materializes the visible attributes; only needed by rules that are not evaluated in compiled form.
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+        for (String attribute : attributes) {
+            Object value = resolve(attribute);
+            if (value != null) {
+                entries.add(new SimpleImmutableEntry<>(attribute, value));
+            }
+        }
+        return Collections.unmodifiableSet(entries);
+    }
+
+    private Object resolve(String attribute) {
+        if (CONTEXT.equals(attribute) && context != null) {
+            return context.getContext();
+        }
+        if (profile != null && profile.containsKey(attribute)) {
+            return profile.get(attribute);
+        }
+        if (headers != null) {
+            for (Entry<String, List<String>> header : headers.getRequestHeaders().entrySet()) {
+                if (attribute.equals(header.getKey()) && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+        }
+        return null;
+    }
+}
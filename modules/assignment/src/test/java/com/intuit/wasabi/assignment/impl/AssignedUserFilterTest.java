@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class AssignedUserFilterTest {
+
+    private final AssignmentsRepository assignmentsRepository = mock(AssignmentsRepository.class);
+    private final Experiment experiment = Experiment.withID(Experiment.ID.newInstance())
+            .withCreationTime(new Date()).withIsHashedAssignment(true).build();
+    private final Context context = Context.valueOf("PROD");
+
+    @SuppressWarnings("unchecked")
+    private void givenAssignedUsers(final String... userIDs) {
+        doAnswer(invocation -> {
+            BiConsumer<User.ID, Context> visitor = (BiConsumer<User.ID, Context>) invocation.getArguments()[3];
+            for (String userID : userIDs) {
+                visitor.accept(User.ID.valueOf(userID), context);
+            }
+            return true;
+        }).when(assignmentsRepository).visitAssignedUsers(eq(experiment.getID()), any(Date.class),
+                any(Date.class), any(BiConsumer.class));
+    }
+
+    private AssignedUserFilter newFilter() {
+        // Builds the filters in the calling thread
+        return new AssignedUserFilter(assignmentsRepository, true, 1000, 0.001, 10, 300, Runnable::run);
+    }
+
+    @Test
+    public void disabledFilterMightContainEveryone() {
+        AssignedUserFilter filter = new AssignedUserFilter(assignmentsRepository, false, 0, 0.01, 0, 0);
+
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context)).isTrue();
+        then(filter.getEstimatedBytes()).isEqualTo(0L);
+        verifyZeroInteractions(assignmentsRepository);
+    }
+
+    @Test
+    public void experimentsWithoutHashedAssignmentMightContainEveryone() {
+        AssignedUserFilter filter = newFilter();
+        Experiment notHashed = Experiment.from(experiment).withIsHashedAssignment(false).build();
+
+        then(filter.mightBeAssigned(notHashed, User.ID.valueOf("u1"), context)).isTrue();
+        then(filter.mightBeAssigned(notHashed, User.ID.valueOf("u1"), context)).isTrue();
+        verifyZeroInteractions(assignmentsRepository);
+    }
+
+    @Test
+    public void skipsUsersNotInTheRepository() {
+        givenAssignedUsers("u1", "u2");
+        AssignedUserFilter filter = newFilter();
+
+        // The filter did not exist yet
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u3"), context)).isTrue();
+
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context)).isTrue();
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u2"), context)).isTrue();
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u3"), context)).isFalse();
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), Context.valueOf("QA"))).isFalse();
+        then(filter.getSkippedReads()).isEqualTo(2L);
+        then(filter.getBuilds()).isEqualTo(1L);
+        then(filter.getMaxExpectedFpp()).isLessThanOrEqualTo(0.001);
+    }
+
+    @Test
+    public void addsNewAssignments() {
+        givenAssignedUsers();
+        AssignedUserFilter filter = newFilter();
+        filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context);
+
+        filter.add(experiment.getID(), User.ID.valueOf("u1"), context);
+
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context)).isTrue();
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u2"), context)).isFalse();
+    }
+
+    @Test
+    public void keepsLocalAssignmentsOnRebuild() {
+        givenAssignedUsers("u1");
+        AssignedUserFilter filter = newFilter();
+        filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context);
+        filter.add(experiment.getID(), User.ID.valueOf("u2"), context);
+
+        filter.rebuild(experiment);
+
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u2"), context)).isTrue();
+        then(filter.getBuilds()).isEqualTo(2L);
+    }
+
+    @Test
+    public void mightContainEveryoneWithoutAssignedUsers() {
+        doReturn(false).when(assignmentsRepository).visitAssignedUsers(any(Experiment.ID.class), any(Date.class),
+                any(Date.class), any(BiConsumer.class));
+        AssignedUserFilter filter = newFilter();
+
+        filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context);
+
+        then(filter.mightBeAssigned(experiment, User.ID.valueOf("u1"), context)).isTrue();
+        verify(assignmentsRepository).visitAssignedUsers(eq(experiment.getID()), any(Date.class), any(Date.class),
+                any(BiConsumer.class));
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.assignmentobjects.RuleCache;
+import com.intuit.wasabi.experiment.Pages;
+import com.intuit.wasabi.experiment.Priorities;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.experimentobjects.Page;
+import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AssignmentCacheWarmerTest {
+
+    private final Application.Name app = Application.Name.valueOf("app");
+    private final Page.Name page = Page.Name.valueOf("home");
+
+    @Mock
+    private ExperimentRepository repository;
+    @Mock
+    private MetadataCache metadataCache;
+    @Mock
+    private RuleCache ruleCache;
+    @Mock
+    private Priorities priorities;
+    @Mock
+    private Pages pages;
+
+    private AssignmentCacheWarmer warmer(boolean enabled, int timeoutMillis) {
+        return new AssignmentCacheWarmer(repository, metadataCache, ruleCache, priorities, pages, enabled, 2,
+                timeoutMillis);
+    }
+
+    private Experiment experiment(String label, Experiment.State state, String rule) {
+        return Experiment.withID(Experiment.ID.newInstance())
+                .withApplicationName(app)
+                .withLabel(Experiment.Label.valueOf(label))
+                .withState(state)
+                .withRule(rule)
+                .build();
+    }
+
+    @Test
+    public void warmsUpTheRunningAndPausedExperimentsOfEveryApplication() throws Exception {
+        Experiment running = experiment("running", Experiment.State.RUNNING, "country = 'US'");
+        Experiment paused = experiment("paused", Experiment.State.PAUSED, null);
+        Experiment draft = experiment("draft", Experiment.State.DRAFT, "country = 'US'");
+        Table<Experiment.ID, Experiment.Label, Experiment> experiments = HashBasedTable.create();
+        for (Experiment experiment : Arrays.asList(running, paused, draft)) {
+            experiments.put(experiment.getID(), experiment.getLabel(), experiment);
+        }
+        when(repository.getApplicationsList()).thenReturn(Collections.singletonList(app));
+        when(metadataCache.getExperimentList(app)).thenReturn(experiments);
+        when(pages.getPageList(app)).thenReturn(Collections.singletonList(Page.withName(page).build()));
+        AssignmentCacheWarmer warmer = warmer(true, 5000);
+        then(warmer.isReady()).isFalse();
+
+        then(warmer.warmUp()).isTrue();
+
+        then(warmer.isReady()).isTrue();
+        then(warmer.getState()).isEqualTo(AssignmentCacheWarmer.State.READY);
+        verify(metadataCache).getExperiment(app, running.getLabel());
+        verify(metadataCache).getExperiment(app, paused.getLabel());
+        verify(metadataCache, never()).getExperiment(app, draft.getLabel());
+        verify(ruleCache).getCompiledRule(running.getID(), running.getRule());
+        verify(ruleCache, never()).getCompiledRule(draft.getID(), draft.getRule());
+        verify(metadataCache).getExclusionGraph(app);
+        verify(priorities).getPriorities(app, false);
+        verify(pages).getPageRoute(app, page);
+        then(warmer.getApplicationsDone()).isEqualTo(1);
+        then(warmer.getExperiments()).isEqualTo(2);
+        then(warmer.getRules()).isEqualTo(1);
+        then(warmer.getPageRoutes()).isEqualTo(1);
+        then(warmer.getFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void theNodeIsReadyWhenTheTimeBudgetIsSpent() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(repository.getApplicationsList()).thenReturn(Collections.singletonList(app));
+        when(metadataCache.getExperimentList(app)).thenAnswer(invocation -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return HashBasedTable.create();
+        });
+        AssignmentCacheWarmer warmer = warmer(true, 50);
+
+        try {
+            then(warmer.warmUp()).isFalse();
+        } finally {
+            release.countDown();
+        }
+
+        then(warmer.isReady()).isTrue();
+        then(warmer.getState()).isEqualTo(AssignmentCacheWarmer.State.TIMED_OUT);
+    }
+
+    @Test
+    public void failuresDoNotHoldUpTheNode() throws Exception {
+        Application.Name other = Application.Name.valueOf("other");
+        when(repository.getApplicationsList()).thenReturn(Arrays.asList(app, other));
+        when(metadataCache.getExperimentList(app)).thenThrow(new IllegalStateException("unavailable"));
+        when(metadataCache.getExperimentList(other)).thenReturn(HashBasedTable.create());
+        AssignmentCacheWarmer warmer = warmer(true, 5000);
+
+        then(warmer.warmUp()).isTrue();
+
+        then(warmer.isReady()).isTrue();
+        verify(priorities).getPriorities(other, false);
+        then(warmer.getApplicationsDone()).isEqualTo(2);
+        then(warmer.getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void disabledWarmUpLoadsNothing() throws Exception {
+        AssignmentCacheWarmer warmer = warmer(false, 5000);
+
+        then(warmer.isReady()).isTrue();
+        then(warmer.warmUp()).isTrue();
+
+        verify(repository, never()).getApplicationsList();
+        verify(metadataCache, never()).getExperimentList(any(Application.Name.class));
+        then(warmer.getApplications()).isEqualTo(0);
+    }
+}
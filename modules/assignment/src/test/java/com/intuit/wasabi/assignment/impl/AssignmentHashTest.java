@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class AssignmentHashTest {
+
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+    private final Context context = Context.valueOf("PROD");
+
+    @Test
+    public void rollsAreDeterministic() {
+        User.ID userID = User.ID.valueOf("user-1");
+
+        then(AssignmentHash.bucketRoll(experimentID, userID, context))
+                .isEqualTo(AssignmentHash.bucketRoll(experimentID, User.ID.valueOf("user-1"), context));
+        then(AssignmentHash.samplingRoll(experimentID, userID, context))
+                .isEqualTo(AssignmentHash.samplingRoll(experimentID, User.ID.valueOf("user-1"), context));
+        then(AssignmentHash.bucketRoll(experimentID, userID, context))
+                .isNotEqualTo(AssignmentHash.bucketRoll(experimentID, userID, Context.valueOf("QA")));
+    }
+
+    @Test
+    public void rollsAreUniformAndIndependent() {
+        int users = 100000;
+        int lowBucket = 0;
+        int sampledLowBucket = 0;
+        int sampled = 0;
+        for (int i = 0; i < users; i++) {
+            User.ID userID = User.ID.valueOf("user-" + i);
+            double bucketRoll = AssignmentHash.bucketRoll(experimentID, userID, context);
+            double samplingRoll = AssignmentHash.samplingRoll(experimentID, userID, context);
+            then(bucketRoll).isGreaterThanOrEqualTo(0.0).isLessThan(1.0);
+            then(samplingRoll).isGreaterThanOrEqualTo(0.0).isLessThan(1.0);
+            if (bucketRoll < 0.5) {
+                lowBucket++;
+            }
+            if (samplingRoll < 0.2) {
+                sampled++;
+                if (bucketRoll < 0.5) {
+                    sampledLowBucket++;
+                }
+            }
+        }
+
+        then(lowBucket / (double) users).isBetween(0.49, 0.51);
+        then(sampled / (double) users).isBetween(0.19, 0.21);
+        // sampled users must not be skewed towards either half of the buckets
+        then(sampledLowBucket / (double) sampled).isBetween(0.48, 0.52);
+    }
+}
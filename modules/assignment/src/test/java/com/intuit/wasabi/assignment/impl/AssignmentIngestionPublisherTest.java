@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignment.AssignmentIngestionExecutor;
+import com.intuit.wasabi.assignmentobjects.AssignmentEnvelopePayload;
+import com.intuit.wasabi.assignmentobjects.User;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class AssignmentIngestionPublisherTest {
+
+    private static AssignmentEnvelopePayload payload(String userID) {
+        AssignmentEnvelopePayload payload = new AssignmentEnvelopePayload();
+        payload.setUserID(User.ID.valueOf(userID));
+        return payload;
+    }
+
+    @Test
+    public void withoutExecutorsNothingIsBuffered() throws InterruptedException {
+        AssignmentIngestionPublisher publisher = new AssignmentIngestionPublisher(
+                Collections.<String, AssignmentIngestionExecutor>emptyMap(), 10, 10);
+
+        then(publisher.isEnabled()).isFalse();
+        then(publisher.publish(payload("u1"))).isTrue();
+        then(publisher.getBacklog()).isEqualTo(0);
+        then(publisher.drain(1000)).isTrue();
+    }
+
+    @Test
+    public void everyExecutorGetsTheSamePayloadSerializedOnce() throws InterruptedException {
+        RecordingExecutor first = new RecordingExecutor(false);
+        RecordingExecutor failing = new RecordingExecutor(true);
+        RecordingExecutor last = new RecordingExecutor(false);
+        Map<String, AssignmentIngestionExecutor> executors = new LinkedHashMap<>();
+        executors.put("first", first);
+        executors.put("failing", failing);
+        executors.put("last", last);
+        AssignmentIngestionPublisher publisher = new AssignmentIngestionPublisher(executors, 16, 4);
+
+        for (int i = 0; i < 10; i++) {
+            then(publisher.publish(payload("u" + i))).isTrue();
+        }
+        then(publisher.drain(5000)).isTrue();
+
+        then(first.payloads).hasSize(10);
+        then(last.payloads).hasSize(10);
+        for (int i = 0; i < 10; i++) {
+            then(last.payloads.get(i)).isSameAs(first.payloads.get(i));
+            then(last.json.get(i)).isSameAs(first.json.get(i));
+        }
+        then(publisher.getPublished()).isEqualTo(10);
+        then(publisher.getFailed()).isEqualTo(10);
+        then(publisher.publish(payload("late"))).isFalse();
+        then(publisher.getDropped()).isEqualTo(1);
+    }
+
+    private static final class RecordingExecutor implements AssignmentIngestionExecutor {
+
+        private final boolean failing;
+        private final List<AssignmentEnvelopePayload> payloads = new CopyOnWriteArrayList<>();
+        private final List<String> json = new CopyOnWriteArrayList<>();
+
+        RecordingExecutor(boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void execute(AssignmentEnvelopePayload assignmentEnvelopePayload) {
+            if (failing) {
+                throw new IllegalStateException("unavailable");
+            }
+            payloads.add(assignmentEnvelopePayload);
+            json.add(assignmentEnvelopePayload.toJson());
+        }
+
+        @Override
+        public int queueLength() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return failing ? "failing" : "recording";
+        }
+    }
+}
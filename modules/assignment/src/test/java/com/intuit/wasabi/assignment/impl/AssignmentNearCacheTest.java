@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class AssignmentNearCacheTest {
+
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+    private final User.ID userID = User.ID.valueOf("user");
+    private final Context context = Context.valueOf("PROD");
+
+    @Test
+    public void cachesBucketLabels() {
+        AssignmentNearCache cache = new AssignmentNearCache(true, 100, 60);
+
+        cache.put(experimentID, userID, context, Bucket.Label.valueOf("red"));
+        cache.put(Experiment.ID.newInstance(), userID, context, (Bucket.Label) null);
+
+        then(cache.get(experimentID, User.ID.valueOf("user"), Context.valueOf("PROD"))).isEqualTo("red");
+        then(cache.get(experimentID, userID, Context.valueOf("QA"))).isNull();
+        then(cache.get(experimentID, User.ID.valueOf("other"), context)).isNull();
+        then(cache.size()).isEqualTo(2L);
+        then(cache.stats().hitCount()).isEqualTo(1L);
+        then(cache.stats().missCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void cachesAssignmentsWithoutBucket() {
+        AssignmentNearCache cache = new AssignmentNearCache(true, 100, 60);
+
+        cache.put(experimentID, userID, context, AssignmentNearCache.NULL_BUCKET);
+
+        then(cache.get(experimentID, userID, context)).isEqualTo(AssignmentNearCache.NULL_BUCKET);
+    }
+
+    @Test
+    public void writesThroughAndInvalidates() {
+        AssignmentNearCache cache = new AssignmentNearCache(true, 100, 60);
+
+        cache.put(experimentID, userID, context, Bucket.Label.valueOf("red"));
+        cache.put(experimentID, userID, context, Bucket.Label.valueOf("blue"));
+        then(cache.get(experimentID, userID, context)).isEqualTo("blue");
+
+        cache.invalidate(experimentID, userID, context);
+        then(cache.get(experimentID, userID, context)).isNull();
+    }
+
+    @Test
+    public void evictsBeyondMaxSize() {
+        AssignmentNearCache cache = new AssignmentNearCache(true, 10, 60);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(experimentID, User.ID.valueOf("user" + i), context, Bucket.Label.valueOf("red"));
+        }
+
+        then(cache.size()).isLessThanOrEqualTo(10L);
+        then(cache.stats().evictionCount()).isGreaterThanOrEqualTo(90L);
+        then(cache.estimatedBytes()).isPositive();
+    }
+
+    @Test
+    public void disabledCacheCachesNothing() {
+        AssignmentNearCache cache = new AssignmentNearCache(false, 100, 60);
+
+        cache.put(experimentID, userID, context, Bucket.Label.valueOf("red"));
+
+        then(cache.isEnabled()).isFalse();
+        then(cache.get(experimentID, userID, context)).isNull();
+        then(cache.size()).isEqualTo(0L);
+        then(cache.estimatedBytes()).isEqualTo(0L);
+    }
+}
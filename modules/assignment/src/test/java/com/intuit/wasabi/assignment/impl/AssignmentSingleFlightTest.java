@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.junit.Assert.fail;
+
+public class AssignmentSingleFlightTest {
+
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+    private final User.ID userID = User.ID.valueOf("u1");
+    private final Context context = Context.valueOf("PROD");
+    private final List<Object> signature = Arrays.<Object>asList(true, false, null);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Assignment assignment(String bucketLabel) {
+        return Assignment.newInstance(experimentID)
+                .withUserID(userID)
+                .withContext(context)
+                .withBucketLabel(Bucket.Label.valueOf(bucketLabel))
+                .build();
+    }
+
+    /**
+     * Blocks until released, then counts and returns a new assignment.
+     */
+    private Supplier<Assignment> blocking(String bucketLabel, CountDownLatch started) {
+        return () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            computations.incrementAndGet();
+            return assignment(bucketLabel);
+        };
+    }
+
+    private Future<Assignment> submit(AssignmentSingleFlight singleFlight, List<?> signature,
+                                      Supplier<Assignment> assignment) {
+        return executor.submit(() -> singleFlight.run(experimentID, userID, context, signature, assignment));
+    }
+
+    @Test
+    public void concurrentCallersWithTheSameSignatureShareOneAssignment() throws Exception {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(true, 10, 5000);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Assignment> leader = submit(singleFlight, signature, blocking("red", started));
+        started.await();
+
+        Future<Assignment> follower = submit(singleFlight, signature, blocking("blue", new CountDownLatch(1)));
+        Thread.sleep(50);
+        release.countDown();
+
+        then(follower.get(5, SECONDS)).isSameAs(leader.get(5, SECONDS));
+        then(computations.get()).isEqualTo(1);
+        then(singleFlight.getCoalesced()).isEqualTo(1L);
+        then(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void callersWithAnotherSignatureComputeAfterTheFlightInProgress() throws Exception {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(true, 10, 5000);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Assignment> leader = submit(singleFlight, signature, blocking("red", started));
+        started.await();
+
+        Future<Assignment> other = submit(singleFlight, Collections.singletonList(false),
+                blocking("blue", new CountDownLatch(1)));
+        Thread.sleep(50);
+        then(computations.get()).isEqualTo(0);
+        release.countDown();
+
+        then(leader.get(5, SECONDS).getBucketLabel()).isEqualTo(Bucket.Label.valueOf("red"));
+        then(other.get(5, SECONDS).getBucketLabel()).isEqualTo(Bucket.Label.valueOf("blue"));
+        then(computations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void callersWithAnotherSignatureReadTheAssignmentMadeInTheMeantime() throws Exception {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(true, 10, 5000);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Assignment> leader = submit(singleFlight, signature, blocking("red", started));
+        started.await();
+
+        Future<Assignment> other = executor.submit(() -> singleFlight.run(experimentID, userID, context,
+                Collections.singletonList(false), () -> assignment("blue"), () -> assignment("red")));
+        Thread.sleep(50);
+        release.countDown();
+
+        then(leader.get(5, SECONDS).getBucketLabel()).isEqualTo(Bucket.Label.valueOf("red"));
+        then(other.get(5, SECONDS).getBucketLabel()).isEqualTo(Bucket.Label.valueOf("red"));
+        then(computations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void callersComputeOnTheirOwnAfterTheTimeout() throws Exception {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(true, 10, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        submit(singleFlight, signature, blocking("red", started));
+        started.await();
+
+        Assignment own = singleFlight.run(experimentID, userID, context, signature, () -> assignment("blue"));
+
+        then(own.getBucketLabel()).isEqualTo(Bucket.Label.valueOf("blue"));
+        then(singleFlight.getTimedOut()).isEqualTo(1L);
+    }
+
+    @Test
+    public void failuresAreNotShared() {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(true, 10, 1000);
+
+        try {
+            singleFlight.run(experimentID, userID, context, signature, () -> {
+                throw new IllegalStateException("unavailable");
+            });
+            fail("the failure of the computation must reach its caller");
+        } catch (IllegalStateException e) {
+            then(e).hasMessage("unavailable");
+        }
+        then(singleFlight.run(experimentID, userID, context, signature, () -> assignment("red")).getBucketLabel())
+                .isEqualTo(Bucket.Label.valueOf("red"));
+        then(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void disabledSingleFlightComputesEveryTime() {
+        AssignmentSingleFlight singleFlight = new AssignmentSingleFlight(false, 10, 1000);
+
+        then(singleFlight.isEnabled()).isFalse();
+        then(singleFlight.run(experimentID, userID, context, signature, () -> assignment("red")).getBucketLabel())
+                .isEqualTo(Bucket.Label.valueOf("red"));
+        then(singleFlight.getInFlight()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+import com.intuit.wasabi.repository.RepositoryException;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class AssignmentWriteBehindTest {
+
+    private final AssignmentsRepository assignmentsRepository = mock(AssignmentsRepository.class);
+    private final Experiment experiment = Experiment.withID(Experiment.ID.newInstance())
+            .withIsHashedAssignment(true).build();
+
+    private Assignment assignment(String userID, String bucketLabel) {
+        return Assignment.newInstance(experiment.getID())
+                .withUserID(User.ID.valueOf(userID))
+                .withContext(Context.valueOf("PROD"))
+                .withBucketLabel(Bucket.Label.valueOf(bucketLabel))
+                .build();
+    }
+
+    @Test
+    public void disabledQueueRejectsAssignments() throws InterruptedException {
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, false, 0, 0, 0, 0);
+
+        then(writeBehind.offer(assignment("u1", "red"), experiment, new Date())).isFalse();
+        then(writeBehind.drain(1000)).isTrue();
+    }
+
+    @Test
+    public void rejectsAssignmentsToExperimentsWithoutHashedAssignment() throws InterruptedException {
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, true, 10, 10, 100, 1);
+        Experiment notHashed = Experiment.from(experiment).withIsHashedAssignment(false).build();
+
+        then(writeBehind.offer(assignment("u1", "red"), notHashed, new Date())).isFalse();
+        then(writeBehind.getBacklog()).isEqualTo(0);
+        then(writeBehind.drain(1000)).isTrue();
+    }
+
+    @Test
+    public void coalescesAndPersistsQueuedAssignments() throws InterruptedException {
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, true, 10, 10, 100, 2);
+        Assignment first = assignment("u1", "red");
+        Assignment second = assignment("u1", "blue");
+        Assignment other = assignment("u2", "red");
+
+        then(writeBehind.offer(first, experiment, new Date())).isTrue();
+        then(writeBehind.offer(second, experiment, new Date())).isTrue();
+        then(writeBehind.offer(other, experiment, new Date())).isTrue();
+        then(writeBehind.drain(10000)).isTrue();
+
+        verify(assignmentsRepository, never()).assignUser(eq(first), any(Experiment.class), any(Date.class));
+        verify(assignmentsRepository).assignUser(eq(second), eq(experiment), any(Date.class));
+        verify(assignmentsRepository).assignUser(eq(other), eq(experiment), any(Date.class));
+        then(writeBehind.getWrittenAssignments()).isEqualTo(2);
+        then(writeBehind.getCoalescedAssignments()).isEqualTo(1);
+        then(writeBehind.offer(other, experiment, new Date())).isFalse();
+    }
+
+    @Test
+    public void persistsPendingAssignmentBeforeADirectWrite() throws InterruptedException {
+        // a flush interval long enough that the assignment is still queued
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, true, 10, 10, 2000, 1);
+        Assignment queued = assignment("u1", "red");
+
+        then(writeBehind.offer(queued, experiment, new Date())).isTrue();
+        then(writeBehind.getPending(experiment.getID(), User.ID.valueOf("u1"), Context.valueOf("PROD")))
+                .isSameAs(queued);
+        writeBehind.persistPending(experiment.getID(), User.ID.valueOf("u1"), Context.valueOf("PROD"));
+        verify(assignmentsRepository).assignUser(eq(queued), eq(experiment), any(Date.class));
+        then(writeBehind.getPending(experiment.getID(), User.ID.valueOf("u1"), Context.valueOf("PROD"))).isNull();
+
+        then(writeBehind.drain(10000)).isTrue();
+        verify(assignmentsRepository, times(1)).assignUser(eq(queued), any(Experiment.class), any(Date.class));
+        then(writeBehind.getWrittenAssignments()).isEqualTo(1);
+        then(writeBehind.getCoalescedAssignments()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsAssignmentsWhenFull() throws InterruptedException {
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, true, 1, 1, 100, 1);
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            accepted += writeBehind.offer(assignment("u" + i, "red"), experiment, new Date()) ? 1 : 0;
+        }
+        writeBehind.drain(10000);
+
+        then(writeBehind.getRejectedAssignments()).isEqualTo(100 - accepted);
+        verify(assignmentsRepository, times(accepted))
+                .assignUser(any(Assignment.class), any(Experiment.class), any(Date.class));
+    }
+
+    @Test
+    public void pushesFailedAssignmentsToStaging() throws InterruptedException {
+        Assignment failing = assignment("u1", "red");
+        doThrow(new RepositoryException("down"))
+                .when(assignmentsRepository).assignUser(eq(failing), any(Experiment.class), any(Date.class));
+        AssignmentWriteBehind writeBehind = new AssignmentWriteBehind(assignmentsRepository, true, 10, 10, 10, 1);
+
+        writeBehind.offer(failing, experiment, new Date());
+        writeBehind.drain(10000);
+
+        then(writeBehind.getFailedAssignments()).isEqualTo(1);
+        verify(assignmentsRepository).pushAssignmentToStaging(anyString(), contains("\"userID\":\"u1\""));
+    }
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.intuit.wasabi.assignment.impl;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.inject.Provider;
@@ -34,12 +35,15 @@ import com.intuit.wasabi.export.Envelope;
 import com.intuit.wasabi.export.WebExport;
 import com.intuit.wasabi.export.rest.Driver;
 import com.intuit.wasabi.repository.AnalyticsRepository;
+import com.intuit.wasabi.repository.AssignmentStageMetrics;
 import com.intuit.wasabi.repository.AssignmentsRepository;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.MutexRepository;
-import com.intuit.wasabi.repository.impl.cassandra.ExperimentRuleCacheUpdateEnvelope;
+import com.intuit.wasabi.repository.impl.cassandra.DefaultMetadataCache;
 import com.intuit.wasabi.repository.impl.cassandra.ExperimentsKeyspace;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -47,9 +51,9 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import static org.assertj.core.api.BDDAssertions.then;
 import static org.hamcrest.core.Is.is;
@@ -79,36 +83,95 @@ public class AssignmentsImplTest {
     private Priorities priorities = mock(Priorities.class);
     private CassandraDriver cassandraDriver = mock(CassandraDriver.class);
     private ExperimentsKeyspace keyspace = mock(ExperimentsKeyspace.class);
-    private RuleCache ruleCache = mock(RuleCache.class);
+    private RuleCache ruleCache = new RuleCache();
     private Rule rule = mock(Rule.class);
     private Assignments assignments = mock(Assignments.class);
     private Driver restDriver = mock(Driver.class);
     private EventLog eventLog = mock(EventLog.class);
     private AssignmentDecorator assignmentDecorator = mock(AssignmentDecorator.class);
-    private ThreadPoolExecutor threadPoolExecutor = mock(ThreadPoolExecutor.class, RETURNS_DEEP_STUBS);
     private Provider<Envelope<AssignmentEnvelopePayload, DatabaseExport>> assignmentDBEnvelopeProvider =
             mock(Provider.class, RETURNS_DEEP_STUBS);
     private Provider<Envelope<AssignmentEnvelopePayload, WebExport>> assignmentWebEnvelopeProvider=
             mock(Provider.class, RETURNS_DEEP_STUBS);
     private AssignmentsRepository assignmentsRepository = mock(AssignmentsRepository.class, RETURNS_DEEP_STUBS);
+    private MetadataCache metadataCache = new DefaultMetadataCache(experimentRepository, mutexRepository, false, 0, 0);
+    private AssignmentWriteBehind assignmentWriteBehind =
+            new AssignmentWriteBehind(assignmentsRepository, false, 0, 0, 0, 0);
+    private AssignmentNearCache assignmentNearCache = new AssignmentNearCache(false, 0, 0);
+    private AssignedUserFilter assignedUserFilter = new AssignedUserFilter(assignmentsRepository, false, 0, 0.01, 0, 0);
+    private BulkAssignmentPipeline bulkAssignmentPipeline = new BulkAssignmentPipeline(1, 1);
+    private AssignmentIngestionPublisher assignmentIngestionPublisher =
+            new AssignmentIngestionPublisher(new HashMap<String, AssignmentIngestionExecutor>(), 1, 1);
+    private AssignmentSingleFlight assignmentSingleFlight = new AssignmentSingleFlight(true, 100, 1000);
+    private AssignmentStageMetrics assignmentStageMetrics = new AssignmentStageMetrics(true, 1d, new MetricRegistry(),
+            metadataCache);
     private AssignmentsImpl assignmentsImpl;
 
     @Before
     public void setup() throws IOException, ConnectionException {
         this.assignmentsImpl = new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
-                experimentRepository, assignmentsRepository, mutexRepository,
+                experimentRepository, assignmentsRepository, mutexRepository, metadataCache,
                 ruleCache, pages, priorities, assignmentDBEnvelopeProvider, assignmentWebEnvelopeProvider,
-                assignmentDecorator, threadPoolExecutor, eventLog);
+                assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics);
     }
 
     @Test
     public void testQueueLength(){
-        when(threadPoolExecutor.getQueue().size()).thenReturn(0);
         Map<String, Integer> queueLengthMap = new HashMap<String, Integer>();
-        queueLengthMap.put(AssignmentsImpl.RULE_CACHE, new Integer(0));
         assertThat(assignmentsImpl.queuesLength(), is(queueLengthMap));
     }
 
+    @Test
+    public void testDoesProfileMatchReadsHeadersAndContextWithoutMergingThem() {
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withLabel(Experiment.Label.valueOf("exp"))
+                .withRule("User-Agent = \"mobile\" & context = \"PROD\" & salary > 1000").build();
+        Map<String, Object> profileMap = new HashMap<>();
+        profileMap.put("salary", 2000);
+        SegmentationProfile segmentationProfile = SegmentationProfile.from(profileMap).build();
+        HttpHeaders headers = mock(HttpHeaders.class);
+        MultivaluedMap<String, String> requestHeaders = new MultivaluedMapImpl();
+        requestHeaders.putSingle("User-Agent", "mobile");
+        when(headers.getRequestHeaders()).thenReturn(requestHeaders);
+
+        then(assignmentsImpl.doesProfileMatch(experiment, segmentationProfile, headers, context)).isTrue();
+        then(assignmentsImpl.doesProfileMatch(experiment, segmentationProfile, headers, Context.valueOf("QA")))
+                .isFalse();
+        then(assignmentsImpl.doesProfileMatch(experiment, null, headers, context)).isFalse();
+        // the request profile is left as it was sent
+        then(profileMap).containsOnlyKeys("salary");
+    }
+
+    @Test
+    public void testDoesProfileMatchMergesHeadersAndContextIntoTheIngestedProfile() {
+        AssignmentIngestionPublisher ingestionPublisher = mock(AssignmentIngestionPublisher.class);
+        when(ingestionPublisher.isEnabled()).thenReturn(true);
+        AssignmentsImpl assignmentsImpl = new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
+                experimentRepository, assignmentsRepository, mutexRepository, metadataCache,
+                ruleCache, pages, priorities, assignmentDBEnvelopeProvider, assignmentWebEnvelopeProvider,
+                assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, ingestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics);
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withLabel(Experiment.Label.valueOf("exp"))
+                .withRule("User-Agent = \"mobile\" & context = \"PROD\" & salary > 1000").build();
+        Map<String, Object> profileMap = new HashMap<>();
+        profileMap.put("salary", 2000);
+        SegmentationProfile segmentationProfile = SegmentationProfile.from(profileMap).build();
+        HttpHeaders headers = mock(HttpHeaders.class);
+        MultivaluedMap<String, String> requestHeaders = new MultivaluedMapImpl();
+        requestHeaders.putSingle("User-Agent", "mobile");
+        when(headers.getRequestHeaders()).thenReturn(requestHeaders);
+        when(headers.getRequestHeader("User-Agent")).thenReturn(Collections.singletonList("mobile"));
+
+        then(assignmentsImpl.doesProfileMatch(experiment, segmentationProfile, headers, context)).isTrue();
+        // the published envelope carries the headers and context, as before the lazy profile view
+        then(segmentationProfile.getProfile()).containsEntry("User-Agent", "mobile")
+                .containsEntry("context", context.getContext()).containsEntry("salary", 2000);
+    }
+
     @Test
     public void testGetSingleAssignmentNullAssignmentExperimentNotFound(){
         Application.Name appName = Application.Name.valueOf("Test");
@@ -134,9 +197,11 @@ public class AssignmentsImplTest {
     public void testGetSingleAssignmentNullAssignmentExperimentInDraftState() throws IOException, ConnectionException {
         AssignmentsImpl assignmentsImpl = spy(new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
                 experimentRepository, assignmentsRepository,
-                mutexRepository, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
-                assignmentWebEnvelopeProvider, assignmentDecorator, threadPoolExecutor,
-                eventLog));
+                mutexRepository, metadataCache, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
+                assignmentWebEnvelopeProvider, assignmentDecorator,
+                eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics));
         Experiment.ID id = Experiment.ID.newInstance();
         Experiment experiment = mock(Experiment.class);
         when(experiment.getID()).thenReturn(id);
@@ -241,8 +306,10 @@ public class AssignmentsImplTest {
     public void testGetSingleAssignmentNullAssignmentExperimentNoProfileMatch() throws IOException, ConnectionException {
         AssignmentsImpl assignmentsImpl = spy(new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
                 experimentRepository, assignmentsRepository,
-                mutexRepository, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
-                assignmentWebEnvelopeProvider, assignmentDecorator, threadPoolExecutor, eventLog));
+                mutexRepository, metadataCache, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
+                assignmentWebEnvelopeProvider, assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics));
         Experiment.ID id = Experiment.ID.newInstance();
         Experiment experiment = mock(Experiment.class, RETURNS_DEEP_STUBS);
         when(experiment.getID()).thenReturn(id);
@@ -268,7 +335,6 @@ public class AssignmentsImplTest {
         Assignment result = assignmentsImpl.getSingleAssignment(user, appName, label, context, true, true,
                 segmentationProfile, headers, pageName);
         assertThat(result.equals(nullAssignment), is(true));
-        verify(threadPoolExecutor, times(1)).execute(any(ExperimentRuleCacheUpdateEnvelope.class));
     }
 
     @Test(expected = AssertionError.class)
@@ -288,17 +354,17 @@ public class AssignmentsImplTest {
         SegmentationProfile segmentationProfile = mock(SegmentationProfile.class);
         HttpHeaders headers = mock(HttpHeaders.class);
         Page.Name pageName = Page.Name.valueOf("p1");
-        verify(threadPoolExecutor, times(0)).execute(any(Runnable.class));
         assignmentsImpl.getSingleAssignment(user, appName, label, context, true, true, segmentationProfile, headers, pageName);
-        verify(threadPoolExecutor, times(0)).execute(any(Runnable.class));
     }
 
     @Test(expected = AssertionError.class)
     public void testGetSingleAssignmentProfileMatchAssertNewAssignment() throws IOException, ConnectionException {
         AssignmentsImpl assignmentsImpl = spy(new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
                 experimentRepository, assignmentsRepository,
-                mutexRepository, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
-                assignmentWebEnvelopeProvider, assignmentDecorator, threadPoolExecutor, eventLog));
+                mutexRepository, metadataCache, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
+                assignmentWebEnvelopeProvider, assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics));
         Experiment.ID id = Experiment.ID.newInstance();
         Experiment experiment = mock(Experiment.class, RETURNS_DEEP_STUBS);
         Assignment assignment = mock(Assignment.class);
@@ -319,17 +385,17 @@ public class AssignmentsImplTest {
         HttpHeaders headers = mock(HttpHeaders.class);
         when(assignment.getStatus()).thenReturn(Assignment.Status.EXPERIMENT_NOT_FOUND);
         Page.Name pageName = Page.Name.valueOf("p1");
-        verify(threadPoolExecutor, times(0)).execute(any(Runnable.class));
         assignmentsImpl.getSingleAssignment(user, appName, label, context, true, true, null, headers, pageName);
-        verify(threadPoolExecutor, times(0)).execute(any(Runnable.class));
     }
 
     @Test
     public void testGetSingleAssignmentSuccess() throws IOException, ConnectionException {
         AssignmentsImpl assignmentsImpl = spy(new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
                 experimentRepository, assignmentsRepository,
-                mutexRepository, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
-                assignmentWebEnvelopeProvider, assignmentDecorator,  threadPoolExecutor, eventLog));
+                mutexRepository, metadataCache, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
+                assignmentWebEnvelopeProvider, assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics));
         Experiment.ID id = Experiment.ID.newInstance();
         Experiment experiment = mock(Experiment.class, RETURNS_DEEP_STUBS);
         Assignment assignment = mock(Assignment.class);
@@ -346,7 +412,6 @@ public class AssignmentsImplTest {
         when(assignment.getStatus()).thenReturn(Assignment.Status.EXISTING_ASSIGNMENT);
         Assignment result = assignmentsImpl.getSingleAssignment(user, appName, label, context, true, true,
                     null, null, pageName);
-        verify(threadPoolExecutor, times(1)).execute(any(ExperimentRuleCacheUpdateEnvelope.class));
         assertThat(result, is(assignment));
     }
 
@@ -388,8 +453,10 @@ public class AssignmentsImplTest {
         Assignment assignment = mock(Assignment.class);
         AssignmentsImpl assignmentsImpl = spy( new AssignmentsImpl(new HashMap<String, AssignmentIngestionExecutor>(),
                 experimentRepository, assignmentsRepository,
-                mutexRepository, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
-                assignmentWebEnvelopeProvider, assignmentDecorator,  threadPoolExecutor, eventLog));
+                mutexRepository, metadataCache, ruleCache, pages, priorities, assignmentDBEnvelopeProvider,
+                assignmentWebEnvelopeProvider, assignmentDecorator, eventLog, assignmentWriteBehind, assignmentNearCache,
+                assignedUserFilter, bulkAssignmentPipeline, assignmentIngestionPublisher,
+                assignmentSingleFlight, assignmentStageMetrics));
 
         doReturn(assignment).when(assignmentsImpl).getAssignment(eq(userID), eq(appName), eq(label),
                 eq(context), any(boolean.class), any(boolean.class), eq(segmentationProfile),
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.exceptions.AssignmentException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.junit.Assert.fail;
+
+public class BulkAssignmentPipelineTest {
+
+    private final BulkAssignmentPipeline pipeline = new BulkAssignmentPipeline(4, 8);
+
+    @Test
+    public void handsOnResultsInInputOrder() {
+        List<Integer> inputs = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+        List<Integer> results = new ArrayList<>();
+
+        long count = pipeline.process(inputs.iterator(), input -> {
+            sleep((input * 7) % 5);
+            return input * 2;
+        }, results::add);
+
+        then(count).isEqualTo(200);
+        then(results).isEqualTo(inputs.stream().map(input -> input * 2).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void boundsAssignmentsInFlight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        pipeline.process(IntStream.range(0, 100).iterator(), input -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(1);
+            inFlight.decrementAndGet();
+            return input;
+        }, result -> { });
+
+        then(maxInFlight.get()).isBetween(1, 4);
+    }
+
+    @Test
+    public void stopsAtTheFirstFailure() {
+        List<Integer> results = new ArrayList<>();
+        try {
+            pipeline.process(IntStream.range(0, 100).iterator(), input -> {
+                if (input == 10) {
+                    throw new IllegalStateException("failed");
+                }
+                return input;
+            }, results::add);
+            fail("expected an AssignmentException");
+        } catch (AssignmentException e) {
+            then(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        then(results).hasSize(10);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.experimentobjects.Context;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SegmentationProfileViewTest {
+
+    private final HttpHeaders headers = mock(HttpHeaders.class);
+    private final MultivaluedMap<String, String> requestHeaders = new MultivaluedMapImpl();
+
+    @Before
+    public void setUp() {
+        when(headers.getRequestHeaders()).thenReturn(requestHeaders);
+    }
+
+    private Map<String, Object> view(Map<String, Object> profile, String... attributes) {
+        return new SegmentationProfileView(profile, headers, Context.valueOf("PROD"),
+                new HashSet<>(Arrays.asList(attributes)));
+    }
+
+    @Test
+    public void resolvesProfileThenHeadersAndAlwaysTheContext() {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("state", "CA");
+        profile.put("User-Agent", "from profile");
+        profile.put("context", "QA");
+        requestHeaders.put("User-Agent", Arrays.asList("from header"));
+        requestHeaders.put("Accept", Arrays.asList("text/html", "*/*"));
+
+        Map<String, Object> view = view(profile, "state", "User-Agent", "Accept", "context", "missing");
+
+        then(view.get("state")).isEqualTo("CA");
+        then(view.get("User-Agent")).isEqualTo("from profile");
+        then(view.get("Accept")).isEqualTo("text/html");
+        then(view.get("context")).isEqualTo("PROD");
+        then(view.containsKey("missing")).isFalse();
+        then(view).hasSize(4);
+    }
+
+    @Test
+    public void hidesAttributesTheRuleDoesNotRead() {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("state", "CA");
+
+        Map<String, Object> view = view(profile, "salary");
+
+        then(view.get("state")).isNull();
+        then(view.containsKey("state")).isFalse();
+        verify(headers, never()).getRequestHeaders();
+    }
+
+    @Test
+    public void worksWithoutProfile() {
+        requestHeaders.putSingle("User-Agent", "mobile");
+
+        Map<String, Object> view = view(null, "User-Agent", "context");
+
+        then(view.get("User-Agent")).isEqualTo("mobile");
+        then(view.get("context")).isEqualTo("PROD");
+    }
+
+    @Test
+    public void matchesHeaderNamesExactly() {
+        requestHeaders.putSingle("User-Agent", "mobile");
+
+        Map<String, Object> view = view(null, "user-agent", "User-Agent");
+
+        then(view.get("user-agent")).isNull();
+        then(view.get("User-Agent")).isEqualTo("mobile");
+    }
+}
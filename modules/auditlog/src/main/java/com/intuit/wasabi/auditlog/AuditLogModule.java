@@ -38,6 +38,12 @@ public class AuditLogModule extends AbstractModule {
                 parseInt(getProperty("auditlog.threadpoolsize.core", properties, "2")));
         bind(Integer.class).annotatedWith(named("auditlog.threadpoolsize.max")).toInstance(
                 parseInt(getProperty("auditlog.threadpoolsize.max", properties, "4")));
+        bind(Integer.class).annotatedWith(named("auditlog.queue.capacity")).toInstance(
+                parseInt(getProperty("auditlog.queue.capacity", properties, "10000")));
+        bind(String.class).annotatedWith(named("auditlog.overflow.policy")).toInstance(
+                getProperty("auditlog.overflow.policy", properties, "block"));
+        bind(Integer.class).annotatedWith(named("auditlog.overflow.timeout.ms")).toInstance(
+                parseInt(getProperty("auditlog.overflow.timeout.ms", properties, "1000")));
 
         String auditLogListenerClass = getProperty("auditlog.listener.class.name", properties,
                 "com.intuit.wasabi.auditlog.impl.NoopAuditLogListenerImpl");
@@ -1,5 +1,6 @@
 package com.intuit.wasabi.auditlog.impl;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.intuit.wasabi.auditlogobjects.AuditLogEntry;
@@ -8,10 +9,7 @@ import com.intuit.wasabi.eventlog.EventLog;
 import com.intuit.wasabi.eventlog.EventLogListener;
 import com.intuit.wasabi.eventlog.events.EventLogEvent;
 import com.intuit.wasabi.repository.AuditLogRepository;
-
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import com.intuit.wasabi.util.BoundedExecutor;
 
 /**
  * The AuditLogListener subscribes to events which should be logged for the user interface.
@@ -19,7 +17,7 @@ import java.util.concurrent.TimeUnit;
 public class AuditLogListenerImpl implements EventLogListener {
 
     /** Executes the {@link AuditLogEntryEnvelope}s. */
-    private final ThreadPoolExecutor threadPoolExecutor;
+    private final BoundedExecutor threadPoolExecutor;
     private final AuditLogRepository repository;
 
     /**
@@ -28,17 +26,34 @@ public class AuditLogListenerImpl implements EventLogListener {
      * @param eventLog the event log to subscribe to
      * @param threadPoolSizeCore the core threadpool size (java property {@code auditlog.threadpoolsize.core})
      * @param threadPoolSizeMax the max threadpool size (java property {@code auditlog.threadpoolsize.max})
+     * @param queueCapacity the number of queued entries (java property {@code auditlog.queue.capacity})
+     * @param overflowPolicy what happens to entries while the queue is full (java property {@code auditlog.overflow.policy})
+     * @param overflowTimeoutMillis how long to wait for room in the queue (java property {@code auditlog.overflow.timeout.ms})
      * @param repository the audit log repository
      */
     @Inject
     public AuditLogListenerImpl(final EventLog eventLog,
                                 final @Named("auditlog.threadpoolsize.core") int threadPoolSizeCore,
                                 final @Named("auditlog.threadpoolsize.max") int threadPoolSizeMax,
+                                final @Named("auditlog.queue.capacity") int queueCapacity,
+                                final @Named("auditlog.overflow.policy") String overflowPolicy,
+                                final @Named("auditlog.overflow.timeout.ms") int overflowTimeoutMillis,
                                 final AuditLogRepository repository) {
         this.repository = repository;
         eventLog.register(this);
 
-        threadPoolExecutor = new ThreadPoolExecutor(threadPoolSizeCore, threadPoolSizeMax, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        threadPoolExecutor = new BoundedExecutor("auditlog", threadPoolSizeCore, threadPoolSizeMax, queueCapacity,
+                BoundedExecutor.OverflowPolicy.parse(overflowPolicy), overflowTimeoutMillis);
+    }
+
+    /**
+     * Reports the executor metrics. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(AuditLogListenerImpl.class, "executor"), threadPoolExecutor);
     }
 
     /**
@@ -13,7 +13,7 @@ public class AuditLogListenerImplTest {
 
     @Test
     public void testPostEvent() {
-        new AuditLogListenerImpl(Mockito.mock(EventLog.class), 2, 4, Mockito.mock(AuditLogRepository.class)).postEvent(new SimpleEvent("SimpleEvent"));
+        new AuditLogListenerImpl(Mockito.mock(EventLog.class), 2, 4, 1000, "block", 1000, Mockito.mock(AuditLogRepository.class)).postEvent(new SimpleEvent("SimpleEvent"));
     }
 
 
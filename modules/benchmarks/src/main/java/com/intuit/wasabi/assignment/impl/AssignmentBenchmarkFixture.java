@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignment.AssignmentIngestionExecutor;
+import com.intuit.wasabi.assignmentobjects.RuleCache;
+import com.intuit.wasabi.benchmarks.InMemoryAssignmentsRepository;
+import com.intuit.wasabi.benchmarks.InMemoryMetadataCache;
+import com.intuit.wasabi.benchmarks.InMemoryMutexRepository;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link AssignmentsImpl} on in-memory repositories and a warm metadata cache, with helpers to build
+ * experiments, buckets, rules and profiles of a given size.
+ *
+ * The benchmarks of the assignment engine live in this package so that they can call the package-private and
+ * protected steps of the assignment path directly.
+ */
+final class AssignmentBenchmarkFixture {
+
+    static final Application.Name APPLICATION = Application.Name.valueOf("benchmark");
+
+    final InMemoryAssignmentsRepository assignmentsRepository = new InMemoryAssignmentsRepository();
+    final InMemoryMutexRepository mutexRepository = new InMemoryMutexRepository();
+    final InMemoryMetadataCache metadataCache = new InMemoryMetadataCache(mutexRepository);
+    final RuleCache ruleCache = new RuleCache();
+    final AssignmentsImpl assignments;
+
+    /**
+     * Creates the engine without near cache, write-behind queue, assigned user filter, single flight,
+     * stage metrics or ingestion executors, so that every step reads and writes the in-memory repositories.
+     */
+    AssignmentBenchmarkFixture() throws Exception {
+        assignments = new AssignmentsImpl(Collections.<String, AssignmentIngestionExecutor>emptyMap(),
+                null, assignmentsRepository, mutexRepository, metadataCache, ruleCache, null, null, null, null,
+                null, null, null, null, null, null,
+                new AssignmentIngestionPublisher(Collections.<String, AssignmentIngestionExecutor>emptyMap(), 1, 1),
+                null, null, null);
+    }
+
+    /**
+     * Adds a running experiment with hashed assignment, full sampling and equally sized open buckets.
+     *
+     * @param label       the experiment label
+     * @param rule        the segmentation rule, or null
+     * @param bucketCount the number of buckets
+     * @return the experiment
+     */
+    Experiment addExperiment(String label, String rule, int bucketCount) {
+        long now = System.currentTimeMillis();
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance())
+                .withApplicationName(APPLICATION)
+                .withLabel(Experiment.Label.valueOf(label))
+                .withState(Experiment.State.RUNNING)
+                .withSamplingPercent(1.0)
+                .withIsHashedAssignment(true)
+                .withRule(rule)
+                .withStartTime(new Date(now - TimeUnit.DAYS.toMillis(1)))
+                .withEndTime(new Date(now + TimeUnit.DAYS.toMillis(365)))
+                .build();
+        BucketList bucketList = new BucketList(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            bucketList.addBucket(Bucket.newInstance(experiment.getID(), Bucket.Label.valueOf("bucket" + i))
+                    .withAllocationPercent(1.0 / bucketCount)
+                    .withControl(i == 0)
+                    .withState(Bucket.State.OPEN)
+                    .build());
+        }
+        metadataCache.addExperiment(experiment, bucketList);
+        mutexRepository.addExperiment(experiment);
+        return experiment;
+    }
+
+    /**
+     * @param ruleType none, string, disjunction, range or mixed, from a single comparison to a mix of
+     *                 comparisons, a regular expression and a boolean flag
+     * @return the rule expression, null for none
+     */
+    static String rule(String ruleType) {
+        switch (ruleType) {
+            case "none":
+                return null;
+            case "string":
+                return "state = \"TX\"";
+            case "disjunction":
+                return "state = \"CA\" | state = \"NY\" | state = \"WA\" | state = \"OR\" | state = \"NV\""
+                        + " | state = \"AZ\" | state = \"UT\" | state = \"TX\"";
+            case "range":
+                return "salary >= 10000 & salary < 50000 & visits > 3";
+            case "mixed":
+                return "(state = \"CA\" | state = \"TX\") & salary >= 10000 & !(User-Agent =~ \".*bot.*\")"
+                        + " & vip = false";
+            default:
+                throw new IllegalArgumentException("Unknown rule type " + ruleType);
+        }
+    }
+
+    /**
+     * @param size the number of attributes, at least the four read by the rules
+     * @return a profile matching all rules
+     */
+    static Map<String, Object> profile(int size) {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("state", "TX");
+        profile.put("salary", 20000);
+        profile.put("visits", "12");
+        profile.put("vip", false);
+        for (int i = profile.size(); i < size; i++) {
+            profile.put("attribute" + i, "value" + i);
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the selection of the bucket of a new assignment, through the allocation table compiled by the metadata
+ * cache and through a table built for every selection.
+ *
+ * Run with {@code java -jar target/benchmarks.jar BucketSelectionBenchmark -rf json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketSelectionBenchmark {
+
+    private static final int ROLLS = 1024;
+
+    @Param({"2", "10", "100"})
+    private int bucketCount;
+
+    private AssignmentsImpl assignments;
+    private Experiment experiment;
+    private BucketList bucketList;
+    private final double[] rolls = new double[ROLLS];
+    private int roll;
+
+    @Setup
+    public void setUp() throws Exception {
+        AssignmentBenchmarkFixture fixture = new AssignmentBenchmarkFixture();
+        assignments = fixture.assignments;
+        experiment = fixture.addExperiment("selection", null, bucketCount);
+        bucketList = fixture.metadataCache.getBucketList(experiment.getID());
+
+        Random random = new Random(42);
+        for (int i = 0; i < ROLLS; i++) {
+            rolls[i] = random.nextDouble();
+        }
+    }
+
+    private double nextRoll() {
+        roll = (roll + 1) & (ROLLS - 1);
+        return rolls[roll];
+    }
+
+    @Benchmark
+    public Bucket selectBucket() {
+        return assignments.selectBucket(experiment, nextRoll());
+    }
+
+    @Benchmark
+    public Bucket selectBucketWithoutCachedTable() {
+        return assignments.selectBucket(bucketList.getBuckets(), nextRoll());
+    }
+}
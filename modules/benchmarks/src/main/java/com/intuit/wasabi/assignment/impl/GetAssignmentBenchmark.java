@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.SegmentationProfile;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.benchmarks.FixedHttpHeaders;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole assignment through the overload used by batch and page assignments, which gets the experiment,
+ * its buckets, the assignments of the user and the exclusions read beforehand.
+ *
+ * {@link #newAssignment()} assigns users without an assignment: it checks mutual exclusion and the segmentation
+ * rule, rolls the sampling and the bucket, and writes the assignment to the in-memory repository. Users are
+ * taken from a fixed pool so that the repository does not grow. {@link #existingAssignment()} returns the
+ * assignment found among the assignments of the user.
+ *
+ * Run with {@code java -jar target/benchmarks.jar GetAssignmentBenchmark -rf json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetAssignmentBenchmark {
+
+    private static final int USERS = 4096;
+
+    @Param({"2", "10", "100"})
+    private int bucketCount;
+
+    @Param({"none", "string", "mixed"})
+    private String ruleType;
+
+    @Param({"5", "50"})
+    private int profileSize;
+
+    private AssignmentsImpl assignments;
+    private Experiment experiment;
+    private BucketList bucketList;
+    private SegmentationProfile segmentationProfile;
+    private HttpHeaders headers;
+    private Context context;
+    private Map<Experiment.ID, List<Experiment.ID>> exclusivesList;
+    private Table<Experiment.ID, Experiment.Label, String> noAssignments;
+    private Table<Experiment.ID, Experiment.Label, String> existingAssignments;
+    private final User.ID[] users = new User.ID[USERS];
+    private int user;
+
+    @Setup
+    public void setUp() throws Exception {
+        AssignmentBenchmarkFixture fixture = new AssignmentBenchmarkFixture();
+        assignments = fixture.assignments;
+        experiment = fixture.addExperiment("assignment", AssignmentBenchmarkFixture.rule(ruleType), bucketCount);
+        Experiment exclusive = fixture.addExperiment("exclusive", null, 2);
+        fixture.mutexRepository.createExclusion(experiment.getID(), exclusive.getID());
+
+        bucketList = fixture.metadataCache.getBucketList(experiment.getID());
+        segmentationProfile = SegmentationProfile.from(AssignmentBenchmarkFixture.profile(profileSize)).build();
+        headers = new FixedHttpHeaders();
+        context = Context.valueOf("PROD");
+        exclusivesList = fixture.metadataCache.getExclusivesList(Collections.singleton(experiment.getID()));
+        noAssignments = HashBasedTable.create();
+        existingAssignments = HashBasedTable.create();
+        existingAssignments.put(experiment.getID(), experiment.getLabel(),
+                bucketList.getBuckets().get(0).getLabel().toString());
+        for (int i = 0; i < USERS; i++) {
+            users[i] = User.ID.valueOf("user" + i);
+        }
+    }
+
+    private User.ID nextUser() {
+        user = (user + 1) & (USERS - 1);
+        return users[user];
+    }
+
+    @Benchmark
+    public Assignment newAssignment() {
+        return assignments.getAssignment(nextUser(), AssignmentBenchmarkFixture.APPLICATION,
+                experiment.getLabel(), context, true, false, segmentationProfile, headers, null, experiment,
+                bucketList, noAssignments, exclusivesList);
+    }
+
+    @Benchmark
+    public Assignment existingAssignment() {
+        return assignments.getAssignment(nextUser(), AssignmentBenchmarkFixture.APPLICATION,
+                experiment.getLabel(), context, true, false, segmentationProfile, headers, null, experiment,
+                bucketList, existingAssignments, exclusivesList);
+    }
+}
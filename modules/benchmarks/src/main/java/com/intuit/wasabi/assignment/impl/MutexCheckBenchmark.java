@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mutual exclusion check of an experiment that is exclusive with {@code exclusions} other
+ * experiments, for a user assigned to {@code assigned} experiments that are not exclusive with it, so that the
+ * check passes after looking at every exclusion.
+ *
+ * {@link #checkMutex()} is the single assignment check against the exclusion graph of the application and the
+ * assignments of the user in the repository; {@link #checkMutexWithPreloadedAssignments()} is the check of batch
+ * and page assignments, against assignments and exclusions read beforehand.
+ *
+ * Run with {@code java -jar target/benchmarks.jar MutexCheckBenchmark -rf json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutexCheckBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int exclusions;
+
+    @Param({"0", "10"})
+    private int assigned;
+
+    private AssignmentsImpl assignments;
+    private Experiment experiment;
+    private User.ID userID;
+    private Context context;
+    private Table<Experiment.ID, Experiment.Label, String> userAssignments;
+    private Map<Experiment.ID, List<Experiment.ID>> exclusivesList;
+
+    @Setup
+    public void setUp() throws Exception {
+        AssignmentBenchmarkFixture fixture = new AssignmentBenchmarkFixture();
+        assignments = fixture.assignments;
+        userID = User.ID.valueOf("user");
+        context = Context.valueOf("PROD");
+        userAssignments = HashBasedTable.create();
+
+        experiment = fixture.addExperiment("mutex", null, 2);
+        for (int i = 0; i < exclusions; i++) {
+            Experiment exclusive = fixture.addExperiment("exclusive" + i, null, 2);
+            fixture.mutexRepository.createExclusion(experiment.getID(), exclusive.getID());
+        }
+        for (int i = 0; i < assigned; i++) {
+            Experiment other = fixture.addExperiment("assigned" + i, null, 2);
+            fixture.assignmentsRepository.assignUser(Assignment.newInstance(other.getID())
+                    .withUserID(userID)
+                    .withContext(context)
+                    .withBucketLabel(fixture.metadataCache.getBucketList(other.getID()).getBuckets().get(0)
+                            .getLabel())
+                    .build(), other, new Date());
+            userAssignments.put(other.getID(), other.getLabel(), "bucket0");
+        }
+        exclusivesList = fixture.metadataCache.getExclusivesList(Collections.singleton(experiment.getID()));
+    }
+
+    @Benchmark
+    public Boolean checkMutex() {
+        return assignments.checkMutex(experiment, userID, context);
+    }
+
+    @Benchmark
+    public boolean checkMutexWithPreloadedAssignments() {
+        return assignments.checkMutex(experiment, userAssignments, exclusivesList);
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.RuleCache;
+import com.intuit.wasabi.assignmentobjects.SegmentationProfile;
+import com.intuit.wasabi.benchmarks.FixedHttpHeaders;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures whether a profile matches the segmentation rule of an experiment, with the rule cached as on the
+ * assignment path and with the rule parsed and compiled again for every match, as after a rule change.
+ *
+ * Run with {@code java -jar target/benchmarks.jar ProfileMatchBenchmark -rf json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileMatchBenchmark {
+
+    @Param({"string", "disjunction", "range", "mixed"})
+    private String ruleType;
+
+    @Param({"5", "50", "500"})
+    private int profileSize;
+
+    private AssignmentsImpl assignments;
+    private RuleCache ruleCache;
+    private Experiment experiment;
+    private SegmentationProfile segmentationProfile;
+    private HttpHeaders headers;
+    private Context context;
+
+    @Setup
+    public void setUp() throws Exception {
+        AssignmentBenchmarkFixture fixture = new AssignmentBenchmarkFixture();
+        assignments = fixture.assignments;
+        ruleCache = fixture.ruleCache;
+        experiment = fixture.addExperiment("match", AssignmentBenchmarkFixture.rule(ruleType), 2);
+        segmentationProfile = SegmentationProfile.from(AssignmentBenchmarkFixture.profile(profileSize)).build();
+        headers = new FixedHttpHeaders();
+        context = Context.valueOf("PROD");
+    }
+
+    @Benchmark
+    public boolean doesProfileMatch() {
+        return assignments.doesProfileMatch(experiment, segmentationProfile, headers, context);
+    }
+
+    @Benchmark
+    public boolean doesProfileMatchUncached() {
+        ruleCache.clearRule(experiment.getID());
+        return assignments.doesProfileMatch(experiment, segmentationProfile, headers, context);
+    }
+}
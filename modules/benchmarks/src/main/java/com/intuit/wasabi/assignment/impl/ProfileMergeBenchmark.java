@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.assignment.impl;
+
+import com.intuit.wasabi.assignmentobjects.SegmentationProfile;
+import com.intuit.wasabi.benchmarks.FixedHttpHeaders;
+import com.intuit.wasabi.experimentobjects.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures merging the request headers and the context into a profile. The merge changes the profile, so every
+ * invocation merges into a fresh copy; {@link #copyProfile()} measures the copy alone.
+ *
+ * Run with {@code java -jar target/benchmarks.jar ProfileMergeBenchmark -rf json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileMergeBenchmark {
+
+    @Param({"5", "50", "500"})
+    private int profileSize;
+
+    private AssignmentsImpl assignments;
+    private Map<String, Object> profile;
+    private HttpHeaders headers;
+    private Context context;
+
+    @Setup
+    public void setUp() throws Exception {
+        assignments = new AssignmentBenchmarkFixture().assignments;
+        profile = AssignmentBenchmarkFixture.profile(profileSize);
+        headers = new FixedHttpHeaders();
+        context = Context.valueOf("PROD");
+    }
+
+    @Benchmark
+    public SegmentationProfile copyProfile() {
+        return SegmentationProfile.from(new HashMap<>(profile)).build();
+    }
+
+    @Benchmark
+    public SegmentationProfile mergeHeaderAndContextWithProfile() {
+        return assignments.mergeHeaderAndContextWithProfile(
+                SegmentationProfile.from(new HashMap<>(profile)).build(), headers, context);
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.benchmarks;
+
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The request headers of a typical assignment call, for benchmarks that merge headers into profiles.
+ */
+public class FixedHttpHeaders implements HttpHeaders {
+
+    private final MultivaluedMap<String, String> requestHeaders = new MultivaluedMapImpl();
+
+    public FixedHttpHeaders() {
+        requestHeaders.putSingle("User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_11_5)");
+        requestHeaders.putSingle("Accept", "application/json");
+        requestHeaders.putSingle("Accept-Language", "en-US");
+        requestHeaders.putSingle("Host", "wasabi.example.com");
+        requestHeaders.putSingle("X-Forwarded-For", "10.0.0.1");
+    }
+
+    @Override
+    public List<String> getRequestHeader(String name) {
+        return requestHeaders.get(name);
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public List<MediaType> getAcceptableMediaTypes() {
+        return Collections.singletonList(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    @Override
+    public List<Locale> getAcceptableLanguages() {
+        return Collections.singletonList(Locale.US);
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return MediaType.APPLICATION_JSON_TYPE;
+    }
+
+    @Override
+    public Locale getLanguage() {
+        return Locale.US;
+    }
+
+    @Override
+    public Map<String, Cookie> getCookies() {
+        return Collections.emptyMap();
+    }
+}
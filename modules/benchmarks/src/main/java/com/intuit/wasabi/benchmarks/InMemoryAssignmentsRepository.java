@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.benchmarks;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.analyticsobjects.Parameters;
+import com.intuit.wasabi.analyticsobjects.counts.AssignmentCounts;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.assignmentobjects.User;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Context;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentsRepository;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps assignments in memory, so that benchmarks of the assignment path measure the engine rather than
+ * Cassandra. Only the reads and writes of the assignment path are supported.
+ */
+public class InMemoryAssignmentsRepository implements AssignmentsRepository {
+
+    private final Map<List<Object>, Assignment> assignments = new ConcurrentHashMap<>();
+    private final Map<List<Object>, Set<Experiment.ID>> userAssignments = new ConcurrentHashMap<>();
+
+    /**
+     * Drops all assignments
+     */
+    public void clear() {
+        assignments.clear();
+        userAssignments.clear();
+    }
+
+    /**
+     * @return the number of assignments
+     */
+    public int size() {
+        return assignments.size();
+    }
+
+    @Override
+    public Set<Experiment.ID> getUserAssignments(User.ID userID, Application.Name appLabel, Context context) {
+        Set<Experiment.ID> experimentIDs = userAssignments.get(Arrays.<Object>asList(userID, appLabel, context));
+        return experimentIDs != null ? experimentIDs : Collections.<Experiment.ID>emptySet();
+    }
+
+    @Override
+    public Assignment assignUser(Assignment assignment, Experiment experiment, Date date) {
+        Assignment stored = Assignment.newInstance(assignment.getExperimentID())
+                .withApplicationName(experiment.getApplicationName())
+                .withBucketLabel(assignment.getBucketLabel())
+                .withUserID(assignment.getUserID())
+                .withContext(assignment.getContext())
+                .withStatus(Assignment.Status.NEW_ASSIGNMENT)
+                .withCreated(date)
+                .build();
+        assignments.put(Arrays.<Object>asList(assignment.getExperimentID(), assignment.getUserID(),
+                assignment.getContext()), stored);
+        userAssignments.computeIfAbsent(Arrays.<Object>asList(assignment.getUserID(),
+                experiment.getApplicationName(), assignment.getContext()), key -> ConcurrentHashMap.newKeySet())
+                .add(assignment.getExperimentID());
+        return stored;
+    }
+
+    @Override
+    public Table<Experiment.ID, Experiment.Label, String> getAssignments(User.ID userID, Application.Name appLabel,
+                                                                         Context context,
+                                                                         Table<Experiment.ID, Experiment.Label,
+                                                                                 Experiment> allExperiments) {
+        Table<Experiment.ID, Experiment.Label, String> result = HashBasedTable.create();
+        for (Table.Cell<Experiment.ID, Experiment.Label, Experiment> cell : allExperiments.cellSet()) {
+            Assignment assignment = assignments.get(Arrays.<Object>asList(cell.getRowKey(), userID, context));
+            if (assignment != null) {
+                result.put(cell.getRowKey(), cell.getColumnKey(), assignment.getBucketLabel() != null
+                        ? assignment.getBucketLabel().toString() : "null");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Assignment getAssignment(Experiment.ID experimentID, User.ID userID, Context context) {
+        Assignment assignment = assignments.get(Arrays.<Object>asList(experimentID, userID, context));
+        if (assignment == null) {
+            return null;
+        }
+        return Assignment.newInstance(experimentID)
+                .withApplicationName(assignment.getApplicationName())
+                .withBucketLabel(assignment.getBucketLabel())
+                .withUserID(userID)
+                .withContext(context)
+                .withStatus(Assignment.Status.EXISTING_ASSIGNMENT)
+                .withCreated(assignment.getCreated())
+                .build();
+    }
+
+    @Override
+    public void deleteAssignment(Experiment experiment, User.ID userID, Context context, Application.Name appName,
+                                 Assignment currentAssignment) {
+        assignments.remove(Arrays.<Object>asList(experiment.getID(), userID, context));
+        Set<Experiment.ID> experimentIDs = userAssignments.get(Arrays.<Object>asList(userID, appName, context));
+        if (experimentIDs != null) {
+            experimentIDs.remove(experiment.getID());
+        }
+    }
+
+    @Override
+    public Assignment assignUserToOld(Assignment assignment, Date date) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void assignUserToExports(Assignment assignment, Date date) {
+        // Exports are not benchmarked
+    }
+
+    @Override
+    public void removeIndexUserToBucket(User.ID userID, Experiment.ID experimentID, Context context,
+                                        Bucket.Label bucketLabel) {
+        // The bucket index is not kept
+    }
+
+    @Override
+    public StreamingOutput getAssignmentStream(Experiment.ID experimentID, Context context, Parameters parameters,
+                                               Boolean ignoreNullBucket) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean visitAssignedUsers(Experiment.ID experimentID, Date from, Date to,
+                                      BiConsumer<User.ID, Context> visitor) {
+        return false;
+    }
+
+    @Override
+    public void pushAssignmentToStaging(String exception, String data) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateBucketAssignmentCount(Experiment experiment, Assignment assignment, boolean countUp) {
+        // Counts are not kept
+    }
+
+    @Override
+    public AssignmentCounts getBucketAssignmentCount(Experiment experiment) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flushBucketAssignmentCounts() {
+        // Counts are not kept
+    }
+
+    @Override
+    public boolean drainWrites(long timeoutMillis) {
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> bucketAssignmentCountStatistics() {
+        return Collections.emptyMap();
+    }
+}
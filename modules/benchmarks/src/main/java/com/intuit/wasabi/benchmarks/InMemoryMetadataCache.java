@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.benchmarks;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.BucketAllocationTable;
+import com.intuit.wasabi.repository.ExclusionGraph;
+import com.intuit.wasabi.repository.MetadataCache;
+import com.intuit.wasabi.repository.MutexRepository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A metadata cache that is always warm: experiments and buckets are added up front and the exclusions are read
+ * from a {@link MutexRepository}. Like the real cache, bucket lists are handed out as copies.
+ */
+public class InMemoryMetadataCache implements MetadataCache {
+
+    private final MutexRepository mutexRepository;
+    private final Map<Experiment.ID, Experiment> experiments = new ConcurrentHashMap<>();
+    private final Map<Application.Name, Table<Experiment.ID, Experiment.Label, Experiment>> experimentLists =
+            new ConcurrentHashMap<>();
+    private final Map<Experiment.ID, BucketList> buckets = new ConcurrentHashMap<>();
+    private final Map<Experiment.ID, BucketAllocationTable> allocationTables = new ConcurrentHashMap<>();
+    private final Map<Application.Name, ExclusionGraph> exclusionGraphs = new ConcurrentHashMap<>();
+
+    /**
+     * @param mutexRepository the exclusions between the experiments
+     */
+    public InMemoryMetadataCache(MutexRepository mutexRepository) {
+        this.mutexRepository = mutexRepository;
+    }
+
+    /**
+     * Adds an experiment with its buckets
+     *
+     * @param experiment the experiment
+     * @param bucketList its buckets
+     */
+    public void addExperiment(Experiment experiment, BucketList bucketList) {
+        experiments.put(experiment.getID(), experiment);
+        experimentLists.computeIfAbsent(experiment.getApplicationName(), appName -> HashBasedTable.create())
+                .put(experiment.getID(), experiment.getLabel(), experiment);
+        buckets.put(experiment.getID(), bucketList);
+        allocationTables.put(experiment.getID(), BucketAllocationTable.of(bucketList.getBuckets()));
+        exclusionGraphs.remove(experiment.getApplicationName());
+    }
+
+    @Override
+    public Experiment getExperiment(Experiment.ID experimentID) {
+        return experiments.get(experimentID);
+    }
+
+    @Override
+    public Experiment getExperiment(Application.Name appName, Experiment.Label experimentLabel) {
+        Map<Experiment.ID, Experiment> column = getExperimentList(appName).column(experimentLabel);
+        return column.isEmpty() ? null : column.values().iterator().next();
+    }
+
+    @Override
+    public Table<Experiment.ID, Experiment.Label, Experiment> getExperimentList(Application.Name appName) {
+        Table<Experiment.ID, Experiment.Label, Experiment> experimentList = experimentLists.get(appName);
+        return experimentList != null ? experimentList : HashBasedTable.<Experiment.ID, Experiment.Label,
+                Experiment>create();
+    }
+
+    @Override
+    public BucketList getBucketList(Experiment.ID experimentID) {
+        return copyOf(buckets.get(experimentID));
+    }
+
+    @Override
+    public Map<Experiment.ID, BucketList> getBucketList(Collection<Experiment.ID> experimentIDs) {
+        Map<Experiment.ID, BucketList> result = new HashMap<>(experimentIDs.size());
+        for (Experiment.ID experimentID : experimentIDs) {
+            result.put(experimentID, getBucketList(experimentID));
+        }
+        return result;
+    }
+
+    @Override
+    public BucketAllocationTable getBucketAllocationTable(Experiment.ID experimentID) {
+        BucketAllocationTable allocationTable = allocationTables.get(experimentID);
+        return allocationTable != null ? allocationTable : BucketAllocationTable.of(null);
+    }
+
+    @Override
+    public List<Experiment.ID> getExclusionList(Experiment.ID experimentID) {
+        return mutexRepository.getExclusionList(experimentID);
+    }
+
+    @Override
+    public Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Collection<Experiment.ID> experimentIDs) {
+        return mutexRepository.getExclusivesList(experimentIDs);
+    }
+
+    @Override
+    public ExclusionGraph getExclusionGraph(Application.Name appName) {
+        return exclusionGraphs.computeIfAbsent(appName, name -> {
+            Table<Experiment.ID, Experiment.Label, Experiment> experimentList = getExperimentList(name);
+            return ExclusionGraph.build(experimentList.values(), getExclusivesList(experimentList.rowKeySet()));
+        });
+    }
+
+    @Override
+    public void invalidateExperiment(Experiment experiment) {
+        exclusionGraphs.remove(experiment.getApplicationName());
+    }
+
+    @Override
+    public void invalidateApplication(Application.Name appName) {
+        exclusionGraphs.remove(appName);
+    }
+
+    @Override
+    public void invalidateBuckets(Experiment.ID experimentID) {
+        // Buckets are only changed through addExperiment
+    }
+
+    @Override
+    public void invalidateExclusions(Experiment.ID... experimentIDs) {
+        exclusionGraphs.clear();
+    }
+
+    @Override
+    public void invalidateAll() {
+        exclusionGraphs.clear();
+    }
+
+    private static BucketList copyOf(BucketList bucketList) {
+        BucketList copy = new BucketList();
+        if (bucketList != null) {
+            for (Bucket bucket : bucketList.getBuckets()) {
+                copy.addBucket(bucket);
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.benchmarks;
+
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.experimentobjects.ExperimentList;
+import com.intuit.wasabi.repository.MutexRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps mutual exclusions between experiments in memory, for benchmarks of the assignment path.
+ */
+public class InMemoryMutexRepository implements MutexRepository {
+
+    private final Map<Experiment.ID, Experiment> experiments = new ConcurrentHashMap<>();
+    private final Map<Experiment.ID, List<Experiment.ID>> exclusions = new ConcurrentHashMap<>();
+
+    /**
+     * Makes an experiment known, so that {@link #getExclusions} can return it
+     *
+     * @param experiment the experiment
+     */
+    public void addExperiment(Experiment experiment) {
+        experiments.put(experiment.getID(), experiment);
+    }
+
+    @Override
+    public void deleteExclusion(Experiment.ID baseID, Experiment.ID pairID) {
+        exclusionList(baseID).remove(pairID);
+        exclusionList(pairID).remove(baseID);
+    }
+
+    @Override
+    public void createExclusion(Experiment.ID baseID, Experiment.ID pairID) {
+        if (!exclusionList(baseID).contains(pairID)) {
+            exclusionList(baseID).add(pairID);
+            exclusionList(pairID).add(baseID);
+        }
+    }
+
+    @Override
+    public ExperimentList getExclusions(Experiment.ID baseID) {
+        ExperimentList result = new ExperimentList();
+        for (Experiment.ID experimentID : getExclusionList(baseID)) {
+            Experiment experiment = experiments.get(experimentID);
+            if (experiment != null) {
+                result.addExperiment(experiment);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ExperimentList getNotExclusions(Experiment.ID baseID) {
+        ExperimentList result = new ExperimentList();
+        List<Experiment.ID> excluded = getExclusionList(baseID);
+        for (Experiment experiment : experiments.values()) {
+            if (!experiment.getID().equals(baseID) && !excluded.contains(experiment.getID())) {
+                result.addExperiment(experiment);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Experiment.ID> getExclusionList(Experiment.ID experimentID) {
+        List<Experiment.ID> exclusionList = exclusions.get(experimentID);
+        return exclusionList != null ? new ArrayList<>(exclusionList) : new ArrayList<Experiment.ID>();
+    }
+
+    @Override
+    public Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Collection<Experiment.ID> experimentIDs) {
+        Map<Experiment.ID, List<Experiment.ID>> result = new HashMap<>(experimentIDs.size());
+        for (Experiment.ID experimentID : experimentIDs) {
+            result.put(experimentID, getExclusionList(experimentID));
+        }
+        return result;
+    }
+
+    private List<Experiment.ID> exclusionList(Experiment.ID experimentID) {
+        return exclusions.computeIfAbsent(experimentID, key -> new CopyOnWriteArrayList<>());
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.benchmarks;
+
+import com.intuit.hyrule.Rule;
+import com.intuit.hyrule.RuleBuilder;
+import com.intuit.wasabi.assignmentobjects.CompiledRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Hyrule's interpretation of segmentation rules with their {@link CompiledRule} form.
+ *
+ * The rules mirror what applications use: a single string comparison, long disjunctions over a string
+ * attribute, numeric ranges, and a mix of those with a regular expression and a boolean flag. Every profile
+ * also carries the header and context attributes that assignment merges into it.
+ *
+ * Run with {@code java -jar target/benchmarks.jar RuleEvaluationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleEvaluationBenchmark {
+
+    @Param({"string", "disjunction", "range", "mixed"})
+    private String ruleType;
+
+    private Rule rule;
+    private CompiledRule compiledRule;
+    private HashMap<String, Object> profile;
+
+    @Setup
+    public void setUp() {
+        rule = new RuleBuilder().parseExpression(expression(ruleType));
+        compiledRule = CompiledRule.compile(rule);
+
+        profile = new HashMap<>();
+        profile.put("state", "TX");
+        profile.put("salary", 20000);
+        profile.put("visits", "12");
+        profile.put("vip", false);
+        profile.put("User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_11_5)");
+        profile.put("context", "PROD");
+        for (int i = 0; i < 10; i++) {
+            profile.put("attribute" + i, "value" + i);
+        }
+    }
+
+    private static String expression(String ruleType) {
+        switch (ruleType) {
+            case "string":
+                return "state = \"TX\"";
+            case "disjunction":
+                return "state = \"CA\" | state = \"NY\" | state = \"WA\" | state = \"OR\" | state = \"NV\""
+                        + " | state = \"AZ\" | state = \"UT\" | state = \"TX\"";
+            case "range":
+                return "salary >= 10000 & salary < 50000 & visits > 3";
+            case "mixed":
+                return "(state = \"CA\" | state = \"TX\") & salary >= 10000 & !(User-Agent =~ \".*bot.*\")"
+                        + " & vip = false";
+            default:
+                throw new IllegalArgumentException("Unknown rule type " + ruleType);
+        }
+    }
+
+    @Benchmark
+    public boolean interpreted() {
+        return rule.evaluate(profile);
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        return compiledRule.evaluate(profile);
+    }
+}
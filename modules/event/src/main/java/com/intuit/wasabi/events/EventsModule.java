@@ -60,6 +60,12 @@ public class EventsModule extends AbstractModule {
 
         bind(Integer.class).annotatedWith(named("executor.threadpool.size"))
                 .toInstance(parseInt(getProperty("executor.threadpool.size", properties, "0")));
+        bind(Integer.class).annotatedWith(named("executor.queue.capacity"))
+                .toInstance(parseInt(getProperty("executor.queue.capacity", properties, "10000")));
+        bind(String.class).annotatedWith(named("executor.overflow.policy"))
+                .toInstance(getProperty("executor.overflow.policy", properties, "block"));
+        bind(Integer.class).annotatedWith(named("executor.overflow.timeout.ms"))
+                .toInstance(parseInt(getProperty("executor.overflow.timeout.ms", properties, "100")));
         bind(Events.class).to(EventsImpl.class).in(SINGLETON);
         bind(EventsExport.class).to(EventsExportImpl.class).asEagerSingleton();
 
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.intuit.wasabi.events.impl;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.intuit.wasabi.analyticsobjects.Event;
@@ -30,15 +31,13 @@ import com.intuit.wasabi.events.EventsMBean;
 import com.intuit.wasabi.experimentobjects.Application;
 import com.intuit.wasabi.experimentobjects.Context;
 import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.util.BoundedExecutor;
 import org.slf4j.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
@@ -54,8 +53,7 @@ public class EventsImpl implements Events, EventsMBean {
     protected static final String MYSQL = "mysql";
     private Assignments assignments;
     private TransactionFactory transactionFactory;
-    private LinkedBlockingQueue mysqlQueue = new LinkedBlockingQueue<>();
-    private ThreadPoolExecutor mysqlExecutor;
+    private BoundedExecutor mysqlExecutor;
     /**
      * Executors to ingest event data to real time ingestion system.
      */
@@ -64,14 +62,27 @@ public class EventsImpl implements Events, EventsMBean {
     @Inject
     public EventsImpl(Map<String, EventIngestionExecutor> eventIngestionExecutors,
             final @Named("executor.threadpool.size") Integer threadPoolSize,
+            final @Named("executor.queue.capacity") Integer queueCapacity,
+            final @Named("executor.overflow.policy") String overflowPolicy,
+            final @Named("executor.overflow.timeout.ms") Integer overflowTimeoutMillis,
             final Assignments assignments,
             final TransactionFactory transactionFactory) {
         super();
         this.eventIngestionExecutors = eventIngestionExecutors;
         this.transactionFactory = transactionFactory;
         this.assignments = assignments;
-        mysqlExecutor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize,
-                0L, MILLISECONDS, mysqlQueue);
+        mysqlExecutor = new BoundedExecutor("events-" + MYSQL, threadPoolSize, threadPoolSize, queueCapacity,
+                BoundedExecutor.OverflowPolicy.parse(overflowPolicy), overflowTimeoutMillis);
+    }
+
+    /**
+     * Reports the executor metrics. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(EventsImpl.class, MYSQL), mysqlExecutor);
     }
 
     /**
@@ -140,7 +151,7 @@ public class EventsImpl implements Events, EventsMBean {
     @Override
     public Map<String, Integer> queuesLength() {
         Map<String, Integer> queueLengthMap = new HashMap<String, Integer>();
-        queueLengthMap.put(MYSQL, new Integer(mysqlQueue.size()));
+        queueLengthMap.put(MYSQL, mysqlExecutor.getQueueDepth());
         for (String name : eventIngestionExecutors.keySet()) {
             queueLengthMap.put(name.toLowerCase(), new Integer(eventIngestionExecutors.get(name).queueLength()));
         }        
@@ -153,6 +164,6 @@ public class EventsImpl implements Events, EventsMBean {
     @Override
     public int getQueueSize() {
         // FIXME: is this MBean method really used??
-        return mysqlQueue.size();
+        return mysqlExecutor.getQueueDepth();
     } 
 }
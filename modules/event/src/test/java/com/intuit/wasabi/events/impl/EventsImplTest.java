@@ -80,7 +80,7 @@ public class EventsImplTest {
 	    
 	    HashMap<String, EventIngestionExecutor> eventIngestioExecutors = new HashMap<String, EventIngestionExecutor>();
 	    eventIngestioExecutors.put("Mock", mockEventIngestionExecutor);
-		eventsImpl = new EventsImpl(eventIngestioExecutors, 2, assignments, transactionFactory) {
+		eventsImpl = new EventsImpl(eventIngestioExecutors, 2, 1000, "block", 100, assignments, transactionFactory) {
 
 			@Override
 			protected EventsEnvelope makeEventEnvelope(Assignment assignment, Event event) {
@@ -15,15 +15,19 @@
  *******************************************************************************/
 package com.intuit.wasabi.eventlog.impl;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.intuit.wasabi.eventlog.EventLog;
 import com.intuit.wasabi.eventlog.EventLogListener;
 import com.intuit.wasabi.eventlog.events.EventLogEvent;
+import com.intuit.wasabi.util.BoundedExecutor;
 import org.slf4j.Logger;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.lang.Class.forName;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -39,29 +43,52 @@ public class EventLogImpl implements EventLog {
     /**
      * Executes the {@link EventLogEventEnvelope}s.
      */
-    private final ThreadPoolExecutor eventPostThreadPoolExecutor;
+    private final BoundedExecutor eventPostThreadPoolExecutor;
     /**
      * The listener subscriptions.
      */
     private final Map<EventLogListener, List<Class<? extends EventLogEvent>>> listeners;
     /**
-     * the event Deque
+     * the event Deque, holding at most as many events as the executor queue
      */
-    private final Deque<EventLogEvent> eventDeque;
+    private final BlockingDeque<EventLogEvent> eventDeque;
+    /**
+     * Events dropped because the event Deque was full
+     */
+    private final LongAdder droppedEvents = new LongAdder();
 
     /**
      * Creates the event pool executor. Should be called by Guice.
      *
-     * @param threadPoolSizeCore named instance threadpoolsize.core
-     * @param threadPoolSizeMax  named instance threadpoolsize.max
+     * @param threadPoolSizeCore    named instance threadpoolsize.core
+     * @param threadPoolSizeMax     named instance threadpoolsize.max
+     * @param queueCapacity         named instance queue.capacity
+     * @param overflowPolicy        named instance overflow.policy, see {@link BoundedExecutor.OverflowPolicy}
+     * @param overflowTimeoutMillis named instance overflow.timeout.ms
      */
     @Inject
     public EventLogImpl(@Named("eventlog.threadpoolsize.core") int threadPoolSizeCore,
-                        @Named("eventlog.threadpoolsize.max") int threadPoolSizeMax) {
+                        @Named("eventlog.threadpoolsize.max") int threadPoolSizeMax,
+                        @Named("eventlog.queue.capacity") int queueCapacity,
+                        @Named("eventlog.overflow.policy") String overflowPolicy,
+                        @Named("eventlog.overflow.timeout.ms") int overflowTimeoutMillis) {
         listeners = new ConcurrentHashMap<>();
-        eventDeque = new ConcurrentLinkedDeque<>();
+        eventDeque = new LinkedBlockingDeque<>(Math.max(1, queueCapacity));
 
-        eventPostThreadPoolExecutor = new ThreadPoolExecutor(threadPoolSizeCore, threadPoolSizeMax, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        eventPostThreadPoolExecutor = new BoundedExecutor("eventlog", threadPoolSizeCore, threadPoolSizeMax,
+                queueCapacity, BoundedExecutor.OverflowPolicy.parse(overflowPolicy), overflowTimeoutMillis);
+    }
+
+    /**
+     * Reports the executor metrics. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(EventLogImpl.class, "executor"), eventPostThreadPoolExecutor);
+        metricRegistry.register(MetricRegistry.name(EventLogImpl.class, "dropped"),
+                (Gauge<Long>) droppedEvents::sum);
     }
 
     /**
@@ -116,7 +143,10 @@ public class EventLogImpl implements EventLog {
             LOGGER.warn("null-Event skipped.");
             return;
         }
-        eventDeque.offerLast(event);
+        if (!eventDeque.offerLast(event)) {
+            droppedEvents.increment();
+            LOGGER.warn("Event queue full, dropped {} events so far, skipping {}", droppedEvents.sum(), event);
+        }
     }
 
     /**
@@ -36,7 +36,7 @@ public class EventLogImplTest {
 
     @Test
     public void testConstructor() throws Exception {
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -50,7 +50,7 @@ public class EventLogImplTest {
     @Test
     public void testRegister() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -70,7 +70,7 @@ public class EventLogImplTest {
     @Test
     public void testRegisterSpecific() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -91,7 +91,7 @@ public class EventLogImplTest {
     @Test
     public void testRegisterString() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -112,7 +112,7 @@ public class EventLogImplTest {
     @Test
     public void testRegisterStringFail() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -131,7 +131,7 @@ public class EventLogImplTest {
     @Test
      public void testPostEventClass() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -158,7 +158,7 @@ public class EventLogImplTest {
 //    @Test
 //    public void testPostEventClasses() throws Exception {
 //        EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-//        EventLogImpl eventLog = new EventLogImpl(2, 4);
+//        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
 //        Thread eventLogThread = new Thread(eventLog);
 //        eventLogThread.start();
 //
@@ -188,7 +188,7 @@ public class EventLogImplTest {
     @Test
     public void testPostEvent() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -215,7 +215,7 @@ public class EventLogImplTest {
     @Test
     public void testPostEventFail() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -242,7 +242,7 @@ public class EventLogImplTest {
     @Test
     public void testPostEventNull() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLogThread.start();
 
@@ -266,7 +266,7 @@ public class EventLogImplTest {
     @Test
     public void testRunFinally() throws Exception {
         EventLogListener eventLogListener = Mockito.mock(EventLogListener.class);
-        EventLogImpl eventLog = new EventLogImpl(2, 4);
+        EventLogImpl eventLog = new EventLogImpl(2, 4, 1000, "block", 1000);
         Thread eventLogThread = new Thread(eventLog);
         eventLog.register(eventLogListener, Collections.<Class<? extends EventLogEvent>> singletonList(EventLogEvent.class));
 
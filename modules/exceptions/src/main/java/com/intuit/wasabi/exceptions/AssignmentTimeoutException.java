@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.exceptions;
+
+import static com.intuit.wasabi.experimentobjects.exceptions.ErrorCode.ASSIGNMENT_TIMEOUT;
+
+/**
+ * Thrown when an assignment is not done within the time the caller asked for, or is not taken up because too many
+ * assignments are in flight.
+ */
+public class AssignmentTimeoutException extends WasabiServerException {
+
+    private static final long serialVersionUID = 2874209641557132086L;
+
+    public AssignmentTimeoutException(String message) {
+        this(message, null);
+    }
+
+    public AssignmentTimeoutException(String message, Throwable rootCause) {
+        super(ASSIGNMENT_TIMEOUT, message, rootCause);
+    }
+}
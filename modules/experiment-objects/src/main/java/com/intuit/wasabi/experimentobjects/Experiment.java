@@ -83,6 +83,8 @@ public class Experiment implements Cloneable, ExperimentBase {
     private Boolean isRapidExperiment;
     @ApiModelProperty(value = "maximum number of users to allow before pausing the experiment", required = false)
     private Integer userCap;
+    @ApiModelProperty(value = "are buckets chosen by hashing the user instead of at random", required = false)
+    private Boolean isHashedAssignment;
     @ApiModelProperty(value = "creator of the experiment", required = false)
     private String creatorID;
 
@@ -244,6 +246,14 @@ public class Experiment implements Cloneable, ExperimentBase {
         this.isRapidExperiment = isRapidExperiment;
     }
 
+    public Boolean getIsHashedAssignment() {
+        return isHashedAssignment;
+    }
+
+    public void setIsHashedAssignment(Boolean isHashedAssignment) {
+        this.isHashedAssignment = isHashedAssignment;
+    }
+
     public String getCreatorID() {
         return creatorID;
     }
@@ -270,6 +280,7 @@ public class Experiment implements Cloneable, ExperimentBase {
                 .append(modelVersion)
                 .append(isRapidExperiment)
                 .append(userCap)
+                .append(isHashedAssignment)
                 .append(creatorID)
                 .toHashCode();
     }
@@ -301,6 +312,7 @@ public class Experiment implements Cloneable, ExperimentBase {
                 .append(modelVersion, other.getModelVersion())
                 .append(isRapidExperiment, other.getIsRapidExperiment())
                 .append(userCap, other.getUserCap())
+                .append(isHashedAssignment, other.getIsHashedAssignment())
                 .append(creatorID, other.getCreatorID())
                 .isEquals();
     }
@@ -475,6 +487,7 @@ public class Experiment implements Cloneable, ExperimentBase {
             instance.modelVersion = other.modelVersion;
             instance.isRapidExperiment = other.isRapidExperiment;
             instance.userCap = other.userCap;
+            instance.isHashedAssignment = other.isHashedAssignment;
             instance.creatorID = other.creatorID;
         }
 
@@ -499,6 +512,11 @@ public class Experiment implements Cloneable, ExperimentBase {
             return this;
         }
 
+        public Builder withIsHashedAssignment(Boolean isHashedAssignment) {
+            instance.isHashedAssignment = isHashedAssignment;
+            return this;
+        }
+
         public Builder withModelName(String modelName) {
             instance.modelName = modelName;
             return this;
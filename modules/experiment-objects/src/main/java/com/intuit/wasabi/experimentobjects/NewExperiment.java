@@ -60,6 +60,8 @@ public final class NewExperiment implements ExperimentBase {
     private Boolean isRapidExperiment = false;
     @ApiModelProperty(value = "maximum number of users to allow before pausing the experiment", required = false)
     private Integer userCap = Integer.MAX_VALUE;
+    @ApiModelProperty(value = "are buckets chosen by hashing the user instead of at random", required = false)
+    private Boolean isHashedAssignment = false;
     @ApiModelProperty(required = false)
     private String creatorID = "";
 
@@ -124,6 +126,10 @@ public final class NewExperiment implements ExperimentBase {
 		this.userCap = userCap;
 	}
 
+	public void setIsHashedAssignment(Boolean isHashedAssignment) {
+		this.isHashedAssignment = isHashedAssignment;
+	}
+
 	public static NewExperiment.Builder withID(Experiment.ID id) {
         return new NewExperiment.Builder(id);
     }
@@ -146,6 +152,10 @@ public final class NewExperiment implements ExperimentBase {
         return userCap;
     }
 
+    public Boolean getIsHashedAssignment() {
+        return isHashedAssignment;
+    }
+
     @Override
     public Boolean getIsPersonalizationEnabled() {
         return isPersonalizationEnabled;
@@ -287,6 +297,11 @@ public final class NewExperiment implements ExperimentBase {
             return this;
         }
 
+        public Builder withIsHashedAssignment(Boolean isHashedAssignment) {
+            instance.isHashedAssignment = isHashedAssignment;
+            return this;
+        }
+
         public Builder withCreatorID(final String value) {
             instance.creatorID = Preconditions.checkNotNull(value);
             return this;
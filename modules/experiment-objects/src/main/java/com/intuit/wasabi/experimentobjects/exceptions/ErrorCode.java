@@ -62,6 +62,9 @@ public enum ErrorCode {
     DATABASE_ERROR("5001",500),
     REPOSITORY_ERROR("5101",500),
 
+    // Capacity errors
+    ASSIGNMENT_TIMEOUT("5201",503),
+
     // State errors
     INVALID_EXPERIMENT_STATE("6001",400),
     INVALID_EXPERIMENT_STATE_TRANSITION("6002",400),
@@ -92,6 +92,17 @@ public interface Pages {
      */
     List<PageExperiment> getExperiments(Application.Name applicationName, Page.Name pageName);
 
+    /**
+     * The experiments of a page as used for page assignments, served from memory.
+     *
+     * @param applicationName Name of application
+     * @param pageName Name of page
+     *
+     * @return The experiments of the page that are in the priority list of the application, in priority order,
+     * with their current labels and allowNewAssignment flags. The list cannot be modified.
+     */
+    List<PageExperiment> getPageRoute(Application.Name applicationName, Page.Name pageName);
+
     /**
      * @param applicationName Name of application
      *
@@ -35,6 +35,7 @@ import com.intuit.wasabi.experimentobjects.exceptions.WasabiException;
 import com.intuit.wasabi.repository.CassandraRepository;
 import com.intuit.wasabi.repository.DatabaseRepository;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.slf4j.Logger;
 
@@ -53,12 +54,13 @@ public class BucketsImpl implements Buckets {
     private final Buckets buckets;
     private final EventLog eventLog;
     private final ExperimentValidator validator;
+    private final MetadataCache metadataCache;
 
     @Inject
     public BucketsImpl(@DatabaseRepository final ExperimentRepository databaseRepository,
                        @CassandraRepository final ExperimentRepository cassandraRepository,
                        final Experiments experiments, final Buckets buckets, final ExperimentValidator validator,
-                       final EventLog eventLog) {
+                       final EventLog eventLog, final MetadataCache metadataCache) {
         super();
 
         this.validator = validator;
@@ -67,6 +69,7 @@ public class BucketsImpl implements Buckets {
         this.experiments = experiments;
         this.buckets = buckets;
         this.eventLog = eventLog;
+        this.metadataCache = metadataCache;
     }
 
     private static Double roundToTwo(Double x) {
@@ -111,6 +114,7 @@ public class BucketsImpl implements Buckets {
             cassandraRepository.deleteBucket(newBucket.getExperimentID(), newBucket.getLabel());
             throw e;
         }
+        metadataCache.invalidateBuckets(experimentID);
 
         //if we just created an experiment in a running experiment, update the remaining allocation percentages
         if (!Experiment.State.DRAFT.equals(experiment.getState())) {
@@ -161,6 +165,7 @@ public class BucketsImpl implements Buckets {
         // Update both repositories
         cassandraRepository.updateBucketBatch(experimentID, bucketList);
         databaseRepository.updateBucketBatch(experimentID, bucketList);
+        metadataCache.invalidateBuckets(experimentID);
 
         return buckets.getBuckets(experimentID);
     }
@@ -233,6 +238,7 @@ public class BucketsImpl implements Buckets {
                 cassandraRepository.updateBucket(oldBucket);
                 throw e;
             }
+            metadataCache.invalidateBuckets(experimentID);
             bucket = updatedBucket;
 
             // Update the bucket audit log
@@ -368,6 +374,7 @@ public class BucketsImpl implements Buckets {
                 cassandraRepository.updateBucketBatch(experimentID, bucketList);
                 throw ex;
             }
+            metadataCache.invalidateBuckets(experimentID);
 
             //log bucket changes
             for (int i = 0; i < bucketList.getBuckets().size(); i++) {
@@ -447,6 +454,8 @@ public class BucketsImpl implements Buckets {
                 cassandraRepository.createBucket(newBucket);
             }
             throw e;
+        } finally {
+            metadataCache.invalidateBuckets(experimentID);
         }
     }
 
@@ -563,6 +572,7 @@ public class BucketsImpl implements Buckets {
             validator.validateExperimentBuckets(allBuckets.getBuckets());
 
             cassandraRepository.updateBucketBatch(experimentID, changeBucketList);
+            metadataCache.invalidateBuckets(experimentID);
             for (int i = 0; i < allChanges.size(); i++) {
                 cassandraRepository.logBucketChanges(experimentID, changeBucketList.getBuckets().get(i).getLabel(),
                         allChanges.get(i));
@@ -32,6 +32,7 @@ import com.intuit.wasabi.experimentobjects.Experiment.ExperimentAuditInfo;
 import com.intuit.wasabi.repository.CassandraRepository;
 import com.intuit.wasabi.repository.DatabaseRepository;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.slf4j.Logger;
 
@@ -61,13 +62,14 @@ public class ExperimentsImpl implements Experiments {
     private final ExperimentValidator validator;
     private final Experiments experiments;
     private final EventLog eventLog;
+    private final MetadataCache metadataCache;
     private RuleCache ruleCache;
 
     @Inject
     public ExperimentsImpl(@DatabaseRepository ExperimentRepository databaseRepository,
                            @CassandraRepository ExperimentRepository cassandraRepository, Experiments experiments,
                            Buckets buckets, Pages pages, Priorities priorities, ExperimentValidator validator,
-                           RuleCache ruleCache, EventLog eventLog) {
+                           RuleCache ruleCache, EventLog eventLog, MetadataCache metadataCache) {
         super();
         this.validator = validator;
         this.databaseRepository = databaseRepository;
@@ -78,6 +80,7 @@ public class ExperimentsImpl implements Experiments {
         this.priorities = priorities;
         this.ruleCache = ruleCache;
         this.eventLog = eventLog;
+        this.metadataCache = metadataCache;
     }
 
     /**
@@ -171,6 +174,7 @@ public class ExperimentsImpl implements Experiments {
             databaseRepository.deleteExperiment(newExperiment);
             throw e;
         }
+        metadataCache.invalidateApplication(newExperiment.getApplicationName());
 
         // allow for logging of the event
         eventLog.postEvent(new ExperimentCreateEvent(user, newExperiment));
@@ -421,6 +425,16 @@ public class ExperimentsImpl implements Experiments {
             changeList.add(changeData);
         }
 
+        if (updates.getIsHashedAssignment() != null
+                && !updates.getIsHashedAssignment().equals(experiment.getIsHashedAssignment())) {
+            builder.withIsHashedAssignment(updates.getIsHashedAssignment());
+            requiresUpdate = true;
+            changeData = new ExperimentAuditInfo("isHashedAssignment",
+                    String.valueOf(experiment.getIsHashedAssignment()),
+                    updates.getIsHashedAssignment().toString());
+            changeList.add(changeData);
+        }
+
         if (updates.getRule() != null && !updates.getRule().equals(experiment.getRule())) {
             builder.withRule(updates.getRule());
             requiresUpdate = true;
@@ -456,7 +470,7 @@ public class ExperimentsImpl implements Experiments {
         Rule newRule;
         if (experiment.getRule() != null && experiment.getRule().length() != 0) {
             newRule = new RuleBuilder().parseExpression(experiment.getRule());
-            ruleCache.setRule(experiment.getID(), newRule);
+            ruleCache.setRule(experiment.getID(), experiment.getRule(), newRule);
             LOGGER.debug("Segmentation rule of " + experiment.getID() + " updated from "
                     + (oldRule != null ? oldRule.getExpressionRepresentation() : null) +
                     " to " + (newRule != null ? newRule.getExpressionRepresentation() : null));
@@ -514,6 +528,10 @@ public class ExperimentsImpl implements Experiments {
                 cassandraRepository.updateExperiment(oldExperiment);
                 throw e;
             }
+            metadataCache.invalidateExperiment(experiment);
+            if (applicationNameChanged) {
+                metadataCache.invalidateApplication(oldExperiment.getApplicationName());
+            }
             experiment = updatedExperiment;
 
             if (applicationNameChanged) {
@@ -543,6 +561,8 @@ public class ExperimentsImpl implements Experiments {
                 priorities.removeFromPriorityList(experiment.getApplicationName(), experimentID);
                 // Remove the experiment from the page related data
                 pages.erasePageData(experiment.getApplicationName(), experimentID, user);
+                // The rule is never evaluated again, so drop it from this node's rule cache
+                ruleCache.clearRule(experimentID);
 
                 /*
                 Special case: after a transition to the deleted state,
@@ -26,6 +26,7 @@ import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.experimentobjects.ExperimentIDList;
 import com.intuit.wasabi.experimentobjects.ExperimentList;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidExperimentStateException;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.MutexRepository;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.slf4j.Logger;
@@ -43,16 +44,19 @@ public class MutexImpl implements Mutex {
     private final MutexRepository mutexRepository;
     private final Experiments experiments;
     private final EventLog eventLog;
+    private final MetadataCache metadataCache;
     private static final Logger LOGGER = LoggerFactory.getLogger(MutexImpl.class);
 
     final Date NOW = new Date();
 
     @Inject
-    public MutexImpl(MutexRepository mutexRepository, Experiments experiments, EventLog eventLog) {
+    public MutexImpl(MutexRepository mutexRepository, Experiments experiments, EventLog eventLog,
+                     MetadataCache metadataCache) {
         super();
         this.mutexRepository = mutexRepository;
         this.experiments = experiments;
         this.eventLog = eventLog;
+        this.metadataCache = metadataCache;
     }
 
     /**
@@ -100,6 +104,7 @@ public class MutexImpl implements Mutex {
         }
 
         mutexRepository.deleteExclusion(expID_1, expID_2);
+        metadataCache.invalidateExclusions(expID_1, expID_2);
         eventLog.postEvent(new ExperimentChangeEvent(user, exp_1, "mutex", exp_2.getLabel().toString(), null));
     }
 
@@ -192,6 +197,7 @@ public class MutexImpl implements Mutex {
             //add the pair
             try {
                 mutexRepository.createExclusion(baseID, pairID);
+                metadataCache.invalidateExclusions(baseID, pairID);
                 eventLog.postEvent(new ExperimentChangeEvent(user, baseExp, "mutex",
                         null, pairExp.getLabel() == null ? null : pairExp.getLabel().toString()));
             } catch (RepositoryException rExp) {
@@ -16,6 +16,12 @@
 
 package com.intuit.wasabi.experiment.impl;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.name.Named;
 import com.intuit.wasabi.authenticationobjects.UserInfo;
 import com.intuit.wasabi.eventlog.EventLog;
 import com.intuit.wasabi.eventlog.events.ExperimentChangeEvent;
@@ -23,6 +29,7 @@ import com.intuit.wasabi.exceptions.ApplicationNotFoundException;
 import com.intuit.wasabi.exceptions.ExperimentNotFoundException;
 import com.intuit.wasabi.experiment.Experiments;
 import com.intuit.wasabi.experiment.Pages;
+import com.intuit.wasabi.experiment.Priorities;
 import com.intuit.wasabi.experimentobjects.Application;
 import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.experimentobjects.ExperimentList;
@@ -30,36 +37,93 @@ import com.intuit.wasabi.experimentobjects.ExperimentPage;
 import com.intuit.wasabi.experimentobjects.ExperimentPageList;
 import com.intuit.wasabi.experimentobjects.Page;
 import com.intuit.wasabi.experimentobjects.PageExperiment;
+import com.intuit.wasabi.experimentobjects.PrioritizedExperiment;
+import com.intuit.wasabi.experimentobjects.PrioritizedExperimentList;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidExperimentStateException;
 import com.intuit.wasabi.repository.CassandraRepository;
 import com.intuit.wasabi.repository.ExperimentRepository;
 import com.intuit.wasabi.repository.PagesRepository;
+import com.intuit.wasabi.util.BoundedExecutor;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static com.intuit.wasabi.experimentobjects.Experiment.State.TERMINATED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * Pages implementation.
+ *
+ * The experiments of the pages used for page assignments are kept in memory per (application, page), and dropped
+ * for the whole application whenever pages are changed on this node. They are read from the repository again in
+ * the background on first use once they are older than {@code pages.cache.refresh.ms}, so that changes made on
+ * other nodes are picked up, and are dropped once not read again within {@code metadata.cache.ttl.seconds}. The
+ * experiments of a page are ordered by the priorities of the application once per change of the priorities. A
+ * refresh interval of 0 reads the repository every time.
+ */
 public class PagesImpl implements Pages {
 
+    private static final int RELOAD_QUEUE_CAPACITY = 1000;
     final Date NOW = new Date();
     private final ExperimentRepository cassandraRepository;
     private final Experiments experiments;
+    private final Priorities priorities;
     private final PagesRepository pagesRepository;
     private final EventLog eventLog;
+    private final BoundedExecutor reloadExecutor;
+    private final LoadingCache<PageKey, PageRoute> pageRoutes;
 
     @Inject
     public PagesImpl(@CassandraRepository ExperimentRepository cassandraRepository, PagesRepository pagesRepository,
-                     Experiments experiments, EventLog eventLog) {
+                     Experiments experiments, Priorities priorities, EventLog eventLog,
+                     final @Named("pages.cache.refresh.ms") Integer refreshMillis,
+                     final @Named("metadata.cache.ttl.seconds") Integer ttlSeconds) {
         super();
         this.cassandraRepository = cassandraRepository;
         this.experiments = experiments;
+        this.priorities = priorities;
         this.pagesRepository = pagesRepository;
         this.eventLog = eventLog;
+        if (refreshMillis > 0) {
+            // A single idle thread that goes away when there is nothing to read; a dropped reload is retried on
+            // next use
+            reloadExecutor = new BoundedExecutor("pages-reload", 1, 1, RELOAD_QUEUE_CAPACITY,
+                    BoundedExecutor.OverflowPolicy.REJECT, 0);
+            reloadExecutor.allowCoreThreadTimeOut(true);
+            pageRoutes = CacheBuilder.newBuilder()
+                    .refreshAfterWrite(refreshMillis, MILLISECONDS)
+                    .expireAfterWrite(ttlSeconds, SECONDS)
+                    .build(CacheLoader.asyncReloading(new CacheLoader<PageKey, PageRoute>() {
+                        @Override
+                        public PageRoute load(PageKey key) {
+                            return new PageRoute(PagesImpl.this.pagesRepository
+                                    .getExperiments(key.applicationName, key.pageName));
+                        }
+                    }, reloadExecutor));
+        } else {
+            reloadExecutor = null;
+            pageRoutes = null;
+        }
+    }
+
+    /**
+     * Reports the background reads of the page experiments. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (reloadExecutor != null) {
+            metricRegistry.register(MetricRegistry.name(PagesImpl.class, "reload"), reloadExecutor);
+        }
     }
 
     /**
@@ -69,6 +133,7 @@ public class PagesImpl implements Pages {
     public void postPages(Experiment.ID experimentID, ExperimentPageList experimentPageList, UserInfo user) {
         Application.Name applicationName = getApplicationNameForModifyingPages(experimentID);
         pagesRepository.postPages(applicationName, experimentID, experimentPageList);
+        invalidatePageRoutes(applicationName);
 
         Experiment experiment = experiments.getExperiment(experimentID);
         if (experiment != null) {
@@ -88,6 +153,7 @@ public class PagesImpl implements Pages {
     public void deletePage(Experiment.ID experimentID, Page.Name pageName, UserInfo user) {
         Application.Name applicationName = getApplicationNameForModifyingPages(experimentID);
         pagesRepository.deletePage(applicationName, experimentID, pageName);
+        invalidatePageRoutes(applicationName);
 
         Experiment experiment = experiments.getExperiment(experimentID);if (experiment != null) {
             eventLog.postEvent(new ExperimentChangeEvent(user, experiment, "pages", pageName.toString(), null));
@@ -139,6 +205,7 @@ public class PagesImpl implements Pages {
     @Override
     public void erasePageData(Application.Name applicationName, Experiment.ID experimentID, UserInfo user) {
         pagesRepository.erasePageData(applicationName, experimentID);
+        invalidatePageRoutes(applicationName);
 
         Experiment experiment = experiments.getExperiment(experimentID);
         if (experiment != null) {
@@ -206,4 +273,119 @@ public class PagesImpl implements Pages {
         }
         return pagesRepository.getPageExperimentList(applicationName);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PageExperiment> getPageRoute(Application.Name applicationName, Page.Name pageName) {
+        PrioritizedExperimentList prioritizedExperiments = priorities.getPriorities(applicationName, false);
+        if (pageRoutes == null) {
+            return new PageRoute(pagesRepository.getExperiments(applicationName, pageName))
+                    .orderedBy(prioritizedExperiments);
+        }
+        try {
+            return pageRoutes.getUnchecked(new PageKey(applicationName, pageName)).orderedBy(prioritizedExperiments);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void invalidatePageRoutes(Application.Name applicationName) {
+        if (pageRoutes == null) {
+            return;
+        }
+        Iterator<PageKey> iterator = pageRoutes.asMap().keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().applicationName.equals(applicationName)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The experiments of a page, and the last priority order they were put in.
+     */
+    private static final class PageRoute {
+
+        private final Map<Experiment.ID, PageExperiment> pageExperiments;
+        private volatile Ordered ordered;
+
+        PageRoute(List<PageExperiment> pageExperiments) {
+            this.pageExperiments = new HashMap<>();
+            if (pageExperiments != null) {
+                for (PageExperiment pageExperiment : pageExperiments) {
+                    this.pageExperiments.put(pageExperiment.getId(), pageExperiment);
+                }
+            }
+        }
+
+        /**
+         * @param prioritizedExperiments the priorities of the application, which are replaced, never modified
+         * @return the experiments of the page that are in the priority list, in priority order, with their current
+         * labels
+         */
+        List<PageExperiment> orderedBy(PrioritizedExperimentList prioritizedExperiments) {
+            Ordered current = ordered;
+            if (current != null && current.prioritizedExperiments == prioritizedExperiments) {
+                return current.pageExperiments;
+            }
+            List<PageExperiment> result = new ArrayList<>(pageExperiments.size());
+            if (!pageExperiments.isEmpty()) {
+                for (PrioritizedExperiment prioritizedExperiment : prioritizedExperiments.getPrioritizedExperiments()) {
+                    PageExperiment pageExperiment = pageExperiments.get(prioritizedExperiment.getID());
+                    if (pageExperiment != null) {
+                        result.add(PageExperiment.withAttributes(prioritizedExperiment.getID(),
+                                prioritizedExperiment.getLabel(), pageExperiment.getAllowNewAssignment()).build());
+                    }
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            // Readers in between may order the page once more, which is harmless
+            ordered = new Ordered(prioritizedExperiments, result);
+            return result;
+        }
+    }
+
+    private static final class Ordered {
+
+        private final PrioritizedExperimentList prioritizedExperiments;
+        private final List<PageExperiment> pageExperiments;
+
+        Ordered(PrioritizedExperimentList prioritizedExperiments, List<PageExperiment> pageExperiments) {
+            this.prioritizedExperiments = prioritizedExperiments;
+            this.pageExperiments = pageExperiments;
+        }
+    }
+
+    private static final class PageKey {
+
+        private final Application.Name applicationName;
+        private final Page.Name pageName;
+
+        PageKey(Application.Name applicationName, Page.Name pageName) {
+            this.applicationName = applicationName;
+            this.pageName = pageName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) obj;
+            return applicationName.equals(other.applicationName) && pageName.equals(other.pageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * applicationName.hashCode() + pageName.hashCode();
+        }
+    }
 }
\ No newline at end of file
@@ -15,33 +15,96 @@
  *******************************************************************************/
 package com.intuit.wasabi.experiment.impl;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.name.Named;
 import com.intuit.wasabi.exceptions.ApplicationNotFoundException;
 import com.intuit.wasabi.experiment.Experiments;
 import com.intuit.wasabi.experiment.Priorities;
 import com.intuit.wasabi.experimentobjects.Application;
 import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.experimentobjects.ExperimentIDList;
+import com.intuit.wasabi.experimentobjects.PrioritizedExperiment;
 import com.intuit.wasabi.experimentobjects.PrioritizedExperimentList;
 import com.intuit.wasabi.repository.PrioritiesRepository;
+import com.intuit.wasabi.util.BoundedExecutor;
+import org.slf4j.Logger;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import static com.intuit.wasabi.experimentobjects.Experiment.State.TERMINATED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Priorities implementation.
+ *
+ * The prioritized experiments of an application, read on every batch and page assignment, are kept in memory as
+ * an unmodifiable list. The list is replaced as a whole right after the priority list was written on this node,
+ * and is read from the repository again in the background on first use once it is older than
+ * {@code priorities.cache.refresh.ms}, so that changes made on other nodes are picked up; the older list is served
+ * until the new one has been read. A list not read again within {@code metadata.cache.ttl.seconds}, for example
+ * because the repository is unavailable, is dropped and read in the calling thread on next use. A refresh interval
+ * of 0 reads the list from the repository every time.
+ */
 public class PrioritiesImpl implements Priorities {
 
+    private static final Logger LOGGER = getLogger(PrioritiesImpl.class);
+    private static final int RELOAD_QUEUE_CAPACITY = 1000;
     private final PrioritiesRepository prioritiesRepository;
     private final Experiments experiments;
+    private final BoundedExecutor reloadExecutor;
+    private final LoadingCache<Application.Name, PrioritizedExperimentList> prioritizedExperiments;
 
     @Inject
-    public PrioritiesImpl(PrioritiesRepository prioritiesRepository, Experiments experiments) {
+    public PrioritiesImpl(PrioritiesRepository prioritiesRepository, Experiments experiments,
+                          final @Named("priorities.cache.refresh.ms") Integer refreshMillis,
+                          final @Named("metadata.cache.ttl.seconds") Integer ttlSeconds) {
         super();
         this.prioritiesRepository = prioritiesRepository;
         this.experiments = experiments;
+        if (refreshMillis > 0) {
+            // A single idle thread that goes away when there is nothing to read; a dropped reload is retried on
+            // next use
+            reloadExecutor = new BoundedExecutor("priorities-reload", 1, 1, RELOAD_QUEUE_CAPACITY,
+                    BoundedExecutor.OverflowPolicy.REJECT, 0);
+            reloadExecutor.allowCoreThreadTimeOut(true);
+            prioritizedExperiments = CacheBuilder.newBuilder()
+                    .refreshAfterWrite(refreshMillis, MILLISECONDS)
+                    .expireAfterWrite(ttlSeconds, SECONDS)
+                    .build(CacheLoader.asyncReloading(
+                            new CacheLoader<Application.Name, PrioritizedExperimentList>() {
+                                @Override
+                                public PrioritizedExperimentList load(Application.Name applicationName) {
+                                    return unmodifiable(PrioritiesImpl.this.prioritiesRepository
+                                            .getPriorities(applicationName));
+                                }
+                            }, reloadExecutor));
+        } else {
+            reloadExecutor = null;
+            prioritizedExperiments = null;
+        }
+    }
+
+    /**
+     * Reports the background reads of the priority lists. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        if (reloadExecutor != null) {
+            metricRegistry.register(MetricRegistry.name(PrioritiesImpl.class, "reload"), reloadExecutor);
+        }
     }
     
     /**
@@ -83,7 +146,7 @@ public class PrioritiesImpl implements Priorities {
         else {
             experimentPriorityList.add(adjustedPriorityNum, experimentID);
         }
-        prioritiesRepository.createPriorities(applicationName, experimentPriorityList);
+        createPriorities(applicationName, experimentPriorityList);
     }
 
     /**
@@ -102,7 +165,7 @@ public class PrioritiesImpl implements Priorities {
         // already exists
         if (!priorityList.contains(experimentID)) {
             priorityList.add(experimentID);
-            prioritiesRepository.createPriorities(applicationName, priorityList);
+            createPriorities(applicationName, priorityList);
         }
     }
 
@@ -114,7 +177,7 @@ public class PrioritiesImpl implements Priorities {
         List<Experiment.ID> priorityList = prioritiesRepository.getPriorityList(applicationName);
         if (priorityList != null && priorityList.contains(experimentID)) {
             priorityList.remove(experimentID);
-            prioritiesRepository.createPriorities(applicationName, priorityList);
+            createPriorities(applicationName, priorityList);
         }
     }
 
@@ -131,10 +194,28 @@ public class PrioritiesImpl implements Priorities {
         }
 
         if (verifyPriorityList) {
-            prioritiesRepository.createPriorities(applicationName, cleanPriorityList(applicationName,
+            createPriorities(applicationName, cleanPriorityList(applicationName,
                     experimentIDList.getExperimentIDs()));
         } else {
-            prioritiesRepository.createPriorities(applicationName, experimentIDList.getExperimentIDs());
+            createPriorities(applicationName, experimentIDList.getExperimentIDs());
+        }
+    }
+
+    /**
+     * Writes the priority list of an application and replaces its cached prioritized experiments. If they cannot
+     * be read back, they are dropped and read again on next use.
+     */
+    private void createPriorities(Application.Name applicationName, List<Experiment.ID> priorityList) {
+        prioritiesRepository.createPriorities(applicationName, priorityList);
+        if (prioritizedExperiments != null) {
+            try {
+                prioritizedExperiments.put(applicationName,
+                        unmodifiable(prioritiesRepository.getPriorities(applicationName)));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not read the priorities of application {} after changing them",
+                        applicationName, e);
+                prioritizedExperiments.invalidate(applicationName);
+            }
         }
     }
 
@@ -173,6 +254,9 @@ public class PrioritiesImpl implements Priorities {
 
     /**
      * {@inheritDoc}
+     *
+     * Unless the priority list is verified, the prioritized experiments are served from memory and cannot be
+     * modified.
      */
     @Override
     public PrioritizedExperimentList getPriorities(Application.Name applicationName, boolean verifyPriorityList) {
@@ -180,9 +264,31 @@ public class PrioritiesImpl implements Priorities {
             List<Experiment.ID> priorityList = prioritiesRepository.getPriorityList(applicationName);
             List<Experiment> experimentList = experiments.getExperiments(applicationName);
             if ((priorityList != null ? priorityList.size() : 0) != experimentList.size()) {
-                prioritiesRepository.createPriorities(applicationName, cleanPriorityList(applicationName, priorityList));
+                createPriorities(applicationName, cleanPriorityList(applicationName, priorityList));
             }
+            return prioritiesRepository.getPriorities(applicationName);
+        }
+        if (prioritizedExperiments == null) {
+            return prioritiesRepository.getPriorities(applicationName);
+        }
+        try {
+            return prioritizedExperiments.getUnchecked(applicationName);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static PrioritizedExperimentList unmodifiable(PrioritizedExperimentList prioritizedExperimentList) {
+        PrioritizedExperimentList result = new PrioritizedExperimentList();
+        if (prioritizedExperimentList != null && prioritizedExperimentList.getPrioritizedExperiments() != null) {
+            result.setPrioritizedExperiments(Collections.unmodifiableList(
+                    new ArrayList<>(prioritizedExperimentList.getPrioritizedExperiments())));
+        } else {
+            result.setPrioritizedExperiments(Collections.<PrioritizedExperiment>emptyList());
         }
-        return prioritiesRepository.getPriorities(applicationName);
+        return result;
     }
 }
@@ -25,6 +25,7 @@ import com.intuit.wasabi.experiment.impl.BucketsImpl;
 import com.intuit.wasabi.experimentobjects.*;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidExperimentStateException;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.MutexRepository;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.junit.Before;
@@ -65,6 +66,8 @@ public class BucketsImplTest {
     private Buckets buckets;
     @Mock
     private EventLog eventLog;
+    @Mock
+    private MetadataCache metadataCache;
 
     private final static Application.Name testApp = Application.Name.valueOf("testApp");
     private Experiment.ID experimentID;
@@ -81,7 +84,7 @@ public class BucketsImplTest {
     public void testCreateBucket() throws Exception {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository,cassandraRepository,
-                experiments, buckets, validator, eventLog){
+                experiments, buckets, validator, eventLog, metadataCache){
             @Override
             public Bucket getBucket(Experiment.ID experimentID,Bucket.Label bucketLabel){
                 return Bucket.newInstance(experimentID,bucketLabel).withAllocationPercent(.3).build();
@@ -129,7 +132,7 @@ public class BucketsImplTest {
     public void testAdjustAllocationPercentages() {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository,cassandraRepository, experiments, buckets,
-                validator, eventLog);
+                validator, eventLog, metadataCache);
 
         Bucket newBucket = Bucket.newInstance(experimentID, bucketLabel).withAllocationPercent(.3).build();
         Bucket bucket = Bucket.newInstance(experimentID, Bucket.Label.valueOf("a")).withAllocationPercent(.4).build();
@@ -165,7 +168,7 @@ public class BucketsImplTest {
     public void testValidateBucketChanges() throws Exception {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository,cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
 
         Bucket bucket = Bucket.newInstance(experimentID, Bucket.Label.valueOf("a")).withAllocationPercent(.3)
                 .withState(Bucket.State.valueOf("OPEN")).build();
@@ -202,7 +205,7 @@ public class BucketsImplTest {
     public void testGetBucketChangeList() throws Exception {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository,cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
 
         Bucket bucket = Bucket.newInstance(experimentID, bucketLabel)
                 .withControl(true).withAllocationPercent(.5).withDescription("one").withPayload("pay1").build();
@@ -233,7 +236,7 @@ public class BucketsImplTest {
     @Test
     public void testUpdateBucket() throws Exception{
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository, cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
         Experiment experiment = Experiment.withID(experimentID)
                 .withApplicationName(testApp)
                 .withState(Experiment.State.DRAFT)
@@ -272,7 +275,7 @@ public class BucketsImplTest {
     public void testUpdateBucketBatch() throws Exception {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository, cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
 
         Bucket bucket = Bucket.newInstance(experimentID, bucketLabel)
                 .withControl(true).withAllocationPercent(.5)
@@ -306,7 +309,7 @@ public class BucketsImplTest {
     public void testCombineOldAndNewBuckets() throws Exception {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository,cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
 
         Bucket bucket = Bucket.newInstance(experimentID, Bucket.Label.valueOf("a"))
                 .withControl(true).withAllocationPercent(.5).withDescription("one").build();
@@ -335,7 +338,7 @@ public class BucketsImplTest {
     public void testDeleteBucket() {
 
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository, cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
 
         Experiment experiment = Experiment.withID(experimentID)
                 .withApplicationName(testApp)
@@ -373,7 +376,7 @@ public class BucketsImplTest {
     @Test
     public void testGetBucketBuilder(){
         BucketsImpl bucketsImpl = new BucketsImpl(databaseRepository, cassandraRepository,
-                experiments, buckets, validator, eventLog);
+                experiments, buckets, validator, eventLog, metadataCache);
         Experiment experiment = Experiment.withID(experimentID)
                 .withApplicationName(testApp)
                 .withState(Experiment.State.DRAFT)
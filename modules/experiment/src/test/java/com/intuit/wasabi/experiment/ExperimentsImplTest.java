@@ -27,6 +27,7 @@ import com.intuit.wasabi.experimentobjects.Experiment.Label;
 import com.intuit.wasabi.experimentobjects.Experiment.State;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidIdentifierException;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -73,6 +74,8 @@ public class ExperimentsImplTest {
     private Priorities priorities;
     @Mock
     private EventLog eventLog;
+    @Mock
+    private MetadataCache metadataCache;
 
     @Mock
     private Experiment.Builder builder;
@@ -89,7 +92,7 @@ public class ExperimentsImplTest {
         startTime = new Date();
         endTime = new Date(startTime.getTime() + 60000);
         samplingPercent = 0.5;
-        expImpl = new ExperimentsImpl(databaseRepository, cassandraRepository, experiments, buckets, pages, priorities, validator, ruleCache, eventLog);
+        expImpl = new ExperimentsImpl(databaseRepository, cassandraRepository, experiments, buckets, pages, priorities, validator, ruleCache, eventLog, metadataCache);
     }
 
     @Test(expected = InvalidIdentifierException.class)
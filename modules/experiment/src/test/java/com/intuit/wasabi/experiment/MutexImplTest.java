@@ -25,6 +25,7 @@ import com.intuit.wasabi.experimentobjects.Application;
 import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.experimentobjects.ExperimentIDList;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidExperimentStateException;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.RepositoryException;
 import com.intuit.wasabi.repository.impl.cassandra.CassandraMutexRepository;
 import org.junit.Test;
@@ -47,8 +48,9 @@ public class MutexImplTest {
     private CassandraMutexRepository mutexRepository = mock(CassandraMutexRepository.class);
     private ExperimentsImpl experiments = mock(ExperimentsImpl.class);
     private EventLog eventLog = mock(EventLog.class);
+    private MetadataCache metadataCache = mock(MetadataCache.class);
 
-    MutexImpl resource = new MutexImpl(mutexRepository, experiments, eventLog);
+    MutexImpl resource = new MutexImpl(mutexRepository, experiments, eventLog, metadataCache);
     private final static Application.Name testApp = Application.Name.valueOf("testApp");
 
     @Test
@@ -23,6 +23,7 @@ import com.intuit.wasabi.experimentobjects.Application;
 import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.experimentobjects.Experiment.Label;
 import com.intuit.wasabi.experimentobjects.ExperimentList;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.impl.cassandra.CassandraMutexRepository;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -44,6 +45,9 @@ public class MutexImplTest2 {
 	
 	@Mock
     private EventLog eventLog;
+
+	@Mock
+    private MetadataCache metadataCache;
 	
 	@InjectMocks
     MutexImpl resource;
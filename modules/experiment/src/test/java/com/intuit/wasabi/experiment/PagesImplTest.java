@@ -29,6 +29,8 @@ import com.intuit.wasabi.experimentobjects.ExperimentPage;
 import com.intuit.wasabi.experimentobjects.ExperimentPageList;
 import com.intuit.wasabi.experimentobjects.Page;
 import com.intuit.wasabi.experimentobjects.PageExperiment;
+import com.intuit.wasabi.experimentobjects.PrioritizedExperiment;
+import com.intuit.wasabi.experimentobjects.PrioritizedExperimentList;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidExperimentStateException;
 import com.intuit.wasabi.repository.ExperimentRepository;
 import com.intuit.wasabi.repository.PagesRepository;
@@ -45,6 +47,7 @@ import java.util.Collection;
 import java.util.List;
 
 import static com.googlecode.catchexception.CatchException.verifyException;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.when;
@@ -63,6 +66,8 @@ public class PagesImplTest {
     @Mock
     private PagesRepository pagesRepository;
     @Mock
+    private Priorities priorities;
+    @Mock
     private EventLog eventLog;
     private Experiment.ID experimentID;
 
@@ -73,7 +78,7 @@ public class PagesImplTest {
 
     @Test
     public void testPostPages(){
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         //Create Experiment and PageList for App
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).withLabel(Experiment.Label.valueOf("ExperimentLabel")).build();
@@ -114,7 +119,7 @@ public class PagesImplTest {
 
     @Test
     public void testDeletePage(){
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         //Create Experiment and PageList for App
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
@@ -155,7 +160,7 @@ public class PagesImplTest {
 
     @Test
     public void testGetExperimentPages(){
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         //Create Experiment and PageList for App
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
@@ -179,7 +184,7 @@ public class PagesImplTest {
     @Test
     public void testGetPageExperiments() throws Exception {
 
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         //Create Experiments for App
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
@@ -209,7 +214,7 @@ public class PagesImplTest {
     @Test
     public void testGetPageExperimentsWithPages() throws Exception {
 
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         //Create Experiments for App
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
@@ -236,7 +241,7 @@ public class PagesImplTest {
 
     @Test
     public void testErasePageDataExperimentNull(){
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
         UserInfo user = UserInfo.from(UserInfo.Username.valueOf("user")).build();
         pagesImpl.erasePageData(testApp, experimentID, user);
     }
@@ -244,7 +249,7 @@ public class PagesImplTest {
     @Test
     public void testErasePageDataSuccessful(){
         Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
         given(experiments.getExperiment(experimentID)).willReturn(experiment);
         UserInfo user = UserInfo.from(UserInfo.Username.valueOf("user")).build();
         willDoNothing().given(eventLog).postEvent(any(ExperimentChangeEvent.class));
@@ -258,7 +263,7 @@ public class PagesImplTest {
     @Test
     public void testGetPageList(){
 
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         Page page = new Page.Builder().withName(Page.Name.valueOf("somePage")).build();
         List<Page> pageList = new ArrayList<>(1);
@@ -272,7 +277,7 @@ public class PagesImplTest {
     @Test
     public void testGetExperiments(){
 
-        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, eventLog);
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog, 0, 30);
 
         Experiment.ID expID = Experiment.ID.newInstance();
         Experiment.Label label = Experiment.Label.valueOf("expLabel");
@@ -288,4 +293,49 @@ public class PagesImplTest {
         verifyException(pagesImpl,ApplicationNotFoundException.class).getExperiments(null, pageName);
     }
 
+    @Test
+    public void testGetPageRoute() {
+        PagesImpl pagesImpl = new PagesImpl(cassandraRepository, pagesRepository, experiments, priorities, eventLog,
+                60000, 300);
+        Page.Name pageName = Page.Name.valueOf("somePage");
+        Experiment first = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withLabel(Experiment.Label.valueOf("first")).build();
+        Experiment second = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withLabel(Experiment.Label.valueOf("second")).build();
+        Experiment notOnPage = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withLabel(Experiment.Label.valueOf("notOnPage")).build();
+
+        List<PageExperiment> pageExperimentList = new ArrayList<>();
+        pageExperimentList.add(PageExperiment.withAttributes(second.getID(), second.getLabel(), false).build());
+        pageExperimentList.add(PageExperiment.withAttributes(first.getID(), Experiment.Label.valueOf("oldLabel"),
+                true).build());
+        when(pagesRepository.getExperiments(testApp, pageName)).thenReturn(pageExperimentList);
+
+        PrioritizedExperimentList prioritizedExperimentList = new PrioritizedExperimentList();
+        prioritizedExperimentList.addPrioritizedExperiment(PrioritizedExperiment.from(first, 1).build());
+        prioritizedExperimentList.addPrioritizedExperiment(PrioritizedExperiment.from(notOnPage, 2).build());
+        prioritizedExperimentList.addPrioritizedExperiment(PrioritizedExperiment.from(second, 3).build());
+        when(priorities.getPriorities(testApp, false)).thenReturn(prioritizedExperimentList);
+
+        List<PageExperiment> route = pagesImpl.getPageRoute(testApp, pageName);
+        assertEquals(2, route.size());
+        assertEquals(first.getID(), route.get(0).getId());
+        assertEquals(first.getLabel(), route.get(0).getLabel());
+        assertTrue(route.get(0).getAllowNewAssignment());
+        assertEquals(second.getID(), route.get(1).getId());
+        assertEquals(false, route.get(1).getAllowNewAssignment());
+
+        // Served from memory, ordered once per priority list
+        assertSame(route, pagesImpl.getPageRoute(testApp, pageName));
+        verify(pagesRepository, times(1)).getExperiments(testApp, pageName);
+
+        // Changing pages drops the routes of the application
+        Experiment experiment = Experiment.withID(experimentID).withApplicationName(testApp).build();
+        experiment.setState(Experiment.State.RUNNING);
+        experiment.setEndTime(new Timestamp(System.currentTimeMillis() + 1000000));
+        when(experiments.getExperiment(experimentID)).thenReturn(experiment);
+        pagesImpl.deletePage(experimentID, pageName, null);
+        pagesImpl.getPageRoute(testApp, pageName);
+        verify(pagesRepository, times(2)).getExperiments(testApp, pageName);
+    }
 }
@@ -29,8 +29,12 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static com.googlecode.catchexception.CatchException.verifyException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Mockito.*;
@@ -51,7 +55,7 @@ public class PrioritiesImplTest {
 
     @Before
     public void setUp(){
-        prioritiesImpl = new PrioritiesImpl(prioritiesRepository, experiments);
+        prioritiesImpl = new PrioritiesImpl(prioritiesRepository, experiments, 0, 30);
     }
 
     @Test
@@ -121,6 +125,59 @@ public class PrioritiesImplTest {
         verify(prioritiesRepository, times(1)).createPriorities(testApp,priorityList);
     }
 
+    @Test
+    public void getPrioritiesIsServedFromMemoryUntilChanged() {
+        PrioritiesImpl cachingPrioritiesImpl = new PrioritiesImpl(prioritiesRepository, experiments, 60000, 300);
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withState(Experiment.State.RUNNING).build();
+        PrioritizedExperimentList prioritizedExperimentList = new PrioritizedExperimentList();
+        prioritizedExperimentList.addPrioritizedExperiment(PrioritizedExperiment.from(experiment, 1).build());
+        when(prioritiesRepository.getPriorities(testApp)).thenReturn(prioritizedExperimentList);
+        when(prioritiesRepository.getPriorityList(testApp)).thenReturn(new ArrayList<Experiment.ID>());
+        when(experiments.getExperiment(experiment.getID())).thenReturn(experiment);
+
+        PrioritizedExperimentList cached = cachingPrioritiesImpl.getPriorities(testApp, false);
+        assertEquals(1, cached.getPrioritizedExperiments().size());
+        assertSame(cached, cachingPrioritiesImpl.getPriorities(testApp, false));
+        verify(prioritiesRepository, times(1)).getPriorities(testApp);
+
+        // A local change replaces the list right away
+        cachingPrioritiesImpl.appendToPriorityList(experiment.getID());
+        verify(prioritiesRepository, times(2)).getPriorities(testApp);
+        PrioritizedExperimentList replaced = cachingPrioritiesImpl.getPriorities(testApp, false);
+        assertNotSame(cached, replaced);
+        verify(prioritiesRepository, times(2)).getPriorities(testApp);
+
+        thrown.expect(UnsupportedOperationException.class);
+        replaced.getPrioritizedExperiments().clear();
+    }
+
+    @Test
+    public void getPrioritiesIsReadAgainInTheBackground() throws InterruptedException {
+        PrioritiesImpl cachingPrioritiesImpl = new PrioritiesImpl(prioritiesRepository, experiments, 10, 300);
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(testApp)
+                .withState(Experiment.State.RUNNING).build();
+        PrioritizedExperimentList changed = new PrioritizedExperimentList();
+        changed.addPrioritizedExperiment(PrioritizedExperiment.from(experiment, 1).build());
+        CountDownLatch release = new CountDownLatch(1);
+        when(prioritiesRepository.getPriorities(testApp)).thenReturn(new PrioritizedExperimentList())
+                .thenAnswer(invocation -> {
+                    release.await();
+                    return changed;
+                });
+
+        PrioritizedExperimentList cached = cachingPrioritiesImpl.getPriorities(testApp, false);
+        Thread.sleep(20);
+
+        // The older list is served while the new one is read
+        assertSame(cached, cachingPrioritiesImpl.getPriorities(testApp, false));
+        release.countDown();
+        for (int i = 0; i < 100 && cachingPrioritiesImpl.getPriorities(testApp, false) == cached; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cachingPrioritiesImpl.getPriorities(testApp, false).getPrioritizedExperiments().size());
+    }
+
     @Test
     public void createPriorities_test(){
 
@@ -27,6 +27,7 @@ import com.intuit.wasabi.experiment.Priorities;
 import com.intuit.wasabi.experimentobjects.*;
 import com.intuit.wasabi.experimentobjects.exceptions.InvalidIdentifierException;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
 import com.intuit.wasabi.repository.RepositoryException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -70,6 +71,8 @@ public class ExperimentsImplTest {
     private Priorities priorities;
     @Mock
     private EventLog eventLog;
+    @Mock
+    private MetadataCache metadataCache;
     private Date startTime;
     private Date endTime;
     private Double samplingPercent;
@@ -82,7 +85,7 @@ public class ExperimentsImplTest {
         startTime = new Date();
         endTime = new Date(startTime.getTime()+60000);
         samplingPercent = 0.5;
-        expImpl = new ExperimentsImpl(databaseRepository,cassandraRepository,experiments,buckets,pages,priorities,validator,ruleCache,eventLog);
+        expImpl = new ExperimentsImpl(databaseRepository,cassandraRepository,experiments,buckets,pages,priorities,validator,ruleCache,eventLog,metadataCache);
     }
 
     @Test(expected = InvalidIdentifierException.class)
@@ -462,7 +465,7 @@ public class ExperimentsImplTest {
     @Test
     public void testCheckForIllegalPausedUpdate() {
         ExperimentsImpl expImpl= spy(new ExperimentsImpl(databaseRepository,cassandraRepository,experiments,
-                buckets,pages,priorities,validator,ruleCache,eventLog));
+                buckets,pages,priorities,validator,ruleCache,eventLog,metadataCache));
 
         Experiment mockCurrentExperiment = mock(Experiment.class);
         Experiment mockUpdateExperiment = mock(Experiment.class);
@@ -602,7 +605,7 @@ public class ExperimentsImplTest {
         Experiment current = mock(Experiment.class);
         UserInfo user = mock(UserInfo.class);
         ExperimentsImpl expImpl = spy(new ExperimentsImpl(databaseRepository,cassandraRepository,experiments,
-                buckets,pages,priorities,validator,ruleCache,eventLog));
+                buckets,pages,priorities,validator,ruleCache,eventLog,metadataCache));
         when(current.getID()).thenReturn(experimentID);
         doReturn(current).when(expImpl).getExperiment(experimentID);
         doReturn(false).when(expImpl).buildUpdatedExperiment(eq(current), eq(update),
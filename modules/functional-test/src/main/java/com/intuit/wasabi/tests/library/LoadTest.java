@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library;
+
+import com.intuit.wasabi.tests.library.load.LoadEndpoint;
+import com.intuit.wasabi.tests.library.load.LoadGenerator;
+import com.intuit.wasabi.tests.library.load.LoadReport;
+import com.intuit.wasabi.tests.library.load.LoadTarget;
+import com.intuit.wasabi.tests.library.util.Constants;
+import com.intuit.wasabi.tests.model.Application;
+import com.intuit.wasabi.tests.model.Experiment;
+import com.intuit.wasabi.tests.model.factory.ApplicationFactory;
+import org.slf4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * <tt>LoadTest</tt> sends a mix of single, batch and page assignments, impressions and analytics calls to the running
+ * experiments of one application at a fixed rate, and reports the latency percentiles and throughput of each call.
+ * It is meant to be run after {@link SetupPerformanceTest} with the same application and page name, against any
+ * server, e.g. one started locally with {@code bin/wasabi.sh start}.
+ *
+ * All parameters can be passed in. To pass in new parameters use the -Dparameter-name switches to set the appProperties.
+ * The available switches and their default values are: ({@code parametername: defaultvalue})
+ *
+ * <ul>
+ *     <li>application.name: SW50ZWdyVGVzdA_Application_Perf-</li>
+ *     <li>page.name: homepage</li>
+ *     <li>load.mix: single:60,batch:10,page:15,event:10,analytics:5</li>
+ *     <li>load.rate: 100 (requests per second)</li>
+ *     <li>load.warmup.seconds: 10</li>
+ *     <li>load.duration.seconds: 60</li>
+ *     <li>load.threads: 64</li>
+ *     <li>load.users: 100000</li>
+ *     <li>load.timeout.ms: 10000</li>
+ *     <li>load.seed: 0</li>
+ *     <li>load.report.dir: target/load-test</li>
+ *     <li>load.max.error.ratio: 0.01</li>
+ * </ul>
+ *
+ * NOTE: passing in the string "NULL" for the page name leaves page assignments out of the mix.
+ *
+ * The summary is logged and written to {@code summary.txt} in the report directory, together with the percentile
+ * distribution of each call as {@code .hgrm} files. See {@link LoadGenerator} and {@link LoadReport} for how
+ * requests are scheduled and measured. The test fails if more than {@code load.max.error.ratio} of the requests fail.
+ */
+public class LoadTest extends TestBase {
+
+    private static final Logger LOGGER = getLogger(LoadTest.class);
+    private String applicationName = Constants.DEFAULT_PREFIX_APPLICATION + "Perf";
+    private String pageName = Constants.DEFAULT_PAGE_NAME;
+    private String mix = "single:60,batch:10,page:15,event:10,analytics:5";
+    private double rate = 100;
+    private long warmUpSeconds = 10;
+    private long durationSeconds = 60;
+    private int threads = 64;
+    private int users = 100000;
+    private long timeoutMillis = 10000;
+    private long seed = 0;
+    private String reportDirectory = "target/load-test";
+    private double maxErrorRatio = 0.01;
+
+    //////////////////////
+    // Before and After //
+    //////////////////////
+
+    /**
+     * Initializes private variables.
+     */
+    @BeforeClass
+    protected void init() {
+        LOGGER.info("Init: " + this.getClass().getName());
+
+        setPropertyFromSystemProperty("application.name", "application-name");
+        setPropertyFromSystemProperty("page.name", "page-name");
+        setPropertyFromSystemProperty("load.mix", "load-mix");
+        setPropertyFromSystemProperty("load.rate", "load-rate");
+        setPropertyFromSystemProperty("load.warmup.seconds", "load-warmup-seconds");
+        setPropertyFromSystemProperty("load.duration.seconds", "load-duration-seconds");
+        setPropertyFromSystemProperty("load.threads", "load-threads");
+        setPropertyFromSystemProperty("load.users", "load-users");
+        setPropertyFromSystemProperty("load.timeout.ms", "load-timeout-ms");
+        setPropertyFromSystemProperty("load.seed", "load-seed");
+        setPropertyFromSystemProperty("load.report.dir", "load-report-dir");
+        setPropertyFromSystemProperty("load.max.error.ratio", "load-max-error-ratio");
+
+        applicationName = appProperties.getProperty("application-name", applicationName);
+        pageName = appProperties.getProperty("page-name", pageName);
+        mix = appProperties.getProperty("load-mix", mix);
+        rate = Double.valueOf(appProperties.getProperty("load-rate", String.valueOf(rate)));
+        warmUpSeconds = Long.valueOf(appProperties.getProperty("load-warmup-seconds", String.valueOf(warmUpSeconds)));
+        durationSeconds = Long.valueOf(appProperties.getProperty("load-duration-seconds", String.valueOf(durationSeconds)));
+        threads = Integer.valueOf(appProperties.getProperty("load-threads", String.valueOf(threads)));
+        users = Integer.valueOf(appProperties.getProperty("load-users", String.valueOf(users)));
+        timeoutMillis = Long.valueOf(appProperties.getProperty("load-timeout-ms", String.valueOf(timeoutMillis)));
+        seed = Long.valueOf(appProperties.getProperty("load-seed", String.valueOf(seed)));
+        reportDirectory = appProperties.getProperty("load-report-dir", reportDirectory);
+        maxErrorRatio = Double.valueOf(appProperties.getProperty("load-max-error-ratio", String.valueOf(maxErrorRatio)));
+
+        LOGGER.info("KVP used: applicationName=" + applicationName);
+        LOGGER.info("KVP used: pageName=" + pageName);
+        LOGGER.info("KVP used: mix=" + mix);
+        LOGGER.info("KVP used: rate=" + rate);
+        LOGGER.info("KVP used: warmUpSeconds=" + warmUpSeconds);
+        LOGGER.info("KVP used: durationSeconds=" + durationSeconds);
+        LOGGER.info("KVP used: threads=" + threads);
+        LOGGER.info("KVP used: users=" + users);
+        LOGGER.info("KVP used: reportDirectory=" + reportDirectory);
+    }
+
+    ///////////////
+    // The Tests //
+    ///////////////
+
+    /**
+     * Sends the load to the running experiments of the application and reports the latencies.
+     *
+     * @throws InterruptedException if interrupted while sending
+     * @throws IOException if the report can not be written
+     */
+    @Test(dependsOnGroups = {"ping"})
+    public void t1_sendLoad() throws InterruptedException, IOException {
+        Application application = ApplicationFactory.createApplication().setName(applicationName);
+        List<String> labels = new ArrayList<>();
+        for (Experiment experiment : getApplicationExperiments(application)) {
+            if (Constants.EXPERIMENT_STATE_RUNNING.equals(experiment.state)) {
+                labels.add(experiment.label);
+            }
+        }
+        Assert.assertFalse(labels.isEmpty(), "No running experiments in " + applicationName +
+                ", run SetupPerformanceTest first.");
+
+        Map<LoadEndpoint, Integer> weights = LoadGenerator.parseMix(mix);
+        if (pageName.equals("NULL") && weights.remove(LoadEndpoint.PAGE) != null) {
+            LOGGER.info("Page name is \"NULL\", page assignments are left out of the mix.");
+        }
+
+        String baseUrl = appProperties.getProperty("api-server-protocol", Constants.DEFAULT_CONFIG_SERVER_PROTOCOL) +
+                "://" + appProperties.getProperty("api-server-name", Constants.DEFAULT_CONFIG_SERVER_NAME) +
+                "/api/" + appProperties.getProperty("api-version-string", Constants.DEFAULT_CONFIG_API_VERSION_STRING) +
+                "/";
+        LoadTarget target = new LoadTarget(baseUrl, applicationName, labels, pageName,
+                appProperties.getProperty("user-name"), appProperties.getProperty("password"));
+        LoadReport report = new LoadGenerator(target, weights, rate, warmUpSeconds, durationSeconds, threads, users,
+                timeoutMillis, seed).run();
+
+        LOGGER.info("Load test of " + labels.size() + " experiments:\n" + report.summary());
+        File directory = new File(reportDirectory);
+        report.write(directory);
+        LOGGER.info("Load test report written to " + directory.getAbsolutePath());
+
+        long requests = report.getCount() + report.getUnfinished();
+        Assert.assertTrue(report.getErrors() + report.getUnfinished() <= maxErrorRatio * requests,
+                (report.getErrors() + report.getUnfinished()) + " of " + requests + " requests failed or did not finish");
+    }
+
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library.load;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.util.Random;
+
+/**
+ * The calls the {@link LoadGenerator} mixes. Each builds the request for one user against a {@link LoadTarget}.
+ */
+public enum LoadEndpoint {
+
+    /**
+     * Assignment of the user to one experiment.
+     */
+    SINGLE {
+        @Override
+        Request request(LoadTarget target, String userID, Random random) {
+            return new Request.Builder()
+                    .url(target.url("assignments", "applications", target.getApplicationName(),
+                            "experiments", target.experimentLabel(random), "users", userID))
+                    .get()
+                    .build();
+        }
+    },
+
+    /**
+     * Batch assignment of the user to all experiments.
+     */
+    BATCH {
+        @Override
+        Request request(LoadTarget target, String userID, Random random) {
+            return new Request.Builder()
+                    .url(target.url("assignments", "applications", target.getApplicationName(),
+                            "users", userID))
+                    .post(RequestBody.create(JSON, target.getBatchBody()))
+                    .build();
+        }
+    },
+
+    /**
+     * Assignment of the user to all experiments on the page.
+     */
+    PAGE {
+        @Override
+        Request request(LoadTarget target, String userID, Random random) {
+            return new Request.Builder()
+                    .url(target.url("assignments", "applications", target.getApplicationName(),
+                            "pages", target.getPageName(), "users", userID))
+                    .get()
+                    .build();
+        }
+    },
+
+    /**
+     * An impression of the user in one experiment.
+     */
+    EVENT {
+        @Override
+        Request request(LoadTarget target, String userID, Random random) {
+            return new Request.Builder()
+                    .url(target.url("events", "applications", target.getApplicationName(),
+                            "experiments", target.experimentLabel(random), "users", userID))
+                    .post(RequestBody.create(JSON, IMPRESSION))
+                    .build();
+        }
+    },
+
+    /**
+     * The assignment counts of one experiment, as read by the UI.
+     */
+    ANALYTICS {
+        @Override
+        Request request(LoadTarget target, String userID, Random random) {
+            return new Request.Builder()
+                    .url(target.url("analytics", "applications", target.getApplicationName(),
+                            "experiments", target.experimentLabel(random), "assignments", "counts"))
+                    .header("Authorization", target.getAuthorization())
+                    .get()
+                    .build();
+        }
+    };
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final String IMPRESSION = "{\"events\":[{\"name\":\"IMPRESSION\"}]}";
+
+    /**
+     * Builds the request of this call.
+     *
+     * @param target the target
+     * @param userID the user
+     * @param random the random source of the generator, used to pick an experiment
+     * @return the request
+     */
+    abstract Request request(LoadTarget target, String userID, Random random);
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library.load;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Sends a weighted mix of {@link LoadEndpoint} calls to a {@link LoadTarget} at a fixed rate and records their
+ * latencies in a {@link LoadReport}.
+ *
+ * The generator is open-loop: request {@code i} is scheduled at {@code start + i / rate}, regardless of whether
+ * earlier requests were answered, and handed to a pool of workers which send it. Its response time is measured from
+ * the scheduled time, so that a stalled server shows up as the latency every client waiting on it sees, instead of
+ * as fewer, fast requests (coordinated omission). When all workers are busy, requests queue up and keep their
+ * scheduled time.
+ *
+ * The users, experiments and calls are picked from a seeded random source, so that runs with the same settings
+ * replay the same requests. Requests scheduled during the warm up are sent but not recorded.
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = getLogger(LoadGenerator.class);
+
+    private final LoadTarget target;
+    private final Map<LoadEndpoint, Integer> mix;
+    private final double rate;
+    private final long warmUpNanos;
+    private final long durationNanos;
+    private final int threads;
+    private final int users;
+    private final long seed;
+    private final OkHttpClient client;
+
+    /**
+     * Creates a generator.
+     *
+     * @param target          the target of the requests
+     * @param mix             the weight of each endpoint, see {@link #parseMix(String)}
+     * @param rate            the requests per second
+     * @param warmUpSeconds   the seconds to send requests before recording them
+     * @param durationSeconds the seconds to send and record requests
+     * @param threads         the number of workers, and of connections to the server
+     * @param users           the number of distinct users
+     * @param timeoutMillis   the connect and read timeout of each request
+     * @param seed            the seed of the random source
+     */
+    public LoadGenerator(LoadTarget target, Map<LoadEndpoint, Integer> mix, double rate, long warmUpSeconds,
+                         long durationSeconds, int threads, int users, long timeoutMillis, long seed) {
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no endpoints");
+        }
+        if (rate <= 0 || durationSeconds <= 0 || threads <= 0 || users <= 0) {
+            throw new IllegalArgumentException("Rate, duration, threads and users have to be positive");
+        }
+        this.target = target;
+        this.mix = new EnumMap<>(mix);
+        this.rate = rate;
+        this.warmUpNanos = TimeUnit.SECONDS.toNanos(warmUpSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.threads = threads;
+        this.users = users;
+        this.seed = seed;
+        this.client = new OkHttpClient.Builder()
+                .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(threads, 5, TimeUnit.MINUTES))
+                .build();
+    }
+
+    /**
+     * Parses a mix of the form {@code single:60,batch:10,page:15,event:10,analytics:5}. Endpoints which are not
+     * listed or have a weight of 0 are not called.
+     *
+     * @param mix the mix
+     * @return the weight of each endpoint
+     */
+    public static Map<LoadEndpoint, Integer> parseMix(String mix) {
+        Map<LoadEndpoint, Integer> weights = new EnumMap<>(LoadEndpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] keyValue = entry.trim().split(":");
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry \"" + entry + "\", expected <endpoint>:<weight>");
+            }
+            LoadEndpoint endpoint = LoadEndpoint.valueOf(keyValue[0].trim().toUpperCase(Locale.US));
+            int weight = Integer.parseInt(keyValue[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + endpoint);
+            }
+            if (weight > 0) {
+                weights.put(endpoint, weight);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Runs the load: warms up, sends and records requests for the duration, then waits for the requests still
+     * queued or in flight for up to the duration again.
+     *
+     * @return the report
+     * @throws InterruptedException if interrupted while sending
+     */
+    public LoadReport run() throws InterruptedException {
+        LoadEndpoint[] endpoints = new LoadEndpoint[mix.size()];
+        int[] cumulativeWeights = new int[mix.size()];
+        int totalWeight = 0;
+        int index = 0;
+        for (Map.Entry<LoadEndpoint, Integer> entry : mix.entrySet()) {
+            totalWeight += entry.getValue();
+            endpoints[index] = entry.getKey();
+            cumulativeWeights[index++] = totalWeight;
+        }
+
+        LoadReport report = new LoadReport(mix.keySet(), rate, durationNanos);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "LoadGenerator-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Random random = new Random(seed);
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        LOGGER.info("Sending " + rate + " req/s of " + mix + " to " + target.getApplicationName() + " for " +
+                TimeUnit.NANOSECONDS.toSeconds(warmUpNanos) + "s warm up and " +
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "s measurement");
+        long start = System.nanoTime();
+        long measureFrom = start + warmUpNanos;
+        long end = measureFrom + durationNanos;
+        long measured = 0;
+        try {
+            for (long i = 0; ; i++) {
+                long scheduled = start + (long) (i * intervalNanos);
+                if (scheduled - end >= 0) {
+                    break;
+                }
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+
+                int pick = random.nextInt(totalWeight);
+                int endpoint = 0;
+                while (pick >= cumulativeWeights[endpoint]) {
+                    endpoint++;
+                }
+                Request request = endpoints[endpoint].request(target, "user" + random.nextInt(users), random);
+                LoadReport recordTo = null;
+                if (scheduled - measureFrom >= 0) {
+                    recordTo = report;
+                    measured++;
+                }
+                LoadEndpoint scheduledEndpoint = endpoints[endpoint];
+                LoadReport scheduledReport = recordTo;
+                workers.execute(() -> send(scheduledEndpoint, request, scheduled, scheduledReport));
+            }
+        } finally {
+            workers.shutdown();
+        }
+
+        if (!workers.awaitTermination(durationNanos, TimeUnit.NANOSECONDS)) {
+            workers.shutdownNow();
+            report.recordUnfinished(measured - report.getCount());
+            LOGGER.warn("Requests were still queued or in flight " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) +
+                    "s after the last one was scheduled, the server can not keep up with " + rate + " req/s");
+        }
+        return report;
+    }
+
+    private void send(LoadEndpoint endpoint, Request request, long scheduled, LoadReport report) {
+        long sent = System.nanoTime();
+        boolean success = false;
+        try {
+            Response response = client.newCall(request).execute();
+            success = response.isSuccessful();
+            response.body().close();
+        } catch (IOException e) {
+            LOGGER.debug(endpoint + " request failed", e);
+        }
+        if (report != null) {
+            long now = System.nanoTime();
+            report.record(endpoint, now - scheduled, now - sent, success);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies, errors and throughput of a {@link LoadGenerator} run, per endpoint.
+ *
+ * Two latencies are recorded for every request: the response time, measured from the time the request was
+ * scheduled to be sent, and the service time, measured from the time it was sent. The response time includes the
+ * time a request waited because the server or the generator fell behind, which is what a client sending at the
+ * same rate sees; a gap between the two means the rate was more than the server could take.
+ */
+public class LoadReport {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
+    private final Map<LoadEndpoint, Histogram> responseTimes = new EnumMap<>(LoadEndpoint.class);
+    private final Map<LoadEndpoint, Histogram> serviceTimes = new EnumMap<>(LoadEndpoint.class);
+    private final Map<LoadEndpoint, AtomicLong> errors = new EnumMap<>(LoadEndpoint.class);
+    private final double targetRate;
+    private final long durationNanos;
+    private final AtomicLong unfinished = new AtomicLong();
+
+    /**
+     * Creates an empty report.
+     *
+     * @param endpoints     the endpoints of the mix
+     * @param targetRate    the rate the requests were scheduled at, per second
+     * @param durationNanos the duration of the measured part of the run
+     */
+    LoadReport(Collection<LoadEndpoint> endpoints, double targetRate, long durationNanos) {
+        for (LoadEndpoint endpoint : endpoints) {
+            responseTimes.put(endpoint, new ConcurrentHistogram(3));
+            serviceTimes.put(endpoint, new ConcurrentHistogram(3));
+            errors.put(endpoint, new AtomicLong());
+        }
+        this.targetRate = targetRate;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Records a completed request.
+     *
+     * @param endpoint     the endpoint
+     * @param responseTime the time from the scheduled start to the response, in nanoseconds
+     * @param serviceTime  the time from sending the request to the response, in nanoseconds
+     * @param success      whether the server answered with a 2xx status
+     */
+    void record(LoadEndpoint endpoint, long responseTime, long serviceTime, boolean success) {
+        responseTimes.get(endpoint).recordValue(responseTime);
+        serviceTimes.get(endpoint).recordValue(serviceTime);
+        if (!success) {
+            errors.get(endpoint).incrementAndGet();
+        }
+    }
+
+    /**
+     * Records requests which were still queued or in flight when the run was stopped.
+     *
+     * @param count the number of requests
+     */
+    void recordUnfinished(long count) {
+        unfinished.addAndGet(count);
+    }
+
+    /**
+     * @param endpoint the endpoint
+     * @return the response times of the endpoint, in nanoseconds
+     */
+    public Histogram getResponseTimes(LoadEndpoint endpoint) {
+        return responseTimes.get(endpoint);
+    }
+
+    /**
+     * @param endpoint the endpoint
+     * @return the service times of the endpoint, in nanoseconds
+     */
+    public Histogram getServiceTimes(LoadEndpoint endpoint) {
+        return serviceTimes.get(endpoint);
+    }
+
+    /**
+     * @return the number of completed requests
+     */
+    public long getCount() {
+        long count = 0;
+        for (Histogram histogram : responseTimes.values()) {
+            count += histogram.getTotalCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of completed requests which did not succeed
+     */
+    public long getErrors() {
+        long count = 0;
+        for (AtomicLong endpointErrors : errors.values()) {
+            count += endpointErrors.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of requests which were still queued or in flight when the run was stopped
+     */
+    public long getUnfinished() {
+        return unfinished.get();
+    }
+
+    /**
+     * @return the completed requests per second
+     */
+    public double getThroughput() {
+        return getCount() / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Summarizes the run: throughput, errors and the percentiles of the response and service times of each
+     * endpoint and of all of them, in milliseconds.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "Target rate: %.1f req/s, measured for %.1f s%n", targetRate,
+                durationNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        summary.append(String.format(Locale.US, "Throughput: %.1f req/s, %d requests, %d errors, %d unfinished%n",
+                getThroughput(), getCount(), getErrors(), getUnfinished()));
+        appendTable(summary, "Response time (ms, from scheduled start)", responseTimes);
+        appendTable(summary, "Service time (ms, from send)", serviceTimes);
+        return summary.toString();
+    }
+
+    private void appendTable(StringBuilder summary, String title, Map<LoadEndpoint, Histogram> histograms) {
+        summary.append(String.format("%n%s%n", title));
+        summary.append(String.format(Locale.US, "%-10s %10s %8s %10s %9s", "endpoint", "count", "errors", "req/s",
+                "mean"));
+        for (String percentileName : PERCENTILE_NAMES) {
+            summary.append(String.format(" %9s", percentileName));
+        }
+        summary.append(String.format(" %9s%n", "max"));
+
+        Histogram total = new Histogram(3);
+        for (Map.Entry<LoadEndpoint, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue().copy();
+            total.add(histogram);
+            appendRow(summary, entry.getKey().name().toLowerCase(Locale.US), histogram,
+                    errors.get(entry.getKey()).get());
+        }
+        appendRow(summary, "total", total, getErrors());
+    }
+
+    private void appendRow(StringBuilder summary, String name, Histogram histogram, long errorCount) {
+        double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        summary.append(String.format(Locale.US, "%-10s %10d %8d %10.1f %9.2f", name, histogram.getTotalCount(),
+                errorCount, histogram.getTotalCount() / seconds, histogram.getMean() / NANOS_PER_MILLI));
+        for (double percentile : PERCENTILES) {
+            summary.append(String.format(Locale.US, " %9.2f",
+                    histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI));
+        }
+        summary.append(String.format(Locale.US, " %9.2f%n", histogram.getMaxValue() / NANOS_PER_MILLI));
+    }
+
+    /**
+     * Writes the summary to {@code summary.txt} and the percentile distributions of each endpoint, in milliseconds,
+     * to {@code <endpoint>-response.hgrm} and {@code <endpoint>-service.hgrm}. The distributions can be plotted with
+     * the HdrHistogram plotter.
+     *
+     * @param directory the directory, created if needed
+     * @throws IOException if a file can not be written
+     */
+    public void write(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Files.write(new File(directory, "summary.txt").toPath(), summary().getBytes(StandardCharsets.UTF_8));
+        for (LoadEndpoint endpoint : responseTimes.keySet()) {
+            String name = endpoint.name().toLowerCase(Locale.US);
+            writeDistribution(new File(directory, name + "-response.hgrm"), responseTimes.get(endpoint));
+            writeDistribution(new File(directory, name + "-service.hgrm"), serviceTimes.get(endpoint));
+        }
+    }
+
+    private void writeDistribution(File file, Histogram histogram) throws FileNotFoundException {
+        try (PrintStream out = new PrintStream(file)) {
+            histogram.copy().outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+    }
+}
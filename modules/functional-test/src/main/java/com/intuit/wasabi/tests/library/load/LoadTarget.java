@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library.load;
+
+import com.google.gson.Gson;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The server, application, experiments and page the {@link LoadGenerator} sends its requests to.
+ */
+public class LoadTarget {
+
+    private final HttpUrl baseUrl;
+    private final String applicationName;
+    private final List<String> experimentLabels;
+    private final String pageName;
+    private final String authorization;
+    private final String batchBody;
+
+    /**
+     * Creates a target.
+     *
+     * @param baseUrl          the API base, e.g. {@code http://localhost:8080/api/v1/}
+     * @param applicationName  the application of the experiments
+     * @param experimentLabels the labels of the running experiments, at least one
+     * @param pageName         the page the experiments are on, may be {@code null} if there is none
+     * @param userName         the user for the calls that need authorization
+     * @param password         the password of the user
+     */
+    public LoadTarget(String baseUrl, String applicationName, List<String> experimentLabels, String pageName,
+                      String userName, String password) {
+        if (experimentLabels.isEmpty()) {
+            throw new IllegalArgumentException("At least one experiment is needed to send load to " +
+                    applicationName);
+        }
+        this.baseUrl = HttpUrl.parse(baseUrl);
+        if (this.baseUrl == null) {
+            throw new IllegalArgumentException("Invalid API base: " + baseUrl);
+        }
+        this.applicationName = applicationName;
+        this.experimentLabels = Collections.unmodifiableList(new ArrayList<>(experimentLabels));
+        this.pageName = pageName;
+        this.authorization = Credentials.basic(userName, password);
+        this.batchBody = new Gson().toJson(Collections.singletonMap("labels", this.experimentLabels));
+    }
+
+    /**
+     * Builds the URL of a resource below the API base.
+     *
+     * @param pathSegments the path segments, they are encoded
+     * @return the URL
+     */
+    HttpUrl url(String... pathSegments) {
+        HttpUrl.Builder builder = baseUrl.newBuilder();
+        for (String pathSegment : pathSegments) {
+            builder.addPathSegment(pathSegment);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Picks one of the experiments.
+     *
+     * @param random the random source of the generator
+     * @return an experiment label
+     */
+    String experimentLabel(Random random) {
+        return experimentLabels.get(random.nextInt(experimentLabels.size()));
+    }
+
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public List<String> getExperimentLabels() {
+        return experimentLabels;
+    }
+
+    public String getPageName() {
+        return pageName;
+    }
+
+    String getAuthorization() {
+        return authorization;
+    }
+
+    /**
+     * @return the batch assignment body, asking for all experiments
+     */
+    String getBatchBody() {
+        return batchBody;
+    }
+}
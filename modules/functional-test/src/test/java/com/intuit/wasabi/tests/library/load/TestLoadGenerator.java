@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.tests.library.load;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the helper functions of the {@link LoadGenerator} which do not need a server.
+ */
+public class TestLoadGenerator {
+
+    @Test
+    public void testParseMix() {
+        Map<LoadEndpoint, Integer> mix = LoadGenerator.parseMix("single:60, Batch:10,page:0,event:30");
+        Assert.assertEquals(mix.size(), 3);
+        Assert.assertEquals(mix.get(LoadEndpoint.SINGLE), Integer.valueOf(60));
+        Assert.assertEquals(mix.get(LoadEndpoint.BATCH), Integer.valueOf(10));
+        Assert.assertEquals(mix.get(LoadEndpoint.EVENT), Integer.valueOf(30));
+        Assert.assertFalse(mix.containsKey(LoadEndpoint.PAGE));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseMixUnknownEndpoint() {
+        LoadGenerator.parseMix("single:60,bulk:40");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseMixWithoutWeight() {
+        LoadGenerator.parseMix("single");
+    }
+
+    @Test
+    public void testRequests() {
+        LoadTarget target = new LoadTarget("http://localhost:8080/api/v1/", "app", Arrays.asList("exp"), "home page",
+                "admin", "admin");
+        Assert.assertEquals(LoadEndpoint.SINGLE.request(target, "u1", new Random()).url().toString(),
+                "http://localhost:8080/api/v1/assignments/applications/app/experiments/exp/users/u1");
+        Assert.assertEquals(LoadEndpoint.PAGE.request(target, "u1", new Random()).url().toString(),
+                "http://localhost:8080/api/v1/assignments/applications/app/pages/home%20page/users/u1");
+        Assert.assertEquals(LoadEndpoint.BATCH.request(target, "u1", new Random()).method(), "POST");
+        Assert.assertNotNull(LoadEndpoint.ANALYTICS.request(target, "u1", new Random())
+                .header("Authorization"));
+    }
+
+    @Test
+    public void testReport() {
+        LoadReport report = new LoadReport(EnumSet.of(LoadEndpoint.SINGLE, LoadEndpoint.EVENT), 10,
+                TimeUnit.SECONDS.toNanos(2));
+        report.record(LoadEndpoint.SINGLE, TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.MILLISECONDS.toNanos(5), true);
+        report.record(LoadEndpoint.SINGLE, TimeUnit.MILLISECONDS.toNanos(30), TimeUnit.MILLISECONDS.toNanos(5), true);
+        report.record(LoadEndpoint.EVENT, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10), false);
+        report.recordUnfinished(1);
+
+        Assert.assertEquals(report.getCount(), 3);
+        Assert.assertEquals(report.getErrors(), 1);
+        Assert.assertEquals(report.getUnfinished(), 1);
+        Assert.assertEquals(report.getThroughput(), 1.5, 0.001);
+        Assert.assertEquals(report.getServiceTimes(LoadEndpoint.SINGLE).getMaxValue(),
+                TimeUnit.MILLISECONDS.toNanos(5), TimeUnit.MILLISECONDS.toNanos(5) / 1000.0);
+        Assert.assertTrue(report.summary().contains("single"));
+        Assert.assertTrue(report.summary().contains("total"));
+    }
+}
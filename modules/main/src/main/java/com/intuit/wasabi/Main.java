@@ -18,7 +18,11 @@ package com.intuit.wasabi;
 import com.intuit.autumn.metrics.MetricsModule;
 import com.intuit.autumn.service.ServiceManager;
 import com.intuit.wasabi.api.ApiModule;
+import com.intuit.wasabi.assignment.AssignmentIngestionService;
+import com.intuit.wasabi.assignment.AssignmentWarmUpService;
+import com.intuit.wasabi.assignment.AssignmentWriteBehindService;
 import com.intuit.wasabi.eventlog.EventLogService;
+import com.intuit.wasabi.repository.BucketAssignmentCountService;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 
@@ -55,7 +59,11 @@ public class Main {
                 .addModules(ApiModule.class, MetricsModule.class)
                 .addServices(getEnabledWebServices())
                 .addServices(getEnabledMetricsServices())
-                .addServices(EventLogService.class);
+                .addServices(EventLogService.class)
+                .addServices(AssignmentWriteBehindService.class)
+                .addServices(AssignmentIngestionService.class)
+                .addServices(AssignmentWarmUpService.class)
+                .addServices(BucketAssignmentCountService.class);
 
         serviceManager.start();
 
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Table;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Timers of the stages of assignment calls and counters of their outcomes, per application.
+ *
+ * A call is sampled with probability {@code assignment.stage.metrics.sample.rate} when it {@link #begin}s on a
+ * thread. Stages are timed between {@link #startStage()} and {@link #endStage} on the same thread, and only for
+ * sampled calls, so that the stages of other calls cost a thread local lookup each. Calls begun within a call,
+ * e.g. the batches of a bulk assignment, are part of the outer call. Stages running on other threads, like
+ * background writes, are not timed. A stage may run several times in a call, e.g. once per experiment of a batch.
+ * Outcomes are counted for every assignment.
+ *
+ * Metrics are created in the {@link MetricRegistry} on first use and reported with all other metrics. Only
+ * applications with experiments in the {@link MetadataCache} get metrics of their own, calls for any other name are
+ * recorded as application {@value #UNKNOWN_APPLICATION}, so that requests cannot create metrics at will. In metric
+ * names, underscores in application names are doubled and dollar signs are written as {@code _d}:
+ * <ul>
+ *     <li>timer {@code assignments.<application>.<operation>} of sampled calls, for single assignments also
+ *     {@code assignments.<application>.<operation>.<status>}</li>
+ *     <li>timer {@code assignments.<application>.stage.<stage>} of the stages of sampled calls</li>
+ *     <li>counter {@code assignments.<application>.status.<status>} of all assignments</li>
+ * </ul>
+ */
+public class AssignmentStageMetrics {
+
+    /**
+     * Metrics that record nothing, for callers without a metric registry
+     */
+    public static final AssignmentStageMetrics DISABLED = new AssignmentStageMetrics(false, 0d, null, null);
+
+    private static final String PREFIX = "assignments";
+    /**
+     * The application name of calls for unknown applications, which no escaped application name is equal to
+     */
+    private static final String UNKNOWN_APPLICATION = "_unknown";
+    private static final int STATUS_COUNT = Assignment.Status.values().length;
+    /**
+     * Returned instead of a start time for calls and stages which are not timed
+     */
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /**
+     * The kinds of assignment calls.
+     */
+    public enum Operation {
+        SINGLE, BATCH, PAGE
+    }
+
+    /**
+     * The stages of an assignment.
+     */
+    public enum Stage {
+        /**
+         * Reading experiments, buckets, exclusions, priorities and pages from the metadata cache
+         */
+        METADATA,
+        /**
+         * Reading the existing assignments of the user
+         */
+        USER_ASSIGNMENTS,
+        /**
+         * Evaluating the segmentation rule
+         */
+        RULE,
+        /**
+         * Checking mutual exclusion
+         */
+        MUTEX,
+        /**
+         * Writing a new assignment, or queueing it for write-behind; includes {@link #COUNTER}
+         */
+        WRITE,
+        /**
+         * Queueing the bucket assignment count update of a new assignment
+         */
+        COUNTER,
+        /**
+         * Handing the assignment to the real time ingestion executors
+         */
+        INGESTION
+    }
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final MetricRegistry metricRegistry;
+    private final MetadataCache metadataCache;
+    private final ConcurrentMap<Application.Name, ApplicationMetrics> applications = new ConcurrentHashMap<>();
+    private final ApplicationMetrics unknownApplication = new ApplicationMetrics(UNKNOWN_APPLICATION);
+    private final ThreadLocal<Call> calls = ThreadLocal.withInitial(Call::new);
+
+    /**
+     * @param enabled        whether to record anything
+     * @param sampleRate     the share of calls whose stages are timed, from 0 to 1
+     * @param metricRegistry the registry the metrics are created in
+     * @param metadataCache  the cache the applications are looked up in
+     */
+    @Inject
+    public AssignmentStageMetrics(final @Named("assignment.stage.metrics.enabled") Boolean enabled,
+                                  final @Named("assignment.stage.metrics.sample.rate") Double sampleRate,
+                                  final MetricRegistry metricRegistry, final MetadataCache metadataCache) {
+        this.enabled = enabled && metricRegistry != null && metadataCache != null;
+        this.sampleRate = sampleRate;
+        this.metricRegistry = metricRegistry;
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * @return whether anything is recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Begins a call on the current thread. Has to be followed by {@link #end} on the same thread.
+     *
+     * @return the start of the call in nanoseconds if it is sampled and not part of an outer call, to be passed to
+     * {@link #end}
+     */
+    public long begin() {
+        if (!enabled) {
+            return NOT_SAMPLED;
+        }
+        Call call = calls.get();
+        if (call.depth++ > 0) {
+            return NOT_SAMPLED;
+        }
+        call.sampled = ThreadLocalRandom.current().nextDouble() < sampleRate;
+        return call.sampled ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    /**
+     * Ends a call begun on the current thread, timing it if it was sampled and counting its outcome.
+     *
+     * @param applicationName the application
+     * @param operation       the kind of call
+     * @param status          the outcome of a single assignment, or null
+     * @param start           the value returned by {@link #begin()}
+     */
+    public void end(Application.Name applicationName, Operation operation, Assignment.Status status, long start) {
+        if (!enabled) {
+            return;
+        }
+        Call call = calls.get();
+        if (--call.depth == 0) {
+            call.sampled = false;
+        }
+        if (applicationName == null) {
+            return;
+        }
+        if (status != null) {
+            count(applicationName, status);
+        }
+        if (start != NOT_SAMPLED) {
+            long elapsed = System.nanoTime() - start;
+            ApplicationMetrics metrics = metrics(applicationName);
+            metrics.operation(operation).update(elapsed, NANOSECONDS);
+            if (status != null) {
+                metrics.operationStatus(operation, status).update(elapsed, NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Counts the outcome of an assignment which is part of a call, like an experiment of a batch.
+     *
+     * @param applicationName the application
+     * @param status          the outcome
+     */
+    public void count(Application.Name applicationName, Assignment.Status status) {
+        if (enabled && applicationName != null && status != null) {
+            metrics(applicationName).status(status).inc();
+        }
+    }
+
+    /**
+     * Starts a stage on the current thread.
+     *
+     * @return the start of the stage in nanoseconds if the call of the current thread is sampled, to be passed to
+     * {@link #endStage}
+     */
+    public long startStage() {
+        return enabled && calls.get().sampled ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    /**
+     * Ends a stage started on the current thread, timing it if the call is sampled.
+     *
+     * @param applicationName the application
+     * @param stage           the stage
+     * @param start           the value returned by {@link #startStage()}
+     */
+    public void endStage(Application.Name applicationName, Stage stage, long start) {
+        if (start != NOT_SAMPLED && applicationName != null) {
+            metrics(applicationName).stage(stage).update(System.nanoTime() - start, NANOSECONDS);
+        }
+    }
+
+    private ApplicationMetrics metrics(Application.Name applicationName) {
+        ApplicationMetrics metrics = applications.get(applicationName);
+        if (metrics == null) {
+            Table<Experiment.ID, Experiment.Label, Experiment> experiments =
+                    metadataCache.getExperimentList(applicationName);
+            if (experiments == null || experiments.isEmpty()) {
+                return unknownApplication;
+            }
+            metrics = applications.computeIfAbsent(applicationName,
+                    name -> new ApplicationMetrics(escape(name.toString())));
+        }
+        return metrics;
+    }
+
+    /**
+     * Escapes an application name for metric names, which must not contain dollar signs, keeping distinct names
+     * distinct.
+     */
+    static String escape(String applicationName) {
+        StringBuilder escaped = new StringBuilder(applicationName.length() + 4);
+        for (int i = 0; i < applicationName.length(); i++) {
+            char c = applicationName.charAt(i);
+            if (c == '_') {
+                escaped.append("__");
+            } else if (c == '$') {
+                escaped.append("_d");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * The call running on a thread.
+     */
+    private static final class Call {
+        private int depth;
+        private boolean sampled;
+    }
+
+    /**
+     * The metrics of an application, looked up in the registry once.
+     */
+    private final class ApplicationMetrics {
+
+        private final String name;
+        private final AtomicReferenceArray<Timer> operations = new AtomicReferenceArray<>(Operation.values().length);
+        private final AtomicReferenceArray<Timer> operationStatuses =
+                new AtomicReferenceArray<>(Operation.values().length * STATUS_COUNT);
+        private final AtomicReferenceArray<Timer> stages = new AtomicReferenceArray<>(Stage.values().length);
+        private final AtomicReferenceArray<Counter> statuses =
+                new AtomicReferenceArray<>(STATUS_COUNT);
+
+        private ApplicationMetrics(String applicationName) {
+            name = MetricRegistry.name(PREFIX, applicationName);
+        }
+
+        private Timer operation(Operation operation) {
+            Timer timer = operations.get(operation.ordinal());
+            if (timer == null) {
+                timer = metricRegistry.timer(MetricRegistry.name(name, lowerCase(operation)));
+                operations.set(operation.ordinal(), timer);
+            }
+            return timer;
+        }
+
+        private Timer operationStatus(Operation operation, Assignment.Status status) {
+            int index = operation.ordinal() * STATUS_COUNT + status.ordinal();
+            Timer timer = operationStatuses.get(index);
+            if (timer == null) {
+                timer = metricRegistry.timer(MetricRegistry.name(name, lowerCase(operation), status.name()));
+                operationStatuses.set(index, timer);
+            }
+            return timer;
+        }
+
+        private Timer stage(Stage stage) {
+            Timer timer = stages.get(stage.ordinal());
+            if (timer == null) {
+                timer = metricRegistry.timer(MetricRegistry.name(name, "stage", lowerCase(stage)));
+                stages.set(stage.ordinal(), timer);
+            }
+            return timer;
+        }
+
+        private Counter status(Assignment.Status status) {
+            Counter counter = statuses.get(status.ordinal());
+            if (counter == null) {
+                counter = metricRegistry.counter(MetricRegistry.name(name, "status", status.name()));
+                statuses.set(status.ordinal(), counter);
+            }
+            return counter;
+        }
+
+        private String lowerCase(Enum<?> value) {
+            return value.name().toLowerCase(Locale.US);
+        }
+    }
+}
@@ -27,7 +27,9 @@ import com.intuit.wasabi.experimentobjects.Experiment;
 
 import javax.ws.rs.core.StreamingOutput;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Interface to support assignment requests
@@ -139,6 +141,17 @@ public interface AssignmentsRepository {
     StreamingOutput getAssignmentStream(final Experiment.ID experimentID, final Context context, Parameters parameters,
                                         final Boolean ignoreNullBucket);
 
+    /**
+     * Visit the users assigned to an experiment
+     *
+     * @param experimentID A Experiment.ID, uuid identifier for Experiment
+     * @param from         start of the assignment time window
+     * @param to           end of the assignment time window
+     * @param visitor      receives the user id and context of each assignment
+     * @return false if the assigned users of an experiment cannot be listed
+     */
+    boolean visitAssignedUsers(Experiment.ID experimentID, Date from, Date to, BiConsumer<User.ID, Context> visitor);
+
     /**
      * Push assignment to staging
      *
@@ -165,4 +178,25 @@ public interface AssignmentsRepository {
      */
     AssignmentCounts getBucketAssignmentCount(Experiment experiment);
 
+    /**
+     * Writes the bucket assignment counts not yet written, if counts are accumulated before they are written
+     */
+    void flushBucketAssignmentCounts();
+
+    /**
+     * Waits for the assignment writes and bucket assignment count updates still queued and writes the counts not yet
+     * written. Called once when the node shuts down, after the last assignment is persisted; later count updates are
+     * not written.
+     *
+     * @param timeoutMillis the maximum time to wait for the queued writes and updates
+     * @return false if queued writes or updates were still running when the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean drainWrites(long timeoutMillis) throws InterruptedException;
+
+    /**
+     * @return how many bucket assignment counts wait to be written, and how many updates were written
+     */
+    Map<String, Object> bucketAssignmentCountStatistics();
+
 }
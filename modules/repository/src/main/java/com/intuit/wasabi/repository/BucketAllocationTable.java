@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.intuit.wasabi.experimentobjects.Bucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable, precompiled form of the bucket allocations of an experiment.
+ *
+ * Open buckets are sorted by allocation percent, then label, and their allocations are accumulated once into a
+ * primitive array, so that choosing the bucket for a die roll is a binary search that neither allocates nor touches
+ * the bucket list it was built from. CLOSED and EMPTY buckets are left out: a roll that falls beyond the open
+ * allocations selects no bucket.
+ *
+ * The {@link MetadataCache} compiles the table of an experiment once per load of its buckets.
+ */
+public final class BucketAllocationTable {
+
+    private static final Comparator<Bucket> ALLOCATION_ORDER = new Comparator<Bucket>() {
+        @Override
+        public int compare(Bucket b1, Bucket b2) {
+            int result = b1.getAllocationPercent().compareTo(b2.getAllocationPercent());
+            return result != 0
+                    ? result
+                    : b1.getLabel().toString().compareTo(b2.getLabel().toString());
+        }
+    };
+
+    private final Bucket[] buckets;
+    private final double[] cumulativeAllocations;
+
+    private BucketAllocationTable(List<Bucket> source) {
+        List<Bucket> open = new ArrayList<>(source.size());
+        for (Bucket bucket : source) {
+            if (isOpen(bucket)) {
+                open.add(bucket);
+            }
+        }
+        Collections.sort(open, ALLOCATION_ORDER);
+
+        buckets = open.toArray(new Bucket[open.size()]);
+        cumulativeAllocations = new double[buckets.length];
+        double total = 0.0d;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].getAllocationPercent();
+            cumulativeAllocations[i] = total;
+        }
+    }
+
+    /**
+     * Compiles the allocation table of a bucket list. The list is not modified.
+     *
+     * @param buckets buckets of an experiment
+     * @return the allocation table
+     */
+    public static BucketAllocationTable of(List<Bucket> buckets) {
+        return new BucketAllocationTable(buckets != null ? buckets : Collections.<Bucket>emptyList());
+    }
+
+    /**
+     * @param dieRoll a value in [0, 1)
+     * @return the bucket whose cumulative allocation range contains the roll, or null if it lies beyond
+     * the allocations of all open buckets
+     */
+    public Bucket select(double dieRoll) {
+        int index = Arrays.binarySearch(cumulativeAllocations, dieRoll);
+        // an exact hit on a boundary belongs to the next bucket, as ranges are [start, end)
+        index = index >= 0 ? index + 1 : -index - 1;
+        return index < buckets.length ? buckets[index] : null;
+    }
+
+    private static boolean isOpen(Bucket bucket) {
+        return bucket.getState() != Bucket.State.CLOSED
+                && bucket.getState() != Bucket.State.EMPTY
+                && allocationOf(bucket) > 0.0d;
+    }
+
+    private static double allocationOf(Bucket bucket) {
+        return bucket.getAllocationPercent() != null ? bucket.getAllocationPercent() : 0.0d;
+    }
+}
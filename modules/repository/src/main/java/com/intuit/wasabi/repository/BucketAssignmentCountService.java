@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.slf4j.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Writes the bucket assignment counts accumulated in memory every {@code assign.bucket.count.flush.interval.ms}.
+ *
+ * The remaining counts are not written when this service is shut down, as assignments may still be persisted by
+ * then: {@code AssignmentWriteBehindService} writes them through
+ * {@link AssignmentsRepository#drainWrites} once the last assignment is persisted.
+ */
+public class BucketAssignmentCountService extends AbstractScheduledService {
+
+    private static final Logger LOGGER = getLogger(BucketAssignmentCountService.class);
+    /**
+     * Flush interval while counts are written through, when flushing has nothing to do
+     */
+    private static final long IDLE_INTERVAL_MILLIS = 60000;
+    private final AssignmentsRepository assignmentsRepository;
+    private final long flushIntervalMillis;
+
+    @Inject
+    public BucketAssignmentCountService(final AssignmentsRepository assignmentsRepository,
+                                        final @Named("assign.bucket.count.flush.interval.ms") Integer flushIntervalMillis) {
+        this.assignmentsRepository = assignmentsRepository;
+        this.flushIntervalMillis = flushIntervalMillis > 0 ? flushIntervalMillis : IDLE_INTERVAL_MILLIS;
+    }
+
+    @Override
+    protected void runOneIteration() throws Exception {
+        try {
+            assignmentsRepository.flushBucketAssignmentCounts();
+        } catch (Exception e) {
+            // A failed iteration would stop the service
+            LOGGER.error("Could not flush the bucket assignment counts", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(flushIntervalMillis, flushIntervalMillis, MILLISECONDS);
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The mutual exclusions between the live experiments of an application, precomputed for assignment.
+ *
+ * Every experiment of the graph has an index, and the exclusions of an experiment are the bitset of the
+ * indexes of the running or paused experiments it is mutually exclusive with. The experiments a user is
+ * assigned to are turned into a bitset of the same indexes once per request, so that checking an experiment
+ * for mutual exclusion is a single {@link BitSet#intersects(BitSet)}. A graph never changes; it is built again
+ * when the experiments or exclusions of its application change.
+ *
+ * @see MetadataCache#getExclusionGraph
+ */
+public final class ExclusionGraph {
+
+    private final Map<Experiment.ID, Integer> indexes;
+    private final BitSet[] exclusions;
+    private final List<List<Experiment>> exclusionExperiments;
+
+    private ExclusionGraph(Map<Experiment.ID, Integer> indexes, BitSet[] exclusions,
+                           List<List<Experiment>> exclusionExperiments) {
+        this.indexes = indexes;
+        this.exclusions = exclusions;
+        this.exclusionExperiments = exclusionExperiments;
+    }
+
+    /**
+     * Builds the graph of an application.
+     *
+     * @param experiments the live experiments of the application
+     * @param exclusives  the mutually exclusive experiment IDs of the experiments; exclusions of experiments
+     *                    not among {@code experiments} are ignored
+     * @return the graph
+     */
+    public static ExclusionGraph build(Collection<Experiment> experiments,
+                                       Map<Experiment.ID, List<Experiment.ID>> exclusives) {
+        Map<Experiment.ID, Integer> indexes = new HashMap<>(experiments.size() * 2);
+        List<Experiment> byIndex = new ArrayList<>(experiments.size());
+        BitSet active = new BitSet(experiments.size());
+        for (Experiment experiment : experiments) {
+            if (indexes.containsKey(experiment.getID())) {
+                continue;
+            }
+            int index = byIndex.size();
+            indexes.put(experiment.getID(), index);
+            byIndex.add(experiment);
+            if (experiment.getState() == Experiment.State.RUNNING
+                    || experiment.getState() == Experiment.State.PAUSED) {
+                active.set(index);
+            }
+        }
+
+        BitSet[] exclusions = new BitSet[byIndex.size()];
+        List<List<Experiment>> exclusionExperiments = new ArrayList<>(byIndex.size());
+        for (int index = 0; index < byIndex.size(); index++) {
+            List<Experiment.ID> exclusiveIDs = exclusives != null ? exclusives.get(byIndex.get(index).getID()) : null;
+            BitSet bits = new BitSet(byIndex.size());
+            if (exclusiveIDs != null) {
+                for (Experiment.ID exclusiveID : exclusiveIDs) {
+                    Integer exclusiveIndex = indexes.get(exclusiveID);
+                    if (exclusiveIndex != null) {
+                        bits.set(exclusiveIndex);
+                    }
+                }
+            }
+            bits.and(active);
+            exclusions[index] = bits;
+
+            List<Experiment> activeExclusions = new ArrayList<>(bits.cardinality());
+            for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                activeExclusions.add(byIndex.get(bit));
+            }
+            exclusionExperiments.add(Collections.unmodifiableList(activeExclusions));
+        }
+        return new ExclusionGraph(indexes, exclusions, exclusionExperiments);
+    }
+
+    /**
+     * @param experimentID the experiment
+     * @return whether the experiment is part of the graph
+     */
+    public boolean contains(Experiment.ID experimentID) {
+        return indexes.containsKey(experimentID);
+    }
+
+    /**
+     * @param experimentID the experiment, which must be part of the graph
+     * @return the running or paused experiments mutually exclusive with the experiment
+     */
+    public List<Experiment> getExclusions(Experiment.ID experimentID) {
+        return exclusionExperiments.get(indexOf(experimentID));
+    }
+
+    /**
+     * @param experimentIDs the experiments a user is assigned to
+     * @return the bitset of the experiments that are part of the graph
+     */
+    public BitSet toBitSet(Iterable<Experiment.ID> experimentIDs) {
+        BitSet assigned = new BitSet(indexes.size());
+        for (Experiment.ID experimentID : experimentIDs) {
+            add(assigned, experimentID);
+        }
+        return assigned;
+    }
+
+    /**
+     * Adds an assignment to a bitset made by {@link #toBitSet(Iterable)}.
+     *
+     * @param assigned     the experiments a user is assigned to
+     * @param experimentID the experiment the user was assigned to, ignored if it is not part of the graph
+     */
+    public void add(BitSet assigned, Experiment.ID experimentID) {
+        Integer index = indexes.get(experimentID);
+        if (index != null) {
+            assigned.set(index);
+        }
+    }
+
+    /**
+     * @param experimentID the experiment, which must be part of the graph
+     * @param assigned     the experiments a user is assigned to, made by {@link #toBitSet(Iterable)}
+     * @return whether the user is assigned to a running or paused experiment mutually exclusive with the experiment
+     */
+    public boolean isExcluded(Experiment.ID experimentID, BitSet assigned) {
+        return exclusions[indexOf(experimentID)].intersects(assigned);
+    }
+
+    /**
+     * @return the number of experiments of the graph
+     */
+    public int size() {
+        return exclusions.length;
+    }
+
+    private int indexOf(Experiment.ID experimentID) {
+        Integer index = indexes.get(experimentID);
+        if (index == null) {
+            throw new IllegalArgumentException("Experiment " + experimentID + " is not part of the exclusion graph");
+        }
+        return index;
+    }
+}
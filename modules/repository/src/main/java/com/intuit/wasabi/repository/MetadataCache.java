@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.google.common.collect.Table;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node-local, read-through cache of the experiment metadata read on the assignment path: experiments,
+ * label to ID mappings, bucket lists, exclusions and the exclusion graphs built from them.
+ *
+ * Entries expire after a bounded staleness window so that changes made on other nodes are picked up;
+ * changes made on this node must be announced through the {@code invalidate*} methods.
+ *
+ * @see ExperimentRepository
+ * @see MutexRepository
+ */
+public interface MetadataCache {
+
+    /**
+     * Retrieve the specified experiment
+     *
+     * @param experimentID ID of the experiment
+     * @return experiment object, or null if not found
+     */
+    Experiment getExperiment(Experiment.ID experimentID);
+
+    /**
+     * Retrieve the specified experiment using its label
+     *
+     * @param appName         name of the application
+     * @param experimentLabel label of the experiment
+     * @return experiment object, or null if not found
+     */
+    Experiment getExperiment(Application.Name appName, Experiment.Label experimentLabel);
+
+    /**
+     * Get the live (not terminated or deleted) experiments for an application
+     *
+     * @param appName application name
+     * @return a table of experiment id, experiment label and the experiment objects
+     */
+    Table<Experiment.ID, Experiment.Label, Experiment> getExperimentList(Application.Name appName);
+
+    /**
+     * Get the buckets of an experiment. The returned list is a copy and may be modified by the caller.
+     *
+     * @param experimentID experiment id
+     * @return the buckets of the experiment, empty if it has none
+     */
+    BucketList getBucketList(Experiment.ID experimentID);
+
+    /**
+     * Get the buckets of several experiments, loading all misses in a single repository call.
+     *
+     * @param experimentIDs collection of experiment ids
+     * @return map of experiment id to a copy of its buckets
+     */
+    Map<Experiment.ID, BucketList> getBucketList(Collection<Experiment.ID> experimentIDs);
+
+    /**
+     * Get the compiled allocations of the buckets of an experiment, which are compiled once per load of the buckets.
+     *
+     * @param experimentID experiment id
+     * @return the allocation table of the buckets returned by {@link #getBucketList(Experiment.ID)}
+     */
+    BucketAllocationTable getBucketAllocationTable(Experiment.ID experimentID);
+
+    /**
+     * Get the IDs of the experiments mutually exclusive to the given experiment
+     *
+     * @param experimentID experiment id
+     * @return list of mutually exclusive experiment ids
+     */
+    List<Experiment.ID> getExclusionList(Experiment.ID experimentID);
+
+    /**
+     * Get the mutually exclusive experiment IDs of several experiments, loading all misses in a single
+     * repository call.
+     *
+     * @param experimentIDs collection of experiment ids
+     * @return map of experiment id to its mutually exclusive experiment ids
+     */
+    Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Collection<Experiment.ID> experimentIDs);
+
+    /**
+     * Get the mutual exclusions between the live experiments of an application. The graph is built from
+     * {@link #getExperimentList} and {@link #getExclusivesList} and dropped whenever either is invalidated.
+     *
+     * @param appName application name
+     * @return the exclusion graph of the application
+     */
+    ExclusionGraph getExclusionGraph(Application.Name appName);
+
+    /**
+     * Drop everything cached about an experiment: the experiment itself, its label mapping and the
+     * experiment list of its application.
+     *
+     * @param experiment the changed experiment
+     */
+    void invalidateExperiment(Experiment experiment);
+
+    /**
+     * Drop the cached experiment list, label mappings and exclusion graph of an application
+     *
+     * @param appName application name
+     */
+    void invalidateApplication(Application.Name appName);
+
+    /**
+     * Drop the cached buckets of an experiment
+     *
+     * @param experimentID experiment id
+     */
+    void invalidateBuckets(Experiment.ID experimentID);
+
+    /**
+     * Drop the cached exclusions of the given experiments, and all exclusion graphs
+     *
+     * @param experimentIDs experiment ids
+     */
+    void invalidateExclusions(Experiment.ID... experimentIDs);
+
+    /**
+     * Drop all cached metadata
+     */
+    void invalidateAll();
+}
@@ -16,6 +16,7 @@
 package com.intuit.wasabi.repository;
 
 import com.google.inject.AbstractModule;
+import com.intuit.wasabi.assignmentobjects.RuleCache;
 import com.intuit.wasabi.repository.impl.cassandra.*;
 import com.intuit.wasabi.repository.impl.database.DatabaseAnalytics;
 import com.intuit.wasabi.repository.impl.database.DatabaseAnalyticsModule;
@@ -27,6 +28,7 @@ import static com.google.inject.Scopes.SINGLETON;
 import static com.google.inject.name.Names.named;
 import static com.intuit.autumn.utils.PropertyFactory.create;
 import static com.intuit.autumn.utils.PropertyFactory.getProperty;
+import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static java.lang.Integer.parseInt;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -56,12 +58,45 @@ public class RepositoryModule extends AbstractModule {
                 .toInstance(getProperty("assign.bucket.count", properties));
         bind(Integer.class).annotatedWith(named("export.pool.size"))
                 .toInstance(parseInt(getProperty("export.pool.size", properties, "5")));
+        bind(Integer.class).annotatedWith(named("export.queue.capacity"))
+                .toInstance(parseInt(getProperty("export.queue.capacity", properties, "10000")));
+        bind(String.class).annotatedWith(named("export.overflow.policy"))
+                .toInstance(getProperty("export.overflow.policy", properties, "block"));
+        bind(Integer.class).annotatedWith(named("export.overflow.timeout.ms"))
+                .toInstance(parseInt(getProperty("export.overflow.timeout.ms", properties, "100")));
         bind(Boolean.class).annotatedWith(named("assign.user.to.old"))
                 .toInstance(Boolean.valueOf(getProperty("assign.user.to.old", properties, TRUE.toString())));
         bind(Boolean.class).annotatedWith(named("assign.user.to.new"))
                 .toInstance(Boolean.valueOf(getProperty("assign.user.to.new", properties, TRUE.toString())));
+        bind(Boolean.class).annotatedWith(named("assign.user.parallel.writes"))
+                .toInstance(Boolean.valueOf(getProperty("assign.user.parallel.writes", properties, FALSE.toString())));
+        bind(Integer.class).annotatedWith(named("assign.user.write.pool.size"))
+                .toInstance(parseInt(getProperty("assign.user.write.pool.size", properties, "20")));
+        bind(Integer.class).annotatedWith(named("assign.user.write.retries"))
+                .toInstance(parseInt(getProperty("assign.user.write.retries", properties, "1")));
+        bind(Integer.class).annotatedWith(named("assign.bucket.count.flush.interval.ms"))
+                .toInstance(parseInt(getProperty("assign.bucket.count.flush.interval.ms", properties, "1000")));
+        bind(Integer.class).annotatedWith(named("rapid.experiment.reconcile.interval.ms"))
+                .toInstance(parseInt(getProperty("rapid.experiment.reconcile.interval.ms", properties, "5000")));
+        bind(Integer.class).annotatedWith(named("rapid.experiment.max.overshoot"))
+                .toInstance(parseInt(getProperty("rapid.experiment.max.overshoot", properties, "50")));
+        bind(Integer.class).annotatedWith(named("priorities.cache.refresh.ms"))
+                .toInstance(parseInt(getProperty("priorities.cache.refresh.ms", properties, "5000")));
+        bind(Integer.class).annotatedWith(named("pages.cache.refresh.ms"))
+                .toInstance(parseInt(getProperty("pages.cache.refresh.ms", properties, "5000")));
         bind(String.class).annotatedWith(named("default.time.format"))
                 .toInstance(getProperty("default.time.format", properties, "yyyy-MM-dd HH:mm:ss"));
+        bind(Boolean.class).annotatedWith(named("metadata.cache.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("metadata.cache.enabled", properties, TRUE.toString())));
+        bind(Integer.class).annotatedWith(named("metadata.cache.ttl.seconds"))
+                .toInstance(parseInt(getProperty("metadata.cache.ttl.seconds", properties, "30")));
+        bind(Integer.class).annotatedWith(named("metadata.cache.max.size"))
+                .toInstance(parseInt(getProperty("metadata.cache.max.size", properties, "10000")));
+        bind(Boolean.class).annotatedWith(named("assignment.stage.metrics.enabled"))
+                .toInstance(Boolean.valueOf(getProperty("assignment.stage.metrics.enabled", properties,
+                        TRUE.toString())));
+        bind(Double.class).annotatedWith(named("assignment.stage.metrics.sample.rate"))
+                .toInstance(Double.valueOf(getProperty("assignment.stage.metrics.sample.rate", properties, "0.01")));
         bind(AnalyticsRepository.class).to(DatabaseAnalytics.class).in(SINGLETON);
         bind(AssignmentsRepository.class).to(CassandraAssignmentsRepository.class).in(SINGLETON);
         bind(MutexRepository.class).to(CassandraMutexRepository.class).in(SINGLETON);
@@ -70,6 +105,9 @@ public class RepositoryModule extends AbstractModule {
         bind(AuthorizationRepository.class).to(CassandraAuthorizationRepository.class).in(SINGLETON);
         bind(FeedbackRepository.class).to(CassandraFeedbackRepository.class).in(SINGLETON);
         bind(AuditLogRepository.class).to(CassandraAuditLogRepository.class).in(SINGLETON);
+        bind(MetadataCache.class).to(DefaultMetadataCache.class).in(SINGLETON);
+        bind(RuleCache.class).in(SINGLETON);
+        bind(AssignmentStageMetrics.class).in(SINGLETON);
 
         LOGGER.debug("installed module: {}", RepositoryModule.class.getSimpleName());
     }
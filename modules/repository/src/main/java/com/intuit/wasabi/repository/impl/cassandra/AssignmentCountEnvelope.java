@@ -17,7 +17,6 @@ package com.intuit.wasabi.repository.impl.cassandra;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import com.intuit.wasabi.analyticsobjects.counts.AssignmentCounts;
 import com.intuit.wasabi.assignmentobjects.Assignment;
 import com.intuit.wasabi.eventlog.EventLog;
 import com.intuit.wasabi.eventlog.events.ExperimentChangeEvent;
@@ -48,6 +47,7 @@ public class AssignmentCountEnvelope implements Runnable {
     private Date date;
     private boolean assignUserToExport;
     private boolean assignBucketCount;
+    private RapidExperimentUserCap rapidExperimentUserCap;
 
     /**
      * Constructor
@@ -62,6 +62,7 @@ public class AssignmentCountEnvelope implements Runnable {
      * @param date                          date
      * @param assignUserToExport            assignUserToExport
      * @param assignBucketCount             assignBucketCount
+     * @param rapidExperimentUserCap        user cap check of rapid experiments
      */
     @Inject
     public AssignmentCountEnvelope(AssignmentsRepository assignmentsRepository,
@@ -69,7 +70,8 @@ public class AssignmentCountEnvelope implements Runnable {
                                    ExperimentRepository dbExperimentRepository,
                                    Experiment experiment, Assignment assignment, boolean countUp, EventLog eventLog,
                                    Date date, final @Named("assign.user.to.export") Boolean assignUserToExport,
-                                   final @Named("assign.bucket.count") Boolean assignBucketCount) {
+                                   final @Named("assign.bucket.count") Boolean assignBucketCount,
+                                   RapidExperimentUserCap rapidExperimentUserCap) {
         super();
 
         this.assignmentsRepository = assignmentsRepository;
@@ -82,6 +84,7 @@ public class AssignmentCountEnvelope implements Runnable {
         this.date = date;
         this.assignUserToExport = assignUserToExport;
         this.assignBucketCount = assignBucketCount;
+        this.rapidExperimentUserCap = rapidExperimentUserCap;
     }
 
     @Override
@@ -108,12 +111,10 @@ public class AssignmentCountEnvelope implements Runnable {
         }
 
 
-        // For rapid experiments; checks if a set userCap is attained.
+        // For rapid experiments; checks if a set userCap is attained, as estimated on this node.
         // If so, changes the state of the experiment to PAUSED.
         if (experiment.getIsRapidExperiment()) {
-            Integer userCap = experiment.getUserCap();
-            AssignmentCounts assignmentCounts = assignmentsRepository.getBucketAssignmentCount(experiment);
-            if (assignmentCounts.getTotalUsers().getBucketAssignments() >= userCap) {
+            if (rapidExperimentUserCap.countAndCheck(experiment, countUp ? 1 : -1)) {
                 boolean successUpdateCassandra = false;
                 //updating the state in Cassandra
                 try {
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Node-local bucket assignment counts not yet written to the repository.
+ *
+ * Assignments add to a striped counter per (experiment, bucket), which does not contend between threads. A flush
+ * writes the delta accumulated per bucket in one counter update and only then subtracts what it wrote, so
+ * assignments counted during a flush and deltas that failed to write are kept for the next flush. There is one
+ * counter per bucket ever assigned on this node.
+ */
+class BucketAssignmentCounter {
+
+    private static final Logger LOGGER = getLogger(BucketAssignmentCounter.class);
+    private final ConcurrentMap<Key, LongAdder> deltas = new ConcurrentHashMap<>();
+    private final AtomicLong flushedUpdates = new AtomicLong();
+    private final AtomicLong failedUpdates = new AtomicLong();
+
+    /**
+     * Writes the delta of one bucket.
+     */
+    interface DeltaWriter {
+
+        /**
+         * @param experimentID the experiment
+         * @param bucketLabel  the bucket
+         * @param delta        the change of the count, never zero
+         */
+        void write(Experiment.ID experimentID, Bucket.Label bucketLabel, long delta);
+    }
+
+    /**
+     * @param experimentID the experiment
+     * @param bucketLabel  the bucket
+     * @param delta        the change of the count
+     */
+    void add(Experiment.ID experimentID, Bucket.Label bucketLabel, long delta) {
+        deltas.computeIfAbsent(new Key(experimentID, bucketLabel), key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Writes the accumulated deltas, one update per bucket. A delta that fails to write is kept and the flush
+     * goes on with the other buckets.
+     *
+     * @param writer writes the delta of one bucket
+     * @return the number of buckets written
+     */
+    synchronized int flush(DeltaWriter writer) {
+        int written = 0;
+        for (Map.Entry<Key, LongAdder> entry : deltas.entrySet()) {
+            LongAdder adder = entry.getValue();
+            long delta = adder.sum();
+            if (delta == 0) {
+                // Counters are never removed, an assignment may be adding to it right now
+                continue;
+            }
+            Key key = entry.getKey();
+            try {
+                writer.write(key.experimentID, key.bucketLabel, delta);
+                adder.add(-delta);
+                written++;
+            } catch (RuntimeException e) {
+                failedUpdates.incrementAndGet();
+                LOGGER.warn("Could not flush {} assignments of experiment {} bucket {}, keeping them for the next " +
+                        "flush", delta, key.experimentID, key.bucketLabel, e);
+            }
+        }
+        flushedUpdates.addAndGet(written);
+        return written;
+    }
+
+    /**
+     * @return the sum of the absolute deltas not yet written
+     */
+    long getPending() {
+        long pending = 0;
+        for (LongAdder adder : deltas.values()) {
+            pending += Math.abs(adder.sum());
+        }
+        return pending;
+    }
+
+    /**
+     * @param experimentID the experiment
+     * @return the change of the assignment count of an experiment not yet written
+     */
+    long getPending(Experiment.ID experimentID) {
+        long pending = 0;
+        for (Map.Entry<Key, LongAdder> entry : deltas.entrySet()) {
+            if (entry.getKey().experimentID.equals(experimentID)) {
+                pending += entry.getValue().sum();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of counter updates written so far
+     */
+    long getFlushedUpdates() {
+        return flushedUpdates.get();
+    }
+
+    /**
+     * @return the number of counter updates that failed so far
+     */
+    long getFailedUpdates() {
+        return failedUpdates.get();
+    }
+
+    private static final class Key {
+
+        private final Experiment.ID experimentID;
+        private final Bucket.Label bucketLabel;
+
+        Key(Experiment.ID experimentID, Bucket.Label bucketLabel) {
+            this.experimentID = experimentID;
+            this.bucketLabel = bucketLabel;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return experimentID.equals(other.experimentID) && bucketLabel.equals(other.bucketLabel);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * experimentID.hashCode() + bucketLabel.hashCode();
+        }
+    }
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.intuit.wasabi.repository.impl.cassandra;
 
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashBasedTable;
@@ -41,6 +42,7 @@ import com.intuit.wasabi.repository.impl.cassandra.serializer.ApplicationNameSer
 import com.intuit.wasabi.repository.impl.cassandra.serializer.BucketLabelSerializer;
 import com.intuit.wasabi.repository.impl.cassandra.serializer.ExperimentIDSerializer;
 import com.intuit.wasabi.repository.impl.cassandra.serializer.UserIDSerializer;
+import com.intuit.wasabi.util.BoundedExecutor;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.Rows;
@@ -62,10 +64,14 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
@@ -84,11 +90,15 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
     private final Boolean assignUserToExport;
     private final Boolean assignBucketCount;
     private final String defaultTimeFormat;
-    private LinkedBlockingQueue assignmentsCountQueue = new LinkedBlockingQueue<>();
     private int assignmentsCountThreadPoolSize;
-    private ThreadPoolExecutor assignmentsCountExecutor;
+    private BoundedExecutor assignmentsCountExecutor;
     private boolean assignUserToOld;
     private boolean assignUserToNew;
+    private final int assignUserWriteRetries;
+    private BoundedExecutor assignUserWriteExecutor;
+    private final BucketAssignmentCounter bucketAssignmentCounter;
+    private final RapidExperimentUserCap rapidExperimentUserCap;
+    private AssignmentStageMetrics stageMetrics = AssignmentStageMetrics.DISABLED;
     private static final Logger LOGGER = getLogger(CassandraAssignmentsRepository.class);
 
     @Inject
@@ -101,7 +111,16 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
                                           final @Named("assign.user.to.new") Boolean assignUserToNew,
                                           final @Named("assign.user.to.export") Boolean assignUserToExport,
                                           final @Named("assign.bucket.count") Boolean assignBucketCount,
-                                          final @Named("default.time.format") String defaultTimeFormat)
+                                          final @Named("default.time.format") String defaultTimeFormat,
+                                          final @Named("assign.user.parallel.writes") Boolean assignUserParallelWrites,
+                                          final @Named("assign.user.write.pool.size") Integer assignUserWritePoolSize,
+                                          final @Named("assign.user.write.retries") Integer assignUserWriteRetries,
+                                          final @Named("assign.bucket.count.flush.interval.ms") Integer bucketCountFlushIntervalMillis,
+                                          final @Named("rapid.experiment.reconcile.interval.ms") Integer rapidExperimentReconcileIntervalMillis,
+                                          final @Named("rapid.experiment.max.overshoot") Integer rapidExperimentMaxOvershoot,
+                                          final @Named("export.queue.capacity") Integer assignmentsCountQueueCapacity,
+                                          final @Named("export.overflow.policy") String assignmentsCountOverflowPolicy,
+                                          final @Named("export.overflow.timeout.ms") Integer assignmentsCountOverflowTimeoutMillis)
             throws IOException, ConnectionException {
         super();
 
@@ -117,9 +136,48 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
         this.assignUserToExport = assignUserToExport;
         this.assignBucketCount = assignBucketCount;
         this.defaultTimeFormat = defaultTimeFormat;
+        this.assignUserWriteRetries = assignUserWriteRetries;
+        this.bucketAssignmentCounter = bucketCountFlushIntervalMillis > 0 ? new BucketAssignmentCounter() : null;
+        this.rapidExperimentUserCap = new RapidExperimentUserCap(rapidExperimentReconcileIntervalMillis,
+                rapidExperimentMaxOvershoot, this::getAssignedUsers);
+
+        assignmentsCountExecutor = new BoundedExecutor("assignments-count", assignmentsCountThreadPoolSize,
+                assignmentsCountThreadPoolSize, assignmentsCountQueueCapacity,
+                BoundedExecutor.OverflowPolicy.parse(assignmentsCountOverflowPolicy),
+                assignmentsCountOverflowTimeoutMillis);
+
+        if (assignUserParallelWrites) {
+            // A full queue makes the calling thread perform the write itself, so a slow cluster slows down
+            // assignments instead of piling up writes in memory
+            assignUserWriteExecutor = new BoundedExecutor("assign-user-write", assignUserWritePoolSize,
+                    assignUserWritePoolSize, assignUserWritePoolSize * 10,
+                    BoundedExecutor.OverflowPolicy.CALLER_RUNS, 0);
+        }
+    }
+
+    /**
+     * Reports the executor metrics. Called by Guice.
+     *
+     * @param metricRegistry the metric registry
+     */
+    @Inject
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(CassandraAssignmentsRepository.class, "assignmentsCount"),
+                assignmentsCountExecutor);
+        if (assignUserWriteExecutor != null) {
+            metricRegistry.register(MetricRegistry.name(CassandraAssignmentsRepository.class, "assignUserWrites"),
+                    assignUserWriteExecutor);
+        }
+    }
 
-        assignmentsCountExecutor = (ThreadPoolExecutor) new ThreadPoolExecutor(assignmentsCountThreadPoolSize,
-                assignmentsCountThreadPoolSize, 0L, MILLISECONDS, assignmentsCountQueue);
+    /**
+     * Sets the metrics the bucket assignment count update of new assignments is timed in. Called by Guice.
+     *
+     * @param stageMetrics the assignment stage metrics
+     */
+    @Inject
+    void setStageMetrics(AssignmentStageMetrics stageMetrics) {
+        this.stageMetrics = stageMetrics;
     }
 
     @Override
@@ -171,6 +229,13 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
      * method should only be used for cases where a user has been pre-assigned
      * to a bucket.
      *
+     * The assignment and index writes are independent of each other. With
+     * {@code assign.user.parallel.writes} they are issued concurrently and this
+     * method waits once for all of them; otherwise they are issued one after
+     * another. Either way every write is retried up to
+     * {@code assign.user.write.retries} times, and a failure of any write fails
+     * the assignment.
+     *
      * @param assignment The assignment specification
      * @param experiment the experiment object
      * @param date       date
@@ -178,31 +243,123 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
     @Override
     @Timed
     public Assignment assignUser(Assignment assignment, Experiment experiment, Date date) {
-        Assignment new_assignment = null;
+        List<Callable<Assignment>> writes = new ArrayList<>(5);
 
         if (assignUserToOld) {
             //Writing assignment to the old table - user_assignment
-            new_assignment = assignUserToOld(assignment, date);
+            writes.add(() -> assignUserToOld(assignment, date));
         }
         if (assignUserToNew) {
             //Writing assignment to the new table - user_assignment_look_up
-            new_assignment = assignUserToLookUp(assignment, date);
+            writes.add(() -> assignUserToLookUp(assignment, date));
         }
+        writes.add(() -> {
+            indexUserToExperiment(assignment);
+            return null;
+        });
+        writes.add(() -> {
+            indexUserToBucket(assignment);
+            return null;
+        });
+        writes.add(() -> {
+            indexExperimentsToUser(assignment);
+            return null;
+        });
 
         //Updating the assignment bucket counts, user_assignment_export
         // in a asynchronous AssignmentCountEnvelope thread
         boolean countUp = true;
 
+        long stage = stageMetrics.startStage();
         assignmentsCountExecutor.execute(new AssignmentCountEnvelope(assignmentsRepository, experimentRepository,
-                dbRepository, experiment, assignment, countUp, eventLog, date, assignUserToExport, assignBucketCount));
-
-        indexUserToExperiment(assignment);
-        indexUserToBucket(assignment);
-        indexExperimentsToUser(assignment);
+                dbRepository, experiment, assignment, countUp, eventLog, date, assignUserToExport, assignBucketCount,
+                rapidExperimentUserCap));
+        stageMetrics.endStage(experiment != null ? experiment.getApplicationName() : null,
+                AssignmentStageMetrics.Stage.COUNTER, stage);
 
+        // The look up table write, if any, determines the returned assignment
+        Assignment new_assignment = null;
+        for (Assignment written : executeWrites(writes, assignment)) {
+            if (written != null) {
+                new_assignment = written;
+            }
+        }
         return new_assignment;
     }
 
+    /**
+     * Executes the writes of an assignment, concurrently if a write executor is configured and not shut down yet.
+     *
+     * All writes are attempted even if some of them fail. The first failure is rethrown
+     * with the other failures attached as suppressed exceptions.
+     *
+     * @param writes     the writes to execute
+     * @param assignment the assignment being written, for error messages
+     * @return the results of the writes, in the order of the writes
+     */
+    private List<Assignment> executeWrites(List<Callable<Assignment>> writes, Assignment assignment) {
+        List<Assignment> results = new ArrayList<>(writes.size());
+        RepositoryException failure = null;
+
+        if (assignUserWriteExecutor == null || assignUserWriteExecutor.isShutdown()) {
+            for (Callable<Assignment> write : writes) {
+                try {
+                    results.add(executeWithRetries(write));
+                } catch (RepositoryException e) {
+                    failure = addFailure(failure, e, assignment);
+                }
+            }
+        } else {
+            List<Future<Assignment>> futures = new ArrayList<>(writes.size());
+            for (Callable<Assignment> write : writes) {
+                futures.add(assignUserWriteExecutor.submit(() -> executeWithRetries(write)));
+            }
+            for (Future<Assignment> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    failure = addFailure(failure, e.getCause(), assignment);
+                } catch (CancellationException e) {
+                    // Dropped by a concurrent shutdown of the executor
+                    failure = addFailure(failure, e, assignment);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = addFailure(failure, e, assignment);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private RepositoryException addFailure(RepositoryException failure, Throwable cause, Assignment assignment) {
+        if (failure == null) {
+            return cause instanceof RepositoryException
+                    ? (RepositoryException) cause
+                    : new RepositoryException("Could not save user assignment \"" + assignment + "\"", cause);
+        }
+        failure.addSuppressed(cause);
+        return failure;
+    }
+
+    private Assignment executeWithRetries(Callable<Assignment> write) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return write.call();
+            } catch (RepositoryException e) {
+                if (attempt >= assignUserWriteRetries) {
+                    throw e;
+                }
+                LOGGER.warn("Retrying assignment write after failure", e);
+            } catch (Exception e) {
+                throw new RepositoryException("Could not save user assignment", e);
+            }
+        }
+    }
+
     /**
      * Adds an assignment associated with a new user
      *
@@ -670,7 +827,7 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
         boolean countUp = false;
         assignmentsCountExecutor.execute(new AssignmentCountEnvelope(assignmentsRepository, experimentRepository,
                 dbRepository, experiment, currentAssignment, countUp, eventLog, null, assignUserToExport,
-                assignBucketCount));
+                assignBucketCount, rapidExperimentUserCap));
         deleteAssignmentOld(experiment.getID(), userID, context, appName, currentAssignment.getBucketLabel());
         removeIndexUserToExperiment(userID, experiment.getID(), context, appName);
         removeIndexUserToBucket(userID, experiment.getID(), context, currentAssignment.getBucketLabel());
@@ -862,6 +1019,50 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
     }
 
 
+    /**
+     * Visits the users assigned to an experiment in the given time window, as recorded in user_assignment_export.
+     *
+     * @param experimentID the experiment
+     * @param from         start of the window
+     * @param to           end of the window
+     * @param visitor      receives the user id and context of every assignment
+     * @return false if assignments are not exported, so the assigned users are unknown
+     */
+    @Override
+    public boolean visitAssignedUsers(Experiment.ID experimentID, Date from, Date to,
+                                      BiConsumer<User.ID, Context> visitor) {
+        if (!assignUserToExport) {
+            return false;
+        }
+
+        final String CQL = "select user_id, context from user_assignment_export " +
+                "where experiment_id = ? and day_hour = ?";
+        try {
+            for (DateHour dateHour : getUserAssignmentPartitions(from, to)) {
+                Rows<ExperimentsKeyspace.ExperimentIDDayHourComposite, String> rows =
+                        driver.getKeyspace()
+                                .prepareQuery(keyspace.userAssignmentExport())
+                                .withCql(CQL)
+                                .asPreparedStatement()
+                                .withByteBufferValue(experimentID, ExperimentIDSerializer.get())
+                                .withByteBufferValue(dateHour.getDayHour(), DateSerializer.get())
+                                .execute()
+                                .getResult()
+                                .getRows();
+
+                for (int index = 0; index < rows.size(); index++) {
+                    ColumnList<String> columns = rows.getRowByIndex(index).getColumns();
+                    visitor.accept(User.ID.valueOf(columns.getStringValue("user_id", null)),
+                            Context.valueOf(columns.getStringValue("context", null)));
+                }
+            }
+        } catch (ConnectionException e) {
+            throw new RepositoryException("Could not retrieve the assigned users of experiment \"" +
+                    experimentID + "\"", e);
+        }
+        return true;
+    }
+
     /**
      * Removes the referenced pair from the experiment_user_index.
      *
@@ -941,7 +1142,8 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
     }
 
     /**
-     * Updates the assignment count of an experiment on a per bucket basis
+     * Updates the assignment count of an experiment on a per bucket basis. With a bucket count flush interval,
+     * the change is only counted in memory and written by the next {@link #flushBucketAssignmentCounts()}.
      *
      * @param experiment Experiment
      * @param assignment Assignment
@@ -954,6 +1156,10 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
         Bucket.Label bucketLabel1 = null;
         String CQL;
         bucketLabel1 = (bucketLabel == null) ? Bucket.Label.valueOf("NULL") : bucketLabel;
+        if (bucketAssignmentCounter != null) {
+            bucketAssignmentCounter.add(experiment.getID(), bucketLabel1, countUp ? 1 : -1);
+            return;
+        }
         if (countUp) {
             CQL = "UPDATE bucket_assignment_counts SET bucket_assignment_count = bucket_assignment_count + 1 " +
                     "WHERE experiment_id =? and bucket_label = ?";
@@ -975,6 +1181,87 @@ public class CassandraAssignmentsRepository implements AssignmentsRepository {
         }
     }
 
+    /**
+     * Writes the bucket assignment counts accumulated in memory, one counter update per bucket.
+     */
+    @Override
+    @Timed
+    public void flushBucketAssignmentCounts() {
+        if (bucketAssignmentCounter != null) {
+            bucketAssignmentCounter.flush(this::writeBucketAssignmentCount);
+        }
+    }
+
+    /**
+     * Shuts the write pool and the count update pool down, waits for the writes and updates they still run or
+     * queue, then writes the counts accumulated in memory. Later assignments are written in the calling thread.
+     */
+    @Override
+    public boolean drainWrites(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(timeoutMillis);
+        boolean drained = true;
+        if (assignUserWriteExecutor != null) {
+            assignUserWriteExecutor.shutdown();
+            drained = assignUserWriteExecutor.awaitTermination(timeoutMillis, MILLISECONDS);
+            if (!drained) {
+                LOGGER.error("{} assignment writes were not done before shutdown",
+                        assignUserWriteExecutor.getQueueDepth());
+            }
+        }
+        assignmentsCountExecutor.shutdown();
+        if (!assignmentsCountExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), NANOSECONDS)) {
+            drained = false;
+            LOGGER.error("{} bucket assignment count updates were not written before shutdown",
+                    assignmentsCountExecutor.getQueueDepth());
+        }
+        flushBucketAssignmentCounts();
+        return drained;
+    }
+
+    /**
+     * @return the bucket assignment counts not yet written and the counter updates written so far
+     */
+    @Override
+    public Map<String, Object> bucketAssignmentCountStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("aggregated", bucketAssignmentCounter != null);
+        if (bucketAssignmentCounter != null) {
+            statistics.put("pendingAssignments", bucketAssignmentCounter.getPending());
+            statistics.put("flushedUpdates", bucketAssignmentCounter.getFlushedUpdates());
+            statistics.put("failedUpdates", bucketAssignmentCounter.getFailedUpdates());
+        }
+        statistics.put("rapidExperiments", rapidExperimentUserCap.getExperiments());
+        statistics.put("rapidExperimentReconciliations", rapidExperimentUserCap.getReconciliations());
+        return statistics;
+    }
+
+    /**
+     * @return the users assigned to an experiment, including the ones counted on this node but not yet written
+     */
+    private long getAssignedUsers(Experiment experiment) {
+        // Pending counts are read first: a flush in between counts its delta twice rather than not at all
+        long pending = bucketAssignmentCounter == null ? 0 : bucketAssignmentCounter.getPending(experiment.getID());
+        return getBucketAssignmentCount(experiment).getTotalUsers().getBucketAssignments() + pending;
+    }
+
+    void writeBucketAssignmentCount(Experiment.ID experimentID, Bucket.Label bucketLabel, long delta) {
+        final String CQL = "UPDATE bucket_assignment_counts SET bucket_assignment_count = bucket_assignment_count + ? " +
+                "WHERE experiment_id =? and bucket_label = ?";
+        try {
+            driver.getKeyspace()
+                    .prepareQuery(keyspace.bucketAssignmentCountsCF())
+                    .withCql(CQL)
+                    .asPreparedStatement()
+                    .withLongValue(delta)
+                    .withByteBufferValue(experimentID, ExperimentIDSerializer.get())
+                    .withByteBufferValue(bucketLabel, BucketLabelSerializer.get())
+                    .execute();
+        } catch (ConnectionException e) {
+            throw new RepositoryException("Could not update the bucket count for experiment " + experimentID
+                    + " bucket " + bucketLabel.toString(), e);
+        }
+    }
+
     /**
      * Fetches the bucket assignment count associated with an experiment both per bucket and the total
      *
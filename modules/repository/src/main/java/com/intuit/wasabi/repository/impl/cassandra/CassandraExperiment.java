@@ -76,6 +76,7 @@ import java.util.Date;
         super.setModelVersion(Preconditions.checkNotNull(columns.getStringValue("model_version", "")));
         super.setIsRapidExperiment(Preconditions.checkNotNull(columns.getBooleanValue("is_rapid_experiment", false)));
         super.setUserCap(Preconditions.checkNotNull(columns.getIntegerValue("user_cap", Integer.MAX_VALUE)));
+        super.setIsHashedAssignment(Preconditions.checkNotNull(columns.getBooleanValue("is_hashed_assignment", false)));
         super.setCreatorID(columns.getStringValue("creatorid", null));
     }
 
@@ -168,6 +169,11 @@ import java.util.Date;
         throwNotMutableException();
     }
 
+    @Override
+    public void setIsHashedAssignment(Boolean isHashedAssignment) {
+        throwNotMutableException();
+    }
+
     @Override
     public void setCreatorID(String creatorID) {
         throwNotMutableException();
@@ -238,8 +238,8 @@ class CassandraExperimentRepository extends AbstractCassandraRepository<Experime
         final String CQL = "insert into experiment " +
                 "(id, description, rule, sample_percent, start_time, end_time, " +
                 "   state, label, app_name, created, modified, is_personalized, model_name, model_version," +
-                " is_rapid_experiment, user_cap, creatorid) " +
-                "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                " is_rapid_experiment, user_cap, is_hashed_assignment, creatorid) " +
+                "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
         try {
             final Experiment.ID experimentID = newExperiment.getID();
@@ -277,6 +277,7 @@ class CassandraExperimentRepository extends AbstractCassandraRepository<Experime
                     .withStringValue(newExperiment.getModelVersion())
                     .withBooleanValue(newExperiment.getIsRapidExperiment())
                     .withIntegerValue(newExperiment.getUserCap())
+                    .withBooleanValue(Boolean.TRUE.equals(newExperiment.getIsHashedAssignment()))
                     .withStringValue(newExperiment.getCreatorID() != null
                             ? newExperiment.getCreatorID()
                             : "")
@@ -466,7 +467,7 @@ class CassandraExperimentRepository extends AbstractCassandraRepository<Experime
                 "set description = ?, rule = ?, sample_percent = ?, " +
                 "start_time = ?, end_time = ?, " +
                 "state=?, label=?, app_name=?, modified=? , is_personalized=?, model_name=?, model_version=?," +
-                " is_rapid_experiment=?, user_cap=?" +
+                " is_rapid_experiment=?, user_cap=?, is_hashed_assignment=?" +
                 " where id = ?";
 
         try {
@@ -496,6 +497,7 @@ class CassandraExperimentRepository extends AbstractCassandraRepository<Experime
                     .withStringValue(experiment.getModelVersion())
                     .withBooleanValue(experiment.getIsRapidExperiment())
                     .withIntegerValue(experiment.getUserCap())
+                    .withBooleanValue(Boolean.TRUE.equals(experiment.getIsHashedAssignment()))
                     .withByteBufferValue(experiment.getID(), ExperimentIDSerializer.get())
                     .execute();
 
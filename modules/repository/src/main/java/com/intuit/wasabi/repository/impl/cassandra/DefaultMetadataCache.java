@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.BucketAllocationTable;
+import com.intuit.wasabi.repository.CassandraRepository;
+import com.intuit.wasabi.repository.ExclusionGraph;
+import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MetadataCache;
+import com.intuit.wasabi.repository.MutexRepository;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Guava cache backed implementation of {@link MetadataCache} on top of the cassandra experiment and mutex
+ * repositories. When disabled, every call is delegated straight to the repositories.
+ *
+ * @see MetadataCache
+ */
+public class DefaultMetadataCache implements MetadataCache {
+
+    private static final Logger LOGGER = getLogger(DefaultMetadataCache.class);
+
+    private final ExperimentRepository experimentRepository;
+    private final MutexRepository mutexRepository;
+    private final boolean enabled;
+
+    private LoadingCache<Experiment.ID, Optional<Experiment>> experiments;
+    private LoadingCache<LabelKey, Optional<Experiment.ID>> labels;
+    private LoadingCache<Application.Name, Table<Experiment.ID, Experiment.Label, Experiment>> experimentLists;
+    private LoadingCache<Experiment.ID, BucketList> buckets;
+    /**
+     * Allocation tables by the cached bucket list they are compiled from, so a reloaded list gets a new one
+     */
+    private LoadingCache<BucketList, BucketAllocationTable> allocationTables;
+    private LoadingCache<Experiment.ID, List<Experiment.ID>> exclusions;
+    private LoadingCache<Application.Name, ExclusionGraph> exclusionGraphs;
+
+    /**
+     * Constructor
+     *
+     * @param experimentRepository cassandra experiment repository
+     * @param mutexRepository      mutex repository
+     * @param enabled              whether metadata is cached at all
+     * @param ttlSeconds           staleness window: seconds after which an entry is reloaded
+     * @param maxSize              maximum number of entries per cached type
+     */
+    @Inject
+    public DefaultMetadataCache(@CassandraRepository ExperimentRepository experimentRepository,
+                                MutexRepository mutexRepository,
+                                final @Named("metadata.cache.enabled") Boolean enabled,
+                                final @Named("metadata.cache.ttl.seconds") Integer ttlSeconds,
+                                final @Named("metadata.cache.max.size") Integer maxSize) {
+        super();
+
+        this.experimentRepository = experimentRepository;
+        this.mutexRepository = mutexRepository;
+        this.enabled = enabled && ttlSeconds > 0;
+
+        if (this.enabled) {
+            experiments = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<Experiment.ID, Optional<Experiment>>() {
+                        @Override
+                        public Optional<Experiment> load(Experiment.ID experimentID) {
+                            return Optional.fromNullable(DefaultMetadataCache.this.experimentRepository
+                                    .getExperiment(experimentID));
+                        }
+                    });
+            labels = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<LabelKey, Optional<Experiment.ID>>() {
+                        @Override
+                        public Optional<Experiment.ID> load(LabelKey key) {
+                            Experiment experiment = DefaultMetadataCache.this.experimentRepository
+                                    .getExperiment(key.appName, key.experimentLabel);
+                            if (experiment == null) {
+                                return Optional.absent();
+                            }
+                            experiments.put(experiment.getID(), Optional.of(experiment));
+                            return Optional.of(experiment.getID());
+                        }
+                    });
+            experimentLists = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<Application.Name, Table<Experiment.ID, Experiment.Label, Experiment>>() {
+                        @Override
+                        public Table<Experiment.ID, Experiment.Label, Experiment> load(Application.Name appName) {
+                            return ImmutableTable.copyOf(DefaultMetadataCache.this.experimentRepository
+                                    .getExperimentList(appName));
+                        }
+                    });
+            buckets = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<Experiment.ID, BucketList>() {
+                        @Override
+                        public BucketList load(Experiment.ID experimentID) {
+                            BucketList bucketList = DefaultMetadataCache.this.experimentRepository
+                                    .getBucketList(experimentID);
+                            return bucketList != null ? bucketList : new BucketList();
+                        }
+
+                        @Override
+                        public Map<Experiment.ID, BucketList> loadAll(Iterable<? extends Experiment.ID> keys) {
+                            List<Experiment.ID> experimentIDs = toList(keys);
+                            Map<Experiment.ID, BucketList> loaded = DefaultMetadataCache.this.experimentRepository
+                                    .getBucketList(experimentIDs);
+                            Map<Experiment.ID, BucketList> result = new HashMap<>(experimentIDs.size());
+                            for (Experiment.ID experimentID : experimentIDs) {
+                                BucketList bucketList = loaded != null ? loaded.get(experimentID) : null;
+                                result.put(experimentID, bucketList != null ? bucketList : new BucketList());
+                            }
+                            return result;
+                        }
+                    });
+            allocationTables = CacheBuilder.newBuilder().weakKeys().build(
+                    new CacheLoader<BucketList, BucketAllocationTable>() {
+                        @Override
+                        public BucketAllocationTable load(BucketList bucketList) {
+                            return BucketAllocationTable.of(bucketList.getBuckets());
+                        }
+                    });
+            exclusions = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<Experiment.ID, List<Experiment.ID>>() {
+                        @Override
+                        public List<Experiment.ID> load(Experiment.ID experimentID) {
+                            return unmodifiable(DefaultMetadataCache.this.mutexRepository
+                                    .getExclusionList(experimentID));
+                        }
+
+                        @Override
+                        public Map<Experiment.ID, List<Experiment.ID>> loadAll(
+                                Iterable<? extends Experiment.ID> keys) {
+                            List<Experiment.ID> experimentIDs = toList(keys);
+                            Map<Experiment.ID, List<Experiment.ID>> loaded = DefaultMetadataCache.this.mutexRepository
+                                    .getExclusivesList(experimentIDs);
+                            Map<Experiment.ID, List<Experiment.ID>> result = new HashMap<>(experimentIDs.size());
+                            for (Experiment.ID experimentID : experimentIDs) {
+                                result.put(experimentID,
+                                        unmodifiable(loaded != null ? loaded.get(experimentID) : null));
+                            }
+                            return result;
+                        }
+                    });
+            exclusionGraphs = newBuilder(ttlSeconds, maxSize).build(
+                    new CacheLoader<Application.Name, ExclusionGraph>() {
+                        @Override
+                        public ExclusionGraph load(Application.Name appName) {
+                            return buildExclusionGraph(appName);
+                        }
+                    });
+        }
+
+        LOGGER.info("Experiment metadata cache enabled: {}, ttl: {}s, max size: {}", this.enabled, ttlSeconds,
+                maxSize);
+    }
+
+    @Override
+    public Experiment getExperiment(Experiment.ID experimentID) {
+        if (!enabled) {
+            return experimentRepository.getExperiment(experimentID);
+        }
+        return get(experiments, experimentID).orNull();
+    }
+
+    @Override
+    public Experiment getExperiment(Application.Name appName, Experiment.Label experimentLabel) {
+        if (!enabled) {
+            return experimentRepository.getExperiment(appName, experimentLabel);
+        }
+        Optional<Experiment.ID> experimentID = get(labels, new LabelKey(appName, experimentLabel));
+        return experimentID.isPresent() ? getExperiment(experimentID.get()) : null;
+    }
+
+    @Override
+    public Table<Experiment.ID, Experiment.Label, Experiment> getExperimentList(Application.Name appName) {
+        if (!enabled) {
+            return experimentRepository.getExperimentList(appName);
+        }
+        return get(experimentLists, appName);
+    }
+
+    @Override
+    public BucketList getBucketList(Experiment.ID experimentID) {
+        if (!enabled) {
+            return experimentRepository.getBucketList(experimentID);
+        }
+        return copyOf(get(buckets, experimentID));
+    }
+
+    @Override
+    public Map<Experiment.ID, BucketList> getBucketList(Collection<Experiment.ID> experimentIDs) {
+        if (!enabled) {
+            return experimentRepository.getBucketList(experimentIDs);
+        }
+        Map<Experiment.ID, BucketList> result = new HashMap<>(experimentIDs.size());
+        for (Map.Entry<Experiment.ID, BucketList> entry : getAll(buckets, experimentIDs).entrySet()) {
+            result.put(entry.getKey(), copyOf(entry.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public BucketAllocationTable getBucketAllocationTable(Experiment.ID experimentID) {
+        if (!enabled) {
+            BucketList bucketList = experimentRepository.getBucketList(experimentID);
+            return BucketAllocationTable.of(bucketList != null ? bucketList.getBuckets() : null);
+        }
+        return get(allocationTables, get(buckets, experimentID));
+    }
+
+    @Override
+    public List<Experiment.ID> getExclusionList(Experiment.ID experimentID) {
+        if (!enabled) {
+            return mutexRepository.getExclusionList(experimentID);
+        }
+        return get(exclusions, experimentID);
+    }
+
+    @Override
+    public Map<Experiment.ID, List<Experiment.ID>> getExclusivesList(Collection<Experiment.ID> experimentIDs) {
+        if (!enabled) {
+            return mutexRepository.getExclusivesList(experimentIDs);
+        }
+        return new HashMap<>(getAll(exclusions, experimentIDs));
+    }
+
+    @Override
+    public ExclusionGraph getExclusionGraph(Application.Name appName) {
+        if (!enabled) {
+            return buildExclusionGraph(appName);
+        }
+        return get(exclusionGraphs, appName);
+    }
+
+    private ExclusionGraph buildExclusionGraph(Application.Name appName) {
+        Table<Experiment.ID, Experiment.Label, Experiment> experimentList = getExperimentList(appName);
+        return ExclusionGraph.build(experimentList.values(), getExclusivesList(experimentList.rowKeySet()));
+    }
+
+    @Override
+    public void invalidateExperiment(Experiment experiment) {
+        if (!enabled || experiment == null) {
+            return;
+        }
+        experiments.invalidate(experiment.getID());
+        if (experiment.getApplicationName() != null) {
+            invalidateApplication(experiment.getApplicationName());
+        }
+    }
+
+    @Override
+    public void invalidateApplication(Application.Name appName) {
+        if (!enabled) {
+            return;
+        }
+        experimentLists.invalidate(appName);
+        exclusionGraphs.invalidate(appName);
+        Iterator<LabelKey> iterator = labels.asMap().keySet().iterator();
+        while (iterator.hasNext()) {
+            if (appName.equals(iterator.next().appName)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void invalidateBuckets(Experiment.ID experimentID) {
+        if (enabled) {
+            buckets.invalidate(experimentID);
+        }
+    }
+
+    @Override
+    public void invalidateExclusions(Experiment.ID... experimentIDs) {
+        if (enabled) {
+            for (Experiment.ID experimentID : experimentIDs) {
+                exclusions.invalidate(experimentID);
+            }
+            // The application of an experiment is not known here, and exclusions change rarely
+            exclusionGraphs.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        if (enabled) {
+            experiments.invalidateAll();
+            labels.invalidateAll();
+            experimentLists.invalidateAll();
+            buckets.invalidateAll();
+            exclusions.invalidateAll();
+            exclusionGraphs.invalidateAll();
+        }
+    }
+
+    private static CacheBuilder<Object, Object> newBuilder(int ttlSeconds, int maxSize) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, SECONDS)
+                .maximumSize(maxSize);
+    }
+
+    /**
+     * Reads through the cache, rethrowing repository failures unchanged so that callers see the same
+     * exceptions as without caching.
+     */
+    private static <K, V> V get(LoadingCache<K, V> cache, K key) {
+        try {
+            return cache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static <K, V> Map<K, V> getAll(LoadingCache<K, V> cache, Collection<K> keys) {
+        try {
+            return cache.getAll(keys);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException("Could not load experiment metadata", cause);
+    }
+
+    private static List<Experiment.ID> toList(Iterable<? extends Experiment.ID> keys) {
+        List<Experiment.ID> result = new ArrayList<>();
+        for (Experiment.ID key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static List<Experiment.ID> unmodifiable(List<Experiment.ID> experimentIDs) {
+        return experimentIDs != null
+                ? Collections.unmodifiableList(new ArrayList<>(experimentIDs))
+                : Collections.<Experiment.ID>emptyList();
+    }
+
+    private static BucketList copyOf(BucketList bucketList) {
+        BucketList copy = new BucketList(bucketList.getBuckets().size());
+        for (Bucket bucket : bucketList.getBuckets()) {
+            copy.addBucket(bucket);
+        }
+        return copy;
+    }
+
+    /**
+     * Key of the application/label to experiment ID mapping
+     */
+    private static final class LabelKey {
+
+        private final Application.Name appName;
+        private final Experiment.Label experimentLabel;
+
+        LabelKey(Application.Name appName, Experiment.Label experimentLabel) {
+            this.appName = appName;
+            this.experimentLabel = experimentLabel;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LabelKey)) {
+                return false;
+            }
+            LabelKey other = (LabelKey) obj;
+            return appName.equals(other.appName) && experimentLabel.equals(other.experimentLabel);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * appName.hashCode() + experimentLabel.hashCode();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Node-local estimate of the number of users assigned to rapid experiments, checked against their user cap.
+ *
+ * The estimate is the cluster-wide count read at the last reconciliation plus the assignments counted on this node
+ * since then, so checking the cap needs no read. The count is read again, by one thread per experiment at a time,
+ * when it is older than {@code rapid.experiment.reconcile.interval.ms}, or once this node has counted half of the
+ * remaining users, or {@code rapid.experiment.max.overshoot} users, since the last read. Close to the cap every
+ * assignment asks for a read, but no more than one read per experiment is in flight.
+ */
+class RapidExperimentUserCap {
+
+    private static final Logger LOGGER = getLogger(RapidExperimentUserCap.class);
+    private final long reconcileIntervalMillis;
+    private final long maxOvershoot;
+    private final ToLongFunction<Experiment> assignedUsers;
+    private final Cache<Experiment.ID, Count> counts = CacheBuilder.newBuilder().expireAfterAccess(1, HOURS).build();
+    private final AtomicLong reconciliations = new AtomicLong();
+
+    /**
+     * @param reconcileIntervalMillis the maximum age of the count read last
+     * @param maxOvershoot            the maximum number of users counted on this node between reads
+     * @param assignedUsers           reads the cluster-wide number of users assigned to an experiment
+     */
+    RapidExperimentUserCap(long reconcileIntervalMillis, long maxOvershoot, ToLongFunction<Experiment> assignedUsers) {
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+        this.maxOvershoot = Math.max(1, maxOvershoot);
+        this.assignedUsers = assignedUsers;
+    }
+
+    /**
+     * Counts an assignment to, or removal from, a rapid experiment.
+     *
+     * @param experiment the rapid experiment
+     * @param delta      1 for an assignment, -1 for a removed assignment
+     * @return whether the estimated number of assigned users reached the user cap of the experiment
+     */
+    boolean countAndCheck(Experiment experiment, long delta) {
+        Count count = counts.asMap().computeIfAbsent(experiment.getID(), id -> new Count());
+        count.local.add(delta);
+
+        long userCap = experiment.getUserCap();
+        if (count.isStale(userCap) && count.reconciling.compareAndSet(false, true)) {
+            try {
+                reconcile(experiment, count);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not read the assigned users of rapid experiment {}, using the local estimate",
+                        experiment.getID(), e);
+            } finally {
+                count.reconciling.set(false);
+            }
+        }
+        return count.estimate() >= userCap;
+    }
+
+    /**
+     * @return the number of reads of assigned users so far
+     */
+    long getReconciliations() {
+        return reconciliations.get();
+    }
+
+    /**
+     * @return the number of rapid experiments counted on this node
+     */
+    long getExperiments() {
+        return counts.size();
+    }
+
+    private void reconcile(Experiment experiment, Count count) {
+        // Assignments counted while reading may be counted twice, which errs on the side of pausing early
+        long counted = count.local.sum();
+        count.base = assignedUsers.applyAsLong(experiment);
+        count.local.add(-counted);
+        count.reconciledAt = System.currentTimeMillis();
+        count.reconciled = true;
+        reconciliations.incrementAndGet();
+    }
+
+    private final class Count {
+
+        private final LongAdder local = new LongAdder();
+        private final AtomicBoolean reconciling = new AtomicBoolean();
+        private volatile long base;
+        private volatile long reconciledAt;
+        private volatile boolean reconciled;
+
+        long estimate() {
+            return base + local.sum();
+        }
+
+        boolean isStale(long userCap) {
+            if (!reconciled || System.currentTimeMillis() - reconciledAt >= reconcileIntervalMillis) {
+                return true;
+            }
+            long batch = Math.max(1, Math.min(maxOvershoot, (userCap - base) / 2));
+            return local.sum() >= batch;
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- Experiments can choose buckets by hashing the user instead of at random.
+
+ALTER TABLE experiment ADD is_hashed_assignment boolean;
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.assignmentobjects.Assignment;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.AssignmentStageMetrics.Operation;
+import com.intuit.wasabi.repository.AssignmentStageMetrics.Stage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AssignmentStageMetricsTest {
+
+    private final Application.Name application = Application.Name.valueOf("my$app");
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final MetadataCache metadataCache = mock(MetadataCache.class);
+
+    @Before
+    public void setUp() {
+        Table<Experiment.ID, Experiment.Label, Experiment> experiments = HashBasedTable.create();
+        Experiment experiment = Experiment.withID(Experiment.ID.newInstance())
+                .withApplicationName(application)
+                .withLabel(Experiment.Label.valueOf("exp"))
+                .build();
+        experiments.put(experiment.getID(), experiment.getLabel(), experiment);
+        when(metadataCache.getExperimentList(application)).thenReturn(experiments);
+        when(metadataCache.getExperimentList(Application.Name.valueOf("my_app")))
+                .thenReturn(HashBasedTable.<Experiment.ID, Experiment.Label, Experiment>create());
+    }
+
+    @Test
+    public void sampledCallsAreTimedByStage() {
+        AssignmentStageMetrics metrics = new AssignmentStageMetrics(true, 1d, metricRegistry, metadataCache);
+
+        long start = metrics.begin();
+        long stage = metrics.startStage();
+        metrics.endStage(application, Stage.METADATA, stage);
+        metrics.end(application, Operation.SINGLE, Assignment.Status.NEW_ASSIGNMENT, start);
+
+        then(metricRegistry.timer("assignments.my_dapp.single").getCount()).isEqualTo(1);
+        then(metricRegistry.timer("assignments.my_dapp.single.NEW_ASSIGNMENT").getCount()).isEqualTo(1);
+        then(metricRegistry.timer("assignments.my_dapp.stage.metadata").getCount()).isEqualTo(1);
+        then(metricRegistry.counter("assignments.my_dapp.status.NEW_ASSIGNMENT").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void unsampledCallsAreOnlyCounted() {
+        AssignmentStageMetrics metrics = new AssignmentStageMetrics(true, 0d, metricRegistry, metadataCache);
+
+        long start = metrics.begin();
+        metrics.endStage(application, Stage.METADATA, metrics.startStage());
+        metrics.end(application, Operation.SINGLE, Assignment.Status.EXISTING_ASSIGNMENT, start);
+
+        then(metricRegistry.getTimers()).isEmpty();
+        then(metricRegistry.counter("assignments.my_dapp.status.EXISTING_ASSIGNMENT").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void nestedCallsArePartOfTheOuterCall() {
+        AssignmentStageMetrics metrics = new AssignmentStageMetrics(true, 1d, metricRegistry, metadataCache);
+
+        long outer = metrics.begin();
+        long inner = metrics.begin();
+        metrics.endStage(application, Stage.RULE, metrics.startStage());
+        metrics.end(application, Operation.BATCH, null, inner);
+        metrics.endStage(application, Stage.MUTEX, metrics.startStage());
+        metrics.end(application, Operation.BATCH, null, outer);
+
+        then(metricRegistry.timer("assignments.my_dapp.batch").getCount()).isEqualTo(1);
+        then(metricRegistry.timer("assignments.my_dapp.stage.rule").getCount()).isEqualTo(1);
+        then(metricRegistry.timer("assignments.my_dapp.stage.mutex").getCount()).isEqualTo(1);
+
+        // outside of a call nothing is timed
+        metrics.endStage(application, Stage.WRITE, metrics.startStage());
+        then(metricRegistry.getTimers()).doesNotContainKey("assignments.my_dapp.stage.write");
+    }
+
+    @Test
+    public void unknownApplicationsShareTheirMetrics() {
+        AssignmentStageMetrics metrics = new AssignmentStageMetrics(true, 0d, metricRegistry, metadataCache);
+
+        metrics.count(Application.Name.valueOf("my_app"), Assignment.Status.EXPERIMENT_NOT_FOUND);
+        metrics.count(Application.Name.valueOf("other"), Assignment.Status.EXPERIMENT_NOT_FOUND);
+
+        then(metricRegistry.counter("assignments._unknown.status.EXPERIMENT_NOT_FOUND").getCount()).isEqualTo(2);
+        then(metricRegistry.getCounters()).containsOnlyKeys("assignments._unknown.status.EXPERIMENT_NOT_FOUND");
+    }
+
+    @Test
+    public void distinctApplicationNamesGetDistinctMetricNames() {
+        then(AssignmentStageMetrics.escape("my$app")).isEqualTo("my_dapp");
+        then(AssignmentStageMetrics.escape("my_app")).isEqualTo("my__app");
+        then(AssignmentStageMetrics.escape("my_dapp")).isEqualTo("my__dapp");
+        then(AssignmentStageMetrics.escape("my-app")).isEqualTo("my-app");
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        AssignmentStageMetrics metrics = new AssignmentStageMetrics(false, 1d, metricRegistry, metadataCache);
+
+        long start = metrics.begin();
+        metrics.endStage(application, Stage.METADATA, metrics.startStage());
+        metrics.count(application, Assignment.Status.NEW_ASSIGNMENT);
+        metrics.end(application, Operation.SINGLE, Assignment.Status.NEW_ASSIGNMENT, start);
+
+        then(metrics.isEnabled()).isFalse();
+        then(metricRegistry.getMetrics()).isEmpty();
+        then(AssignmentStageMetrics.DISABLED.isEnabled()).isFalse();
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class BucketAllocationTableTest {
+
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+
+    private Bucket bucket(String label, double allocation, Bucket.State state) {
+        return Bucket.newInstance(experimentID, Bucket.Label.valueOf(label))
+                .withAllocationPercent(allocation)
+                .withState(state)
+                .build();
+    }
+
+    @Test
+    public void selectsByCumulativeAllocation() {
+        Bucket red = bucket("red", 0.5, Bucket.State.OPEN);
+        Bucket blue = bucket("blue", 0.3, Bucket.State.OPEN);
+        Bucket green = bucket("green", 0.2, Bucket.State.OPEN);
+        List<Bucket> buckets = new ArrayList<>(Arrays.asList(red, blue, green));
+
+        BucketAllocationTable table = BucketAllocationTable.of(buckets);
+
+        // sorted by allocation: green [0, 0.2), blue [0.2, 0.5), red [0.5, 1.0)
+        then(table.select(0.0)).isSameAs(green);
+        then(table.select(0.19)).isSameAs(green);
+        then(table.select(0.2)).isSameAs(blue);
+        then(table.select(0.49)).isSameAs(blue);
+        then(table.select(0.5)).isSameAs(red);
+        then(table.select(0.99)).isSameAs(red);
+        // the source list is left untouched
+        then(buckets).containsExactly(red, blue, green);
+    }
+
+    @Test
+    public void skipsClosedAndEmptyBuckets() {
+        Bucket open = bucket("open", 0.5, Bucket.State.OPEN);
+        Bucket closed = bucket("closed", 0.25, Bucket.State.CLOSED);
+        Bucket empty = bucket("empty", 0.25, Bucket.State.EMPTY);
+
+        BucketAllocationTable table = BucketAllocationTable.of(Arrays.asList(closed, open, empty));
+
+        then(table.select(0.1)).isSameAs(open);
+        then(table.select(0.6)).isNull();
+        then(BucketAllocationTable.of(null).select(0.1)).isNull();
+    }
+
+    @Test
+    public void breaksAllocationTiesByLabel() {
+        Bucket a = bucket("a", 0.5, Bucket.State.OPEN);
+        Bucket b = bucket("b", 0.5, Bucket.State.OPEN);
+
+        then(BucketAllocationTable.of(Arrays.asList(b, a)).select(0.1)).isSameAs(a);
+        then(BucketAllocationTable.of(Arrays.asList(a, b)).select(0.1)).isSameAs(a);
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository;
+
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.junit.Assert.fail;
+
+public class ExclusionGraphTest {
+
+    private final Experiment running = experiment(Experiment.State.RUNNING);
+    private final Experiment paused = experiment(Experiment.State.PAUSED);
+    private final Experiment draft = experiment(Experiment.State.DRAFT);
+    private final Experiment unrelated = experiment(Experiment.State.RUNNING);
+
+    @Test
+    public void onlyRunningAndPausedExclusionsCount() {
+        ExclusionGraph graph = graph();
+
+        then(graph.size()).isEqualTo(4);
+        then(graph.getExclusions(running.getID())).containsExactly(paused);
+        then(graph.getExclusions(paused.getID())).containsExactly(running);
+        then(graph.getExclusions(unrelated.getID())).isEmpty();
+
+        then(graph.isExcluded(running.getID(), graph.toBitSet(Collections.singletonList(draft.getID())))).isFalse();
+        then(graph.isExcluded(running.getID(), graph.toBitSet(Collections.singletonList(paused.getID())))).isTrue();
+        then(graph.isExcluded(draft.getID(), graph.toBitSet(Collections.singletonList(running.getID())))).isTrue();
+    }
+
+    @Test
+    public void assignmentsAreAddedToTheBitset() {
+        ExclusionGraph graph = graph();
+        BitSet assigned = graph.toBitSet(Arrays.asList(unrelated.getID(), Experiment.ID.newInstance()));
+
+        then(graph.isExcluded(paused.getID(), assigned)).isFalse();
+        graph.add(assigned, running.getID());
+        then(graph.isExcluded(paused.getID(), assigned)).isTrue();
+        then(graph.isExcluded(unrelated.getID(), assigned)).isFalse();
+    }
+
+    @Test
+    public void unknownExperimentsAreNotPartOfTheGraph() {
+        ExclusionGraph graph = graph();
+        Experiment.ID unknown = Experiment.ID.newInstance();
+
+        then(graph.contains(unknown)).isFalse();
+        try {
+            graph.isExcluded(unknown, new BitSet());
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            then(e.getMessage()).contains(unknown.toString());
+        }
+    }
+
+    private ExclusionGraph graph() {
+        Map<Experiment.ID, List<Experiment.ID>> exclusives = new HashMap<>();
+        // exclusions of terminated experiments that are no longer live are ignored
+        exclusives.put(running.getID(), Arrays.asList(paused.getID(), draft.getID(), Experiment.ID.newInstance()));
+        exclusives.put(paused.getID(), Collections.singletonList(running.getID()));
+        exclusives.put(draft.getID(), Collections.singletonList(running.getID()));
+        return ExclusionGraph.build(Arrays.asList(running, paused, draft, unrelated), exclusives);
+    }
+
+    private static Experiment experiment(Experiment.State state) {
+        return Experiment.withID(Experiment.ID.newInstance()).withState(state).build();
+    }
+}
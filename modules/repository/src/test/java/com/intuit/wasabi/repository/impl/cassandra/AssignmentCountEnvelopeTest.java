@@ -21,10 +21,12 @@ import com.intuit.wasabi.eventlog.impl.NoopEventLogImpl;
 import com.intuit.wasabi.experimentobjects.Experiment;
 import com.intuit.wasabi.repository.AssignmentsRepository;
 import com.intuit.wasabi.repository.ExperimentRepository;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Date;
 
+import static org.assertj.core.api.BDDAssertions.then;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -47,13 +49,20 @@ public class AssignmentCountEnvelopeTest {
     private Assignment assignment = mock(Assignment.class);
     private EventLog el = new NoopEventLogImpl();
     private Date date = mock(Date.class);
+    private RapidExperimentUserCap userCap = new RapidExperimentUserCap(5000, 50,
+            experiment -> ar.getBucketAssignmentCount(experiment).getTotalUsers().getBucketAssignments());
+
+    @Before
+    public void setUp() {
+        when(exp.getID()).thenReturn(Experiment.ID.newInstance());
+    }
 
     @Test
     public void testErrorInUpdateBucket(){
 
         doThrow(new RuntimeException("exception")).when(ar).updateBucketAssignmentCount(exp, assignment, true);
 
-        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true);
+        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true, userCap);
         env.run();
         // so since the two parts a separate code fragments the fail of the first
         // should not result in a fail of the other
@@ -71,7 +80,7 @@ public class AssignmentCountEnvelopeTest {
         when(exp.getUserCap()).thenReturn(42);
         when(ar.getBucketAssignmentCount(exp).getTotalUsers().getBucketAssignments()).thenReturn(41l);
 
-        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true);
+        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true, userCap);
         env.run();
 
         verifyZeroInteractions(cass);
@@ -79,6 +88,24 @@ public class AssignmentCountEnvelopeTest {
     }
 
 
+    /**
+     * This tests that the assigned users are not read again for every assignment.
+     */
+    @Test
+    public void testRapidExperimentationCountsLocally(){
+        when(exp.getIsRapidExperiment()).thenReturn(true);
+        when(exp.getUserCap()).thenReturn(1000);
+        when(ar.getBucketAssignmentCount(exp).getTotalUsers().getBucketAssignments()).thenReturn(100l);
+
+        for (int i = 0; i < 10; i++) {
+            new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true, userCap).run();
+        }
+
+        then(userCap.getReconciliations()).isEqualTo(1);
+        verifyZeroInteractions(cass);
+        verifyZeroInteractions(mysql);
+    }
+
     /**
      * This tests what happens if the update in Cassandra fails.
      */
@@ -89,7 +116,7 @@ public class AssignmentCountEnvelopeTest {
         when(ar.getBucketAssignmentCount(exp).getTotalUsers().getBucketAssignments()).thenReturn(41l);
         when(cass.updateExperimentState(exp, Experiment.State.PAUSED)).thenThrow(new RuntimeException("Cassandra failed"));
 
-        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true);
+        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true, userCap);
         env.run();
 
         //if cassandra fails I don't want to call mysql!
@@ -108,7 +135,7 @@ public class AssignmentCountEnvelopeTest {
         when(cass.updateExperimentState(exp, Experiment.State.PAUSED)).thenReturn(exp);
         when(mysql.updateExperimentState(exp, Experiment.State.PAUSED)).thenReturn(exp);
 
-        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true);
+        AssignmentCountEnvelope env = new AssignmentCountEnvelope(ar, cass, mysql, exp, assignment, true, el, date, true, true, userCap);
         env.run();
 
         //if cassandra fails I don't want to call mysql!
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class BucketAssignmentCounterTest {
+
+    private final BucketAssignmentCounter counter = new BucketAssignmentCounter();
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+    private final Bucket.Label red = Bucket.Label.valueOf("red");
+    private final Bucket.Label blue = Bucket.Label.valueOf("blue");
+    private final Map<Bucket.Label, Long> written = new HashMap<>();
+
+    private void write(Experiment.ID experimentID, Bucket.Label bucketLabel, long delta) {
+        written.merge(bucketLabel, delta, Long::sum);
+    }
+
+    @Test
+    public void writesOneUpdatePerBucket() {
+        counter.add(experimentID, red, 1);
+        counter.add(experimentID, red, 1);
+        counter.add(experimentID, red, -1);
+        counter.add(experimentID, blue, 1);
+
+        then(counter.flush(this::write)).isEqualTo(2);
+        then(written).containsEntry(red, 1L).containsEntry(blue, 1L);
+        then(counter.getPending()).isZero();
+
+        then(counter.flush(this::write)).isZero();
+        then(counter.getFlushedUpdates()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsDeltasThatFailedToWrite() {
+        counter.add(experimentID, red, 3);
+
+        counter.flush((experimentID, bucketLabel, delta) -> {
+            throw new IllegalStateException("down");
+        });
+
+        then(counter.getPending()).isEqualTo(3);
+        then(counter.getFailedUpdates()).isEqualTo(1);
+
+        counter.flush(this::write);
+
+        then(written).containsEntry(red, 3L);
+        then(counter.getPending()).isZero();
+    }
+
+    @Test
+    public void countsAssignmentsMadeDuringFlushes() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    counter.add(experimentID, red, 1);
+                }
+            });
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+            counter.flush(this::write);
+        }
+        counter.flush(this::write);
+
+        then(written).containsEntry(red, 40000L);
+    }
+}
@@ -58,6 +58,7 @@ import java.util.UUID;
 import static org.assertj.core.api.BDDAssertions.then;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.*;
 
 
@@ -152,7 +153,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void getUserAssignmentSuccess() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
         
@@ -184,7 +185,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void getUserAssignmentSuccessOneRow() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
         
@@ -222,7 +223,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void getBucketAssignmentCountOneRow() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -261,7 +262,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void removeIndexUserToBucketSuccess() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -283,10 +284,22 @@ public class CassandraAssignmentsRepositoryTest2 {
         cassandraAssignmentsRepository.removeIndexUserToBucket(userId, id, context, label);
     }
 
+    @Test
+    public void visitAssignedUsersWithoutExport() throws IOException, ConnectionException {
+        CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, false, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
+
+        boolean complete = cassandraAssignmentsRepository.visitAssignedUsers(Experiment.ID.newInstance(),
+                new Date(), new Date(), (userID, userContext) -> fail("no users expected"));
+
+        then(complete).isFalse();
+        verify(cassandraDriver, never()).getKeyspace();
+    }
+
     @Test
     public void removeIndexUserToBucketThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -312,7 +325,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void removeIndexUserToExperimentSuccess() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -337,7 +350,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void removeIndexExperimentsToUserSuccess() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -362,7 +375,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test(expected=RepositoryException.class)
     public void removeIndexExperimentsToUserThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -388,7 +401,7 @@ public class CassandraAssignmentsRepositoryTest2 {
 	@Test(expected=RepositoryException.class)
     public void removeIndexUserToExperimentThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -413,7 +426,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void updateBucketAssignmentCountUp() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -438,7 +451,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void pushAssignmentToStagingSuccess() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -458,7 +471,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test(expected=RepositoryException.class)
     public void pushAssignmentToStagingThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -478,7 +491,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void updateBucketAssignmentCountDown() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -503,7 +516,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test(expected=RepositoryException.class)
     public void updateBucketAssignmentCountDownThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -526,10 +539,70 @@ public class CassandraAssignmentsRepositoryTest2 {
         cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment,assignment, false);
     }
 
+    @Test
+    public void updateBucketAssignmentCountAggregatesUntilFlush() throws IOException, ConnectionException {
+        CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 1000, 5000, 50, 1000, "block", 100);
+        Experiment.ID id = Experiment.ID.newInstance();
+        given(experiment.getID()).willReturn(id);
+        given(assignment.getBucketLabel()).willReturn(Bucket.Label.valueOf("red"));
+
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, true);
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, true);
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, true);
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, false);
+
+        verifyZeroInteractions(cassandraDriver);
+        then(cassandraAssignmentsRepository.bucketAssignmentCountStatistics()).containsEntry("pendingAssignments", 2L);
+
+        given(cassandraDriver.getKeyspace()).willReturn(keyspace);
+        given(keyspace.prepareQuery(Matchers.<ColumnFamily<Experiment.ID,String>>any())).willReturn(queryExperimentIdString);
+        given(queryExperimentIdString.withCql(isA(String.class))).willReturn(cqlQueryExperimentIdString);
+        given(cqlQueryExperimentIdString.asPreparedStatement()).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withLongValue(anyLong())).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withByteBufferValue(isA(Experiment.ID.class),
+                isA(Serializer.class))).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withByteBufferValue(isA(Bucket.Label.class),
+                isA(Serializer.class))).willReturn(preparedCqlQueryExperimentIdString);
+
+        cassandraAssignmentsRepository.flushBucketAssignmentCounts();
+
+        verify(preparedCqlQueryExperimentIdString).withLongValue(2L);
+        verify(preparedCqlQueryExperimentIdString).execute();
+        then(cassandraAssignmentsRepository.bucketAssignmentCountStatistics())
+                .containsEntry("pendingAssignments", 0L).containsEntry("flushedUpdates", 1L);
+    }
+
+    @Test
+    public void drainWritesWritesTheRemainingCounts() throws Exception {
+        CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 1000, 5000, 50, 1000, "block", 100);
+        Experiment.ID id = Experiment.ID.newInstance();
+        given(experiment.getID()).willReturn(id);
+        given(assignment.getBucketLabel()).willReturn(Bucket.Label.valueOf("red"));
+        given(cassandraDriver.getKeyspace()).willReturn(keyspace);
+        given(keyspace.prepareQuery(Matchers.<ColumnFamily<Experiment.ID,String>>any())).willReturn(queryExperimentIdString);
+        given(queryExperimentIdString.withCql(isA(String.class))).willReturn(cqlQueryExperimentIdString);
+        given(cqlQueryExperimentIdString.asPreparedStatement()).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withLongValue(anyLong())).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withByteBufferValue(isA(Experiment.ID.class),
+                isA(Serializer.class))).willReturn(preparedCqlQueryExperimentIdString);
+        given(preparedCqlQueryExperimentIdString.withByteBufferValue(isA(Bucket.Label.class),
+                isA(Serializer.class))).willReturn(preparedCqlQueryExperimentIdString);
+
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, true);
+        cassandraAssignmentsRepository.updateBucketAssignmentCount(experiment, assignment, true);
+
+        then(cassandraAssignmentsRepository.drainWrites(1000)).isTrue();
+        verify(preparedCqlQueryExperimentIdString).withLongValue(2L);
+        then(cassandraAssignmentsRepository.bucketAssignmentCountStatistics())
+                .containsEntry("pendingAssignments", 0L);
+    }
+
     @Test(expected=RepositoryException.class)
     public void getBucketAssignmentCountThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -551,7 +624,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void getBucketAssignmentCountOneRowBucketLabelNull() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -590,7 +663,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test
     public void getBucketAssignmentCountZeroRows() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
@@ -621,7 +694,7 @@ public class CassandraAssignmentsRepositoryTest2 {
     @Test(expected=RepositoryException.class)
     public void getUserAssignmentThrowsException() throws IOException, ConnectionException {
         CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
-                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd");
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", false, 1, 0, 0, 5000, 50, 1000, "block", 100);
         Date from_time = new Date();
         given(cassandraDriver.getKeyspace()).willReturn(keyspace);
         
@@ -643,4 +716,56 @@ public class CassandraAssignmentsRepositoryTest2 {
         
         CatchExceptionBdd.when(cassandraAssignmentsRepository.getUserAssignments(userID, appLabel, context));
      }
+
+    @Test
+    public void assignUserWritesInParallelAndRetries() throws IOException, ConnectionException {
+        CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", true, 5, 1, 0, 5000, 50, 1000, "block", 100);
+        givenAssignmentWrites();
+        given(preparedCqlQueryUserIdStringUserIdString.execute())
+                .willThrow(new HostDownException("test")).willReturn(operationResultUserIdString);
+
+        Assignment result = cassandraAssignmentsRepository.assignUser(newAssignment(), experiment, new Date());
+
+        then(result.getStatus()).isEqualTo(Assignment.Status.NEW_ASSIGNMENT);
+        then(result.getBucketLabel()).isEqualTo(Bucket.Label.valueOf("b1"));
+        // two assignment writes, three index writes and one retry
+        verify(preparedCqlQueryUserIdStringUserIdString, times(6)).execute();
+    }
+
+    @Test
+    public void assignUserReportsAllFailedWrites() throws IOException, ConnectionException {
+        CassandraAssignmentsRepository cassandraAssignmentsRepository = new CassandraAssignmentsRepository(
+                cassandraRepository, dbRepository, assignmentsRepository, cassandraDriver, experimentsKeysapce, eventLog, 5, true, true, true, true, "yyyy-mm-dd", true, 5, 0, 0, 5000, 50, 1000, "block", 100);
+        givenAssignmentWrites();
+        given(preparedCqlQueryUserIdStringUserIdString.execute()).willThrow(new HostDownException("test"));
+
+        try {
+            cassandraAssignmentsRepository.assignUser(newAssignment(), experiment, new Date());
+            fail("expected a RepositoryException");
+        } catch (RepositoryException e) {
+            then(e.getCause()).isInstanceOf(HostDownException.class);
+            then(e.getSuppressed()).hasSize(4);
+        }
+    }
+
+    private void givenAssignmentWrites() throws ConnectionException {
+        given(cassandraDriver.getKeyspace()).willReturn(keyspace);
+        given(keyspace.prepareQuery(Matchers.<ColumnFamily<User.ID,String>>any())).willReturn(query);
+        given(query.withCql(isA(String.class))).willReturn(cqlQueryUserIdString);
+        given(cqlQueryUserIdString.asPreparedStatement()).willReturn(preparedCqlQueryUserIdStringUserIdString);
+        given(preparedCqlQueryUserIdStringUserIdString.withByteBufferValue(any(), any(Serializer.class)))
+                .willReturn(preparedCqlQueryUserIdStringUserIdString);
+        given(preparedCqlQueryUserIdStringUserIdString.withStringValue(isA(String.class)))
+                .willReturn(preparedCqlQueryUserIdStringUserIdString);
+    }
+
+    private Assignment newAssignment() {
+        return Assignment.newInstance(Experiment.ID.newInstance())
+                .withApplicationName(Application.Name.valueOf("a1"))
+                .withUserID(User.ID.valueOf("u1"))
+                .withContext(Context.valueOf("c1"))
+                .withBucketLabel(Bucket.Label.valueOf("b1"))
+                .build();
+    }
 }
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.intuit.wasabi.experimentobjects.Application;
+import com.intuit.wasabi.experimentobjects.Bucket;
+import com.intuit.wasabi.experimentobjects.BucketList;
+import com.intuit.wasabi.experimentobjects.Experiment;
+import com.intuit.wasabi.repository.BucketAllocationTable;
+import com.intuit.wasabi.repository.ExclusionGraph;
+import com.intuit.wasabi.repository.ExperimentRepository;
+import com.intuit.wasabi.repository.MutexRepository;
+import com.intuit.wasabi.repository.RepositoryException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultMetadataCacheTest {
+
+    private static final Application.Name APP = Application.Name.valueOf("testApp");
+    private static final Experiment.Label LABEL = Experiment.Label.valueOf("testLabel");
+
+    @Mock
+    private ExperimentRepository experimentRepository;
+    @Mock
+    private MutexRepository mutexRepository;
+
+    private final Experiment.ID experimentID = Experiment.ID.newInstance();
+
+    @Test
+    public void getExperimentIsReadThrough() {
+        Experiment experiment = Experiment.withID(experimentID).withApplicationName(APP).withLabel(LABEL).build();
+        when(experimentRepository.getExperiment(APP, LABEL)).thenReturn(experiment);
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        then(cache.getExperiment(APP, LABEL)).isEqualTo(experiment);
+        then(cache.getExperiment(APP, LABEL)).isEqualTo(experiment);
+        then(cache.getExperiment(experimentID)).isEqualTo(experiment);
+
+        verify(experimentRepository, times(1)).getExperiment(APP, LABEL);
+        verify(experimentRepository, times(0)).getExperiment(experimentID);
+
+        cache.invalidateExperiment(experiment);
+        cache.getExperiment(APP, LABEL);
+        verify(experimentRepository, times(2)).getExperiment(APP, LABEL);
+    }
+
+    @Test
+    public void getBucketListReturnsCopies() {
+        BucketList bucketList = new BucketList();
+        bucketList.addBucket(Bucket.newInstance(experimentID, Bucket.Label.valueOf("red"))
+                .withAllocationPercent(1.0).build());
+        when(experimentRepository.getBucketList(experimentID)).thenReturn(bucketList);
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        cache.getBucketList(experimentID).getBuckets().clear();
+
+        then(cache.getBucketList(experimentID).getBuckets()).hasSize(1);
+        verify(experimentRepository, times(1)).getBucketList(experimentID);
+
+        cache.invalidateBuckets(experimentID);
+        cache.getBucketList(experimentID);
+        verify(experimentRepository, times(2)).getBucketList(experimentID);
+    }
+
+    @Test
+    public void getBucketAllocationTableIsCompiledOncePerLoad() {
+        BucketList bucketList = new BucketList();
+        bucketList.addBucket(Bucket.newInstance(experimentID, Bucket.Label.valueOf("red"))
+                .withAllocationPercent(1.0).withState(Bucket.State.OPEN).build());
+        BucketList reloaded = new BucketList();
+        reloaded.addBucket(bucketList.getBuckets().get(0));
+        when(experimentRepository.getBucketList(experimentID)).thenReturn(bucketList, reloaded);
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        BucketAllocationTable table = cache.getBucketAllocationTable(experimentID);
+
+        then(table.select(0.5).getLabel()).isEqualTo(Bucket.Label.valueOf("red"));
+        then(cache.getBucketAllocationTable(experimentID)).isSameAs(table);
+
+        cache.invalidateBuckets(experimentID);
+        then(cache.getBucketAllocationTable(experimentID)).isNotSameAs(table);
+        verify(experimentRepository, times(2)).getBucketList(experimentID);
+    }
+
+    @Test
+    public void getExclusivesListLoadsMissesInOneCall() {
+        Experiment.ID otherID = Experiment.ID.newInstance();
+        when(mutexRepository.getExclusivesList(Arrays.asList(experimentID, otherID)))
+                .thenReturn(Collections.singletonMap(experimentID, Collections.singletonList(otherID)));
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        then(cache.getExclusivesList(Arrays.asList(experimentID, otherID)))
+                .containsEntry(experimentID, Collections.singletonList(otherID))
+                .containsEntry(otherID, Collections.<Experiment.ID>emptyList());
+        then(cache.getExclusionList(otherID)).isEmpty();
+
+        verify(mutexRepository, times(0)).getExclusionList(otherID);
+    }
+
+    @Test
+    public void getExclusionGraphIsDroppedWhenExclusionsChange() {
+        Experiment experiment = Experiment.withID(experimentID).withApplicationName(APP).withLabel(LABEL)
+                .withState(Experiment.State.RUNNING).build();
+        Experiment other = Experiment.withID(Experiment.ID.newInstance()).withApplicationName(APP)
+                .withLabel(Experiment.Label.valueOf("otherLabel")).withState(Experiment.State.RUNNING).build();
+        Table<Experiment.ID, Experiment.Label, Experiment> experimentList = HashBasedTable.create();
+        experimentList.put(experiment.getID(), experiment.getLabel(), experiment);
+        experimentList.put(other.getID(), other.getLabel(), other);
+        when(experimentRepository.getExperimentList(APP)).thenReturn(experimentList);
+        when(mutexRepository.getExclusivesList(anyCollectionOf(Experiment.ID.class)))
+                .thenReturn(Collections.singletonMap(experimentID, Collections.singletonList(other.getID())));
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        ExclusionGraph graph = cache.getExclusionGraph(APP);
+        then(graph.getExclusions(experimentID)).containsExactly(other);
+        then(cache.getExclusionGraph(APP)).isSameAs(graph);
+
+        cache.invalidateExclusions(experimentID, other.getID());
+        then(cache.getExclusionGraph(APP)).isNotSameAs(graph);
+
+        graph = cache.getExclusionGraph(APP);
+        cache.invalidateExperiment(other);
+        then(cache.getExclusionGraph(APP)).isNotSameAs(graph);
+    }
+
+    @Test
+    public void disabledCacheDelegates() {
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, false, 30, 100);
+
+        cache.getExperiment(experimentID);
+        cache.getExperiment(experimentID);
+        cache.invalidateAll();
+
+        verify(experimentRepository, times(2)).getExperiment(experimentID);
+    }
+
+    @Test
+    public void repositoryExceptionsAreRethrown() {
+        RepositoryException failure = new RepositoryException("boom");
+        when(experimentRepository.getExperiment(experimentID)).thenThrow(failure);
+        DefaultMetadataCache cache = new DefaultMetadataCache(experimentRepository, mutexRepository, true, 30, 100);
+
+        try {
+            cache.getExperiment(experimentID);
+            fail("expected RepositoryException");
+        } catch (RepositoryException expected) {
+            then(expected).isSameAs(failure);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.repository.impl.cassandra;
+
+import com.intuit.wasabi.experimentobjects.Experiment;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RapidExperimentUserCapTest {
+
+    private final Experiment experiment = mock(Experiment.class);
+    // The users assigned on all nodes, as read from the repository
+    private final AtomicLong assignedUsers = new AtomicLong();
+
+    private RapidExperimentUserCap newUserCap(long maxOvershoot) {
+        when(experiment.getID()).thenReturn(Experiment.ID.newInstance());
+        when(experiment.getUserCap()).thenReturn(100);
+        return new RapidExperimentUserCap(60000, maxOvershoot, experiment -> assignedUsers.get());
+    }
+
+    private boolean assign(RapidExperimentUserCap userCap) {
+        assignedUsers.incrementAndGet();
+        return userCap.countAndCheck(experiment, 1);
+    }
+
+    @Test
+    public void readsOncePerBatchFarFromTheCap() {
+        RapidExperimentUserCap userCap = newUserCap(10);
+
+        for (int i = 0; i < 30; i++) {
+            then(assign(userCap)).isFalse();
+        }
+
+        // Read at the first assignment, then after every 10 assignments counted locally
+        then(userCap.getReconciliations()).isEqualTo(3);
+    }
+
+    @Test
+    public void readsMoreOftenCloseToTheCap() {
+        RapidExperimentUserCap userCap = newUserCap(50);
+        assignedUsers.set(89);
+
+        then(assign(userCap)).isFalse();
+        for (int i = 0; i < 5; i++) {
+            then(assign(userCap)).isFalse();
+        }
+
+        // Read again once half of the 10 remaining users were counted locally
+        then(userCap.getReconciliations()).isEqualTo(2);
+    }
+
+    @Test
+    public void reachesTheCapAssignedOnOtherNodes() {
+        RapidExperimentUserCap userCap = newUserCap(50);
+        then(assign(userCap)).isFalse();
+
+        assignedUsers.addAndGet(98);
+        int assignments = 1;
+        while (!assign(userCap)) {
+            assignments++;
+        }
+
+        // Half of the 99 remaining users as last read are counted locally before reading again
+        then(assignments).isEqualTo(49);
+    }
+
+    @Test
+    public void reachesTheCapWhenReadsFail() {
+        when(experiment.getID()).thenReturn(Experiment.ID.newInstance());
+        when(experiment.getUserCap()).thenReturn(100);
+        RapidExperimentUserCap userCap = new RapidExperimentUserCap(60000, 50, experiment -> {
+            throw new IllegalStateException("down");
+        });
+
+        for (int i = 0; i < 99; i++) {
+            then(userCap.countAndCheck(experiment, 1)).isFalse();
+        }
+
+        then(userCap.countAndCheck(experiment, 1)).isTrue();
+    }
+}
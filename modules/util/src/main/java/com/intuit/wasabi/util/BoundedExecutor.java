@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Thread pool with a bounded queue and a configurable policy for tasks submitted while the queue is full.
+ *
+ * Tasks that are dropped are counted and never throw at the submitter, which for the fire-and-forget work these
+ * pools run is the caller's expectation; dropped {@link Future}s are cancelled. The queue depth, the number of
+ * dropped tasks and the time tasks wait and run are exposed as a {@link MetricSet}.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor implements MetricSet {
+
+    private static final Logger LOGGER = getLogger(BoundedExecutor.class);
+    /**
+     * Dropped tasks are logged once per this many
+     */
+    private static final long DROPPED_LOG_INTERVAL = 1000;
+
+    /**
+     * What happens to a task submitted while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Waits up to the overflow timeout for room in the queue, then drops the task
+         */
+        BLOCK,
+        /**
+         * Drops the task queued longest to make room
+         */
+        DISCARD_OLDEST,
+        /**
+         * Drops the submitted task
+         */
+        REJECT,
+        /**
+         * Runs the task in the submitting thread
+         */
+        CALLER_RUNS;
+
+        /**
+         * @param policy the name of a policy, in any case
+         * @return the policy
+         */
+        public static OverflowPolicy parse(String policy) {
+            return valueOf(policy.trim().toUpperCase());
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeoutMillis;
+    private final LongAdder dropped = new LongAdder();
+    private final Timer waitTimer = new Timer();
+    private final Timer executionTimer = new Timer();
+
+    /**
+     * @param name                  the name of the pool, used for its threads and metrics
+     * @param coreSize              the number of threads kept
+     * @param maxSize               the number of threads once the queue is full
+     * @param capacity              the number of tasks queued at most
+     * @param overflowPolicy        what happens to tasks submitted while the queue is full
+     * @param overflowTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for room in the queue
+     */
+    public BoundedExecutor(String name, int coreSize, int maxSize, int capacity, OverflowPolicy overflowPolicy,
+                           long overflowTimeoutMillis) {
+        super(coreSize, Math.max(coreSize, maxSize), 60L, SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), new NamedThreadFactory(name));
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.overflowTimeoutMillis = overflowTimeoutMillis;
+        setRejectedExecutionHandler((task, executor) -> overflow(task));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command instanceof TimedTask ? command : new TimedTask(command));
+    }
+
+    /**
+     * @return the name of the pool
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of queued tasks
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks dropped so far
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put("queue.depth", (Gauge<Integer>) this::getQueueDepth);
+        metrics.put("queue.capacity", (Gauge<Integer>) () -> capacity);
+        metrics.put("active", (Gauge<Integer>) this::getActiveCount);
+        metrics.put("dropped", (Gauge<Long>) this::getDropped);
+        metrics.put("wait", waitTimer);
+        metrics.put("execution", executionTimer);
+        return metrics;
+    }
+
+    private void overflow(Runnable task) {
+        if (isShutdown()) {
+            drop(task);
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (getQueue().offer(task, overflowTimeoutMillis, MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                drop(task);
+                break;
+            case DISCARD_OLDEST:
+                Runnable oldest = getQueue().poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+                if (!getQueue().offer(task)) {
+                    drop(task);
+                }
+                break;
+            case CALLER_RUNS:
+                task.run();
+                break;
+            default:
+                drop(task);
+        }
+    }
+
+    private void drop(Runnable task) {
+        dropped.increment();
+        Runnable submitted = task instanceof TimedTask ? ((TimedTask) task).task : task;
+        if (submitted instanceof Future) {
+            ((Future<?>) submitted).cancel(false);
+        }
+        if (getDropped() % DROPPED_LOG_INTERVAL == 1) {
+            LOGGER.warn("{} dropped {} tasks so far, {} of {} queued, overflow policy {}", name, getDropped(),
+                    getQueueDepth(), capacity, overflowPolicy);
+        }
+    }
+
+    /**
+     * Records how long a task waited in the queue and how long it ran.
+     */
+    private final class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long submittedAt = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            waitTimer.update(startedAt - submittedAt, NANOSECONDS);
+            try {
+                task.run();
+            } finally {
+                executionTimer.update(System.nanoTime() - startedAt, NANOSECONDS);
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger threads = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, name + "-" + threads.getAndIncrement());
+        }
+    }
+}
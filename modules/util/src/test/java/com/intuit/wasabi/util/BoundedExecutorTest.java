@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.util;
+
+import com.codahale.metrics.Timer;
+import com.intuit.wasabi.util.BoundedExecutor.OverflowPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class BoundedExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Integer> ran = new CopyOnWriteArrayList<>();
+    private BoundedExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Occupies the only thread and fills the queue of two.
+     */
+    private void saturate(OverflowPolicy overflowPolicy, long overflowTimeoutMillis) throws InterruptedException {
+        executor = new BoundedExecutor("test", 1, 1, 2, overflowPolicy, overflowTimeoutMillis);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await();
+        });
+        started.await();
+        executor.execute(() -> ran.add(1));
+        executor.execute(() -> ran.add(2));
+    }
+
+    private void await() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        then(executor.awaitTermination(5, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void rejectDropsTheSubmittedTask() throws InterruptedException {
+        saturate(OverflowPolicy.REJECT, 0);
+
+        executor.execute(() -> ran.add(3));
+        Future<?> future = executor.submit(() -> ran.add(4));
+        drain();
+
+        then(ran).containsExactly(1, 2);
+        then(future.isCancelled()).isTrue();
+        then(executor.getDropped()).isEqualTo(2);
+    }
+
+    @Test
+    public void discardOldestDropsTheTaskQueuedLongest() throws InterruptedException {
+        saturate(OverflowPolicy.DISCARD_OLDEST, 0);
+
+        executor.execute(() -> ran.add(3));
+        drain();
+
+        then(ran).containsExactly(2, 3);
+        then(executor.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    public void blockDropsTheTaskAfterTheTimeout() throws InterruptedException {
+        saturate(OverflowPolicy.BLOCK, 10);
+
+        executor.execute(() -> ran.add(3));
+        then(executor.getDropped()).isEqualTo(1);
+        drain();
+
+        then(ran).containsExactly(1, 2);
+    }
+
+    @Test
+    public void blockQueuesTheTaskOnceThereIsRoom() throws InterruptedException {
+        saturate(OverflowPolicy.BLOCK, 5000);
+
+        new Thread(release::countDown).start();
+        executor.execute(() -> ran.add(3));
+        drain();
+
+        then(ran).containsExactly(1, 2, 3);
+        then(executor.getDropped()).isZero();
+    }
+
+    @Test
+    public void callerRunsRunsTheTaskInTheSubmittingThread() throws InterruptedException {
+        saturate(OverflowPolicy.CALLER_RUNS, 0);
+
+        executor.execute(() -> ran.add(3));
+        then(ran).containsExactly(3);
+        drain();
+
+        then(ran).containsExactly(3, 1, 2);
+    }
+
+    @Test
+    public void reportsDepthAndTimings() throws InterruptedException {
+        saturate(OverflowPolicy.REJECT, 0);
+
+        then(executor.getQueueDepth()).isEqualTo(2);
+        then(executor.getMetrics()).containsKeys("queue.depth", "queue.capacity", "active", "dropped", "wait",
+                "execution");
+        drain();
+
+        then(((Timer) executor.getMetrics().get("execution")).getCount()).isEqualTo(3);
+        then(((Timer) executor.getMetrics().get("wait")).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void parsesPoliciesInAnyCase() {
+        executor = new BoundedExecutor("test", 1, 1, 1, OverflowPolicy.parse(" discard_oldest "), 0);
+
+        then(OverflowPolicy.parse("Block")).isEqualTo(OverflowPolicy.BLOCK);
+    }
+}
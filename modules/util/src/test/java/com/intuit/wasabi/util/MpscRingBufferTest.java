@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2016 Intuit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.intuit.wasabi.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void offerFailsWhenFullAndDrainFreesSlotsInOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        List<Integer> drained = new ArrayList<>();
+
+        then(buffer.capacity()).isEqualTo(4);
+        for (int i = 0; i < 4; i++) {
+            then(buffer.offer(i)).isTrue();
+        }
+        then(buffer.offer(4)).isFalse();
+        then(buffer.size()).isEqualTo(4);
+
+        then(buffer.drain(drained::add, 3)).isEqualTo(3);
+        then(buffer.offer(4)).isTrue();
+        then(buffer.drain(drained::add, 10)).isEqualTo(2);
+
+        then(drained).containsExactly(0, 1, 2, 3, 4);
+        then(buffer.isEmpty()).isTrue();
+        then(buffer.drain(drained::add, 10)).isEqualTo(0);
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 10000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(producer * perProducer + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int taken = 0;
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (taken < seen.length && System.nanoTime() < deadline) {
+            taken += buffer.drain(element -> {
+                seen[element] = true;
+                // Elements of one producer keep their order
+                then(element).isGreaterThan(last[element / perProducer]);
+                last[element / perProducer] = element;
+            }, 16);
+        }
+        then(done.await(5, SECONDS)).isTrue();
+        executor.shutdown();
+
+        then(taken).isEqualTo(seen.length);
+        for (boolean element : seen) {
+            then(element).isTrue();
+        }
+        then(buffer.isEmpty()).isTrue();
+    }
+}